@@ -38,9 +38,14 @@ SHOCKURL = 'shock_location'
 SHOCKUSER = 'shock_user'
 BACKEND = 'backend'
 TYPE_DB = 'type_db'
+COMPRESSION = 'compression'
+FILELOC = 'file_location'
 BACKENDCREDS = 'backend-secret'
 SHOCK = 'shock'
 GFS = 'gridFS'
+FILESYSTEM = 'filesystem'
+NO_COMPRESSION = 'none'
+DEFLATE = 'deflate'
 
 REQPARAMS = [MOHOST, MODB]
 AUTHPARAMS = [MOUSER, MOPWD]
@@ -97,7 +102,7 @@ def getparams(params, cfg, dropall):
 
 
 def printDBsettings(settings):
-    for s in [TYPE_DB, BACKEND, SHOCKURL, SHOCKUSER]:
+    for s in [TYPE_DB, BACKEND, SHOCKURL, SHOCKUSER, COMPRESSION, FILELOC]:
         print(s + '=' + str(settings.get(s, None)))
 
 
@@ -127,7 +132,8 @@ def _get_token(user_id, password,
 
 
 def configDB(wscfg, db):
-    settings = {SHOCKURL: None, SHOCKUSER: None, BACKEND: None}
+    settings = {SHOCKURL: None, SHOCKUSER: None, BACKEND: None,
+                COMPRESSION: None, FILELOC: None}
     typedb = None
     while not typedb:
         typedb = input('Please enter the name of the mongodb type database: ')
@@ -136,7 +142,8 @@ def configDB(wscfg, db):
                   'workspace database name: ' + wscfg[MODB])
             typedb = None
     settings[TYPE_DB] = typedb
-    backend = getinput('Choose a backend: ', ('s', SHOCK), {'g': GFS})
+    backend = getinput('Choose a backend: ', ('s', SHOCK),
+                       {'g': GFS, 'f': FILESYSTEM})
     if backend == 's':
         settings[BACKEND] = SHOCK
         shockurl = input('Please enter the url of the shock server: ')
@@ -159,8 +166,23 @@ def configDB(wscfg, db):
             printerr(shockurl + ' is not a shock server root url')
         settings[SHOCKURL] = j['url']
         settings[SHOCKUSER] = shockuser
+    elif backend == 'f':
+        settings[BACKEND] = FILESYSTEM
+        fileloc = None
+        while not fileloc:
+            fileloc = input('Please enter the absolute path of the ' +
+                            'directory in which to store objects. The ' +
+                            'directory must be accessible at the same path ' +
+                            'from every workspace server: ')
+            if not os.path.isabs(fileloc):
+                print('The path must be absolute.')
+                fileloc = None
+        settings[FILELOC] = fileloc
     else:
         settings[BACKEND] = GFS
+    compress = getinput('Compress saved objects in the backend? ',
+                        ('n', NO_COMPRESSION), {'d': DEFLATE})
+    settings[COMPRESSION] = DEFLATE if compress == 'd' else NO_COMPRESSION
 
     db[SETTINGS].update({}, settings, upsert=True)
     settings = db[SETTINGS].find_one()
@@ -0,0 +1,320 @@
+package us.kbase.typedobj.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * An index of the byte offsets of the values in a JSON document, down to a
+ * fixed depth. Subdata extraction can use the index to read only the
+ * selected parts of a document rather than the entire document.
+ *
+ * The root value is at depth 0. The offsets of the fields of objects and the
+ * elements of arrays are recorded for containers at depths less than the
+ * index depth, so an index with a depth of 1 records the offsets of the
+ * root's fields or elements.
+ *
+ * The index is stored as JSON. A value whose contents are not indexed is
+ * stored as its offset, an object as {"o": offset, "f": [key1, value1, ...]},
+ * and an array as {"o": offset, "e": [value1, ...]}.
+ */
+public class JsonStructureIndex {
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private static final String DEPTH = "d";
+	private static final String ROOT = "r";
+	private static final String OFFSET = "o";
+	private static final String FIELDS = "f";
+	private static final String ELEMENTS = "e";
+
+	/** A source of the data for an index, e.g. a file or a byte array. */
+	public interface DataSource {
+
+		/** Open a stream of the data starting at a byte offset.
+		 * @param offset the offset of the first byte of the stream.
+		 * @return a stream of the data.
+		 * @throws IOException if the data could not be opened.
+		 */
+		public InputStream openAt(long offset) throws IOException;
+	}
+
+	/** A value in an indexed document. */
+	public static class Node {
+
+		private final long offset;
+		private final Map<String, Node> fields;
+		private final List<Node> elements;
+
+		private Node(final long offset, final Map<String, Node> fields,
+				final List<Node> elements) {
+			this.offset = offset;
+			this.fields = fields;
+			this.elements = elements;
+		}
+
+		/** Get the byte offset of the start of the value.
+		 * @return the offset.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/** Returns true if this value is an object with indexed fields.
+		 * @return whether the object fields are indexed.
+		 */
+		public boolean isIndexedObject() {
+			return fields != null;
+		}
+
+		/** Returns true if this value is an array with indexed elements.
+		 * @return whether the array elements are indexed.
+		 */
+		public boolean isIndexedArray() {
+			return elements != null;
+		}
+
+		/** Get the fields of an indexed object in document order.
+		 * @return the fields, or null if this is not an indexed object.
+		 */
+		public Map<String, Node> getFields() {
+			return fields == null ? null :
+				Collections.unmodifiableMap(fields);
+		}
+
+		/** Get the elements of an indexed array.
+		 * @return the elements, or null if this is not an indexed array.
+		 */
+		public List<Node> getElements() {
+			return elements == null ? null :
+				Collections.unmodifiableList(elements);
+		}
+	}
+
+	private final int depth;
+	private final Node root;
+	private final int nodeCount;
+
+	private JsonStructureIndex(final int depth, final Node root) {
+		this.depth = depth;
+		this.root = root;
+		this.nodeCount = countNodes(root);
+	}
+
+	private static int countNodes(final Node node) {
+		int count = 1;
+		if (node.fields != null) {
+			for (final Node n: node.fields.values()) {
+				count += countNodes(n);
+			}
+		}
+		if (node.elements != null) {
+			for (final Node n: node.elements) {
+				count += countNodes(n);
+			}
+		}
+		return count;
+	}
+
+	/** Build an index of a JSON document.
+	 * @param data the document, encoded in UTF-8.
+	 * @param depth the depth to which the document is indexed.
+	 * @return the index.
+	 * @throws IOException if the document could not be read or is not JSON.
+	 */
+	public static JsonStructureIndex build(final InputStream data,
+			final int depth) throws IOException {
+		if (depth < 1) {
+			throw new IllegalArgumentException("depth must be at least 1");
+		}
+		final JsonParser jp = JSON.createParser(data);
+		try {
+			final JsonToken t = jp.nextToken();
+			if (t == null) {
+				throw new IOException("The document contains no JSON value");
+			}
+			return new JsonStructureIndex(depth, buildNode(jp, t, 0, depth));
+		} finally {
+			jp.close();
+		}
+	}
+
+	private static Node buildNode(final JsonParser jp, JsonToken t,
+			final int level, final int depth) throws IOException {
+		final long offset = jp.getTokenLocation().getByteOffset();
+		if (level >= depth || (t != JsonToken.START_OBJECT &&
+				t != JsonToken.START_ARRAY)) {
+			jp.skipChildren();
+			return new Node(offset, null, null);
+		}
+		if (t == JsonToken.START_OBJECT) {
+			final Map<String, Node> fields = new LinkedHashMap<String, Node>();
+			while ((t = jp.nextToken()) != JsonToken.END_OBJECT) {
+				final String name = jp.getCurrentName();
+				fields.put(name, buildNode(jp, jp.nextToken(), level + 1,
+						depth));
+			}
+			return new Node(offset, fields, null);
+		}
+		final List<Node> elements = new ArrayList<Node>();
+		while ((t = jp.nextToken()) != JsonToken.END_ARRAY) {
+			elements.add(buildNode(jp, t, level + 1, depth));
+		}
+		return new Node(offset, null, elements);
+	}
+
+	/** Get the depth to which the document is indexed.
+	 * @return the depth.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/** Get the root value of the document.
+	 * @return the root value.
+	 */
+	public Node getRoot() {
+		return root;
+	}
+
+	/** Get the number of values in the index, a measure of the memory the
+	 * index uses.
+	 * @return the number of indexed values.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/** Write the index as JSON.
+	 * @param os the stream to which the index will be written.
+	 * @throws IOException if the index could not be written.
+	 */
+	public void write(final OutputStream os) throws IOException {
+		final JsonGenerator jgen = JSON.createGenerator(os, JsonEncoding.UTF8);
+		jgen.writeStartObject();
+		jgen.writeNumberField(DEPTH, depth);
+		jgen.writeFieldName(ROOT);
+		writeNode(jgen, root);
+		jgen.writeEndObject();
+		jgen.flush();
+	}
+
+	private static void writeNode(final JsonGenerator jgen, final Node node)
+			throws IOException {
+		if (node.fields == null && node.elements == null) {
+			jgen.writeNumber(node.offset);
+			return;
+		}
+		jgen.writeStartObject();
+		jgen.writeNumberField(OFFSET, node.offset);
+		if (node.fields != null) {
+			jgen.writeArrayFieldStart(FIELDS);
+			for (final Map.Entry<String, Node> e: node.fields.entrySet()) {
+				jgen.writeString(e.getKey());
+				writeNode(jgen, e.getValue());
+			}
+		} else {
+			jgen.writeArrayFieldStart(ELEMENTS);
+			for (final Node n: node.elements) {
+				writeNode(jgen, n);
+			}
+		}
+		jgen.writeEndArray();
+		jgen.writeEndObject();
+	}
+
+	/** Read an index written by write().
+	 * @param r the index JSON.
+	 * @return the index.
+	 * @throws IOException if the index could not be read or is invalid.
+	 */
+	public static JsonStructureIndex read(final Reader r) throws IOException {
+		final JsonParser jp = JSON.createParser(r);
+		try {
+			Integer depth = null;
+			Node root = null;
+			expect(jp, jp.nextToken(), JsonToken.START_OBJECT);
+			while (jp.nextToken() == JsonToken.FIELD_NAME) {
+				final String name = jp.getCurrentName();
+				final JsonToken t = jp.nextToken();
+				if (DEPTH.equals(name)) {
+					expect(jp, t, JsonToken.VALUE_NUMBER_INT);
+					depth = jp.getIntValue();
+				} else if (ROOT.equals(name)) {
+					root = readNode(jp, t);
+				} else {
+					jp.skipChildren();
+				}
+			}
+			if (depth == null || root == null) {
+				throw new IOException("Incomplete structure index");
+			}
+			return new JsonStructureIndex(depth, root);
+		} finally {
+			jp.close();
+		}
+	}
+
+	private static Node readNode(final JsonParser jp, final JsonToken t)
+			throws IOException {
+		if (t == JsonToken.VALUE_NUMBER_INT) {
+			return new Node(jp.getLongValue(), null, null);
+		}
+		expect(jp, t, JsonToken.START_OBJECT);
+		Long offset = null;
+		Map<String, Node> fields = null;
+		List<Node> elements = null;
+		while (jp.nextToken() == JsonToken.FIELD_NAME) {
+			final String name = jp.getCurrentName();
+			final JsonToken v = jp.nextToken();
+			if (OFFSET.equals(name)) {
+				expect(jp, v, JsonToken.VALUE_NUMBER_INT);
+				offset = jp.getLongValue();
+			} else if (FIELDS.equals(name)) {
+				expect(jp, v, JsonToken.START_ARRAY);
+				fields = new LinkedHashMap<String, Node>();
+				JsonToken k;
+				while ((k = jp.nextToken()) != JsonToken.END_ARRAY) {
+					expect(jp, k, JsonToken.VALUE_STRING);
+					final String key = jp.getText();
+					fields.put(key, readNode(jp, jp.nextToken()));
+				}
+			} else if (ELEMENTS.equals(name)) {
+				expect(jp, v, JsonToken.START_ARRAY);
+				elements = new ArrayList<Node>();
+				JsonToken e;
+				while ((e = jp.nextToken()) != JsonToken.END_ARRAY) {
+					elements.add(readNode(jp, e));
+				}
+			} else {
+				jp.skipChildren();
+			}
+		}
+		if (offset == null || (fields == null) == (elements == null)) {
+			throw new IOException("Invalid structure index node at " +
+					jp.getCurrentLocation());
+		}
+		return new Node(offset, fields, elements);
+	}
+
+	private static void expect(final JsonParser jp, final JsonToken got,
+			final JsonToken expected) throws IOException {
+		if (got != expected) {
+			throw new IOException(String.format(
+					"Invalid structure index: expected %s but got %s at %s",
+					expected, got, jp.getCurrentLocation()));
+		}
+	}
+}
@@ -55,6 +55,19 @@ public class JsonTokenStreamWriter {
 		JsonToken t = src.nextToken();
 		if (src.isComplete() || jgen == null)
 			return t;
+		writeToken(t, src, jgen);
+		return t;
+	}
+	
+	/**
+	 * Write the current token of a token sequence to a generator.
+	 * @param t the current token of the sequence.
+	 * @param src the source of the token, used to get the text or number
+	 * value of the token.
+	 * @param jgen the target generator.
+	 */
+	public void writeToken(JsonToken t, TokenSequenceProvider src,
+			JsonGenerator jgen) throws IOException {
 		if (t == JsonToken.START_ARRAY) {
 			jgen.writeStartArray();
 		} else if (t == JsonToken.START_OBJECT) {
@@ -101,6 +114,5 @@ public class JsonTokenStreamWriter {
 		} else {
 			throw new IOException("Unexpected token type: " + t);
 		}
-		return t;
 	}
 }
@@ -5,6 +5,8 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -25,6 +27,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * This is main validation algorithm.
+ * 
+ * Instances are immutable once parsed and may be shared between threads.
  * @author rsutormin
  */
 public class JsonTokenValidationSchema {
@@ -43,6 +47,7 @@ public class JsonTokenValidationSchema {
 	private JsonTokenValidationSchema objectAdditionalPropertiesType;	// For mapping value type: additionalProperties
 	private boolean objectAdditionalPropertiesBoolean;	// For structures: additionalProperties
 	private Map<String, Integer> objectRequired;		// For structures: required
+	private Map<String, FieldPlan> objectFields;		// For structures: properties and required merged for validation
 	private JsonTokenValidationSchema arrayItems;						// For list: items (one type for all items)
 	private List<JsonTokenValidationSchema> arrayItemList;				// For tuple: items (list of types)
 	private Integer arrayMinItems;						// For tuple: minItems
@@ -113,7 +118,7 @@ public class JsonTokenValidationSchema {
 			}
 			
 			ret.idReference = new IdRefDescr(new IdReferenceType(idType),
-					attributes);
+					Collections.unmodifiableList(attributes));
 		}
 		if (ret.type == Type.object) {
 			if (data.containsKey("searchable-ws-subset"))
@@ -121,15 +126,19 @@ public class JsonTokenValidationSchema {
 			if (data.containsKey("metadata-ws"))
 				ret.metadataWs = UObject.transformObjectToJackson(data.get("metadata-ws"));
 			
-			ret.objectProperties = new LinkedHashMap<String, JsonTokenValidationSchema>();
+			final Map<String, JsonTokenValidationSchema> objProps =
+					new LinkedHashMap<String, JsonTokenValidationSchema>();
 			Map<String, Object> props = (Map<String, Object>)data.get("properties");
 			if (props != null) {
 				for (Map.Entry<String, Object> entry : props.entrySet()) {
 					String prop = entry.getKey();
 					Map<String, Object> propType = (Map<String, Object>)entry.getValue();
-					ret.objectProperties.put(prop, parseJsonSchema(propType));
+					objProps.put(prop, parseJsonSchema(propType));
 				}
 			}
+			// parsed schemas are cached and shared between threads, so
+			// don't allow modification
+			ret.objectProperties = Collections.unmodifiableMap(objProps);
 			Object addProps = data.get("additionalProperties");
 			if (addProps != null) {
 				if (addProps instanceof Map) {
@@ -139,33 +148,63 @@ public class JsonTokenValidationSchema {
 					ret.objectAdditionalPropertiesBoolean = (Boolean)addProps;
 				}
 			}
-			ret.objectRequired = new LinkedHashMap<String, Integer>();
+			final Map<String, Integer> objReq =
+					new LinkedHashMap<String, Integer>();
 			List<String> reqList = (List<String>)data.get("required");
 			if (reqList != null) {
 				for (String reqItem : reqList)
-					ret.objectRequired.put(reqItem, ret.objectRequired.size());
+					objReq.put(reqItem, objReq.size());
 			}
+			ret.objectRequired = Collections.unmodifiableMap(objReq);
+			ret.objectFields = compileFields(objProps, objReq);
 		} else if (ret.type == Type.array) {
 			Object items = data.get("items");
 			if (items instanceof Map) {
 				ret.arrayItems = parseJsonSchema((Map<String, Object>)items);
 			} else {
 				List<Map<String, Object>> itemList = (List<Map<String, Object>>)items;
-				ret.arrayItemList = new ArrayList<JsonTokenValidationSchema>();
+				final List<JsonTokenValidationSchema> arrItems =
+						new ArrayList<JsonTokenValidationSchema>();
 				for (Map<String, Object> item : itemList)
-					ret.arrayItemList.add(parseJsonSchema(item));
+					arrItems.add(parseJsonSchema(item));
+				ret.arrayItemList = Collections.unmodifiableList(arrItems);
 			}
 			if (data.get("minItems") != null)
 				ret.arrayMinItems = Integer.parseInt("" + data.get("minItems"));
 			if (data.get("maxItems") != null)
 				ret.arrayMaxItems = Integer.parseInt("" + data.get("maxItems"));
 		} else if (ret.type == Type.number) {
-			ret.numberRange = new NumberRange(data);
+			final NumberRange nr = new NumberRange(data);
+			// skip the range check entirely if no range is defined
+			ret.numberRange = nr.isDefined() ? nr : null;
 		} else if (ret.type == Type.integer) {
-			ret.intRange = new IntRange(data);
+			final IntRange ir = new IntRange(data);
+			ret.intRange = ir.isDefined() ? ir : null;
 		}
 		return ret;
 	}
+	
+	/* Merges the properties and required fields of a structure so that only
+	 * one lookup is needed per field when validating.
+	 */
+	private static Map<String, FieldPlan> compileFields(
+			final Map<String, JsonTokenValidationSchema> props,
+			final Map<String, Integer> required) {
+		final Map<String, FieldPlan> fields = new HashMap<String, FieldPlan>(
+				(props.size() + required.size()) * 2);
+		for (final Map.Entry<String, JsonTokenValidationSchema> e:
+				props.entrySet()) {
+			final Integer req = required.get(e.getKey());
+			fields.put(e.getKey(), new FieldPlan(e.getValue(),
+					req == null ? -1 : req));
+		}
+		for (final Map.Entry<String, Integer> e: required.entrySet()) {
+			if (!fields.containsKey(e.getKey())) {
+				fields.put(e.getKey(), new FieldPlan(null, e.getValue()));
+			}
+		}
+		return fields;
+	}
 
 	/**
 	 * Method validates object described by tokens provided by json parser against 
@@ -228,10 +267,14 @@ public class JsonTokenValidationSchema {
 					throw new JsonTokenValidationException(
 							generateError(type, t, path, false));
 				}
-				// flags for usage (true) or not usage (false) of fields having positions in this 
-				// array coded in objectRequired map
-				boolean[] reqPropUsage = new boolean[objectRequired.size()];
-				// count of true values in reqPropUsage
+				// flags for usage (set) or not usage (unset) of fields having positions in this 
+				// bit set coded in objectRequired map. Most structures have no more than
+				// 64 required fields, so only allocate an array for the remainder.
+				final int reqCount = objectRequired.size();
+				long reqPropUsage = 0;
+				final boolean[] reqPropUsageExtra = reqCount > Long.SIZE ?
+						new boolean[reqCount - Long.SIZE] : null;
+				// count of observed required fields
 				int reqPropUsageCount = 0;
 				// in following loop we process all fields of opened object
 				while (true) {
@@ -250,13 +293,18 @@ public class JsonTokenValidationSchema {
 					String fieldName = jp.getCurrentName();
 					// set current path pointing to this field
 					path.replaceLast(fieldName);
+					final FieldPlan field = objectFields.get(fieldName);
 					// if this field is required we mark it as visited
-					if (objectRequired.containsKey(fieldName)) {
+					if (field != null && field.requiredIndex >= 0) {
 						reqPropUsageCount++;
-						reqPropUsage[objectRequired.get(fieldName)] = true;
+						if (field.requiredIndex < Long.SIZE) {
+							reqPropUsage |= 1L << field.requiredIndex;
+						} else {
+							reqPropUsageExtra[field.requiredIndex - Long.SIZE] = true;
+						}
 					}
 					// we need to find json-schema node describing value of this field
-					JsonTokenValidationSchema childType = objectProperties.get(fieldName);
+					JsonTokenValidationSchema childType = field == null ? null : field.type;
 					if (childType == null) {
 						if (!objectAdditionalPropertiesBoolean) {
 							if (objectProperties.size() > 0)
@@ -286,11 +334,16 @@ public class JsonTokenValidationSchema {
 					}
 				}
 				// check whether all required fields were occured
-				if (reqPropUsageCount != reqPropUsage.length) {
+				if (reqPropUsageCount != reqCount) {
 					List<String> absentProperties = new ArrayList<String>();
-					for (Map.Entry<String, Integer> entry : objectRequired.entrySet())
-						if (!reqPropUsage[entry.getValue()])
+					for (Map.Entry<String, Integer> entry : objectRequired.entrySet()) {
+						final int pos = entry.getValue();
+						final boolean used = pos < Long.SIZE ?
+								(reqPropUsage & (1L << pos)) != 0 :
+								reqPropUsageExtra[pos - Long.SIZE];
+						if (!used)
 							absentProperties.add(entry.getKey());
+					}
 					lst.addError("Object doesn't have required fields : " +
 							absentProperties + ", at " +
 							path.getLocationOfContainerAsString());
@@ -625,6 +678,15 @@ public class JsonTokenValidationSchema {
 
 
 
+	private static class FieldPlan {
+		final JsonTokenValidationSchema type;	// null if the field is required but has no properties entry
+		final int requiredIndex;				// -1 if the field is not required
+		FieldPlan(final JsonTokenValidationSchema type, final int requiredIndex) {
+			this.type = type;
+			this.requiredIndex = requiredIndex;
+		}
+	}
+	
 	private static class IdRefDescr {
 		IdReferenceType idType;
 		List<String> attributes;
@@ -651,6 +713,9 @@ public class JsonTokenValidationSchema {
 			exclusiveMin = false;
 			exclusiveMax = false;
 		}
+		boolean isDefined() {
+			return minValueDefined || maxValueDefined;
+		}
 		abstract void checkValue(JsonParser jp, JsonTokenValidationListener lst, JsonDocumentLocation path) throws JsonTokenValidationException;
 	}
 	
@@ -798,7 +863,9 @@ public class JsonTokenValidationSchema {
 			try {
 				// first attempt to check range assuming it is a double value
 				value = jp.getLongValue();
-				textValue = jp.getText();
+				// only needed to compare with bounds that don't fit in a long
+				if (bigMin != null || bigMax != null)
+					textValue = jp.getText();
 			} catch (IOException e) { tryAsBigValue = true; }
 			
 			if(tryAsBigValue) {
@@ -1,12 +1,10 @@
-package us.kbase.workspace.database.mongo;
+package us.kbase.typedobj.core;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-import us.kbase.typedobj.core.MD5;
-
 public class MD5DigestOutputStream extends OutputStream {
 
 	private final MessageDigest digest;
@@ -53,6 +51,7 @@ public class MD5DigestOutputStream extends OutputStream {
 
 	@Override
 	public void write(final int b) throws IOException {
-		throw new RuntimeException("Unimplemented");
+		digest.update((byte) b);
+		size++;
 	}
 }
@@ -0,0 +1,627 @@
+package us.kbase.typedobj.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import us.kbase.common.utils.sortjson.KeyDuplicationException;
+
+/**
+ * Sorts the keys of the maps in a JSON document using a bounded amount of
+ * memory, regardless of the number of keys in a map or the size of the
+ * values. The entries of a map are collected in memory until the memory
+ * limit is reached, at which point they are sorted and written to a
+ * temporary file as a run. Once the map is read, the runs are merged to
+ * produce the sorted map. Values too large to hold in memory are written to
+ * a temporary file as they are sorted.
+ *
+ * Keys are ordered as by String.compareTo(). The output contains no
+ * whitespace and numbers are written exactly as they appear in the input.
+ *
+ * This class is not thread safe.
+ */
+public class SpillingJsonSorter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final byte[] TRUE = "true".getBytes(UTF8);
+	private static final byte[] FALSE = "false".getBytes(UTF8);
+	private static final byte[] NULL = "null".getBytes(UTF8);
+
+	// the approximate memory used by an entry in addition to its key and value
+	private static final int ENTRY_OVERHEAD = 64;
+	// the maximum number of runs merged at once
+	private static final int MAX_MERGE = 64;
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final Comparator<Entry> ENTRY_ORDER =
+			new Comparator<Entry>() {
+
+		@Override
+		public int compare(final Entry e1, final Entry e2) {
+			return e1.key.compareTo(e2.key);
+		}
+	};
+
+	private static final Comparator<RunReader> RUN_ORDER =
+			new Comparator<RunReader>() {
+
+		@Override
+		public int compare(final RunReader r1, final RunReader r2) {
+			return r1.key.compareTo(r2.key);
+		}
+	};
+
+	private final TempFilesManager tfm;
+	private final long maxMemory;
+	private final JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+	private final List<String> path = new ArrayList<String>();
+	// the maps currently being sorted, outermost first
+	private final List<MapState> maps = new ArrayList<MapState>();
+	private final List<File> tempFiles = new LinkedList<File>();
+	private long memory = 0;
+
+	/** Create a new sorter.
+	 * @param tfm the temporary files manager to use for runs and large
+	 * values.
+	 * @param maxMemory the approximate maximum memory to use for map
+	 * entries.
+	 */
+	public SpillingJsonSorter(final TempFilesManager tfm,
+			final long maxMemory) {
+		if (tfm == null) {
+			throw new NullPointerException("tfm cannot be null");
+		}
+		if (maxMemory < 1) {
+			throw new IllegalArgumentException(
+					"maxMemory must be greater than zero");
+		}
+		this.tfm = tfm;
+		this.maxMemory = maxMemory;
+	}
+
+	/** Sort a JSON document. All temporary files are deleted when the
+	 * method returns.
+	 * @param input the document, encoded in UTF-8.
+	 * @param output the stream to which the sorted document is written.
+	 * @throws IOException if an IO error occurs or the document is not
+	 * valid JSON.
+	 * @throws KeyDuplicationException if a map contains duplicate keys.
+	 */
+	public void sort(final InputStream input, final OutputStream output)
+			throws IOException, KeyDuplicationException {
+		final JsonParser jp = JSON.createParser(input);
+		try {
+			final JsonToken t = jp.nextToken();
+			if (t == null) {
+				throw new IOException("The document contains no JSON value");
+			}
+			// not closed, since the output stream belongs to the caller
+			final OutputStream os = new BufferedOutputStream(output,
+					BUFFER_SIZE);
+			writeValue(jp, t, os);
+			os.flush();
+		} catch (IOException ioe) {
+			// value buffers can't throw a KeyDuplicationException directly
+			if (ioe.getCause() instanceof KeyDuplicationException) {
+				throw (KeyDuplicationException) ioe.getCause();
+			}
+			throw ioe;
+		} finally {
+			jp.close();
+			for (final File f: tempFiles) {
+				f.delete();
+			}
+			tempFiles.clear();
+			path.clear();
+			maps.clear();
+			memory = 0;
+		}
+	}
+
+	private File newTempFile(final String prefix) {
+		final File f = tfm.generateTempFile(prefix, "bin");
+		tempFiles.add(f);
+		return f;
+	}
+
+	private void deleteTempFile(final File f) {
+		f.delete();
+		tempFiles.remove(f);
+	}
+
+	private String getPath() {
+		if (path.isEmpty()) {
+			return "/";
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (final String p: path) {
+			sb.append("/").append(p);
+		}
+		return sb.toString();
+	}
+
+	private void writeValue(final JsonParser jp, final JsonToken t,
+			final OutputStream os)
+			throws IOException, KeyDuplicationException {
+		switch (t) {
+		case START_OBJECT:
+			writeObject(jp, os);
+			break;
+		case START_ARRAY:
+			os.write('[');
+			int i = 0;
+			JsonToken et;
+			while ((et = jp.nextToken()) != JsonToken.END_ARRAY) {
+				if (i > 0) {
+					os.write(',');
+				}
+				path.add(String.valueOf(i));
+				writeValue(jp, et, os);
+				path.remove(path.size() - 1);
+				i++;
+			}
+			os.write(']');
+			break;
+		case VALUE_STRING:
+			writeString(jp.getText(), os);
+			break;
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			os.write(jp.getText().getBytes(UTF8));
+			break;
+		case VALUE_TRUE:
+			os.write(TRUE);
+			break;
+		case VALUE_FALSE:
+			os.write(FALSE);
+			break;
+		case VALUE_NULL:
+			os.write(NULL);
+			break;
+		default:
+			throw new IOException("Unexpected JSON token " + t + " at " +
+					getPath());
+		}
+	}
+
+	private void writeString(final String s, final OutputStream os)
+			throws IOException {
+		os.write('"');
+		os.write(encoder.quoteAsUTF8(s));
+		os.write('"');
+	}
+
+	private void writeObject(final JsonParser jp, final OutputStream os)
+			throws IOException, KeyDuplicationException {
+		final MapState map = new MapState();
+		maps.add(map);
+		try {
+			JsonToken t;
+			while ((t = jp.nextToken()) == JsonToken.FIELD_NAME) {
+				final Entry e = new Entry(jp.getCurrentName());
+				path.add(e.key);
+				try {
+					writeValue(jp, jp.nextToken(), e.value);
+				} finally {
+					e.value.close();
+					path.remove(path.size() - 1);
+				}
+				map.add(e);
+				while (memory > maxMemory && spillLargestMap()) {
+					// keep spilling
+				}
+			}
+			if (t != JsonToken.END_OBJECT) {
+				throw new IOException("Unexpected JSON token " + t + " at " +
+						getPath());
+			}
+			map.writing = true;
+			if (map.runs.isEmpty()) {
+				Collections.sort(map.entries, ENTRY_ORDER);
+				checkDuplicates(map.entries);
+				os.write('{');
+				boolean first = true;
+				for (final Entry e: map.entries) {
+					if (!first) {
+						os.write(',');
+					}
+					first = false;
+					writeString(e.key, os);
+					os.write(':');
+					e.value.writeTo(os);
+				}
+				os.write('}');
+			} else {
+				map.spill();
+				mergeRuns(map.runs, os);
+			}
+		} finally {
+			maps.remove(maps.size() - 1);
+			map.discard();
+		}
+	}
+
+	/* Writes the entries of the map holding the most memory to a run.
+	 * Returns false if no map holds enough entries to be worth writing, since
+	 * a file per entry would cost more than it saves.
+	 */
+	private boolean spillLargestMap() throws IOException,
+			KeyDuplicationException {
+		MapState largest = null;
+		for (final MapState m: maps) {
+			if (!m.writing && m.memory >= BUFFER_SIZE &&
+					(largest == null || m.memory > largest.memory)) {
+				largest = m;
+			}
+		}
+		if (largest == null) {
+			return false;
+		}
+		largest.spill();
+		return true;
+	}
+
+	private void checkDuplicates(final List<Entry> sorted)
+			throws KeyDuplicationException {
+		String prev = null;
+		for (final Entry e: sorted) {
+			if (e.key.equals(prev)) {
+				throw new KeyDuplicationException(getPath(), e.key);
+			}
+			prev = e.key;
+		}
+	}
+
+	/* Run format: for each entry, the length of the key in bytes, the key in
+	 * UTF-8, the length of the value, and the value.
+	 */
+	private File writeRun(final List<Entry> entries)
+			throws IOException, KeyDuplicationException {
+		Collections.sort(entries, ENTRY_ORDER);
+		checkDuplicates(entries);
+		final File f = newTempFile("sortrun");
+		final DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(f),
+						BUFFER_SIZE));
+		try {
+			for (final Entry e: entries) {
+				final byte[] key = e.key.getBytes(UTF8);
+				dos.writeInt(key.length);
+				dos.write(key);
+				dos.writeLong(e.value.size);
+				e.value.writeTo(dos);
+				e.value.discard();
+			}
+		} finally {
+			dos.close();
+		}
+		return f;
+	}
+
+	private void mergeRuns(final List<File> runs, final OutputStream os)
+			throws IOException, KeyDuplicationException {
+		// merge in passes so the number of open files is bounded
+		while (runs.size() > MAX_MERGE) {
+			final List<File> pass = new LinkedList<File>();
+			for (int i = 0; i < MAX_MERGE; i++) {
+				pass.add(runs.remove(0));
+			}
+			final File merged = newTempFile("sortrun");
+			final DataOutputStream dos = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(merged),
+							BUFFER_SIZE));
+			try {
+				merge(pass, new RunWriter(dos));
+			} finally {
+				dos.close();
+			}
+			runs.add(merged);
+			for (final File f: pass) {
+				deleteTempFile(f);
+			}
+		}
+		os.write('{');
+		merge(runs, new MapWriter(os));
+		os.write('}');
+	}
+
+	private void merge(final List<File> runs, final EntryWriter w)
+			throws IOException, KeyDuplicationException {
+		final PriorityQueue<RunReader> queue =
+				new PriorityQueue<RunReader>(runs.size(), RUN_ORDER);
+		final List<RunReader> readers = new LinkedList<RunReader>();
+		try {
+			for (final File f: runs) {
+				final RunReader r = new RunReader(f);
+				readers.add(r);
+				if (r.next()) {
+					queue.add(r);
+				}
+			}
+			String prev = null;
+			while (!queue.isEmpty()) {
+				final RunReader r = queue.poll();
+				if (r.key.equals(prev)) {
+					throw new KeyDuplicationException(getPath(), r.key);
+				}
+				prev = r.key;
+				w.write(r);
+				if (r.next()) {
+					queue.add(r);
+				}
+			}
+		} finally {
+			for (final RunReader r: readers) {
+				r.close();
+			}
+		}
+	}
+
+	private interface EntryWriter {
+
+		void write(RunReader r) throws IOException;
+	}
+
+	private class RunWriter implements EntryWriter {
+
+		private final DataOutputStream dos;
+
+		private RunWriter(final DataOutputStream dos) {
+			this.dos = dos;
+		}
+
+		@Override
+		public void write(final RunReader r) throws IOException {
+			dos.writeInt(r.keyBytes.length);
+			dos.write(r.keyBytes);
+			dos.writeLong(r.valueSize);
+			r.copyValue(dos);
+		}
+	}
+
+	private class MapWriter implements EntryWriter {
+
+		private final OutputStream os;
+		private boolean first = true;
+
+		private MapWriter(final OutputStream os) {
+			this.os = os;
+		}
+
+		@Override
+		public void write(final RunReader r) throws IOException {
+			if (!first) {
+				os.write(',');
+			}
+			first = false;
+			writeString(r.key, os);
+			os.write(':');
+			r.copyValue(os);
+		}
+	}
+
+	private static class RunReader {
+
+		private final DataInputStream dis;
+		private String key;
+		private byte[] keyBytes;
+		private long valueSize;
+
+		private RunReader(final File f) throws IOException {
+			dis = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f), BUFFER_SIZE));
+		}
+
+		// reads the next key. The previous value must have been copied.
+		private boolean next() throws IOException {
+			final int keylen;
+			try {
+				keylen = dis.readInt();
+			} catch (EOFException eof) {
+				return false;
+			}
+			keyBytes = new byte[keylen];
+			dis.readFully(keyBytes);
+			key = new String(keyBytes, UTF8);
+			valueSize = dis.readLong();
+			return true;
+		}
+
+		private void copyValue(final OutputStream os) throws IOException {
+			final byte[] buf = new byte[(int) Math.min(BUFFER_SIZE,
+					Math.max(1, valueSize))];
+			long remaining = valueSize;
+			while (remaining > 0) {
+				final int read = dis.read(buf, 0,
+						(int) Math.min(buf.length, remaining));
+				if (read < 0) {
+					throw new EOFException("Truncated sort run");
+				}
+				os.write(buf, 0, read);
+				remaining -= read;
+			}
+		}
+
+		private void close() {
+			try {
+				dis.close();
+			} catch (IOException ioe) {
+				// nothing to be done
+			}
+		}
+	}
+
+	/* The state of a map being sorted. Entries are added once their values
+	 * are sorted, and are written to a run when memory is exhausted. Once the
+	 * map is being written to the output, it can no longer be spilled.
+	 */
+	private class MapState {
+
+		private final List<Entry> entries = new ArrayList<Entry>();
+		private final List<File> runs = new LinkedList<File>();
+		// the memory used by the entries
+		private long memory = 0;
+		private boolean writing = false;
+
+		private void add(final Entry e) {
+			entries.add(e);
+			final long mem = e.getOverhead() + e.value.getMemory();
+			memory += mem;
+			SpillingJsonSorter.this.memory += e.getOverhead();
+		}
+
+		private void spill() throws IOException, KeyDuplicationException {
+			if (entries.isEmpty()) {
+				return;
+			}
+			runs.add(writeRun(entries));
+			SpillingJsonSorter.this.memory -= memory;
+			memory = 0;
+			entries.clear();
+		}
+
+		private void discard() {
+			SpillingJsonSorter.this.memory -= memory;
+			memory = 0;
+			for (final Entry e: entries) {
+				e.value.discard();
+			}
+			entries.clear();
+			for (final File f: runs) {
+				deleteTempFile(f);
+			}
+			runs.clear();
+		}
+	}
+
+	private class Entry {
+
+		private final String key;
+		private final ValueBuffer value = new ValueBuffer();
+
+		private Entry(final String key) {
+			this.key = key;
+		}
+
+		private long getOverhead() {
+			return 2L * key.length() + ENTRY_OVERHEAD;
+		}
+	}
+
+	/* Holds a sorted value in memory while memory is available, and in a
+	 * temporary file otherwise. Memory use is added to the sorter's total as
+	 * the value is written; the entry's map subtracts it when the entry is
+	 * written to a run or discarded. Before moving a value to a file, the
+	 * completed entries of the maps being sorted are written to runs.
+	 */
+	private class ValueBuffer extends OutputStream {
+
+		private ByteArrayOutputStream mem = new ByteArrayOutputStream();
+		private File file = null;
+		private OutputStream fileOut = null;
+		private long size = 0;
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			if (file == null) {
+				try {
+					while (memory + len > maxMemory && spillLargestMap()) {
+						// keep spilling
+					}
+				} catch (KeyDuplicationException kde) {
+					throw new IOException(kde.getMessage(), kde);
+				}
+			}
+			if (file == null && memory + len > maxMemory) {
+				file = newTempFile("sortval");
+				fileOut = new BufferedOutputStream(
+						new FileOutputStream(file), BUFFER_SIZE);
+				mem.writeTo(fileOut);
+				memory -= mem.size();
+				mem = null;
+			}
+			if (file == null) {
+				mem.write(b, off, len);
+				memory += len;
+			} else {
+				fileOut.write(b, off, len);
+			}
+			size += len;
+		}
+
+		private long getMemory() {
+			return mem == null ? 0 : mem.size();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (fileOut != null) {
+				fileOut.close();
+				fileOut = null;
+			}
+		}
+
+		private void writeTo(final OutputStream os) throws IOException {
+			if (mem != null) {
+				mem.writeTo(os);
+				return;
+			}
+			final InputStream is = new BufferedInputStream(
+					new FileInputStream(file), BUFFER_SIZE);
+			try {
+				final byte[] buf = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = is.read(buf)) > 0) {
+					os.write(buf, 0, read);
+				}
+			} finally {
+				is.close();
+			}
+		}
+
+		// the memory is accounted for by the entry's map
+		private void discard() {
+			mem = null;
+			if (fileOut != null) {
+				try {
+					fileOut.close();
+				} catch (IOException ioe) {
+					// nothing to be done
+				}
+				fileOut = null;
+			}
+			if (file != null) {
+				deleteTempFile(file);
+				file = null;
+			}
+		}
+	}
+}
@@ -1,11 +1,14 @@
 package us.kbase.typedobj.core;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.SequenceInputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import us.kbase.common.utils.JsonTreeGenerator;
@@ -73,16 +76,138 @@ public class SubdataExtractor {
 		extractFields(objpaths, createTokenSequenceProvider(jp), output, strict);
 	}
 	
+	/**
+	 * Extract the selected fields using an index of the structure of the data. Only the
+	 * parts of the data that contain selected fields are read, starting at the indexed
+	 * offsets, and the result is the same as extracting from the entire data.
+	 */
+	public static void extract(ObjectPaths objpaths, JsonStructureIndex index,
+			JsonStructureIndex.DataSource data, JsonGenerator output)
+			throws IOException, TypedObjectExtractionException {
+		extract(objpaths, index, data, output, STRICT_DEFAULT);
+	}
+	public static void extract(ObjectPaths objpaths, JsonStructureIndex index,
+			JsonStructureIndex.DataSource data, JsonGenerator output, boolean strict)
+			throws IOException, TypedObjectExtractionException {
+		extractIndexed(data, index.getRoot(), buildSelection(objpaths), output,
+				new ArrayList<String>(), strict);
+	}
+	
 	private static void extractFields(ObjectPaths objpaths, TokenSequenceProvider jts, JsonGenerator output, boolean strict) 
 			throws IOException, TypedObjectExtractionException {
+		JsonToken t = jts.nextToken();
+		extractFieldsWithOpenToken(jts, t, buildSelection(objpaths), output, new ArrayList<String>(), strict);
+	}
+	
+	private static SubdataExtractionNode buildSelection(ObjectPaths objpaths) {
 		//if the selection is empty, we return without adding anything
 		SubdataExtractionNode root = new SubdataExtractionNode();
 		for (String p : objpaths.getPaths()) {
 			String[] path = parsePath(p);
 			root.addPath(path);
 		}
-		JsonToken t = jts.nextToken();
-		extractFieldsWithOpenToken(jts, t, root, output, new ArrayList<String>(), strict);
+		return root;
+	}
+	
+	// the value is read inside an array so that the parser stops at the end of the value
+	private static final byte[] VALUE_PREFIX = {'['};
+	
+	/*
+	 * Follows the index down to the selected values, and extracts each value from the data
+	 * starting at its offset once the selection or the index runs out of children. Mirrors
+	 * extractFieldsWithOpenToken, including the errors thrown for invalid selections.
+	 */
+	private static void extractIndexed(JsonStructureIndex.DataSource data, JsonStructureIndex.Node node,
+			SubdataExtractionNode selection, JsonGenerator jgen, List<String> path, boolean strict)
+					throws IOException, TypedObjectExtractionException {
+		if (selection.hasChildren() && node.isIndexedObject()) {
+			Set<String> selectedFields = new LinkedHashSet<String>(selection.getChildren().keySet());
+			boolean all = false;
+			SubdataExtractionNode allChild = null;
+			if (selectedFields.contains("*")) {
+				all = true;
+				selectedFields.remove("*");
+				allChild = selection.getChildren().get("*");
+				if (selectedFields.size() > 0)
+					throw new TypedObjectExtractionException("Invalid selection: the selection path contains both '*'" +
+							"to select all fields and selction of specific fields (" + selectedFields + "), at: " + getPathText(path));
+			}
+			jgen.writeStartObject();
+			for (Map.Entry<String, JsonStructureIndex.Node> field : node.getFields().entrySet()) {
+				String fieldName = field.getKey();
+				if (all || selectedFields.contains(fieldName)) {
+					if (!all)
+						selectedFields.remove(fieldName);
+					jgen.writeFieldName(fieldName);
+					path.add(fieldName);
+					extractIndexed(data, field.getValue(), all ? allChild :
+						selection.getChildren().get(fieldName), jgen, path, strict);
+					path.remove(path.size() - 1);
+				}
+			}
+			jgen.writeEndObject();
+			if (strict && !selectedFields.isEmpty()) {
+				String notFound = selectedFields.iterator().next();
+				throw new TypedObjectExtractionException("Invalid selection: data does not contain a field or key named " +
+						"'" + notFound + "', at: " + getPathText(path, notFound));
+			}
+		} else if (selection.hasChildren() && node.isIndexedArray()) {
+			Set<String> selectedFields = new LinkedHashSet<String>(selection.getChildren().keySet());
+			SubdataExtractionNode allChild = null;
+			if (!selectedFields.contains("[*]")) {
+				for (String item : selectedFields) {
+					try {
+						Integer.parseInt(item);
+					} catch (NumberFormatException ex) {
+						throw new TypedObjectExtractionException("Invalid selection: data at '"+getPathText(path)+"' is an array, so " +
+								"element selection must be an integer.  You requested element '" + item + "', at: " + getPathText(path));
+					}
+				}
+			}
+			if (selectedFields.contains("[*]")) {
+				selectedFields.remove("[*]");
+				allChild = selection.getChildren().get("[*]");
+				if (selectedFields.size() > 0)
+					throw new TypedObjectExtractionException("Invalid selection: the selection path contains both '[*]'" +
+							"to select all elements and selction of specific elements (" + selectedFields + "), at: " + getPathText(path));
+			}
+			jgen.writeStartArray();
+			List<JsonStructureIndex.Node> elements = node.getElements();
+			for (int pos = 0; pos < elements.size(); pos++) {
+				SubdataExtractionNode child = null;
+				if (allChild != null) {
+					child = allChild;
+				} else {
+					String key = "" + pos;
+					if (selection.getChildren().containsKey(key)) {
+						child = selection.getChildren().get(key);
+						selectedFields.remove(key);
+					}
+				}
+				if (child != null) {
+					path.add("" + pos);
+					extractIndexed(data, elements.get(pos), child, jgen, path, strict);
+					path.remove(path.size() - 1);
+				}
+			}
+			jgen.writeEndArray();
+			if (!selectedFields.isEmpty()) {
+				String notFound = selectedFields.iterator().next();
+				throw new TypedObjectExtractionException("Invalid selection: no array element exists at position " +
+						"'" + notFound + "', at: " + getPathText(path, notFound));
+			}
+		} else {
+			// the value is not indexed any deeper, or all of it is selected
+			JsonParser jp = mapper.getFactory().createParser(new SequenceInputStream(
+					new ByteArrayInputStream(VALUE_PREFIX), data.openAt(node.getOffset())));
+			try {
+				jp.nextToken();
+				TokenSequenceProvider tsp = createTokenSequenceProvider(jp);
+				extractFieldsWithOpenToken(tsp, tsp.nextToken(), selection, jgen, path, strict);
+			} finally {
+				jp.close();
+			}
+		}
 	}
 	
 	/*
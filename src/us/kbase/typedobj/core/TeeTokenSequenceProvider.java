@@ -0,0 +1,92 @@
+package us.kbase.typedobj.core;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * This class copies every token read from a token sequence into a generator,
+ * so that a consumer of the tokens (for instance, subset and metadata
+ * extraction) and a writer of the tokens can share a single pass over the
+ * json data. Since the consumer may stop reading before the end of the data,
+ * call drain() afterwards to copy the remaining tokens.
+ */
+public class TeeTokenSequenceProvider implements TokenSequenceProvider {
+	private final TokenSequenceProvider src;
+	private final JsonGenerator jgen;
+	private final JsonTokenStreamWriter writer = new JsonTokenStreamWriter();
+	// depth of nesting of the last token read
+	private int depth = 0;
+	private boolean started = false;
+	// false if reading or copying a token failed
+	private boolean consistent = true;
+
+	public TeeTokenSequenceProvider(final TokenSequenceProvider src,
+			final JsonGenerator jgen) {
+		if (src == null || jgen == null) {
+			throw new NullPointerException(
+					"Token source and generator cannot be null");
+		}
+		this.src = src;
+		this.jgen = jgen;
+	}
+
+	@Override
+	public JsonToken nextToken() throws IOException, JsonParseException {
+		consistent = false;
+		final JsonToken t = src.nextToken();
+		started = true;
+		if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY) {
+			depth++;
+		} else if (t == JsonToken.END_OBJECT || t == JsonToken.END_ARRAY) {
+			depth--;
+		}
+		writer.writeToken(t, src, jgen);
+		consistent = true;
+		return t;
+	}
+
+	/**
+	 * Check whether all the tokens read so far have been copied to the
+	 * generator. If an exception was thrown while reading or copying a token,
+	 * the generator output is incomplete and drain() should not be called.
+	 * @return true if the generator contains all the tokens read so far.
+	 */
+	public boolean isConsistent() {
+		return consistent;
+	}
+
+	/**
+	 * Read and copy all the tokens that have not yet been read.
+	 */
+	public void drain() throws IOException {
+		if (!started) {
+			nextToken();
+		}
+		while (depth > 0) {
+			nextToken();
+		}
+	}
+
+	@Override
+	public String getText() throws IOException, JsonParseException {
+		return src.getText();
+	}
+
+	@Override
+	public Number getNumberValue() throws IOException, JsonParseException {
+		return src.getNumberValue();
+	}
+
+	@Override
+	public void close() throws IOException {
+		src.close();
+	}
+
+	@Override
+	public boolean isComplete() {
+		return src.isComplete();
+	}
+}
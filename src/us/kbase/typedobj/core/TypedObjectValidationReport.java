@@ -1,5 +1,6 @@
 package us.kbase.typedobj.core;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -10,6 +11,8 @@ import java.io.OutputStream;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.commons.io.output.TeeOutputStream;
+
 import us.kbase.common.service.JsonTokenStream;
 import us.kbase.common.service.UObject;
 import us.kbase.common.utils.JsonTreeGenerator;
@@ -57,7 +60,7 @@ public class TypedObjectValidationReport {
 	/**
 	 * The typedef author selection indicating in the JSON Schema what data should be extracted as metadata
 	 */
-	private MetadataExtractionHandler wsMetadataExtractionHandler;
+	private final JsonNode wsMetadataSelection;
 	
 	/**
 	 * This is the ID of the type definition used in validation - it is an AbsoluteTypeDefId so you always have full version info
@@ -79,6 +82,16 @@ public class TypedObjectValidationReport {
 	private long size = -1;
 	// whether the object is naturally sorted after relabeling. Only set to true after relabeling.
 	private boolean sorted = false;
+	// the MD5 of the object as written by createJsonWritable(). null if not yet calculated.
+	private MD5 md5 = null;
+	
+	// if true, the subset and metadata are extracted while calculating the relabeled size
+	private boolean preExtract = false;
+	private long preExtractMaxSubsetSize;
+	private long preExtractMaxMetadataSize;
+	private ExtractedSubsetAndMetadata preExtracted = null;
+	// an error thrown by the extraction while calculating the relabeled size
+	private Exception preExtractionError = null;
 	
 	private byte[] cacheForSorting = null;
 	
@@ -107,13 +120,30 @@ public class TypedObjectValidationReport {
 			final IdReferenceHandlerSet<?> idHandler) {
 		this.errors = errors == null ? new LinkedList<String>() : errors;
 		this.wsSubsetSelection = wsSubsetSelection;
-		this.wsMetadataExtractionHandler = new MetadataExtractionHandler(wsMetadataSelection,-1);
+		this.wsMetadataSelection = wsMetadataSelection;
 		this.validationTypeDefId=validationTypeDefId;
 		this.idHandler = idHandler;
 		this.tokenStreamProvider = tokenStreamProvider;
 		this.schema = schema;
 	}
 	
+	/**
+	 * Extract the searchable subset and metadata during the same pass over
+	 * the object that calculates the relabeled size, rather than in a separate
+	 * pass. If the object turns out to be sorted after relabeling, a call to
+	 * extractSearchableWsSubsetAndMetadata() with the same size limits
+	 * returns the result of that extraction without reading the object again.
+	 * Must be called before getRelabeledSize().
+	 * @param maxSubsetSize the maximum size of the subset.
+	 * @param maxMetadataSize the maximum size of the metadata.
+	 */
+	void setPreExtraction(final long maxSubsetSize,
+			final long maxMetadataSize) {
+		preExtract = true;
+		preExtractMaxSubsetSize = maxSubsetSize;
+		preExtractMaxMetadataSize = maxMetadataSize;
+	}
+	
 	/**
 	 * Get the absolute ID of the typedef that was used to validate the instance
 	 * @return
@@ -204,25 +234,30 @@ public class TypedObjectValidationReport {
 		if (size > -1) {
 			return size;
 		}
-		final long[] size = {0L};
-		final OutputStream sizeOs = new OutputStream() {
-			@Override
-			public void write(int b) throws IOException {
-				size[0]++;
-			}
-			@Override
-			public void write(byte[] b, int off, int len)
-					throws IOException {
-				size[0] += len;
-			}
-		};
-		final JsonGenerator jgen = new JsonFactory().createGenerator(sizeOs);
+		final MD5DigestOutputStream digest = new MD5DigestOutputStream();
+		final JsonGenerator jgen = new JsonFactory().createGenerator(digest);
 		sorted = relabelWsIdReferencesIntoGeneratorAndCheckOrder(jgen);
 		jgen.close();
-		this.size = size[0];
+		this.size = digest.getSize();
+		// if the object isn't sorted the MD5 is calculated when sorting
+		this.md5 = sorted ? digest.getMD5() : null;
 		return this.size;
 	}
 	
+	/** Get the MD5 of the object as it will be written by the writable
+	 * returned from createJsonWritable(). The MD5 is calculated by
+	 * getRelabeledSize() if the object is sorted after relabeling and by
+	 * sort() otherwise, so the object need not be read again to calculate it.
+	 * The workspace relies on this to save an object with a single read of
+	 * the data: the MD5 and size are known before the data is written to
+	 * the blob store, and so writing the data is the only read.
+	 * @return the MD5 of the object, or null if it has not yet been
+	 * calculated.
+	 */
+	public MD5 getMD5() {
+		return md5;
+	}
+	
 	/** Relabel ids, sort the object if necessary and keep a copy.
 	 * You must call this method prior to calling createJsonWritable().
 	 * Equivalent of sort(null). All data is kept in memory.
@@ -254,6 +289,47 @@ public class TypedObjectValidationReport {
 	public void sort(final UTF8JsonSorterFactory fac,
 			final TempFilesManager tfm)
 			throws IOException, KeyDuplicationException, TooManyKeysException {
+		if (startSort(fac)) {
+			finishSort(sortWithFactory(fac, tfm));
+		}
+	}
+	
+	/** Relabel ids, sort the object if necessary and keep a copy.
+	 * You must call this method prior to calling createJsonWritable().
+	 * @param fac the sorter factory to use when generating a sorter.
+	 * @param tfm the temporary file manager to use for managing temporary
+	 * files. All data is kept in memory if tfm is null.
+	 * @param spill the sorter to use if the memory required to sort the
+	 * object with the sorter factory is too high. The spilling sorter
+	 * writes map keys to disk as necessary, so the memory limit applies to
+	 * the keys held in memory rather than all the keys in the object.
+	 * @throws IOException if an IO exception occurs.
+	 * @throws KeyDuplicationException if there are duplicate keys present
+	 * in a map after relabeling.
+	 */
+	public void sort(final UTF8JsonSorterFactory fac,
+			final TempFilesManager tfm,
+			final SpillingJsonSorter spill)
+			throws IOException, KeyDuplicationException {
+		if (spill == null) {
+			throw new NullPointerException("Spilling sorter cannot be null");
+		}
+		if (startSort(fac)) {
+			MD5DigestOutputStream digest;
+			try {
+				digest = sortWithFactory(fac, tfm);
+			} catch (TooManyKeysException tmke) {
+				nullifySortCacheFile();
+				cacheForSorting = null;
+				digest = sortWithSpilling(spill, tfm);
+			}
+			finishSort(digest);
+		}
+	}
+	
+	// returns true if the object needs sorting
+	private boolean startSort(final UTF8JsonSorterFactory fac)
+			throws IOException {
 		if (fac == null) {
 			throw new NullPointerException("Sorter factory cannot be null");
 		}
@@ -263,39 +339,105 @@ public class TypedObjectValidationReport {
 		nullifySortCacheFile();
 		cacheForSorting = null;
 		if (!sorted) {
-			if (tfm == null) {
-				ByteArrayOutputStream os = new ByteArrayOutputStream();
-				final JsonGenerator jgen = mapper.getFactory()
-						.createGenerator(os);
+			md5 = null;
+		}
+		return !sorted;
+	}
+	
+	private void finishSort(final MD5DigestOutputStream digest) {
+		size = digest.getSize();
+		md5 = digest.getMD5();
+	}
+	
+	private MD5DigestOutputStream sortWithFactory(
+			final UTF8JsonSorterFactory fac,
+			final TempFilesManager tfm)
+			throws IOException, KeyDuplicationException, TooManyKeysException {
+		final MD5DigestOutputStream digest = new MD5DigestOutputStream();
+		if (tfm == null) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			final JsonGenerator jgen = mapper.getFactory()
+					.createGenerator(os);
+			relabelWsIdReferencesIntoGenerator(jgen);
+			jgen.close();
+			cacheForSorting = os.toByteArray();
+			os = new ByteArrayOutputStream();
+			fac.getSorter(cacheForSorting).writeIntoStream(os);
+			os.close();
+			cacheForSorting = os.toByteArray();
+			digest.write(cacheForSorting, 0, cacheForSorting.length);
+		} else {
+			final File f1 = tfm.generateTempFile("sortinp", "json");
+			JsonGenerator jgen = null;
+			try {
+				jgen = mapper.getFactory()
+						.createGenerator(f1, JsonEncoding.UTF8);
 				relabelWsIdReferencesIntoGenerator(jgen);
 				jgen.close();
-				cacheForSorting = os.toByteArray();
-				os = new ByteArrayOutputStream();
-				fac.getSorter(cacheForSorting).writeIntoStream(os);
-				os.close();
-				cacheForSorting = os.toByteArray();
-			} else {
-				final File f1 = tfm.generateTempFile("sortinp", "json");
-				JsonGenerator jgen = null;
+				jgen = null;
+				fileForSorting = tfm.generateTempFile(
+						"sortout", "json");
+				final OutputStream os = new TeeOutputStream(
+						new FileOutputStream(fileForSorting), digest);
 				try {
-					jgen = mapper.getFactory()
-							.createGenerator(f1, JsonEncoding.UTF8);
-					relabelWsIdReferencesIntoGenerator(jgen);
-					jgen.close();
-					jgen = null;
-					fileForSorting = tfm.generateTempFile(
-							"sortout", "json");
-					final FileOutputStream os = new FileOutputStream(
-							fileForSorting);
 					fac.getSorter(f1).writeIntoStream(os);
+				} finally {
 					os.close();
+				}
+			} finally {
+				f1.delete();
+				if (jgen != null)
+					jgen.close();
+			}
+		}
+		return digest;
+	}
+	
+	/* The object is relabeled again, since the input to the failed sort is
+	 * deleted when it is on disk.
+	 */
+	private MD5DigestOutputStream sortWithSpilling(
+			final SpillingJsonSorter spill,
+			final TempFilesManager tfm)
+			throws IOException, KeyDuplicationException {
+		final MD5DigestOutputStream digest = new MD5DigestOutputStream();
+		if (tfm == null) {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			final JsonGenerator jgen = mapper.getFactory()
+					.createGenerator(os);
+			relabelWsIdReferencesIntoGenerator(jgen);
+			jgen.close();
+			final ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+			spill.sort(new ByteArrayInputStream(os.toByteArray()), sorted);
+			cacheForSorting = sorted.toByteArray();
+			digest.write(cacheForSorting, 0, cacheForSorting.length);
+		} else {
+			final File f1 = tfm.generateTempFile("sortinp", "json");
+			JsonGenerator jgen = null;
+			try {
+				jgen = mapper.getFactory()
+						.createGenerator(f1, JsonEncoding.UTF8);
+				relabelWsIdReferencesIntoGenerator(jgen);
+				jgen.close();
+				jgen = null;
+				fileForSorting = tfm.generateTempFile(
+						"sortout", "json");
+				final InputStream is = new FileInputStream(f1);
+				final OutputStream os = new TeeOutputStream(
+						new FileOutputStream(fileForSorting), digest);
+				try {
+					spill.sort(is, os);
 				} finally {
-					f1.delete();
-					if (jgen != null)
-						jgen.close();
+					is.close();
+					os.close();
 				}
+			} finally {
+				f1.delete();
+				if (jgen != null)
+					jgen.close();
 			}
 		}
+		return digest;
 	}
 	
 	private void nullifySortCacheFile() {
@@ -330,28 +472,55 @@ public class TypedObjectValidationReport {
 			JsonGenerator jgen) throws IOException {
 		TokenSequenceProvider tsp = null;
 		try {
+			JsonTokenStream jts = tokenStreamProvider.getPlacedStream();
+			SortCheckingTokenSequenceProvider sortCheck = null;
+			IdRefTokenSequenceProvider idSubst = null;
 			if (idHandler.isEmpty()) {
-				JsonTokenStream jts = tokenStreamProvider.getPlacedStream();
-				SortCheckingTokenSequenceProvider sortCheck =
-						new SortCheckingTokenSequenceProvider(jts);
+				sortCheck = new SortCheckingTokenSequenceProvider(jts);
 				tsp = sortCheck;
-				new JsonTokenStreamWriter().writeTokens(sortCheck, jgen);
-				return sortCheck.isSorted();
 			} else {
-				JsonTokenStream jts = tokenStreamProvider.getPlacedStream();
-				IdRefTokenSequenceProvider idSubst =
-						new IdRefTokenSequenceProvider(jts, schema, idHandler);
+				idSubst = new IdRefTokenSequenceProvider(jts, schema, idHandler);
 				tsp = idSubst;
-				new JsonTokenStreamWriter().writeTokens(idSubst, jgen);
-				idSubst.close();
-				return idSubst.isSorted();
 			}
+			if (preExtract) {
+				final TeeTokenSequenceProvider tee =
+						new TeeTokenSequenceProvider(tsp, jgen);
+				preExtractSubsetAndMetadata(tee);
+				tee.drain();
+			} else {
+				new JsonTokenStreamWriter().writeTokens(tsp, jgen);
+			}
+			return sortCheck != null ? sortCheck.isSorted() :
+				idSubst.isSorted();
 		} finally {
 			if (tsp != null)
 				tsp.close();
 		}
 	}
 	
+	private void preExtractSubsetAndMetadata(
+			final TeeTokenSequenceProvider tee)
+			throws IOException {
+		preExtracted = null;
+		preExtractionError = null;
+		if (!isInstanceValid()) {
+			return;
+		}
+		try {
+			preExtracted = extractSubsetAndMetadata(tee,
+					preExtractMaxSubsetSize, preExtractMaxMetadataSize);
+		} catch (ExceededMaxMetadataSizeException e) {
+			preExtractionError = e;
+		} catch (IllegalArgumentException e) {
+			// thrown when the subset is too large, but might come from the
+			// token stream, in which case the size can't be calculated
+			if (!tee.isConsistent()) {
+				throw e;
+			}
+			preExtractionError = e;
+		}
+	}
+	
 	public JsonDocumentLocation getIdReferenceLocation (
 			final IdReference<?> ref)
 					throws IOException {
@@ -423,20 +592,24 @@ public class TypedObjectValidationReport {
 		// return nothing if instance does not validate
 		if(!isInstanceValid()) { return new ExtractedSubsetAndMetadata(null,null); }
 		
-		// Identify what we need to extract
-		ObjectNode keys_of  = null;
-		ObjectNode fields   = null;
-		if (wsSubsetSelection != null) {
-			keys_of = (ObjectNode)wsSubsetSelection.get("keys");
-			fields = (ObjectNode)wsSubsetSelection.get("fields");
+		// the extraction was done when calculating the size, and the object
+		// was not changed by sorting
+		if (preExtract && size > -1 && sorted &&
+				preExtractMaxSubsetSize == maxSubsetSize &&
+				preExtractMaxMetadataSize == maxMetadataSize) {
+			if (preExtractionError instanceof ExceededMaxMetadataSizeException) {
+				throw (ExceededMaxMetadataSizeException) preExtractionError;
+			}
+			if (preExtractionError != null) {
+				throw (IllegalArgumentException) preExtractionError;
+			}
+			return preExtracted;
 		}
 		TokenSequenceProvider tsp = null;
 		try {
 			tsp = createTokenSequenceForWsSubset();
-			ExtractedSubsetAndMetadata esam = SubsetAndMetadataExtractor.extractFields(
-															tsp, 
-															keys_of, fields, maxSubsetSize, maxMetadataSize,
-															wsMetadataExtractionHandler);
+			ExtractedSubsetAndMetadata esam = extractSubsetAndMetadata(
+					tsp, maxSubsetSize, maxMetadataSize);
 			tsp.close();
 			return esam;
 		} catch (IOException e) {
@@ -449,6 +622,24 @@ public class TypedObjectValidationReport {
 		
 	}
 	
+	private ExtractedSubsetAndMetadata extractSubsetAndMetadata(
+			final TokenSequenceProvider tsp, final long maxSubsetSize,
+			final long maxMetadataSize)
+			throws ExceededMaxMetadataSizeException, IOException {
+		// Identify what we need to extract
+		ObjectNode keys_of  = null;
+		ObjectNode fields   = null;
+		if (wsSubsetSelection != null) {
+			keys_of = (ObjectNode)wsSubsetSelection.get("keys");
+			fields = (ObjectNode)wsSubsetSelection.get("fields");
+		}
+		// the handler accumulates the extracted metadata, so use a new one
+		// for each extraction
+		return SubsetAndMetadataExtractor.extractFields(tsp, keys_of, fields,
+				maxSubsetSize, maxMetadataSize,
+				new MetadataExtractionHandler(wsMetadataSelection, -1));
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -460,6 +651,8 @@ public class TypedObjectValidationReport {
 		builder.append(size);
 		builder.append(", sorted=");
 		builder.append(sorted);
+		builder.append(", md5=");
+		builder.append(md5);
 		builder.append("]");
 		return builder.toString();
 	}
@@ -77,6 +77,11 @@ public final class TypedObjectValidator {
 	 */
 	protected TypeDefinitionDB typeDefDB;
 	
+	// if true, reports extract the subset and metadata while calculating the object size
+	private final boolean preExtract;
+	private final long maxSubsetSize;
+	private final long maxMetadataSize;
+	
 	
 	/**
 	 * Get the type database the validator validates typed object instances against.
@@ -92,6 +97,25 @@ public final class TypedObjectValidator {
 	 */
 	public TypedObjectValidator(TypeDefinitionDB typeDefDB) {
 		this.typeDefDB = typeDefDB;
+		this.preExtract = false;
+		this.maxSubsetSize = -1;
+		this.maxMetadataSize = -1;
+	}
+	
+	/**
+	 * Construct a TypedObjectValidator set to the specified Typed Object Definition DB. The
+	 * reports produced by the validator extract the searchable subset and metadata with the given
+	 * size limits in the same pass over the object that calculates its relabeled size, so that
+	 * objects that are sorted after relabeling need not be read again for extraction.
+	 * @param maxSubsetSize the maximum size of the searchable subset.
+	 * @param maxMetadataSize the maximum size of the metadata.
+	 */
+	public TypedObjectValidator(TypeDefinitionDB typeDefDB, long maxSubsetSize,
+			long maxMetadataSize) {
+		this.typeDefDB = typeDefDB;
+		this.preExtract = true;
+		this.maxSubsetSize = maxSubsetSize;
+		this.maxMetadataSize = maxMetadataSize;
 	}
 	
 	
@@ -173,13 +197,41 @@ public final class TypedObjectValidator {
 			throws NoSuchTypeException, NoSuchModuleException,
 			TypeStorageException, TypedObjectSchemaException,
 			TooManyIdsException, JsonParseException, IOException {
+		return validate(obj, typeDefId, handlers, null);
+	}
+	
+	/**
+	 * Validate a typed object, optionally deferring the addition of any IDs
+	 * found in the object to the ID handlers.
+	 * 
+	 * If deferredIds is not null, any IDs for which a handler exists are
+	 * added to the list, in the order encountered, rather than to the
+	 * handler set. The handler set is not modified, and so multiple objects
+	 * may be validated concurrently against the same handler set. The caller
+	 * is then responsible for adding the IDs to the handler set with
+	 * {@link #addDeferredIds(TypedObjectValidationReport, List,
+	 * IdReferenceHandlerSet)} prior to processing the IDs, which adds any ID
+	 * errors to the report as validation without deferral would have.
+	 * @param obj the object to validate.
+	 * @param typeDefId the type of the object.
+	 * @param handlers the ID handlers for the object.
+	 * @param deferredIds a list in which to store IDs found in the object, or
+	 * null to add IDs directly to the handlers.
+	 * @return the validation report.
+	 */
+	public TypedObjectValidationReport validate(final UObject obj,
+			final TypeDefId typeDefId, final IdReferenceHandlerSet<?> handlers,
+			final List<DeferredId> deferredIds)
+			throws NoSuchTypeException, NoSuchModuleException,
+			TypeStorageException, TypedObjectSchemaException,
+			TooManyIdsException, JsonParseException, IOException {
 		AbsoluteTypeDefId absoluteTypeDefId = typeDefDB.resolveTypeDefId(typeDefId);
 		
 		// Actually perform the validation and return the report
 		final List<String> errors = new ArrayList<String>();
-		String schemaText = typeDefDB.getJsonSchemaDocument(absoluteTypeDefId);
+		// parsed schemas are cached in the type database
 		final JsonTokenValidationSchema schema =
-				JsonTokenValidationSchema.parseJsonSchema(schemaText);
+				typeDefDB.getJsonSchema(absoluteTypeDefId);
 		
 		// these must be arrays to get the inner class def override to work
 		final JsonNode [] wsSubsetSelection = new JsonNode[] {null}; // was renamed from searchDataWrap
@@ -209,28 +261,16 @@ public final class TypedObjectValidator {
 							throws TooManyIdsException,
 							JsonTokenValidationException {
 						if (handlers.hasHandler(ref.getType())) {
-							try {
-								handlers.addStringId(ref);
-							} catch (IdParseException e) {
-								addError(String.format(
-										"Unparseable id %s of type %s: %s at %s",
-										e.getId(),
-										e.getIdType().getType(),
-										e.getMessage(),
-										loc.getFullLocationAsString()));
-							} catch (IdReferenceException e) {
-								addError(String.format(
-										"Invalid id %s of type %s: %s at %s",
-										e.getId(),
-										e.getIdType().getType(),
-										e.getMessage(),
-										loc.getFullLocationAsString()));
-							} catch (IdReferenceHandlerException e) {
-								addError(String.format(
-										"Id handling error for id type %s: %s at %s",
-										e.getIdType().getType(),
-										e.getMessage(),
-										loc.getFullLocationAsString()));
+							if (deferredIds != null) {
+								deferredIds.add(new DeferredId(ref,
+										loc.getFullLocationAsString(),
+										errorCount));
+								return;
+							}
+							final String err = addStringId(handlers, ref,
+									loc.getFullLocationAsString());
+							if (err != null) {
+								addError(err);
 							}
 						}
 					}
@@ -274,7 +314,7 @@ public final class TypedObjectValidator {
 			}
 		}
 
-		return new TypedObjectValidationReport(
+		final TypedObjectValidationReport report = new TypedObjectValidationReport(
 									obj,
 									absoluteTypeDefId,
 									errors, 
@@ -282,6 +322,91 @@ public final class TypedObjectValidator {
 									metadataSelection[0],
 									schema,
 									handlers);
+		if (preExtract) {
+			report.setPreExtraction(maxSubsetSize, maxMetadataSize);
+		}
+		return report;
+	}
+	
+	/**
+	 * Add IDs deferred by {@link #validate(UObject, TypeDefId,
+	 * IdReferenceHandlerSet, List)} to the handler set. Any ID errors are
+	 * merged with the errors in the report in the order they would have
+	 * occurred without deferral, subject to the same maximum error count, and
+	 * IDs after the point validation would have stopped are not added.
+	 * @param report the report from validating the object.
+	 * @param deferredIds the IDs deferred during validation.
+	 * @param handlers the ID handlers for the object.
+	 * @throws TooManyIdsException if the handlers contain too many IDs.
+	 */
+	public void addDeferredIds(final TypedObjectValidationReport report,
+			final List<DeferredId> deferredIds,
+			final IdReferenceHandlerSet<?> handlers)
+			throws TooManyIdsException {
+		final List<String> schemaErrors = report.errors;
+		final List<String> errors = new ArrayList<String>();
+		int next = 0;
+		for (final DeferredId id: deferredIds) {
+			while (next < id.precedingErrors && next < schemaErrors.size()) {
+				errors.add(schemaErrors.get(next++));
+				if (errors.size() >= maxErrorCount) {
+					report.errors = errors;
+					return;
+				}
+			}
+			final String err = addStringId(handlers, id.ref, id.location);
+			if (err != null) {
+				mapErrors(errors, err);
+				if (errors.size() >= maxErrorCount) {
+					report.errors = errors;
+					return;
+				}
+			}
+		}
+		while (next < schemaErrors.size() && errors.size() < maxErrorCount) {
+			errors.add(schemaErrors.get(next++));
+		}
+		report.errors = errors;
+	}
+	
+	// returns the error message if the ID could not be added, or null
+	private static String addStringId(final IdReferenceHandlerSet<?> handlers,
+			final IdReference<String> ref, final String location)
+			throws TooManyIdsException {
+		try {
+			handlers.addStringId(ref);
+			return null;
+		} catch (IdParseException e) {
+			return String.format("Unparseable id %s of type %s: %s at %s",
+					e.getId(), e.getIdType().getType(), e.getMessage(),
+					location);
+		} catch (IdReferenceException e) {
+			return String.format("Invalid id %s of type %s: %s at %s",
+					e.getId(), e.getIdType().getType(), e.getMessage(),
+					location);
+		} catch (IdReferenceHandlerException e) {
+			return String.format("Id handling error for id type %s: %s at %s",
+					e.getIdType().getType(), e.getMessage(), location);
+		}
+	}
+	
+	/**
+	 * An ID found during validation whose addition to the ID handlers was
+	 * deferred.
+	 */
+	public static class DeferredId {
+		
+		private final IdReference<String> ref;
+		private final String location;
+		// the number of errors found before the ID
+		private final int precedingErrors;
+		
+		private DeferredId(final IdReference<String> ref,
+				final String location, final int precedingErrors) {
+			this.ref = ref;
+			this.location = location;
+			this.precedingErrors = precedingErrors;
+		}
 	}
 	
 	private void mapErrors(final List<String> errors, final String err) {
@@ -0,0 +1,208 @@
+package us.kbase.typedobj.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks for type modules. Each module has its own fair
+ * read/write lock, so readers of different modules never contend with each
+ * other and readers of the same module only contend with a writer of that
+ * module. Read locks are reentrant and may be taken by a thread holding the
+ * write lock of the module. Only one writer per module is allowed at a time,
+ * and a second concurrent writer fails immediately rather than waiting.
+ *
+ * Contention metrics are recorded for monitoring.
+ */
+public class ModuleLockManager {
+
+	private final long maxWaitTimeMS;
+	private final ConcurrentMap<String, ModuleLock> locks =
+			new ConcurrentHashMap<String, ModuleLock>();
+
+	private final AtomicLong readLocks = new AtomicLong();
+	private final AtomicLong writeLocks = new AtomicLong();
+	private final AtomicLong contendedReadLocks = new AtomicLong();
+	private final AtomicLong contendedWriteLocks = new AtomicLong();
+	private final AtomicLong waitTimeNS = new AtomicLong();
+	private final AtomicLong lockFreeReads = new AtomicLong();
+
+	/** Create a lock manager.
+	 * @param maxWaitTimeMS the maximum time to wait for a lock before
+	 * assuming a deadlock has occurred.
+	 */
+	public ModuleLockManager(final long maxWaitTimeMS) {
+		if (maxWaitTimeMS < 1) {
+			throw new IllegalArgumentException(
+					"Maximum wait time must be at least 1 ms");
+		}
+		this.maxWaitTimeMS = maxWaitTimeMS;
+	}
+
+	private ModuleLock getLock(final String moduleName) {
+		ModuleLock ml = locks.get(moduleName);
+		if (ml == null) {
+			final ModuleLock newml = new ModuleLock();
+			ml = locks.putIfAbsent(moduleName, newml);
+			if (ml == null) {
+				ml = newml;
+			}
+		}
+		return ml;
+	}
+
+	/** Acquire a read lock on a module.
+	 * @param moduleName the module to lock.
+	 */
+	public void readLock(final String moduleName) {
+		final ReentrantReadWriteLock l = getLock(moduleName).lock;
+		if (!tryLockNow(l.readLock())) {
+			contendedReadLocks.incrementAndGet();
+			if (!waitForLock(l.readLock())) {
+				throw new IllegalStateException("Looks like deadlock");
+			}
+		}
+		readLocks.incrementAndGet();
+	}
+
+	/** Release a read lock on a module.
+	 * @param moduleName the module to unlock.
+	 */
+	public void releaseReadLock(final String moduleName) {
+		final ReentrantReadWriteLock l = getLock(moduleName).lock;
+		if (l.getReadHoldCount() == 0) {
+			throw new IllegalStateException("Can not release empty read lock");
+		}
+		l.readLock().unlock();
+	}
+
+	/** Acquire the write lock on a module.
+	 * @param moduleName the module to lock.
+	 */
+	public void writeLock(final String moduleName) {
+		final ModuleLock ml = getLock(moduleName);
+		if (!ml.writing.compareAndSet(false, true)) {
+			throw new IllegalStateException(
+					"Concurent changes of module " + moduleName);
+		}
+		if (ml.lock.getReadHoldCount() > 0) {
+			ml.writing.set(false);
+			throw new IllegalStateException(
+					"Can not upgrade read lock to write lock for module " +
+					moduleName);
+		}
+		if (!tryLockNow(ml.lock.writeLock())) {
+			contendedWriteLocks.incrementAndGet();
+			if (!waitForLock(ml.lock.writeLock())) {
+				ml.writing.set(false);
+				throw new IllegalStateException("Looks like deadlock");
+			}
+		}
+		writeLocks.incrementAndGet();
+	}
+
+	/** Release the write lock on a module.
+	 * @param moduleName the module to unlock.
+	 */
+	public void releaseWriteLock(final String moduleName) {
+		final ModuleLock ml = getLock(moduleName);
+		if (!ml.lock.isWriteLockedByCurrentThread()) {
+			throw new IllegalStateException("Can not release empty write lock");
+		}
+		ml.writing.set(false);
+		ml.lock.writeLock().unlock();
+	}
+
+	/** Record a read that was satisfied without taking a lock. */
+	public void recordLockFreeRead() {
+		lockFreeReads.incrementAndGet();
+	}
+
+	// unlike tryLock(), respects the fairness of the lock
+	private boolean tryLockNow(final Lock l) {
+		try {
+			return l.tryLock(0, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	// waits for the lock, ignoring interrupts as the previous implementation
+	// did, but restores the interrupt status when done.
+	private boolean waitForLock(final Lock l) {
+		final long start = System.nanoTime();
+		final long deadline = start +
+				TimeUnit.MILLISECONDS.toNanos(maxWaitTimeMS);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return l.tryLock(deadline - System.nanoTime(),
+							TimeUnit.NANOSECONDS);
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			waitTimeNS.addAndGet(System.nanoTime() - start);
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Returns the number of read locks acquired.
+	 * @return the number of read locks acquired.
+	 */
+	public long getReadLocks() {
+		return readLocks.get();
+	}
+
+	/** Returns the number of write locks acquired.
+	 * @return the number of write locks acquired.
+	 */
+	public long getWriteLocks() {
+		return writeLocks.get();
+	}
+
+	/** Returns the number of read lock requests that had to wait for a
+	 * writer.
+	 * @return the number of contended read lock requests.
+	 */
+	public long getContendedReadLocks() {
+		return contendedReadLocks.get();
+	}
+
+	/** Returns the number of write lock requests that had to wait for
+	 * readers.
+	 * @return the number of contended write lock requests.
+	 */
+	public long getContendedWriteLocks() {
+		return contendedWriteLocks.get();
+	}
+
+	/** Returns the total time spent waiting for contended locks.
+	 * @return the total wait time in milliseconds.
+	 */
+	public long getWaitTimeMS() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTimeNS.get());
+	}
+
+	/** Returns the number of reads satisfied without taking a lock.
+	 * @return the number of lock free reads.
+	 */
+	public long getLockFreeReads() {
+		return lockFreeReads.get();
+	}
+
+	private static class ModuleLock {
+		// fair so that a waiting writer is not starved by new readers
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+		final AtomicBoolean writing = new AtomicBoolean(false);
+	}
+}
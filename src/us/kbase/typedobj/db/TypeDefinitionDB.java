@@ -28,6 +28,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 
 import us.kbase.jkidl.StaticIncludeProvider;
@@ -85,13 +86,14 @@ public class TypeDefinitionDB {
 	private final TypeStorage storage;
 	private final File parentTempDir;
 	private final Object tempDirLock = new Object(); 
-	private final Object moduleStateLock = new Object(); 
-	private final Map<String, ModuleState> moduleStates = new HashMap<String, ModuleState>();
-	private final ThreadLocal<Map<String,Integer>> localReadLocks = new ThreadLocal<Map<String,Integer>>(); 
+	private final ModuleLockManager moduleLocks =
+			new ModuleLockManager(maxDeadLockWaitTime);
 	private final String kbTopPath;
 	private final KidlSource kidlSource;
 	private final LoadingCache<String, ModuleInfo> moduleInfoCache;
 	private final LoadingCache<AbsoluteTypeDefId, String> typeJsonSchemaCache;
+	private final LoadingCache<AbsoluteTypeDefId, JsonTokenValidationSchema>
+			typeValidationSchemaCache;
 	
 	private static final SemanticVersion defaultVersion = new SemanticVersion(0, 1);
 	private static final SemanticVersion releaseVersion = new SemanticVersion(1, 0);
@@ -186,6 +188,19 @@ public class TypeDefinitionDB {
 						return jsonSchemaDocument;
 					}
 				});
+		// parsed schemas are immutable, so a single instance can be shared
+		// by every validation of a given type version
+		typeValidationSchemaCache = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize).recordStats().build(
+				new CacheLoader<AbsoluteTypeDefId, JsonTokenValidationSchema>() {
+					@Override
+					public JsonTokenValidationSchema load(AbsoluteTypeDefId typeDefId)
+							throws TypeStorageException, NoSuchModuleException,
+							NoSuchTypeException, TypedObjectSchemaException {
+						return JsonTokenValidationSchema.parseJsonSchema(
+								getCachedJsonSchemaDocument(typeDefId));
+					}
+				});
 	}
 	
 	
@@ -202,38 +217,6 @@ public class TypeDefinitionDB {
 		return getJsonSchemaDocument(new TypeDefId(typeDefName));
 	}
 	
-	private ModuleState getModuleState(String moduleName) {
-		synchronized (moduleStateLock) {
-			ModuleState ret = moduleStates.get(moduleName);
-			if (ret == null) {
-				ret = new ModuleState();
-				moduleStates.put(moduleName, ret);
-			}
-			return ret;
-		}
-	}
-	
-	private int getLocalReadLocks(String moduleName) {
-		Map<String, Integer> map = localReadLocks.get();
-		if (map == null) {
-			map = new HashMap<String, Integer>();
-			localReadLocks.set(map);
-		}
-		Integer ret = map.get(moduleName);
-		if (ret == null)
-			return 0;
-		return ret;
-	}
-
-	private void setLocalReadLocks(String moduleName, int locks) {
-		Map<String, Integer> map = localReadLocks.get();
-		if (map == null) {
-			map = new HashMap<String, Integer>();
-			localReadLocks.set(map);
-		}
-		map.put(moduleName, locks);
-	}
-
 	private void requestReadLock(String moduleName) throws NoSuchModuleException, TypeStorageException {
 		if (moduleInfoCache.getIfPresent(moduleName) == null) {
 			if (!storage.checkModuleExist(moduleName))
@@ -242,71 +225,38 @@ public class TypeDefinitionDB {
 		requestReadLockNM(moduleName);
 	}
 		
-	private void requestReadLockNM(String moduleName) throws TypeStorageException {
-		int lrl = getLocalReadLocks(moduleName);
-		if (lrl == 0) {
-			final ModuleState ms = getModuleState(moduleName);
-			synchronized (ms) {
-				long startTime = System.currentTimeMillis();
-				while (ms.writerCount > 0) {
-					try {
-						ms.wait(10000);
-					} catch (InterruptedException ignore) {}
-					if (System.currentTimeMillis() - startTime > maxDeadLockWaitTime)
-						throw new IllegalStateException("Looks like deadlock");
-				}
-				ms.readerCount++;
-				//new Exception("moduleName=" + moduleName + ", readerCount=" + ms.readerCount).printStackTrace(System.out);
-			}
-		}
-		setLocalReadLocks(moduleName, lrl + 1);
+	private void requestReadLockNM(String moduleName) {
+		moduleLocks.readLock(moduleName);
 	}
 	
 	private void releaseReadLock(String moduleName) {
-		final ModuleState ms = getModuleState(moduleName);
-		int lrl = getLocalReadLocks(moduleName);
-		lrl--;
-		setLocalReadLocks(moduleName, lrl);
-		if (lrl == 0) {
-			synchronized (ms) {
-				if (ms.readerCount == 0)
-					throw new IllegalStateException("Can not release empty read lock");
-				ms.readerCount--;
-				//new Exception("moduleName=" + moduleName + ", readerCount=" + ms.readerCount).printStackTrace(System.out);
-				ms.notifyAll();
-			}		
-		}
+		moduleLocks.releaseReadLock(moduleName);
 	}
 	
 	private void requestWriteLock(String moduleName) {
-		final ModuleState ms = getModuleState(moduleName);
-		synchronized (ms) {
-			if (ms.writerCount > 0)
-				throw new IllegalStateException("Concurent changes of module " + moduleName);
-			ms.writerCount++;
-			//new Exception("moduleName=" + moduleName + ", writerCount=" + ms.writerCount).printStackTrace(System.out);
-			long startTime = System.currentTimeMillis();
-			while (ms.readerCount > 0) {
-				try {
-					ms.wait(10000);
-				} catch (InterruptedException ignore) {}
-				if (System.currentTimeMillis() - startTime > maxDeadLockWaitTime) {
-					ms.writerCount--;
-					throw new IllegalStateException("Looks like deadlock");
-				}
-			}
-		}
+		moduleLocks.writeLock(moduleName);
 	}
 	
 	private void releaseWriteLock(String moduleName) {
-		final ModuleState ms = getModuleState(moduleName);
-		synchronized (ms) {
-			if (ms.writerCount == 0)
-				throw new IllegalStateException("Can not release empty write lock");
-			ms.writerCount--;
-			//new Exception("moduleName=" + moduleName + ", writerCount=" + ms.writerCount).printStackTrace(System.out);
-			ms.notifyAll();
-		}		
+		moduleLocks.releaseWriteLock(moduleName);
+	}
+	
+	/**
+	 * Returns the id of an exact type version if it is already cached and its
+	 * module is known to exist. Type versions never change once saved, so
+	 * such ids can be used without taking the module read lock.
+	 */
+	private AbsoluteTypeDefId getCachedAbsoluteTypeDefId(
+			final TypeDefId typeDefId) {
+		if (!typeDefId.isAbsolute() || typeDefId.getMd5() != null)
+			return null;
+		if (moduleInfoCache.getIfPresent(typeDefId.getType().getModule()) == null)
+			return null;
+		final AbsoluteTypeDefId ret = new AbsoluteTypeDefId(typeDefId.getType(),
+				typeDefId.getMajorVersion(), typeDefId.getMinorVersion());
+		if (typeJsonSchemaCache.getIfPresent(ret) == null)
+			return null;
+		return ret;
 	}
 	
 	/**
@@ -322,13 +272,7 @@ public class TypeDefinitionDB {
 	 */
 	public String getJsonSchemaDocument(final TypeDefId typeDefId)
 			throws NoSuchTypeException, NoSuchModuleException, TypeStorageException {
-		String moduleName = typeDefId.getType().getModule();
-		requestReadLock(moduleName);
-		try {
-			return getJsonSchemaDocumentNL(typeDefId, null);
-		} finally {
-			releaseReadLock(moduleName);
-		}
+		return getJsonSchemaDocument(typeDefId, null);
 	}
 
 	/**
@@ -346,6 +290,14 @@ public class TypeDefinitionDB {
 	 */
 	public String getJsonSchemaDocument(final TypeDefId typeDefId, String userId)
 			throws NoSuchTypeException, NoSuchModuleException, TypeStorageException {
+		final AbsoluteTypeDefId cached = getCachedAbsoluteTypeDefId(typeDefId);
+		if (cached != null) {
+			final String ret = typeJsonSchemaCache.getIfPresent(cached);
+			if (ret != null) {
+				moduleLocks.recordLockFreeRead();
+				return ret;
+			}
+		}
 		String moduleName = typeDefId.getType().getModule();
 		requestReadLock(moduleName);
 		try {
@@ -359,6 +311,12 @@ public class TypeDefinitionDB {
 			throws NoSuchTypeException, NoSuchModuleException, TypeStorageException {
 		AbsoluteTypeDefId absTypeDefId = resolveTypeDefIdNL(typeDefId, 
 				isOwnerOfModule(typeDefId.getType().getModule(), userId));
+		return getCachedJsonSchemaDocument(absTypeDefId);
+	}
+	
+	private String getCachedJsonSchemaDocument(
+			final AbsoluteTypeDefId absTypeDefId)
+			throws NoSuchTypeException, NoSuchModuleException, TypeStorageException {
 		String ret;
 		try {
 			ret = typeJsonSchemaCache.get(absTypeDefId);
@@ -456,6 +414,11 @@ public class TypeDefinitionDB {
 	 */
 	public AbsoluteTypeDefId resolveTypeDefId(final TypeDefId typeDefId) 
 			throws NoSuchTypeException, NoSuchModuleException, TypeStorageException {
+		final AbsoluteTypeDefId cached = getCachedAbsoluteTypeDefId(typeDefId);
+		if (cached != null) {
+			moduleLocks.recordLockFreeRead();
+			return cached;
+		}
 		String moduleName = typeDefId.getType().getModule();
 		requestReadLock(moduleName);
 		try {
@@ -523,17 +486,69 @@ public class TypeDefinitionDB {
 	public JsonTokenValidationSchema getJsonSchema(final TypeDefId typeDefId)
 			throws NoSuchTypeException, NoSuchModuleException,
 			TypeStorageException, TypedObjectSchemaException {
+		final AbsoluteTypeDefId cached = getCachedAbsoluteTypeDefId(typeDefId);
+		if (cached != null) {
+			final JsonTokenValidationSchema ret =
+					typeValidationSchemaCache.getIfPresent(cached);
+			if (ret != null) {
+				moduleLocks.recordLockFreeRead();
+				return ret;
+			}
+		}
 		String moduleName = typeDefId.getType().getModule();
 		requestReadLock(moduleName);
 		try {
-			final String jsonSchemaDocument =
-					getJsonSchemaDocumentNL(typeDefId, null);
-			return JsonTokenValidationSchema.parseJsonSchema(jsonSchemaDocument);
+			final AbsoluteTypeDefId absTypeDefId =
+					resolveTypeDefIdNL(typeDefId, false);
+			return getCachedJsonSchema(absTypeDefId);
 		} finally {
 			releaseReadLock(moduleName);
 		}
 	}
 	
+	private JsonTokenValidationSchema getCachedJsonSchema(
+			final AbsoluteTypeDefId absTypeDefId)
+			throws NoSuchTypeException, NoSuchModuleException,
+			TypeStorageException, TypedObjectSchemaException {
+		try {
+			return typeValidationSchemaCache.get(absTypeDefId);
+		} catch (ExecutionException e) {
+			if (e.getCause() != null) {
+				if (e.getCause() instanceof NoSuchModuleException) {
+					throw (NoSuchModuleException)e.getCause();
+				} else if (e.getCause() instanceof NoSuchTypeException) {
+					throw (NoSuchTypeException)e.getCause();
+				} else if (e.getCause() instanceof TypeStorageException) {
+					throw (TypeStorageException)e.getCause();
+				} else if (e.getCause() instanceof TypedObjectSchemaException) {
+					throw (TypedObjectSchemaException)e.getCause();
+				} else {
+					throw new TypeStorageException(e.getCause().getMessage(), e.getCause());
+				}
+			} else {
+				throw new TypeStorageException(e.getMessage(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Get statistics for the cache of parsed validation schemas returned by
+	 * getJsonSchema(). Includes hit, miss, and eviction counts.
+	 * @return the cache statistics.
+	 */
+	public CacheStats getJsonSchemaCacheStats() {
+		return typeValidationSchemaCache.stats();
+	}
+	
+	/**
+	 * Get the lock manager for modules, which provides lock contention
+	 * statistics.
+	 * @return the module lock manager.
+	 */
+	public ModuleLockManager getModuleLockManager() {
+		return moduleLocks;
+	}
+	
 	/**
 	 * Convert a Json Schema Document into a Json Schema object that can be used for json validation.
 	 * @param jsonSchemaDocument
@@ -1031,6 +1046,7 @@ public class TypeDefinitionDB {
 				storage.setModuleReleaseVersion(moduleName, version);
 			}
 			removeModuleInfoFromCache(moduleName);
+			removeTypeSchemasFromCache(moduleName);
 		} finally {
 			releaseWriteLock(moduleName);
 		}
@@ -1149,6 +1165,7 @@ public class TypeDefinitionDB {
 	public void cleanupCaches() {
 		moduleInfoCache.cleanUp();
 		typeJsonSchemaCache.cleanUp();
+		typeValidationSchemaCache.cleanUp();
 	}
 	
 	private ModuleInfo copyOf(ModuleInfo input) throws TypeStorageException {
@@ -1496,6 +1513,7 @@ public class TypeDefinitionDB {
 			checkModuleRegistered(moduleName);
 			storage.removeModule(moduleName);
 			removeModuleInfoFromCache(moduleName);
+			removeTypeSchemasFromCache(moduleName);
 		} finally {
 			releaseWriteLock(moduleName);
 		}
@@ -2617,6 +2635,24 @@ public class TypeDefinitionDB {
 		moduleInfoCache.invalidate(moduleName);		
 	}
 	
+	private void removeTypeSchemasFromCache(String moduleName) {
+		removeModuleTypesFromCache(typeJsonSchemaCache, moduleName);
+		removeModuleTypesFromCache(typeValidationSchemaCache, moduleName);
+	}
+	
+	private static void removeModuleTypesFromCache(
+			final LoadingCache<AbsoluteTypeDefId, ?> cache,
+			final String moduleName) {
+		final List<AbsoluteTypeDefId> toRemove =
+				new ArrayList<AbsoluteTypeDefId>();
+		for (final AbsoluteTypeDefId type: cache.asMap().keySet()) {
+			if (type.getType().getModule().equals(moduleName)) {
+				toRemove.add(type);
+			}
+		}
+		cache.invalidateAll(toRemove);
+	}
+	
 	public TypeDetailedInfo getTypeDetailedInfo(TypeDefId typeDef, boolean markLinksInSpec, String userId) 
 			throws NoSuchModuleException, TypeStorageException, NoSuchTypeException {
 		String moduleName = typeDef.getType().getModule();
@@ -2892,9 +2928,4 @@ public class TypeDefinitionDB {
 			return ret.toString();
 		}
 	}
-	
-	private static class ModuleState {
-		int readerCount = 0;
-		int writerCount = 0;
-	}
 }
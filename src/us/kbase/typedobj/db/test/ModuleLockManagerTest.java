@@ -0,0 +1,156 @@
+package us.kbase.typedobj.db.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import us.kbase.typedobj.db.ModuleLockManager;
+
+public class ModuleLockManagerTest {
+
+	private void failWriteLock(final ModuleLockManager mlm,
+			final String module, final String exception) {
+		try {
+			mlm.writeLock(module);
+			fail("got write lock");
+		} catch (IllegalStateException ise) {
+			assertThat("correct exception message", ise.getLocalizedMessage(),
+					is(exception));
+		}
+	}
+
+	private Thread startThread(final Runnable r) throws Exception {
+		final Thread t = new Thread(r);
+		t.start();
+		return t;
+	}
+
+	@Test
+	public void badWaitTime() throws Exception {
+		try {
+			new ModuleLockManager(0);
+			fail("created lock manager with bad wait time");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception message", iae.getLocalizedMessage(),
+					is("Maximum wait time must be at least 1 ms"));
+		}
+	}
+
+	@Test
+	public void reentrantReads() throws Exception {
+		final ModuleLockManager mlm = new ModuleLockManager(1000);
+		mlm.readLock("A");
+		mlm.readLock("A");
+		mlm.readLock("B");
+		mlm.releaseReadLock("A");
+		mlm.releaseReadLock("B");
+		failWriteLock(mlm, "A",
+				"Can not upgrade read lock to write lock for module A");
+		mlm.releaseReadLock("A");
+		try {
+			mlm.releaseReadLock("A");
+			fail("released empty read lock");
+		} catch (IllegalStateException ise) {
+			assertThat("correct exception message", ise.getLocalizedMessage(),
+					is("Can not release empty read lock"));
+		}
+		mlm.writeLock("A");
+		mlm.readLock("A"); // readers may lock a module they're writing
+		mlm.releaseReadLock("A");
+		mlm.releaseWriteLock("A");
+		try {
+			mlm.releaseWriteLock("A");
+			fail("released empty write lock");
+		} catch (IllegalStateException ise) {
+			assertThat("correct exception message", ise.getLocalizedMessage(),
+					is("Can not release empty write lock"));
+		}
+		assertThat("read locks", mlm.getReadLocks(), is(4L));
+		assertThat("write locks", mlm.getWriteLocks(), is(1L));
+		assertThat("contended reads", mlm.getContendedReadLocks(), is(0L));
+		assertThat("contended writes", mlm.getContendedWriteLocks(), is(0L));
+	}
+
+	@Test
+	public void concurrentWriters() throws Exception {
+		final ModuleLockManager mlm = new ModuleLockManager(1000);
+		mlm.writeLock("A");
+		final Exception[] err = {null};
+		startThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					failWriteLock(mlm, "A", "Concurent changes of module A");
+					mlm.writeLock("B");
+					mlm.releaseWriteLock("B");
+				} catch (Exception e) {
+					err[0] = e;
+				}
+			}
+		}).join(10000);
+		assertThat("no errors in thread", err[0], is((Exception) null));
+		mlm.releaseWriteLock("A");
+	}
+
+	@Test
+	public void writerWaitsForReaders() throws Exception {
+		final ModuleLockManager mlm = new ModuleLockManager(10000);
+		mlm.readLock("A");
+		final boolean[] locked = {false};
+		final Thread writer = startThread(new Runnable() {
+			@Override
+			public void run() {
+				mlm.writeLock("A");
+				locked[0] = true;
+				mlm.releaseWriteLock("A");
+			}
+		});
+		while (mlm.getContendedWriteLocks() < 1) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		assertThat("writer waiting", locked[0], is(false));
+		// a new reader waits behind the queued writer
+		final Thread reader = startThread(new Runnable() {
+			@Override
+			public void run() {
+				mlm.readLock("A");
+				mlm.releaseReadLock("A");
+			}
+		});
+		while (mlm.getContendedReadLocks() < 1) {
+			Thread.sleep(10);
+		}
+		mlm.releaseReadLock("A");
+		writer.join(10000);
+		reader.join(10000);
+		assertThat("writer got lock", locked[0], is(true));
+		assertThat("read locks", mlm.getReadLocks(), is(2L));
+		assertThat("waited", mlm.getWaitTimeMS() >= 100, is(true));
+	}
+
+	@Test
+	public void deadlock() throws Exception {
+		final ModuleLockManager mlm = new ModuleLockManager(50);
+		mlm.readLock("A");
+		final Exception[] err = {null};
+		startThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mlm.writeLock("A");
+				} catch (Exception e) {
+					err[0] = e;
+				}
+			}
+		}).join(10000);
+		assertThat("correct exception message", err[0].getLocalizedMessage(),
+				is("Looks like deadlock"));
+		mlm.releaseReadLock("A");
+		// the failed writer released its claim on the module
+		mlm.writeLock("A");
+		mlm.releaseWriteLock("A");
+	}
+}
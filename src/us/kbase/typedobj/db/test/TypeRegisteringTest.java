@@ -35,6 +35,7 @@ import com.mongodb.MongoClient;
 
 import us.kbase.common.test.controllers.mongo.MongoController;
 import us.kbase.typedobj.core.AbsoluteTypeDefId;
+import us.kbase.typedobj.core.JsonTokenValidationSchema;
 import us.kbase.typedobj.core.MD5;
 import us.kbase.typedobj.core.TypeDefId;
 import us.kbase.typedobj.core.TypeDefName;
@@ -742,6 +743,26 @@ public class TypeRegisteringTest {
 		
 	}
 	
+	@Test
+	public void testSchemaCache() throws Exception {
+		initModule("SomeModule", adminUser);
+		db.registerModule(loadSpec("deps", "SomeModule"), Arrays.asList("AType"), adminUser);
+		releaseModule("SomeModule", adminUser);
+		TypeDefId type = new TypeDefId("SomeModule.AType", "1.0");
+		long hits = db.getJsonSchemaCacheStats().hitCount();
+		long misses = db.getJsonSchemaCacheStats().missCount();
+		JsonTokenValidationSchema s1 = db.getJsonSchema(type);
+		JsonTokenValidationSchema s2 = db.getJsonSchema(type);
+		Assert.assertSame(s1, s2);
+		Assert.assertEquals(misses + 1, db.getJsonSchemaCacheStats().missCount());
+		Assert.assertEquals(hits + 1, db.getJsonSchemaCacheStats().hitCount());
+		db.removeModule("SomeModule", adminUser, true);
+		try {
+			db.getJsonSchema(type);
+			Assert.fail();
+		} catch (NoSuchModuleException ex) {}
+	}
+	
 	@Test
 	public void testOwnership() throws Exception {
 		String module = "SomeModule";
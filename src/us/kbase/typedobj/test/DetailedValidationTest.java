@@ -59,7 +59,7 @@ import us.kbase.workspace.test.WorkspaceTestCommon;
 @RunWith(value = Parameterized.class)
 public class DetailedValidationTest {
 
-	private static final int EXPECTED_TESTS = 61;
+	private static final int EXPECTED_TESTS = 63;
 	
 	/**
 	 * location to stash the temporary database for testing
@@ -78,7 +78,7 @@ public class DetailedValidationTest {
 	private final static boolean VERBOSE = true;
 	
 	private final static List<String> KB_TYPES =
-			Arrays.asList("StringField", "IntField", "FloatField", "ListField", "MappingField", "TupleField", "StructureField");
+			Arrays.asList("StringField", "IntField", "FloatField", "ListField", "MappingField", "TupleField", "StructureField", "LargeStructureField");
 	
 	
 	private static List<TestInstanceInfo> resources = new ArrayList <TestInstanceInfo> ();
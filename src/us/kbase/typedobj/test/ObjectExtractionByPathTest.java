@@ -3,6 +3,8 @@ package us.kbase.typedobj.test;
 import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,11 +29,13 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 import us.kbase.common.test.TestException;
+import us.kbase.typedobj.core.JsonStructureIndex;
 import us.kbase.typedobj.core.ObjectPaths;
 import us.kbase.typedobj.core.SubdataExtractor;
 import us.kbase.typedobj.exceptions.TypedObjectExtractionException;
@@ -144,9 +148,47 @@ public class ObjectExtractionByPathTest {
 			assertTrue("  -("+instance.resourceName+") error message should be '"+expectedErrorMessage+"', but was: '"+e.getMessage()+"'",
 					expectedErrorMessage.equals(e.getMessage()));
 		}
+		for (int depth = 1; depth <= 3; depth++) {
+			checkIndexedExtraction(op, data, strict, depth, expectError,
+					expectedErrorMessage, expectedExtract, instance.resourceName);
+		}
 		if(VERBOSE) System.out.println("      PASS.");
 	}
 	
+	private void checkIndexedExtraction(ObjectPaths op, JsonNode data, JsonNode strict,
+			int depth, boolean expectError, String expectedErrorMessage,
+			JsonNode expectedExtract, String resourceName) throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		final byte[] bytes = mapper.writeValueAsBytes(data);
+		ByteArrayOutputStream idxout = new ByteArrayOutputStream();
+		JsonStructureIndex.build(new ByteArrayInputStream(bytes), depth).write(idxout);
+		JsonStructureIndex index = JsonStructureIndex.read(
+				new InputStreamReader(new ByteArrayInputStream(idxout.toByteArray()), "UTF-8"));
+		assertEquals("  -(" + resourceName + ") index depth", depth, index.getDepth());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonGenerator jgen = mapper.getFactory().createGenerator(out);
+		JsonStructureIndex.DataSource source = new JsonStructureIndex.DataSource() {
+			@Override
+			public InputStream openAt(long offset) {
+				return new ByteArrayInputStream(bytes, (int) offset, bytes.length - (int) offset);
+			}
+		};
+		try {
+			if (strict != null)
+				SubdataExtractor.extract(op, index, source, jgen, strict.asBoolean());
+			else
+				SubdataExtractor.extract(op, index, source, jgen);
+			jgen.close();
+			assertFalse("  -(" + resourceName + ") indexed extraction at depth " + depth +
+					" extracted something when error was expected", expectError);
+			compare(mapper.readTree(out.toByteArray()), expectedExtract, resourceName);
+		} catch (TypedObjectExtractionException e) {
+			assertTrue("  -(" + resourceName + ") indexed extraction at depth " + depth +
+					" error message should be '" + expectedErrorMessage + "', but was: '" +
+					e.getMessage() + "'", expectedErrorMessage.equals(e.getMessage()));
+		}
+	}
+	
 	public void compare(JsonNode expectedSubset, JsonNode actualSubset, String resourceName) throws IOException {
 		assertEquals("  -(" + resourceName + ") extracted object does not match expected extract",
 				sortJson(expectedSubset), sortJson(actualSubset));
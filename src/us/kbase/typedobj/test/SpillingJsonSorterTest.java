@@ -0,0 +1,167 @@
+package us.kbase.typedobj.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.kbase.common.utils.sortjson.KeyDuplicationException;
+import us.kbase.common.utils.sortjson.UTF8JsonSorterFactory;
+import us.kbase.typedobj.core.SpillingJsonSorter;
+import us.kbase.typedobj.core.TempFileListener;
+import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.workspace.test.WorkspaceTestCommon;
+
+public class SpillingJsonSorterTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	// enough memory to sort any of the test documents in memory
+	private static final UTF8JsonSorterFactory SORT_FAC =
+			new UTF8JsonSorterFactory(100000000);
+
+	// small enough that a map of a few hundred entries is written to a run
+	private static final int SPILL_MEM = 10000;
+
+	// the sorter merges at most this many runs at once
+	private static final int MAX_MERGE = 64;
+
+	private static TempFilesManager tfm;
+	private static final List<File> runs = new ArrayList<File>();
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		tfm = new TempFilesManager(
+				new File(WorkspaceTestCommon.getTempDir()));
+		tfm.addListener(new TempFileListener() {
+
+			@Override
+			public void createdTempFile(final File f) {
+				if (f.getName().contains("sortrun")) {
+					runs.add(f);
+				}
+			}
+		});
+	}
+
+	@Before
+	public void clearTempFiles() {
+		tfm.cleanup();
+		runs.clear();
+	}
+
+	private static Map<String, Object> makeMap(final List<String> keys) {
+		final Map<String, Object> map = new LinkedHashMap<String, Object>();
+		int i = 0;
+		for (final String k: keys) {
+			if (i % 100 == 0) {
+				// nested maps are sorted in memory within the spilled map
+				final Map<String, Object> inner =
+						new LinkedHashMap<String, Object>();
+				inner.put("z", i);
+				inner.put("a", Arrays.asList("x", 1.5, true, null));
+				map.put(k, inner);
+			} else {
+				map.put(k, "v" + i);
+			}
+			i++;
+		}
+		return map;
+	}
+
+	private static List<String> makeKeys(final int count, final long seed) {
+		final List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			keys.add(String.format("k%06d", i));
+		}
+		Collections.shuffle(keys, new Random(seed));
+		return keys;
+	}
+
+	private static void checkSort(final byte[] input, final int maxMemory)
+			throws Exception {
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		SORT_FAC.getSorter(input).writeIntoStream(expected);
+		final ByteArrayOutputStream got = new ByteArrayOutputStream();
+		new SpillingJsonSorter(tfm, maxMemory).sort(
+				new ByteArrayInputStream(input), got);
+		assertThat("output identical to UTF8JsonSorter",
+				Arrays.equals(got.toByteArray(), expected.toByteArray()),
+				is(true));
+		assertThat("temp files deleted", tfm.isEmpty(), is(true));
+	}
+
+	@Test
+	public void sortInMemory() throws Exception {
+		final byte[] input = MAPPER.writeValueAsBytes(
+				makeMap(makeKeys(100, 1)));
+		checkSort(input, 100000000);
+		assertThat("no runs written", runs.size(), is(0));
+	}
+
+	@Test
+	public void multiPassMerge() throws Exception {
+		final Map<String, Object> outer = new LinkedHashMap<String, Object>();
+		outer.put("map", makeMap(makeKeys(30000, 2)));
+		outer.put("after", 1);
+		checkSort(MAPPER.writeValueAsBytes(outer), SPILL_MEM);
+		assertThat("more runs than can be merged at once: " + runs.size(),
+				runs.size() > 2 * MAX_MERGE, is(true));
+	}
+
+	@Test
+	public void nonBMPKeys() throws Exception {
+		/* characters outside the BMP are encoded as surrogate pairs, which
+		 * sort before U+E000 to U+FFFF as UTF-16 but after as code points
+		 */
+		final List<String> chars = Arrays.asList("a", "\u00e9", "\ud7ff",
+				"\ud83d\ude00", "\ud800\udc00", "\udbff\udfff", "\ue000",
+				"\ufffd", "\uffff");
+		final List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			keys.add(chars.get(i % chars.size()) + i);
+		}
+		Collections.shuffle(keys, new Random(3));
+		final byte[] input = MAPPER.writeValueAsBytes(makeMap(keys));
+		checkSort(input, 100000000);
+		runs.clear();
+		checkSort(input, SPILL_MEM);
+		assertThat("runs written", runs.size() > 1, is(true));
+	}
+
+	@Test
+	public void duplicateKeysAcrossRuns() throws Exception {
+		final List<String> keys = makeKeys(5000, 4);
+		final StringBuilder sb = new StringBuilder("{\"dup\":\"first\"");
+		for (final String k: keys) {
+			sb.append(",\"").append(k).append("\":\"v\"");
+		}
+		sb.append(",\"dup\":\"last\"}");
+		try {
+			new SpillingJsonSorter(tfm, SPILL_MEM).sort(
+					new ByteArrayInputStream(sb.toString().getBytes("UTF-8")),
+					new ByteArrayOutputStream());
+			fail("sorted map with duplicate keys");
+		} catch (KeyDuplicationException kde) {
+			// expected
+		}
+		assertThat("runs written", runs.size() > 1, is(true));
+		assertThat("temp files deleted", tfm.isEmpty(), is(true));
+	}
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.fail;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,6 +18,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -25,7 +27,9 @@ import org.junit.Test;
 import us.kbase.common.utils.sortjson.KeyDuplicationException;
 import us.kbase.common.utils.sortjson.TooManyKeysException;
 import us.kbase.common.utils.sortjson.UTF8JsonSorterFactory;
+import us.kbase.typedobj.core.ExtractedSubsetAndMetadata;
 import us.kbase.typedobj.core.JsonDocumentLocation;
+import us.kbase.typedobj.core.SpillingJsonSorter;
 import us.kbase.typedobj.core.TempFilesManager;
 import us.kbase.typedobj.core.TypeDefId;
 import us.kbase.typedobj.core.TypedObjectValidationReport;
@@ -37,6 +41,7 @@ import us.kbase.typedobj.idref.IdReference;
 import us.kbase.typedobj.idref.IdReferenceHandlerSet;
 import us.kbase.typedobj.idref.IdReferenceHandlerSetFactory;
 import us.kbase.typedobj.idref.IdReferenceType;
+import us.kbase.workspace.database.mongo.TypeData;
 import us.kbase.workspace.kbase.Util;
 import us.kbase.workspace.test.WorkspaceTestCommon;
 
@@ -339,6 +344,120 @@ public class TypedObjectValidationReportTest {
 		}
 	}
 
+	@Test
+	public void md5AndPreExtraction() throws Exception {
+		Map<String, String> refmap = new HashMap<String, String>();
+		refmap.put("z", "y");
+		refmap.put("d", "whoop");
+		refmap.put("a", "a");
+		refmap.put("b", "b");
+		refmap.put("c", "c");
+		IdReferenceHandlerSetFactory fac = new IdReferenceHandlerSetFactory(100);
+		fac.addFactory(new DummyIdHandlerFactory(new IdReferenceType("ws"), refmap));
+		TypedObjectValidator preValidator = new TypedObjectValidator(db, 1000, 1000);
+		TempFilesManager tfm = new TempFilesManager(
+				new File(WorkspaceTestCommon.getTempDir()));
+		
+		//sorted after relabeling, so md5 is calculated with the size
+		checkMD5(preValidator, fac, "{\"m\": {\"c\": \"a\", \"z\": \"d\"}}",
+				"{\"m\":{\"c\":\"a\",\"y\":\"whoop\"}}", null);
+		//unsorted, md5 is calculated when sorting
+		checkMD5(preValidator, fac, "{\"m\": {\"z\": \"a\", \"b\": \"d\"}}",
+				"{\"m\":{\"b\":\"whoop\",\"y\":\"a\"}}", null);
+		checkMD5(preValidator, fac, "{\"m\": {\"z\": \"a\", \"b\": \"d\"}}",
+				"{\"m\":{\"b\":\"whoop\",\"y\":\"a\"}}", tfm);
+		checkMD5(validator, fac, "{\"m\": {\"z\": \"a\", \"b\": \"d\"}}",
+				"{\"m\":{\"b\":\"whoop\",\"y\":\"a\"}}", tfm);
+		tfm.cleanup();
+	}
+	
+	private void checkMD5(TypedObjectValidator val,
+			IdReferenceHandlerSetFactory fac, String json, String expectedJson,
+			TempFilesManager tfm) throws Exception {
+		IdReferenceHandlerSet<String> handlers =
+				fac.createHandlers(String.class).associateObject("foo");
+		TypedObjectValidationReport tovr = val.validate(json,
+				new TypeDefId("TestIDMap.IDMap"), handlers);
+		handlers.processIDs();
+		tovr.getRelabeledSize();
+		tovr.sort(SORT_FAC, tfm);
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Writable w = tovr.createJsonWritable();
+		w.write(o);
+		w.releaseResources();
+		assertThat("correct data", o.toString("UTF-8"), is(expectedJson));
+		assertThat("correct md5", tovr.getMD5().getMD5(),
+				is(DigestUtils.md5Hex(o.toByteArray())));
+		assertThat("correct size", tovr.getRelabeledSize(),
+				is((long) o.size()));
+		ExtractedSubsetAndMetadata esam =
+				tovr.extractSearchableWsSubsetAndMetadata(1000, 1000);
+		assertThat("no subset", esam.getWsSearchableSubset().size(), is(0));
+		assertThat("no metadata", esam.getMetadata().size(), is(0));
+	}
+	
+	@Test
+	public void saveReadsDataOnce() throws Exception {
+		Map<String, String> refmap = new HashMap<String, String>();
+		refmap.put("z", "y");
+		refmap.put("d", "whoop");
+		refmap.put("a", "a");
+		refmap.put("b", "b");
+		refmap.put("c", "c");
+		IdReferenceHandlerSetFactory fac = new IdReferenceHandlerSetFactory(100);
+		fac.addFactory(new DummyIdHandlerFactory(new IdReferenceType("ws"), refmap));
+		TempFilesManager tfm = new TempFilesManager(
+				new File(WorkspaceTestCommon.getTempDir()));
+		
+		//sorted after relabeling
+		checkReadOnce(fac, "{\"m\": {\"c\": \"a\", \"z\": \"d\"}}", null);
+		//unsorted, in memory and in a file
+		checkReadOnce(fac, "{\"m\": {\"z\": \"a\", \"b\": \"d\"}}", null);
+		checkReadOnce(fac, "{\"m\": {\"z\": \"a\", \"b\": \"d\"}}", tfm);
+		tfm.cleanup();
+	}
+	
+	/* Builds the type data as the workspace save does and checks that the
+	 * data is only read when it's written to the blob store.
+	 */
+	private void checkReadOnce(IdReferenceHandlerSetFactory fac, String json,
+			TempFilesManager tfm) throws Exception {
+		IdReferenceHandlerSet<String> handlers =
+				fac.createHandlers(String.class).associateObject("foo");
+		TypedObjectValidationReport tovr = validator.validate(json,
+				new TypeDefId("TestIDMap.IDMap"), handlers);
+		handlers.processIDs();
+		tovr.getRelabeledSize();
+		tovr.sort(SORT_FAC, tfm);
+		final Writable w = tovr.createJsonWritable();
+		final int[] reads = {0};
+		Writable counter = new Writable() {
+			
+			@Override
+			public void write(OutputStream os) throws IOException {
+				reads[0]++;
+				w.write(os);
+			}
+			
+			@Override
+			public void releaseResources() throws IOException {
+				w.releaseResources();
+			}
+		};
+		TypeData td = new TypeData(counter, tovr.getValidationTypeDefId(),
+				new HashMap<String, Object>(), tovr.getMD5(),
+				tovr.getRelabeledSize());
+		assertThat("data read before saving", reads[0], is(0));
+		
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		td.getData().write(o);
+		counter.releaseResources();
+		assertThat("data read once", reads[0], is(1));
+		assertThat("correct md5", td.getChksum(),
+				is(DigestUtils.md5Hex(o.toByteArray())));
+		assertThat("correct size", td.getSize(), is((long) o.size()));
+	}
+	
 	@Test
 	public void relabelAndSortInMemAndFile() throws Exception {
 		String json = "{\"m\": {\"z\": \"a\", \"b\": \"d\"}}";
@@ -442,4 +561,48 @@ public class TypedObjectValidationReportTest {
 					(maxmem - filelength) + " bytes at /"));
 		}
 	}
+	
+	@Test
+	public void spillingSort() throws Exception {
+		String json = "{\"z\":\"a\",\"b\":\"d\"}";
+		String expectedJson = "{\"b\":\"d\",\"z\":\"a\"}";
+		
+		IdReferenceHandlerSetFactory hfac = new IdReferenceHandlerSetFactory(100);
+		IdReferenceHandlerSet<String> handlers =
+				hfac.createHandlers(String.class).associateObject("foo");
+		TypedObjectValidationReport tovr = validator.validate(json,
+				new TypeDefId("TestIDMap.IDMap"), handlers);
+		handlers.processIDs();
+		
+		TempFilesManager tfm = new TempFilesManager(
+				new File(WorkspaceTestCommon.getTempDir()));
+		tfm.cleanup();
+		// too little memory to sort with the factory
+		UTF8JsonSorterFactory fac = new UTF8JsonSorterFactory(1);
+		SpillingJsonSorter spill = new SpillingJsonSorter(tfm, 1);
+		
+		//test with json stored in file
+		tovr.sort(fac, tfm, spill);
+		assertThat("TFM has one file", tfm.getTempFileList().size(), is(1));
+		checkSpilledSort(tovr, expectedJson);
+		assertThat("Temp files manager is empty", tfm.isEmpty(), is(true));
+		
+		//test with json stored in memory
+		tovr.sort(fac, null, spill);
+		assertThat("Temp files manager is empty", tfm.isEmpty(), is(true));
+		checkSpilledSort(tovr, expectedJson);
+	}
+	
+	private void checkSpilledSort(TypedObjectValidationReport tovr,
+			String expectedJson) throws Exception {
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Writable w = tovr.createJsonWritable();
+		w.write(o);
+		w.releaseResources();
+		assertThat("sorted correctly", o.toString("UTF-8"), is(expectedJson));
+		assertThat("correct size", tovr.getRelabeledSize(),
+				is((long) o.size()));
+		assertThat("correct md5", tovr.getMD5().getMD5(),
+				is(DigestUtils.md5Hex(o.toByteArray())));
+	}
 }
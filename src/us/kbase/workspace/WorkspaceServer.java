@@ -153,6 +153,32 @@ public class WorkspaceServer extends JsonServerServlet {
 
 	//directory for temp files
 	private static final String TEMP_DIR = "temp-dir";
+	//threads used to process objects in save_objects
+	private static final String SAVE_THREADS = "save-objects-threads";
+	//sizes of the blob cache shared between calls
+	private static final String BLOB_CACHE_MEM = "blob-cache-memory";
+	private static final String BLOB_CACHE_DISK = "blob-cache-disk";
+	//threads used to retrieve blobs concurrently when returning objects
+	private static final String FETCH_THREADS = "blob-fetch-threads";
+	private static final String FETCH_THREADS_PER_CALL =
+			"blob-fetch-threads-per-call";
+	//stream object data from the backend in get_object(s)
+	private static final String STREAM_OBJECTS = "stream-objects";
+	//time to live of cached workspace names, ids, and permissions
+	private static final String WS_CACHE_TTL = "workspace-cache-ttl";
+	//structure indexes for extracting subsets of large objects
+	private static final String SUBSET_INDEX_MIN_SIZE =
+			"subset-index-min-size";
+	private static final String SUBSET_INDEX_DEPTH = "subset-index-depth";
+	//memory and disk budget shared by all calls returning objects
+	private static final String DATA_BUDGET_MEM = "data-budget-memory";
+	private static final String DATA_BUDGET_DISK = "data-budget-disk";
+	private static final String DATA_BUDGET_TIMEOUT = "data-budget-timeout";
+	//object ids reserved from a workspace at once
+	private static final String OBJ_ID_BLOCK_SIZE = "object-id-block-size";
+	//interval between writes of buffered workspace modification dates
+	private static final String WS_MOD_DATE_FLUSH =
+			"workspace-mod-date-flush-interval";
 	
 	
 	private static final long MAX_RPC_PACKAGE_SIZE = 1005000000;
@@ -167,6 +193,7 @@ public class WorkspaceServer extends JsonServerServlet {
 	private final Workspace ws;
 	private final WorkspaceServerMethods wsmeth;
 	private final WorkspaceAdministration wsadmin;
+	private final boolean streamObjects;
 	
 	private final URL handleServiceUrl;
 	private final URL handleManagerUrl;
@@ -333,6 +360,52 @@ public class WorkspaceServer extends JsonServerServlet {
 		return recint;
 	}
 	
+	/* Gets an optional integer setting from the config, falling back to the
+	 * default if the setting is missing, isn't an integer, or is outside
+	 * the range min to max.
+	 */
+	private long getLongSetting(final String key, final long defaultValue,
+			final long min, final long max, final String description) {
+		final String value = wsConfig.get(key);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		Long vallong = null;
+		try {
+			vallong = Long.parseLong(value);
+		} catch (NumberFormatException nfe) {
+			//do nothing
+		}
+		if (vallong == null || vallong < min || vallong > max) {
+			logInfo("Couldn't parse " + key + " to a" +
+					(min > 0 ? " positive" : " non-negative") +
+					" integer: " + value + ", using " + defaultValue);
+			vallong = defaultValue;
+		} else {
+			logInfo(description + " is " + vallong);
+		}
+		return vallong;
+	}
+	
+	private long getLongSetting(final String key, final long defaultValue,
+			final long min, final String description) {
+		return getLongSetting(key, defaultValue, min, Long.MAX_VALUE,
+				description);
+	}
+	
+	private int getIntSetting(final String key, final int defaultValue,
+			final int min, final String description) {
+		return (int) getLongSetting(key, defaultValue, min, Integer.MAX_VALUE,
+				description);
+	}
+
+	private boolean getStreamObjects() {
+		final String stream = wsConfig.get(STREAM_OBJECTS);
+		final boolean ret = "true".equals(stream);
+		logInfo("Streaming object data in get_objects is " +
+				(ret ? "on" : "off"));
+		return ret;
+	}
 
 	private URL getHandleUrl(String configKey) {
 		final String urlStr = wsConfig.get(configKey);
@@ -485,6 +558,7 @@ public class WorkspaceServer extends JsonServerServlet {
 			ws = null;
 			wsmeth = null;
 			wsadmin = null;
+			streamObjects = false;
 		} else {
 			String params = "";
 			final List<String> paramSet = new LinkedList<String>(
@@ -516,14 +590,84 @@ public class WorkspaceServer extends JsonServerServlet {
 				ws = null;
 				wsmeth = null;
 				wsadmin = null;
+				streamObjects = false;
 			} else {
 				System.out.println(String.format("Initialized %s backend",
 						db.getBackendType()));
 				logInfo(String.format("Initialized %s backend",
 						db.getBackendType()));
 				ws = new Workspace(db,
-						new ResourceUsageConfigurationBuilder().build(),
+						new ResourceUsageConfigurationBuilder()
+							.withSaveObjectsThreads(getIntSetting(
+									SAVE_THREADS,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_SAVE_OBJECTS_THREADS,
+									1, "Save objects thread count"))
+							.withBlobCacheMemoryUsage(getLongSetting(
+									BLOB_CACHE_MEM,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_BLOB_CACHE_MEMORY_USAGE,
+									0, "Blob cache memory usage"))
+							.withBlobCacheDiskUsage(getLongSetting(
+									BLOB_CACHE_DISK,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_BLOB_CACHE_DISK_USAGE,
+									0, "Blob cache disk usage"))
+							.withBlobFetchThreads(getIntSetting(
+									FETCH_THREADS,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_BLOB_FETCH_THREADS,
+									1, "Blob fetch thread count"))
+							.withBlobFetchThreadsPerCall(getIntSetting(
+									FETCH_THREADS_PER_CALL,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_BLOB_FETCH_THREADS_PER_CALL,
+									1, "Blob fetch thread count per call"))
+							.withWorkspaceCacheTTL(getLongSetting(
+									WS_CACHE_TTL,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_WORKSPACE_CACHE_TTL,
+									0, "Workspace cache time to live in ms"))
+							.withSubsetIndexMinObjectSize(getLongSetting(
+									SUBSET_INDEX_MIN_SIZE,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_SUBSET_INDEX_MIN_OBJECT_SIZE,
+									0, "Minimum size of objects with a " +
+										"subset index"))
+							.withSubsetIndexDepth(getIntSetting(
+									SUBSET_INDEX_DEPTH,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_SUBSET_INDEX_DEPTH,
+									1, "Subset index depth"))
+							.withDataBudgetMemoryUsage(getLongSetting(
+									DATA_BUDGET_MEM,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_DATA_BUDGET_MEMORY_USAGE,
+									0, "Data budget memory usage"))
+							.withDataBudgetDiskUsage(getLongSetting(
+									DATA_BUDGET_DISK,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_DATA_BUDGET_DISK_USAGE,
+									0, "Data budget disk usage"))
+							.withDataBudgetWaitTimeout(getLongSetting(
+									DATA_BUDGET_TIMEOUT,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_DATA_BUDGET_WAIT_TIMEOUT,
+									0, "Data budget wait timeout in ms"))
+							.withObjectIDBlockSize(getIntSetting(
+									OBJ_ID_BLOCK_SIZE,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_OBJECT_ID_BLOCK_SIZE,
+									1, "Object ID block size"))
+							.withWorkspaceModDateFlushInterval(getLongSetting(
+									WS_MOD_DATE_FLUSH,
+									ResourceUsageConfigurationBuilder
+										.DEFAULT_WORKSPACE_MOD_DATE_FLUSH_INTERVAL,
+									0, "Workspace modification date flush " +
+										"interval in ms"))
+							.build(),
 						new KBaseReferenceParser());
+				streamObjects = getStreamObjects();
 				wsmeth = new WorkspaceServerMethods(ws, handleServiceUrl,
 						maxUniqueIdCountPerCall);
 				wsadmin = new WorkspaceAdministration(ws, wsmeth,
@@ -862,7 +1006,8 @@ public class WorkspaceServer extends JsonServerServlet {
 				params.getWorkspace(), null, params.getId(), null,
 				params.getInstance());
 		final WorkspaceObjectData ret = ws.getObjects(
-				getUser(params.getAuth(), authPart), Arrays.asList(oi)).get(0);
+				getUser(params.getAuth(), authPart), Arrays.asList(oi),
+				streamObjects).get(0);
 		final ByteArrayFileCache resource = ret.getDataAsTokens();
 		returnVal = new GetObjectOutput()
 			.withData(resource.getUObject())
@@ -909,8 +1054,9 @@ public class WorkspaceServer extends JsonServerServlet {
 		final Set<ByteArrayFileCache> resources =
 				new HashSet<ByteArrayFileCache>();
 		returnVal = translateObjectData(
-				ws.getObjects(getUser(authPart), loi), getUser(authPart),
-					resources, handleManagerUrl, handleMgrToken, true);
+				ws.getObjects(getUser(authPart), loi, streamObjects),
+					getUser(authPart), resources, handleManagerUrl,
+					handleMgrToken, true);
 		resourcesToDelete.set(resources);
         //END get_objects
         return returnVal;
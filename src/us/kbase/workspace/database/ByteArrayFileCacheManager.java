@@ -1,22 +1,35 @@
 package us.kbase.workspace.database;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.WriterOutputStream;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 
 import us.kbase.common.service.JsonTokenStream;
 import us.kbase.common.service.UObject;
+import us.kbase.typedobj.core.JsonStructureIndex;
 import us.kbase.typedobj.core.ObjectPaths;
 import us.kbase.typedobj.core.SubdataExtractor;
 import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.typedobj.core.Writable;
 import us.kbase.typedobj.exceptions.TypedObjectExtractionException;
 import us.kbase.workspace.database.exceptions.FileCacheIOException;
 import us.kbase.workspace.database.exceptions.FileCacheLimitExceededException;
@@ -25,16 +38,37 @@ public class ByteArrayFileCacheManager {
 	
 	//TODO unit tests
 	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
 	private int sizeInMem = 0;
 	private final int maxSizeInMem;
 	private long sizeOnDisk = 0;
 	private final long maxSizeOnDisk;
 	private final TempFilesManager tfm;
+	private final ResourceBudget.Reservation reservation;
 	
 	public ByteArrayFileCacheManager(int maxSizeInMem, long maxSizeOnDisk, TempFilesManager tfm) {
+		this(maxSizeInMem, maxSizeOnDisk, tfm, null);
+	}
+	
+	/** Create a manager whose data is also charged against a budget shared
+	 * with other calls. Data that fits within this manager's memory limit
+	 * but not within the budget is written to disk.
+	 * @param maxSizeInMem the maximum memory this manager may use.
+	 * @param maxSizeOnDisk the maximum disk space this manager may use.
+	 * @param tfm the temporary files manager.
+	 * @param reservation the reservation against which data is charged, or
+	 * null to only apply this manager's limits.
+	 */
+	public ByteArrayFileCacheManager(
+			final int maxSizeInMem,
+			final long maxSizeOnDisk,
+			final TempFilesManager tfm,
+			final ResourceBudget.Reservation reservation) {
 		this.maxSizeInMem = maxSizeInMem;
 		this.maxSizeOnDisk = maxSizeOnDisk;
 		this.tfm = tfm;
+		this.reservation = reservation;
 	}
 	
 	public ByteArrayFileCache createBAFC(InputStream input)
@@ -42,7 +76,7 @@ public class ByteArrayFileCacheManager {
 		return createBAFC(input);
 	}
 	
-	public int getSizeInMem() {
+	public synchronized int getSizeInMem() {
 		return sizeInMem;
 	}
 
@@ -50,88 +84,202 @@ public class ByteArrayFileCacheManager {
 		return maxSizeInMem;
 	}
 
-	public long getSizeOnDisk() {
+	public synchronized long getSizeOnDisk() {
 		return sizeOnDisk;
 	}
 
 	public long getMaxSizeOnDisk() {
 		return maxSizeOnDisk;
 	}
+	
+	private synchronized boolean reserveMemory(final int size) {
+		if (sizeInMem + size > maxSizeInMem) {
+			return false;
+		}
+		if (reservation != null &&
+				!reservation.getBudget().chargeMemory(reservation, size)) {
+			return false;
+		}
+		sizeInMem += size;
+		return true;
+	}
+	
+	private synchronized void releaseMemory(final int size) {
+		sizeInMem -= size;
+		releaseCharges(size, 0);
+	}
+	
+	private synchronized void reserveDisk(final long size)
+			throws FileCacheLimitExceededException {
+		if (sizeOnDisk + size > maxSizeOnDisk) {
+			throw new FileCacheLimitExceededException(
+					"Disk limit exceeded for file cache: " + maxSizeOnDisk);
+		}
+		if (reservation != null &&
+				!reservation.getBudget().chargeDisk(size)) {
+			throw new FileCacheLimitExceededException(
+					"Disk limit exceeded for the file caches of all calls: " +
+					reservation.getBudget().getMaxDisk());
+		}
+		sizeOnDisk += size;
+	}
+	
+	private synchronized void releaseDisk(final long size) {
+		sizeOnDisk -= size;
+		releaseCharges(0, size);
+	}
+	
+	/* Returns memory and disk to the budget without altering this manager's
+	 * usage, since this manager's limits apply to all the data created over
+	 * its lifetime.
+	 */
+	private void releaseCharges(final long memory, final long disk) {
+		if (reservation != null) {
+			if (memory > 0) {
+				reservation.getBudget().releaseMemory(memory);
+			}
+			if (disk > 0) {
+				reservation.getBudget().releaseDisk(disk);
+			}
+		}
+	}
 
+	/* Memory and disk are reserved as the data is read, so caches may be
+	 * created from multiple threads at once.
+	 */
 	@SuppressWarnings("resource")
 	public ByteArrayFileCache createBAFC(final InputStream input,
 			final boolean trustedJson, final boolean sorted)
 			throws FileCacheIOException, FileCacheLimitExceededException {
 		byte[] buf = new byte[100000];
 		ByteArrayOutputStream bufOs = new ByteArrayOutputStream();
-		int maxInMemorySize = maxSizeInMem - sizeInMem;
-		long size = 0;
-		while (size < maxInMemorySize + 1) {
-			int count;
+		int size = 0;
+		int count;
+		while (true) {
 			try {
-				count = input.read(buf, 0, Math.min(
-						buf.length, maxInMemorySize + 1 - (int)size));
+				count = input.read(buf, 0, buf.length);
 			} catch (IOException ioe) {
+				releaseMemory(size);
 				throw new FileCacheIOException(ioe.getLocalizedMessage(), ioe);
 			}
-			if (count < 0)
+			if (count < 0 || !reserveMemory(count)) {
 				break;
+			}
 			bufOs.write(buf, 0, count);
 			size += count;
 		}
+		if (count >= 0) {
+			// the last chunk read didn't fit in memory
+			releaseMemory(size);
+			return createDiskBAFC(input, trustedJson, sorted,
+					bufOs.toByteArray(), buf, count);
+		}
 		try {
-			bufOs.close();
+			final byte[] data = bufOs.toByteArray();
+			return new ByteArrayFileCache(null, null, data,
+					new JsonTokenStream(data)
+						.setTrustedWholeJson(trustedJson), sorted)
+					.charge(size, 0);
 		} catch (IOException ioe) {
-			throw new FileCacheIOException(ioe.getLocalizedMessage(), ioe);
+			releaseMemory(size);
+			throw new FileCacheIOException(
+					ioe.getLocalizedMessage(), ioe);
 		}
-		if (size > maxInMemorySize) {
-			File tempFile = null;
-			OutputStream os = null;
+	}
+
+	@SuppressWarnings("resource")
+	private ByteArrayFileCache createDiskBAFC(final InputStream input,
+			final boolean trustedJson, final boolean sorted,
+			final byte[] head, final byte[] buf, int count)
+			throws FileCacheIOException, FileCacheLimitExceededException {
+		File tempFile = null;
+		OutputStream os = null;
+		long reserved = 0;
+		try {
+			tempFile = tfm.generateTempFile("resp", "json");
+			os = new BufferedOutputStream(new FileOutputStream(tempFile));
 			try {
-				tempFile = tfm.generateTempFile("resp", "json");
-				os = new BufferedOutputStream(
-						new FileOutputStream(tempFile));
-				try {
-					os.write(bufOs.toByteArray());
-					bufOs = null;
-					while (true) {
-						if (sizeOnDisk + size > maxSizeOnDisk) {
-							cleanUp(tempFile, os);
-							throw new FileCacheLimitExceededException(
-									"Disk limit exceeded for file cache: " +
-											maxSizeOnDisk);
-						}
-						int count = input.read(buf, 0, buf.length);
-						if (count < 0)
-							break;
-						os.write(buf, 0, count);
-						size += count;
-					}
-				} finally {
-					try { os.close(); } catch (Exception ignore) {}
+				reserveDisk(head.length + count);
+				reserved = head.length + count;
+				os.write(head);
+				os.write(buf, 0, count);
+				while (true) {
+					count = input.read(buf, 0, buf.length);
+					if (count < 0)
+						break;
+					reserveDisk(count);
+					reserved += count;
+					os.write(buf, 0, count);
 				}
-				sizeOnDisk += size;
-				return new ByteArrayFileCache(null, tempFile,
-						new JsonTokenStream(tempFile)
-							.setTrustedWholeJson(trustedJson), sorted);
-			} catch (IOException ioe) {
-				cleanUp(tempFile, os);
-				throw new FileCacheIOException(ioe.getLocalizedMessage(), ioe);
-			} catch (RuntimeException re) {
-				cleanUp(tempFile, os);
-				throw re;
+			} finally {
+				try { os.close(); } catch (Exception ignore) {}
 			}
-		} else {
-			sizeInMem += (int)size;
-			try {
-				return new ByteArrayFileCache(null, null,
-						new JsonTokenStream(bufOs.toByteArray())
-							.setTrustedWholeJson(trustedJson), sorted);
-			} catch (IOException ioe) {
-				throw new FileCacheIOException(
-						ioe.getLocalizedMessage(), ioe);
+			return new ByteArrayFileCache(null, tempFile, null,
+					new JsonTokenStream(tempFile)
+						.setTrustedWholeJson(trustedJson), sorted)
+					.charge(0, reserved);
+		} catch (IOException ioe) {
+			releaseDisk(reserved);
+			cleanUp(tempFile, os);
+			throw new FileCacheIOException(ioe.getLocalizedMessage(), ioe);
+		} catch (FileCacheLimitExceededException fclee) {
+			releaseDisk(reserved);
+			cleanUp(tempFile, os);
+			throw fclee;
+		} catch (RuntimeException re) {
+			releaseDisk(reserved);
+			cleanUp(tempFile, os);
+			throw re;
+		}
+	}
+
+	/* Creates a cache backed by data held in a shared blob cache. The data
+	 * does not count against this manager's limits since it's already
+	 * resident.
+	 */
+	ByteArrayFileCache createSharedBAFC(final SharedBlobCache.Entry entry)
+			throws FileCacheIOException {
+		final JsonTokenStream jts;
+		try {
+			if (entry.getFile() == null) {
+				jts = new JsonTokenStream(entry.getData());
+			} else {
+				jts = new JsonTokenStream(entry.getFile());
 			}
+		} catch (IOException ioe) {
+			throw new FileCacheIOException(ioe.getLocalizedMessage(), ioe);
+		}
+		final ByteArrayFileCache bafc = new ByteArrayFileCache(null, null,
+				entry.getData(),
+				jts.setTrustedWholeJson(entry.isTrustedJson()),
+				entry.isSorted());
+		bafc.sharedEntry = entry;
+		return bafc;
+	}
+
+	/** Create a cache that holds no data. Instead, the data is written
+	 * directly from the source to the output when the UObject returned by
+	 * getUObject() is serialized, so memory and disk usage are constant
+	 * regardless of the size of the data. If the UObject is serialized to a
+	 * generator without an output stream or writer, such as a token buffer,
+	 * the data must be held in memory and counts against this manager's
+	 * memory limit while it is copied. The source must provide trusted
+	 * JSON, and is read again for each serialization. Subdata extraction and
+	 * getJSON() are not supported. The data does not count against this
+	 * manager's limits otherwise.
+	 * @param source the source of the data.
+	 * @param sorted whether the data is sorted.
+	 * @return a new cache.
+	 */
+	public ByteArrayFileCache createStreamingBAFC(final Writable source,
+			final boolean sorted) {
+		if (source == null) {
+			throw new NullPointerException("source cannot be null");
 		}
+		final ByteArrayFileCache bafc = new ByteArrayFileCache(
+				null, null, null, null, sorted);
+		bafc.source = source;
+		return bafc;
 	}
 
 	private void cleanUp(File tempFile, OutputStream os) {
@@ -143,14 +291,33 @@ public class ByteArrayFileCacheManager {
 			tempFile.delete();
 	}
 
-	@SuppressWarnings("resource")
 	public ByteArrayFileCache getSubdataExtraction(
 			final ByteArrayFileCache parent, final ObjectPaths paths)
 			throws TypedObjectExtractionException,
 			FileCacheLimitExceededException, FileCacheIOException {
+		return getSubdataExtraction(parent, paths, null);
+	}
+	
+	/** Extract subdata from a cache, reading only the parts of the data that
+	 * contain the selected fields if an index of the data's structure is
+	 * provided. The index is ignored if the parent cache is itself a subset
+	 * of the data.
+	 * @param parent the cache containing the data.
+	 * @param paths the paths to extract.
+	 * @param index an index of the structure of the data, or null.
+	 * @return a new cache containing the extracted data.
+	 */
+	@SuppressWarnings("resource")
+	public ByteArrayFileCache getSubdataExtraction(
+			final ByteArrayFileCache parent, final ObjectPaths paths,
+			final JsonStructureIndex index)
+			throws TypedObjectExtractionException,
+			FileCacheLimitExceededException, FileCacheIOException {
 		final OutputStream[] origin = {new ByteArrayOutputStream()};
 		final File[] tempFile = {null};
 		final long[] size = {0L};
+		// memory and disk reserved so far, released if the extraction fails
+		final long[] reserved = {0L, 0L};
 		OutputStream os = new OutputStream() {
 			@Override
 			public void write(int b) throws IOException {
@@ -160,21 +327,27 @@ public class ByteArrayFileCacheManager {
 			public void write(byte[] b, int off, int len) throws IOException {
 				origin[0].write(b, off, len);
 				size[0] += len;
-				if (tempFile[0] == null) {
-					if (sizeInMem + size[0] > maxSizeInMem) {
-						origin[0].close();
-						byte[] arr = ((ByteArrayOutputStream)origin[0]).toByteArray();
-						tempFile[0] = tfm.generateTempFile("resp", "json");
-						origin[0] = new BufferedOutputStream(new FileOutputStream(tempFile[0]));
-						origin[0].write(arr);
-					}
-				} else {
-					if (sizeOnDisk + size[0] > maxSizeOnDisk) {
-						final String err = "Disk limit exceeded for file cache: " +
-								maxSizeOnDisk;
-						throw new IOException(err,
-								new FileCacheLimitExceededException(err));
+				try {
+					if (tempFile[0] == null) {
+						if (reserveMemory(len)) {
+							reserved[0] += len;
+						} else {
+							releaseMemory((int) reserved[0]);
+							reserved[0] = 0;
+							origin[0].close();
+							byte[] arr = ((ByteArrayOutputStream)origin[0]).toByteArray();
+							tempFile[0] = tfm.generateTempFile("resp", "json");
+							origin[0] = new BufferedOutputStream(new FileOutputStream(tempFile[0]));
+							origin[0].write(arr);
+							reserveDisk(size[0]);
+							reserved[1] = size[0];
+						}
+					} else {
+						reserveDisk(len);
+						reserved[1] += len;
 					}
+				} catch (FileCacheLimitExceededException e) {
+					throw new IOException(e.getMessage(), e);
 				}
 			}
 			@Override
@@ -183,20 +356,18 @@ public class ByteArrayFileCacheManager {
 			}
 		};
 		try {
-			parent.getSubdataExtractionAsStream(paths, os);
+			parent.getSubdataExtractionAsStream(paths, index, os);
 			if (tempFile[0] != null) {
-				sizeOnDisk += size[0];
-				return new ByteArrayFileCache(parent, tempFile[0],
+				return new ByteArrayFileCache(parent, tempFile[0], null,
 						new JsonTokenStream(tempFile[0])
 						.setTrustedWholeJson(parent.containsTrustedJson()),
-						parent.isSorted()); 
+						parent.isSorted()).charge(0, reserved[1]);
 			} else {
-				sizeInMem += (int)size[0];
 				byte[] arr = ((ByteArrayOutputStream)origin[0]).toByteArray();
-				return new ByteArrayFileCache(parent, null,
+				return new ByteArrayFileCache(parent, null, arr,
 						new JsonTokenStream(arr)
 						.setTrustedWholeJson(parent.containsTrustedJson()),
-						parent.isSorted());
+						parent.isSorted()).charge(reserved[0], 0);
 			}
 		} catch (Throwable e) {
 			try {
@@ -205,6 +376,8 @@ public class ByteArrayFileCacheManager {
 			if (tempFile[0] != null) {
 				tempFile[0].delete();
 			}
+			releaseMemory((int) reserved[0]);
+			releaseDisk(reserved[1]);
 			if (e instanceof TypedObjectExtractionException) {
 				throw (TypedObjectExtractionException)e;
 			}
@@ -223,7 +396,7 @@ public class ByteArrayFileCacheManager {
 	}
 	
 	@Override
-	public String toString() {
+	public synchronized String toString() {
 		return "ByteArrayFileCacheManager [sizeInMem=" + sizeInMem
 				+ ", maxSizeInMem=" + maxSizeInMem + ", sizeOnDisk="
 				+ sizeOnDisk + ", maxSizeOnDisk=" + maxSizeOnDisk + "]";
@@ -231,17 +404,24 @@ public class ByteArrayFileCacheManager {
 	
 	public class ByteArrayFileCache {
 		private File tempFile = null;
+		private byte[] data = null;
 		private JsonTokenStream jts;
 		private ByteArrayFileCache parent = null;
+		private SharedBlobCache.Entry sharedEntry = null;
+		private Writable source = null;
 		private boolean destroyed = false;
 		private final boolean sorted;
+		// memory and disk charged to the budget for this cache's data
+		private long memCharge = 0;
+		private long diskCharge = 0;
 		
 		// sorted is ignored if a parent is present
 		private ByteArrayFileCache(final ByteArrayFileCache parent,
-				final File tempFile, final JsonTokenStream jts,
-				final boolean sorted) {
+				final File tempFile, final byte[] data,
+				final JsonTokenStream jts, final boolean sorted) {
 			this.parent = parent;
 			this.tempFile = tempFile;
+			this.data = data;
 			this.jts = jts;
 			if (parent != null) {
 				this.sorted = parent.isSorted();
@@ -250,12 +430,28 @@ public class ByteArrayFileCacheManager {
 			}
 		}
 		
+		private ByteArrayFileCache charge(final long memory,
+				final long disk) {
+			memCharge = memory;
+			diskCharge = disk;
+			return this;
+		}
+		
+		private void releaseCharge() {
+			releaseCharges(memCharge, diskCharge);
+			memCharge = 0;
+			diskCharge = 0;
+		}
+		
 		public boolean isSorted() {
 			return sorted;
 		}
 		
 		public UObject getUObject() {
 			checkIfDestroyed();
+			if (source != null) {
+				return new UObject(new StreamingData(source));
+			}
 			return new UObject(jts);
 		}
 		
@@ -266,6 +462,7 @@ public class ByteArrayFileCacheManager {
 		
 		public Reader getJSON() throws IOException {
 			checkIfDestroyed();
+			checkNotStreaming();
 			return jts.createDataReader();
 		}
 		
@@ -275,9 +472,60 @@ public class ByteArrayFileCacheManager {
 		 */
 		public boolean containsTrustedJson() {
 			checkIfDestroyed();
+			if (source != null) {
+				return true;
+			}
 			return jts.hasTrustedWholeJson();
 		}
+		
+		/** True if this BAFC holds no data and streams it from its source
+		 * when serialized.
+		 * @return true if this BAFC streams its data.
+		 */
+		public boolean isStreaming() {
+			return source != null;
+		}
+		
+		private void checkNotStreaming() {
+			if (source != null) {
+				throw new IllegalStateException(
+						"This ByteArrayFileCache streams its data and only supports serialization via getUObject()");
+			}
+		}
 
+		/* true if this cache holds the entirety of a blob in memory or in a
+		 * temporary file that it owns and can therefore be handed to a shared
+		 * blob cache.
+		 */
+		boolean isShareable() {
+			return !destroyed && parent == null && sharedEntry == null &&
+					(data != null || tempFile != null);
+		}
+		
+		byte[] getData() {
+			return data;
+		}
+		
+		File getTempFile() {
+			return tempFile;
+		}
+		
+		long getSize() {
+			return data != null ? data.length : tempFile.length();
+		}
+		
+		/* hands ownership of the data to a shared blob cache entry. The
+		 * temporary file, if any, is no longer deleted on destroy(), and the
+		 * data is no longer charged to the budget since the shared cache
+		 * bounds its own size.
+		 */
+		void share(final SharedBlobCache.Entry entry) {
+			checkIfDestroyed();
+			tempFile = null;
+			sharedEntry = entry;
+			releaseCharge();
+		}
+		
 		private void checkIfDestroyed() {
 			if (destroyed) {
 				throw new RuntimeException(
@@ -285,14 +533,51 @@ public class ByteArrayFileCacheManager {
 			}
 		}
 		
+		/* true if the data is the whole blob in memory or in a file, and so
+		 * can be read from any offset of the blob's structure index.
+		 */
+		private boolean isIndexable() {
+			return parent == null && (data != null || tempFile != null ||
+					(sharedEntry != null && sharedEntry.getFile() != null));
+		}
+		
+		private InputStream openAt(final long offset) throws IOException {
+			if (data != null) {
+				return new ByteArrayInputStream(data, (int) offset,
+						data.length - (int) offset);
+			}
+			final File f = tempFile != null ? tempFile : sharedEntry.getFile();
+			final FileInputStream fis = new FileInputStream(f);
+			try {
+				fis.getChannel().position(offset);
+			} catch (IOException ioe) {
+				fis.close();
+				throw ioe;
+			}
+			return fis;
+		}
+		
 		private void getSubdataExtractionAsStream(final ObjectPaths paths, 
-				final OutputStream os)
+				final JsonStructureIndex index, final OutputStream os)
 				throws TypedObjectExtractionException {
 			checkIfDestroyed();
+			checkNotStreaming();
 			try {
 				JsonGenerator jgen = UObject.getMapper().getFactory().createGenerator(os);
 				try {
-					SubdataExtractor.extract(paths, jts.setRoot(null), jgen);
+					if (index != null && isIndexable()) {
+						SubdataExtractor.extract(paths, index,
+								new JsonStructureIndex.DataSource() {
+							
+							@Override
+							public InputStream openAt(final long offset)
+									throws IOException {
+								return ByteArrayFileCache.this.openAt(offset);
+							}
+						}, jgen);
+					} else {
+						SubdataExtractor.extract(paths, jts.setRoot(null), jgen);
+					}
 				} finally {
 					jts.close();
 					jgen.close();
@@ -307,20 +592,145 @@ public class ByteArrayFileCacheManager {
 				return;
 			}
 			try {
-				jts.close();
+				if (jts != null) {
+					jts.close();
+				}
+			} catch (IOException ioe) {
+				//nothing can be done
+			}
+			try {
+				if (source != null) {
+					source.releaseResources();
+				}
 			} catch (IOException ioe) {
 				//nothing can be done
 			}
 			if (tempFile != null && tempFile.exists()) {
 				tempFile.delete();
 			}
+			if (sharedEntry != null) {
+				sharedEntry.release();
+			}
 			if (parent != null) {
 				parent.destroy();
 			}
+			releaseCharge();
 			parent = null;
+			sharedEntry = null;
+			source = null;
 			jts = null;
+			data = null;
 			tempFile = null;
 			destroyed = true;
 		}
 	}
+	
+	/* Writes the data from the source into the generator's output target as
+	 * a raw value. If the generator has no output target (e.g. it's a token
+	 * buffer), the data is parsed and copied into the generator instead,
+	 * which requires holding the data in memory. That memory is charged to
+	 * this manager like any other data held in memory, so data larger than
+	 * the memory limit fails rather than silently using unbounded memory.
+	 */
+	private class StreamingData implements JsonSerializable {
+		
+		private final Writable source;
+		
+		private StreamingData(final Writable source) {
+			this.source = source;
+		}
+
+		@Override
+		public void serialize(final JsonGenerator jgen,
+				final SerializerProvider provider) throws IOException {
+			final Object target = jgen.getOutputTarget();
+			if (target instanceof OutputStream) {
+				//writes the separator, if any, for the value
+				jgen.writeRawValue("");
+				jgen.flush();
+				//generators writing to streams always encode in UTF-8
+				source.write(new CloseShieldOutputStream(
+						(OutputStream) target));
+			} else if (target instanceof Writer) {
+				jgen.writeRawValue("");
+				jgen.flush();
+				final WriterOutputStream wos =
+						new WriterOutputStream((Writer) target, UTF8);
+				source.write(wos);
+				wos.flush();
+			} else {
+				final MemoryLimitedBuffer buf = new MemoryLimitedBuffer();
+				try {
+					source.write(buf);
+					final JsonParser jp = buf.createParser();
+					try {
+						jp.nextToken();
+						jgen.copyCurrentStructure(jp);
+					} finally {
+						jp.close();
+					}
+				} finally {
+					buf.release();
+				}
+			}
+		}
+
+		@Override
+		public void serializeWithType(final JsonGenerator jgen,
+				final SerializerProvider provider,
+				final TypeSerializer typeSer) throws IOException {
+			serialize(jgen, provider);
+		}
+	}
+	
+	/* Holds data in memory, reserving the memory from this manager as the
+	 * data is written. Call release() when done with the data.
+	 */
+	private class MemoryLimitedBuffer extends OutputStream {
+		
+		private final ExposedByteArrayOutputStream buf =
+				new ExposedByteArrayOutputStream();
+		private int reserved = 0;
+		
+		@Override
+		public void write(final int b) throws IOException {
+			reserve(1);
+			buf.write(b);
+		}
+		
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			reserve(len);
+			buf.write(b, off, len);
+		}
+		
+		private void reserve(final int size) throws IOException {
+			if (!reserveMemory(size)) {
+				throw new IOException(new FileCacheLimitExceededException(
+						"Memory limit exceeded for streamed data that " +
+						"must be held in memory: " + maxSizeInMem));
+			}
+			reserved += size;
+		}
+		
+		private JsonParser createParser() throws IOException {
+			return UObject.getMapper().getFactory().createParser(
+					buf.getBuffer(), 0, buf.size());
+		}
+		
+		private void release() {
+			releaseMemory(reserved);
+			reserved = 0;
+		}
+	}
+	
+	// avoids copying the buffer to read it
+	private static class ExposedByteArrayOutputStream
+			extends ByteArrayOutputStream {
+		
+		private byte[] getBuffer() {
+			return buf;
+		}
+	}
 }
@@ -0,0 +1,127 @@
+package us.kbase.workspace.database;
+
+import java.util.Date;
+
+/** A workspace clone running in the background. A cancelled clone leaves
+ * the partially cloned workspace in place, marked as deleted, so that the
+ * owner can undelete it if desired.
+ *
+ * This class is thread safe.
+ */
+public class CloneJob {
+
+	public enum State {
+		/** The clone is waiting for a thread. */
+		QUEUED,
+		/** The clone is copying objects. */
+		RUNNING,
+		/** The clone completed successfully. */
+		COMPLETE,
+		/** The clone was cancelled. */
+		CANCELLED,
+		/** The clone failed with an error. */
+		FAILED;
+	}
+
+	private final long id;
+	private final WorkspaceUser user;
+	private final WorkspaceIdentifier source;
+	private final String newName;
+	private final Date created = new Date();
+	private final CloneProgress progress = new CloneProgress();
+	private volatile State state = State.QUEUED;
+	private volatile WorkspaceInformation result = null;
+	private volatile Throwable error = null;
+
+	CloneJob(final long id, final WorkspaceUser user,
+			final WorkspaceIdentifier source, final String newName) {
+		this.id = id;
+		this.user = user;
+		this.source = source;
+		this.newName = newName;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public WorkspaceUser getUser() {
+		return user;
+	}
+
+	public WorkspaceIdentifier getSource() {
+		return source;
+	}
+
+	public String getNewName() {
+		return newName;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public CloneProgress getProgress() {
+		return progress;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/** Returns true if the job is no longer queued or running. */
+	public boolean isFinished() {
+		final State s = state;
+		return !State.QUEUED.equals(s) && !State.RUNNING.equals(s);
+	}
+
+	/** Get information about the new workspace. A cancelled clone only
+	 * has information if it was cancelled while copying objects, in which
+	 * case the workspace is deleted.
+	 * @return the workspace information, or null if the clone has not
+	 * completed or was cancelled before the new workspace was created.
+	 */
+	public WorkspaceInformation getResult() {
+		return result;
+	}
+
+	/** Get the error that caused the clone to fail.
+	 * @return the error, or null if the clone has not failed.
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/** Request that the clone stop. Does nothing if the clone is finished.
+	 */
+	public void cancel() {
+		progress.cancel();
+	}
+
+	void setRunning() {
+		state = State.RUNNING;
+	}
+
+	void setFinished(final WorkspaceInformation result) {
+		this.result = result;
+		state = State.COMPLETE;
+	}
+
+	void setCancelled(final WorkspaceInformation result) {
+		this.result = result;
+		state = State.CANCELLED;
+	}
+
+	void setFailed(final Throwable error) {
+		this.error = error;
+		state = State.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return "CloneJob [id=" + id + ", user=" + user + ", source=" +
+				source + ", newName=" + newName + ", state=" + state +
+				", copied=" + progress.getCopiedObjects() + ", total=" +
+				progress.getTotalObjects() + "]";
+	}
+}
@@ -0,0 +1,77 @@
+package us.kbase.workspace.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Tracks the progress of a workspace clone and allows the clone to be
+ * cancelled. The clone checks for cancellation between pages of objects, so
+ * a cancelled clone stops after the page in progress is copied.
+ *
+ * This class is thread safe.
+ */
+public class CloneProgress {
+
+	private final AtomicLong total = new AtomicLong(-1);
+	private final AtomicLong copied = new AtomicLong(0);
+	private volatile boolean cancelled = false;
+	private volatile boolean stopped = false;
+
+	/** Set the number of objects to be copied.
+	 * @param objects the number of objects.
+	 */
+	public void setTotalObjects(final long objects) {
+		if (objects < 0) {
+			throw new IllegalArgumentException(
+					"The number of objects cannot be negative");
+		}
+		total.set(objects);
+	}
+
+	/** Get the number of objects to be copied.
+	 * @return the number of objects, or -1 if the number is not yet known.
+	 */
+	public long getTotalObjects() {
+		return total.get();
+	}
+
+	/** Record that objects have been copied.
+	 * @param objects the number of objects copied.
+	 */
+	public void addCopiedObjects(final long objects) {
+		copied.addAndGet(objects);
+	}
+
+	/** Get the number of objects copied so far.
+	 * @return the number of objects copied.
+	 */
+	public long getCopiedObjects() {
+		return copied.get();
+	}
+
+	/** Request that the clone stop. */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** Returns true if the clone has been asked to stop.
+	 * @return whether the clone has been cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** Record that the clone stopped before copying all the objects because
+	 * it was cancelled.
+	 */
+	public void setStopped() {
+		stopped = true;
+	}
+
+	/** Returns true if the clone stopped before copying all the objects. A
+	 * clone that is cancelled after the last object is copied completes
+	 * normally.
+	 * @return whether the clone stopped early.
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+}
@@ -0,0 +1,181 @@
+package us.kbase.workspace.database;
+
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Base64;
+
+/** A position in a list of objects or workspaces, used to continue listing
+ * after the last item of a page. Objects are listed in order of workspace id,
+ * object id, and version, and workspaces in order of workspace id, so a
+ * position is independent of any objects or workspaces created or deleted
+ * since the previous page was retrieved.
+ *
+ * The string form of a token is opaque to clients.
+ */
+public class ContinuationToken {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String OBJ_PREFIX = "o";
+	private static final String WS_PREFIX = "w";
+	private static final Pattern OBJ_TOKEN =
+			Pattern.compile("^" + OBJ_PREFIX + "(\\d+)/(\\d+)/(\\d+)$");
+	private static final Pattern WS_TOKEN =
+			Pattern.compile("^" + WS_PREFIX + "(\\d+)$");
+
+	private final long workspaceID;
+	private final Long objectID;
+	private final Integer version;
+
+	private ContinuationToken(final long workspaceID, final Long objectID,
+			final Integer version) {
+		this.workspaceID = workspaceID;
+		this.objectID = objectID;
+		this.version = version;
+	}
+
+	/** Create a token for a position in a list of objects.
+	 * @param workspaceID the id of the workspace of the last object listed.
+	 * @param objectID the id of the last object listed.
+	 * @param version the version of the last object listed.
+	 * @return the token.
+	 */
+	public static ContinuationToken forObject(final long workspaceID,
+			final long objectID, final int version) {
+		if (workspaceID < 1 || objectID < 1 || version < 1) {
+			throw new IllegalArgumentException(
+					"Workspace id, object id, and version must be > 0");
+		}
+		return new ContinuationToken(workspaceID, objectID, version);
+	}
+
+	/** Create a token for a position in a list of workspaces.
+	 * @param workspaceID the id of the last workspace listed.
+	 * @return the token.
+	 */
+	public static ContinuationToken forWorkspace(final long workspaceID) {
+		if (workspaceID < 1) {
+			throw new IllegalArgumentException("Workspace id must be > 0");
+		}
+		return new ContinuationToken(workspaceID, null, null);
+	}
+
+	/** Parse a token string created by getToken().
+	 * @param token the token string.
+	 * @return the token.
+	 * @throws IllegalArgumentException if the token is invalid.
+	 */
+	public static ContinuationToken parse(final String token) {
+		if (token == null || token.isEmpty() || !Base64.isBase64(token)) {
+			throw new IllegalArgumentException(
+					"Invalid continuation token: " + token);
+		}
+		final String t = new String(Base64.decodeBase64(token), UTF8);
+		try {
+			final Matcher o = OBJ_TOKEN.matcher(t);
+			if (o.matches()) {
+				return forObject(Long.parseLong(o.group(1)),
+						Long.parseLong(o.group(2)),
+						Integer.parseInt(o.group(3)));
+			}
+			final Matcher w = WS_TOKEN.matcher(t);
+			if (w.matches()) {
+				return forWorkspace(Long.parseLong(w.group(1)));
+			}
+		} catch (IllegalArgumentException iae) {
+			// NumberFormatException is an IllegalArgumentException
+		}
+		throw new IllegalArgumentException(
+				"Invalid continuation token: " + token);
+	}
+
+	/** Returns true if this token is a position in a list of objects,
+	 * false if it is a position in a list of workspaces.
+	 * @return whether this is an object token.
+	 */
+	public boolean isObjectToken() {
+		return objectID != null;
+	}
+
+	public long getWorkspaceID() {
+		return workspaceID;
+	}
+
+	/** Get the object id.
+	 * @return the object id, or null for a workspace token.
+	 */
+	public Long getObjectID() {
+		return objectID;
+	}
+
+	/** Get the object version.
+	 * @return the version, or null for a workspace token.
+	 */
+	public Integer getVersion() {
+		return version;
+	}
+
+	/** Get the opaque string form of this token.
+	 * @return the token string.
+	 */
+	public String getToken() {
+		final String t;
+		if (isObjectToken()) {
+			t = OBJ_PREFIX + workspaceID + "/" + objectID + "/" + version;
+		} else {
+			t = WS_PREFIX + workspaceID;
+		}
+		return Base64.encodeBase64URLSafeString(t.getBytes(UTF8));
+	}
+
+	@Override
+	public String toString() {
+		return "ContinuationToken [workspaceID=" + workspaceID +
+				", objectID=" + objectID + ", version=" + version + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result +
+				((objectID == null) ? 0 : objectID.hashCode());
+		result = prime * result +
+				((version == null) ? 0 : version.hashCode());
+		result = prime * result + (int) (workspaceID ^ (workspaceID >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		ContinuationToken other = (ContinuationToken) obj;
+		if (objectID == null) {
+			if (other.objectID != null) {
+				return false;
+			}
+		} else if (!objectID.equals(other.objectID)) {
+			return false;
+		}
+		if (version == null) {
+			if (other.version != null) {
+				return false;
+			}
+		} else if (!version.equals(other.version)) {
+			return false;
+		}
+		if (workspaceID != other.workspaceID) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -29,6 +29,12 @@ public class Provenance {
 	
 	protected Provenance() {} //for subclasses using mongo
 	
+	protected Provenance(final Provenance p) { //shallow copy for subclasses
+		this.user = p.user;
+		this.date = p.date;
+		this.actions = new ArrayList<ProvenanceAction>(p.actions);
+	}
+	
 	public Provenance addAction(ProvenanceAction action) {
 		if (action == null) {
 			throw new IllegalArgumentException("action cannot be null");
@@ -44,6 +50,10 @@ public class Provenance {
 	public Date getDate() {
 		return date;
 	}
+	
+	protected void setDate(final Date date) {
+		this.date = date;
+	}
 
 	public List<ProvenanceAction> getActions() {
 		return new ArrayList<ProvenanceAction>(actions);
@@ -0,0 +1,310 @@
+package us.kbase.workspace.database;
+
+import java.util.LinkedList;
+
+import us.kbase.workspace.database.exceptions.ServerBusyException;
+
+/** A memory and disk budget for typed object data shared between all calls
+ * to a workspace server. The per call limits in the resource usage
+ * configuration bound the data held by a single call, but not the data held
+ * by many concurrent calls; the budget bounds the latter.
+ *
+ * Calls reserve the memory they expect to use before they start buffering
+ * data. If the budget can't cover a reservation, the call waits in a first
+ * come, first served queue until enough memory is released or the wait times
+ * out. Reservations of no memory never wait. The data a call buffers is charged against its reservation and then
+ * against the free memory in the budget; if neither can cover the data, the
+ * data is spilled to disk instead. Data is released back to the budget when
+ * the cache holding it is destroyed. Data held by the shared blob cache is
+ * bounded by the cache's own limits and is not charged against the budget.
+ *
+ * A limit of 0 means the corresponding resource is not limited.
+ *
+ * This class is thread safe.
+ */
+public class ResourceBudget {
+
+	private long maxMemory;
+	private long maxDisk;
+	private long memory = 0;
+	private long disk = 0;
+
+	private final LinkedList<Reservation> queue = new LinkedList<Reservation>();
+
+	private long reservations = 0;
+	private long timeouts = 0;
+	private long spills = 0;
+	private long totalWaitMS = 0;
+	private long maxWaitMS = 0;
+	private int maxQueueLength = 0;
+
+	/** Create a new budget.
+	 * @param maxMemory the maximum number of bytes to hold in memory, or 0
+	 * for no limit.
+	 * @param maxDisk the maximum number of bytes to hold on disk, or 0 for no
+	 * limit.
+	 */
+	public ResourceBudget(final long maxMemory, final long maxDisk) {
+		checkLimits(maxMemory, maxDisk);
+		this.maxMemory = maxMemory;
+		this.maxDisk = maxDisk;
+	}
+
+	private static void checkLimits(final long maxMemory, final long maxDisk) {
+		if (maxMemory < 0 || maxDisk < 0) {
+			throw new IllegalArgumentException(
+					"Budget limits cannot be negative");
+		}
+	}
+
+	/** Change the limits of the budget. Data already held is not affected,
+	 * but new reservations and charges are made against the new limits.
+	 * @param maxMemory the maximum number of bytes to hold in memory, or 0
+	 * for no limit.
+	 * @param maxDisk the maximum number of bytes to hold on disk, or 0 for no
+	 * limit.
+	 */
+	public synchronized void setLimits(final long maxMemory,
+			final long maxDisk) {
+		checkLimits(maxMemory, maxDisk);
+		this.maxMemory = maxMemory;
+		this.maxDisk = maxDisk;
+		notifyAll();
+	}
+
+	/** Reserve memory for a call, waiting until the memory is available. A
+	 * reservation larger than the budget is reduced to the size of the
+	 * budget, so a single large call is never refused; it waits until it
+	 * can have the entire budget to itself.
+	 * @param size the number of bytes of memory the call expects to use.
+	 * @param timeoutMS the maximum time to wait, in milliseconds.
+	 * @return the reservation. The reservation must be closed when the call
+	 * no longer needs to charge data against it.
+	 * @throws ServerBusyException if the memory did not become available
+	 * before the timeout or the wait was interrupted.
+	 */
+	public Reservation reserve(final long size, final long timeoutMS)
+			throws ServerBusyException {
+		if (size < 0 || timeoutMS < 0) {
+			throw new IllegalArgumentException(
+					"Reservation size and timeout cannot be negative");
+		}
+		final Reservation r = new Reservation(size);
+		if (size == 0) {
+			// nothing to wait for, so don't queue behind larger reservations
+			synchronized (this) {
+				reservations++;
+			}
+			return r;
+		}
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			queue.add(r);
+			maxQueueLength = Math.max(maxQueueLength, queue.size());
+			try {
+				while (queue.getFirst() != r || !fits(r.size)) {
+					final long remaining = timeoutMS -
+							(System.currentTimeMillis() - start);
+					if (remaining <= 0) {
+						timeouts++;
+						throw new ServerBusyException(
+								String.format(
+								"Timed out after %s ms waiting for %sB of memory; the server is busy. Please try again later",
+								timeoutMS, size));
+					}
+					wait(remaining);
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new ServerBusyException(
+						"Interrupted while waiting for memory", ie);
+			} finally {
+				if (queue.remove(r)) {
+					// the next reservation may now be at the head of the queue
+					notifyAll();
+				}
+			}
+			r.remaining = maxMemory > 0 ? Math.min(r.size, maxMemory) : r.size;
+			memory += r.remaining;
+			reservations++;
+			final long wait = System.currentTimeMillis() - start;
+			totalWaitMS += wait;
+			maxWaitMS = Math.max(maxWaitMS, wait);
+		}
+		return r;
+	}
+
+	private boolean fits(final long size) {
+		return maxMemory < 1 || memory + Math.min(size, maxMemory) <= maxMemory;
+	}
+
+	/* Charges memory against a reservation, and then against the free
+	 * memory in the budget. Returns false if the memory isn't available, in
+	 * which case the data should be spilled to disk.
+	 */
+	synchronized boolean chargeMemory(final Reservation r, final long size) {
+		final long fromReservation = Math.min(r.remaining, size);
+		final long extra = size - fromReservation;
+		if (maxMemory > 0 && extra > 0 && memory + extra > maxMemory) {
+			spills++;
+			return false;
+		}
+		r.remaining -= fromReservation;
+		memory += extra;
+		return true;
+	}
+
+	synchronized void releaseMemory(final long size) {
+		memory = Math.max(0, memory - size);
+		notifyAll();
+	}
+
+	/* Returns false if the disk space isn't available. */
+	synchronized boolean chargeDisk(final long size) {
+		if (maxDisk > 0 && disk + size > maxDisk) {
+			return false;
+		}
+		disk += size;
+		return true;
+	}
+
+	synchronized void releaseDisk(final long size) {
+		disk = Math.max(0, disk - size);
+	}
+
+	private synchronized void close(final Reservation r) {
+		if (r.closed) {
+			return;
+		}
+		r.closed = true;
+		memory = Math.max(0, memory - r.remaining);
+		r.remaining = 0;
+		notifyAll();
+	}
+
+	/** A reservation of memory for a single call. Closing the reservation
+	 * returns the reserved memory that was not charged to the budget; the
+	 * charged memory is returned as the data is destroyed.
+	 */
+	public class Reservation {
+
+		private final long size;
+		private long remaining = 0;
+		private boolean closed = false;
+
+		private Reservation(final long size) {
+			this.size = size;
+		}
+
+		/** Get the budget from which the memory was reserved.
+		 * @return the budget.
+		 */
+		public ResourceBudget getBudget() {
+			return ResourceBudget.this;
+		}
+
+		/** Get the number of bytes of memory requested.
+		 * @return the size of the reservation.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/** Return the uncharged memory in the reservation to the budget. */
+		public void close() {
+			ResourceBudget.this.close(this);
+		}
+	}
+
+	public synchronized long getMaxMemory() {
+		return maxMemory;
+	}
+
+	public synchronized long getMaxDisk() {
+		return maxDisk;
+	}
+
+	/** Get the memory reserved by or charged to calls.
+	 * @return the number of bytes of memory in use.
+	 */
+	public synchronized long getMemoryUsed() {
+		return memory;
+	}
+
+	/** Get the disk space charged to calls.
+	 * @return the number of bytes of disk in use.
+	 */
+	public synchronized long getDiskUsed() {
+		return disk;
+	}
+
+	/** Get the number of calls waiting for a reservation.
+	 * @return the queue length.
+	 */
+	public synchronized int getQueueLength() {
+		return queue.size();
+	}
+
+	/** Get the largest number of calls that have waited for a reservation
+	 * at once.
+	 * @return the maximum queue length.
+	 */
+	public synchronized int getMaxQueueLength() {
+		return maxQueueLength;
+	}
+
+	/** Get the number of reservations granted.
+	 * @return the number of reservations.
+	 */
+	public synchronized long getReservations() {
+		return reservations;
+	}
+
+	/** Get the number of reservations that timed out.
+	 * @return the number of timeouts.
+	 */
+	public synchronized long getTimeouts() {
+		return timeouts;
+	}
+
+	/** Get the number of times data was spilled to disk because the budget
+	 * had insufficient free memory.
+	 * @return the number of spills.
+	 */
+	public synchronized long getSpills() {
+		return spills;
+	}
+
+	/** Get the total time granted reservations spent waiting.
+	 * @return the total wait time in milliseconds.
+	 */
+	public synchronized long getTotalWaitTimeMS() {
+		return totalWaitMS;
+	}
+
+	/** Get the longest time a granted reservation spent waiting.
+	 * @return the maximum wait time in milliseconds.
+	 */
+	public synchronized long getMaxWaitTimeMS() {
+		return maxWaitMS;
+	}
+
+	/** Get the mean time granted reservations spent waiting.
+	 * @return the mean wait time in milliseconds, or 0 if no reservations
+	 * have been granted.
+	 */
+	public synchronized double getMeanWaitTimeMS() {
+		return reservations == 0 ? 0 : (double) totalWaitMS / reservations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ResourceBudget [maxMemory=" + maxMemory + ", maxDisk="
+				+ maxDisk + ", memory=" + memory + ", disk=" + disk
+				+ ", queue=" + queue.size() + ", maxQueueLength="
+				+ maxQueueLength + ", reservations=" + reservations
+				+ ", timeouts=" + timeouts + ", spills=" + spills
+				+ ", totalWaitMS=" + totalWaitMS + ", maxWaitMS=" + maxWaitMS
+				+ "]";
+	}
+}
@@ -14,12 +14,38 @@ public class ResourceUsageConfigurationBuilder {
 			200000000; // must be at least 1x max data
 	final public static int DEFAULT_MAX_RETURNED_DATA_MEMORY_USAGE = 300000000;
 	final public static long DEFAULT_MAX_RETURNED_DATA_SIZE = 1000000000L;
+	final public static int DEFAULT_SAVE_OBJECTS_THREADS = 1;
+	final public static long DEFAULT_BLOB_CACHE_MEMORY_USAGE = 0L;
+	final public static long DEFAULT_BLOB_CACHE_DISK_USAGE = 0L;
+	final public static int DEFAULT_BLOB_FETCH_THREADS = 1;
+	final public static int DEFAULT_BLOB_FETCH_THREADS_PER_CALL = 8;
+	final public static long DEFAULT_WORKSPACE_CACHE_TTL = 0L;
+	final public static long DEFAULT_SUBSET_INDEX_MIN_OBJECT_SIZE = 0L;
+	final public static int DEFAULT_SUBSET_INDEX_DEPTH = 2;
+	final public static long DEFAULT_DATA_BUDGET_MEMORY_USAGE = 0L;
+	final public static long DEFAULT_DATA_BUDGET_DISK_USAGE = 0L;
+	final public static long DEFAULT_DATA_BUDGET_WAIT_TIMEOUT = 60000L;
+	final public static int DEFAULT_OBJECT_ID_BLOCK_SIZE = 1;
+	final public static long DEFAULT_WORKSPACE_MOD_DATE_FLUSH_INTERVAL = 0L;
 	
 	private int maxObjectSize;
 	private int maxIncomingDataMemoryUsage;
 	private int maxRelabelAndSortMemoryUsage;
 	private int maxReturnedDataMemoryUsage;
 	private long maxReturnedDataSize;
+	private int saveObjectsThreads;
+	private long blobCacheMemoryUsage;
+	private long blobCacheDiskUsage;
+	private int blobFetchThreads;
+	private int blobFetchThreadsPerCall;
+	private long workspaceCacheTTL;
+	private long subsetIndexMinObjectSize;
+	private int subsetIndexDepth;
+	private long dataBudgetMemoryUsage;
+	private long dataBudgetDiskUsage;
+	private long dataBudgetWaitTimeout;
+	private int objectIDBlockSize;
+	private long workspaceModDateFlushInterval;
 	
 	public ResourceUsageConfigurationBuilder() {
 		maxObjectSize = DEFAULT_MAX_OBJECT_SIZE;
@@ -27,6 +53,20 @@ public class ResourceUsageConfigurationBuilder {
 		maxRelabelAndSortMemoryUsage = DEFAULT_MAX_RELABEL_AND_SORT_MEMORY_USAGE;
 		maxReturnedDataMemoryUsage = DEFAULT_MAX_RETURNED_DATA_MEMORY_USAGE;
 		maxReturnedDataSize = DEFAULT_MAX_RETURNED_DATA_SIZE;
+		saveObjectsThreads = DEFAULT_SAVE_OBJECTS_THREADS;
+		blobCacheMemoryUsage = DEFAULT_BLOB_CACHE_MEMORY_USAGE;
+		blobCacheDiskUsage = DEFAULT_BLOB_CACHE_DISK_USAGE;
+		blobFetchThreads = DEFAULT_BLOB_FETCH_THREADS;
+		blobFetchThreadsPerCall = DEFAULT_BLOB_FETCH_THREADS_PER_CALL;
+		workspaceCacheTTL = DEFAULT_WORKSPACE_CACHE_TTL;
+		subsetIndexMinObjectSize = DEFAULT_SUBSET_INDEX_MIN_OBJECT_SIZE;
+		subsetIndexDepth = DEFAULT_SUBSET_INDEX_DEPTH;
+		dataBudgetMemoryUsage = DEFAULT_DATA_BUDGET_MEMORY_USAGE;
+		dataBudgetDiskUsage = DEFAULT_DATA_BUDGET_DISK_USAGE;
+		dataBudgetWaitTimeout = DEFAULT_DATA_BUDGET_WAIT_TIMEOUT;
+		objectIDBlockSize = DEFAULT_OBJECT_ID_BLOCK_SIZE;
+		workspaceModDateFlushInterval =
+				DEFAULT_WORKSPACE_MOD_DATE_FLUSH_INTERVAL;
 	}
 	
 	public ResourceUsageConfigurationBuilder(ResourceUsageConfiguration cfg) {
@@ -35,6 +75,20 @@ public class ResourceUsageConfigurationBuilder {
 		maxRelabelAndSortMemoryUsage = cfg.getMaxRelabelAndSortMemoryUsage();
 		maxReturnedDataMemoryUsage = cfg.getMaxReturnedDataMemoryUsage();
 		maxReturnedDataSize = cfg.getMaxReturnedDataSize();
+		saveObjectsThreads = cfg.getSaveObjectsThreads();
+		blobCacheMemoryUsage = cfg.getBlobCacheMemoryUsage();
+		blobCacheDiskUsage = cfg.getBlobCacheDiskUsage();
+		blobFetchThreads = cfg.getBlobFetchThreads();
+		blobFetchThreadsPerCall = cfg.getBlobFetchThreadsPerCall();
+		workspaceCacheTTL = cfg.getWorkspaceCacheTTL();
+		subsetIndexMinObjectSize = cfg.getSubsetIndexMinObjectSize();
+		subsetIndexDepth = cfg.getSubsetIndexDepth();
+		dataBudgetMemoryUsage = cfg.getDataBudgetMemoryUsage();
+		dataBudgetDiskUsage = cfg.getDataBudgetDiskUsage();
+		dataBudgetWaitTimeout = cfg.getDataBudgetWaitTimeout();
+		objectIDBlockSize = cfg.getObjectIDBlockSize();
+		workspaceModDateFlushInterval =
+				cfg.getWorkspaceModDateFlushInterval();
 	}
 	
 	public ResourceUsageConfigurationBuilder withMaxObjectSize(int maxObjectSize) {
@@ -66,10 +120,94 @@ public class ResourceUsageConfigurationBuilder {
 		return this;
 	}
 
+	public ResourceUsageConfigurationBuilder withSaveObjectsThreads(
+			int saveObjectsThreads) {
+		this.saveObjectsThreads = saveObjectsThreads;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withBlobCacheMemoryUsage(
+			long blobCacheMemoryUsage) {
+		this.blobCacheMemoryUsage = blobCacheMemoryUsage;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withBlobCacheDiskUsage(
+			long blobCacheDiskUsage) {
+		this.blobCacheDiskUsage = blobCacheDiskUsage;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withBlobFetchThreads(
+			int blobFetchThreads) {
+		this.blobFetchThreads = blobFetchThreads;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withBlobFetchThreadsPerCall(
+			int blobFetchThreadsPerCall) {
+		this.blobFetchThreadsPerCall = blobFetchThreadsPerCall;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withWorkspaceCacheTTL(
+			long workspaceCacheTTL) {
+		this.workspaceCacheTTL = workspaceCacheTTL;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withSubsetIndexMinObjectSize(
+			long subsetIndexMinObjectSize) {
+		this.subsetIndexMinObjectSize = subsetIndexMinObjectSize;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withSubsetIndexDepth(
+			int subsetIndexDepth) {
+		this.subsetIndexDepth = subsetIndexDepth;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withDataBudgetMemoryUsage(
+			long dataBudgetMemoryUsage) {
+		this.dataBudgetMemoryUsage = dataBudgetMemoryUsage;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withDataBudgetDiskUsage(
+			long dataBudgetDiskUsage) {
+		this.dataBudgetDiskUsage = dataBudgetDiskUsage;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withDataBudgetWaitTimeout(
+			long dataBudgetWaitTimeout) {
+		this.dataBudgetWaitTimeout = dataBudgetWaitTimeout;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withObjectIDBlockSize(
+			int objectIDBlockSize) {
+		this.objectIDBlockSize = objectIDBlockSize;
+		return this;
+	}
+
+	public ResourceUsageConfigurationBuilder withWorkspaceModDateFlushInterval(
+			long workspaceModDateFlushInterval) {
+		this.workspaceModDateFlushInterval = workspaceModDateFlushInterval;
+		return this;
+	}
+
 	public ResourceUsageConfiguration build() {
 		return new ResourceUsageConfiguration(maxObjectSize, 
 				maxIncomingDataMemoryUsage, maxRelabelAndSortMemoryUsage,
-				maxReturnedDataMemoryUsage, maxReturnedDataSize);
+				maxReturnedDataMemoryUsage, maxReturnedDataSize,
+				saveObjectsThreads, blobCacheMemoryUsage, blobCacheDiskUsage,
+				blobFetchThreads, blobFetchThreadsPerCall, workspaceCacheTTL,
+				subsetIndexMinObjectSize, subsetIndexDepth,
+				dataBudgetMemoryUsage, dataBudgetDiskUsage,
+				dataBudgetWaitTimeout, objectIDBlockSize,
+				workspaceModDateFlushInterval);
 	}
 
 	public class ResourceUsageConfiguration {
@@ -79,17 +217,61 @@ public class ResourceUsageConfigurationBuilder {
 		final private int maxRelabelAndSortMemoryUsage;
 		final private int maxReturnedDataMemoryUsage;
 		final private long maxReturnedDataSize;
+		final private int saveObjectsThreads;
+		final private long blobCacheMemoryUsage;
+		final private long blobCacheDiskUsage;
+		final private int blobFetchThreads;
+		final private int blobFetchThreadsPerCall;
+		final private long workspaceCacheTTL;
+		final private long subsetIndexMinObjectSize;
+		final private int subsetIndexDepth;
+		final private long dataBudgetMemoryUsage;
+		final private long dataBudgetDiskUsage;
+		final private long dataBudgetWaitTimeout;
+		final private int objectIDBlockSize;
+		final private long workspaceModDateFlushInterval;
 
 		private ResourceUsageConfiguration(final int maxObjectSize,
 				final int maxIncomingDataMemoryUsage,
 				final int maxRelabelAndSortMemoryUsage,
 				final int maxReturnedDataMemoryUsage,
-				final long maxReturnedDataSize) {
+				final long maxReturnedDataSize,
+				final int saveObjectsThreads,
+				final long blobCacheMemoryUsage,
+				final long blobCacheDiskUsage,
+				final int blobFetchThreads,
+				final int blobFetchThreadsPerCall,
+				final long workspaceCacheTTL,
+				final long subsetIndexMinObjectSize,
+				final int subsetIndexDepth,
+				final long dataBudgetMemoryUsage,
+				final long dataBudgetDiskUsage,
+				final long dataBudgetWaitTimeout,
+				final int objectIDBlockSize,
+				final long workspaceModDateFlushInterval) {
 			checkGTZero(maxObjectSize, "Maximum object size");
 			checkGTZero(maxIncomingDataMemoryUsage, "Maximum incoming data memory usage ");
 			checkGTZero(maxRelabelAndSortMemoryUsage, "Relabel and sort memory usage");
 			checkGTZero(maxReturnedDataMemoryUsage, "Returned data memory usage");
 			checkGTZero(maxReturnedDataSize, "Returned data size");
+			checkGTZero(saveObjectsThreads, "Save objects thread count");
+			checkNotNegative(blobCacheMemoryUsage, "Blob cache memory usage");
+			checkNotNegative(blobCacheDiskUsage, "Blob cache disk usage");
+			checkGTZero(blobFetchThreads, "Blob fetch thread count");
+			checkGTZero(blobFetchThreadsPerCall,
+					"Blob fetch thread count per call");
+			checkNotNegative(workspaceCacheTTL, "Workspace cache time to live");
+			checkNotNegative(subsetIndexMinObjectSize,
+					"Subset index minimum object size");
+			checkGTZero(subsetIndexDepth, "Subset index depth");
+			checkNotNegative(dataBudgetMemoryUsage,
+					"Data budget memory usage");
+			checkNotNegative(dataBudgetDiskUsage, "Data budget disk usage");
+			checkNotNegative(dataBudgetWaitTimeout,
+					"Data budget wait timeout");
+			checkGTZero(objectIDBlockSize, "Object ID block size");
+			checkNotNegative(workspaceModDateFlushInterval,
+					"Workspace modification date flush interval");
 			
 			this.maxObjectSize = maxObjectSize;
 			this.maxIncomingDataMemoryUsage = maxIncomingDataMemoryUsage;
@@ -104,6 +286,20 @@ public class ResourceUsageConfigurationBuilder {
 						"Max returned data size must be greater than the max object size");
 			}
 			this.maxReturnedDataSize = maxReturnedDataSize;
+			this.saveObjectsThreads = saveObjectsThreads;
+			this.blobCacheMemoryUsage = blobCacheMemoryUsage;
+			this.blobCacheDiskUsage = blobCacheDiskUsage;
+			this.blobFetchThreads = blobFetchThreads;
+			this.blobFetchThreadsPerCall = blobFetchThreadsPerCall;
+			this.workspaceCacheTTL = workspaceCacheTTL;
+			this.subsetIndexMinObjectSize = subsetIndexMinObjectSize;
+			this.subsetIndexDepth = subsetIndexDepth;
+			this.dataBudgetMemoryUsage = dataBudgetMemoryUsage;
+			this.dataBudgetDiskUsage = dataBudgetDiskUsage;
+			this.dataBudgetWaitTimeout = dataBudgetWaitTimeout;
+			this.objectIDBlockSize = objectIDBlockSize;
+			this.workspaceModDateFlushInterval =
+					workspaceModDateFlushInterval;
 		}
 
 		private void checkGTZero(long maxReturnedDataDiskUsage, String name) {
@@ -112,6 +308,12 @@ public class ResourceUsageConfigurationBuilder {
 			}
 		}
 
+		private void checkNotNegative(long value, String name) {
+			if (value < 0) {
+				throw new IllegalArgumentException(name + " cannot be negative");
+			}
+		}
+
 		/** The maximum object size allowed. Typed objects greater than this
 		 * size will cause an error to be thrown.
 		 * @return the maximum allowed object size.
@@ -164,6 +366,144 @@ public class ResourceUsageConfigurationBuilder {
 		public long getMaxReturnedDataSize() {
 			return maxReturnedDataSize;
 		}
+		
+		/** The number of threads, shared between all saveObjects calls, used
+		 * to validate, relabel and sort typed objects. If 1, all processing
+		 * occurs serially in the calling thread. The sum of the sizes of the
+		 * objects being relabeled and sorted concurrently never exceeds
+		 * the relabel and sort memory usage.
+		 * @return the number of threads to use for processing saved objects.
+		 */
+		public int getSaveObjectsThreads() {
+			return saveObjectsThreads;
+		}
+		
+		/** The maximum memory used by the blob cache shared between all
+		 * calls that return typed objects. Only blobs that were read into
+		 * memory by the call that retrieved them are cached in memory. If 0,
+		 * the in memory portion of the cache is disabled.
+		 * @return the maximum memory used by the shared blob cache.
+		 */
+		public long getBlobCacheMemoryUsage() {
+			return blobCacheMemoryUsage;
+		}
+		
+		/** The maximum disk space used by the blob cache shared between all
+		 * calls that return typed objects. Only blobs that were written to
+		 * disk by the call that retrieved them are cached on disk. If 0,
+		 * the on disk portion of the cache is disabled.
+		 * @return the maximum disk space used by the shared blob cache.
+		 */
+		public long getBlobCacheDiskUsage() {
+			return blobCacheDiskUsage;
+		}
+		
+		/** The number of threads, shared between all calls that return
+		 * typed objects, used to retrieve blobs from the blob store
+		 * concurrently. If 1, blobs are retrieved serially in the calling
+		 * thread.
+		 * @return the number of threads to use for retrieving blobs.
+		 */
+		public int getBlobFetchThreads() {
+			return blobFetchThreads;
+		}
+		
+		/** The maximum number of blobs retrieved concurrently for a single
+		 * call. Ignored if the number of blob fetch threads is 1.
+		 * @return the maximum number of concurrent blob retrievals per call.
+		 */
+		public int getBlobFetchThreadsPerCall() {
+			return blobFetchThreadsPerCall;
+		}
+		
+		/** The time to live, in milliseconds, of the entries in the cache of
+		 * resolved workspaces and workspace permissions. Changes made by
+		 * this server are reflected immediately, but changes made by other
+		 * servers sharing the database may not be seen until the entries
+		 * expire. If 0, the cache is disabled.
+		 * @return the time to live of workspace cache entries.
+		 */
+		public long getWorkspaceCacheTTL() {
+			return workspaceCacheTTL;
+		}
+		
+		/** The minimum size of a saved object for which an index of the
+		 * object's structure is saved with the object. Subsets of indexed
+		 * objects are extracted by reading only the parts of the object
+		 * that contain the selected fields. If 0, no indexes are saved or
+		 * used.
+		 * @return the minimum size of an indexed object.
+		 */
+		public long getSubsetIndexMinObjectSize() {
+			return subsetIndexMinObjectSize;
+		}
+		
+		/** The depth to which the structure of an object is indexed. Each
+		 * level records the position of every field or element of the
+		 * objects and arrays at the level above, so the index size grows
+		 * quickly with depth.
+		 * @return the depth of the structure index.
+		 */
+		public int getSubsetIndexDepth() {
+			return subsetIndexDepth;
+		}
+		
+		/** The maximum memory used for typed object data by all the calls
+		 * that return typed objects combined. Each call reserves memory
+		 * from this budget before retrieving data, waiting if necessary, and
+		 * data that doesn't fit in the budget is stored on disk. If 0, the
+		 * combined memory usage is not limited.
+		 * @return the maximum memory used for returned data by all calls.
+		 */
+		public long getDataBudgetMemoryUsage() {
+			return dataBudgetMemoryUsage;
+		}
+		
+		/** The maximum disk space used for typed object data by all the
+		 * calls that return typed objects combined. Calls that need more
+		 * space fail. If 0, the combined disk usage is not limited.
+		 * @return the maximum disk space used for returned data by all
+		 * calls.
+		 */
+		public long getDataBudgetDiskUsage() {
+			return dataBudgetDiskUsage;
+		}
+		
+		/** The maximum time, in milliseconds, a call waits to reserve memory
+		 * from the data budget before failing.
+		 * @return the maximum wait for a memory reservation.
+		 */
+		public long getDataBudgetWaitTimeout() {
+			return dataBudgetWaitTimeout;
+		}
+		
+		/** The number of object IDs each server reserves from a workspace
+		 * at a time. New objects are assigned IDs from the reserved block
+		 * without updating the workspace, so servers saving to the same
+		 * workspace rarely contend for it. IDs left in a block when the
+		 * server stops are never used. The approximate object count of a
+		 * workspace includes reserved but unused IDs, and with more than one
+		 * server IDs no longer follow the order objects were saved in. If
+		 * 1, IDs are assigned exactly as objects are created.
+		 * @return the number of object IDs to reserve at a time.
+		 */
+		public int getObjectIDBlockSize() {
+			return objectIDBlockSize;
+		}
+		
+		/** The interval, in milliseconds, at which workspace modification
+		 * dates are written to the database. Saves and other changes to
+		 * objects record the new date in memory, and only the latest date
+		 * per workspace is written, so frequent changes to a workspace
+		 * don't each cause a write of the workspace record. Dates are also
+		 * written when the server shuts down. Servers sharing the database
+		 * may not see the new date until it is written. If 0, dates are
+		 * written immediately.
+		 * @return the interval between writes of modification dates.
+		 */
+		public long getWorkspaceModDateFlushInterval() {
+			return workspaceModDateFlushInterval;
+		}
 	}
 
 }
@@ -0,0 +1,40 @@
+package us.kbase.workspace.database;
+
+import java.util.Collections;
+import java.util.List;
+
+/** A page of results from a list method that supports continuation tokens.
+ * A page may contain fewer results than the requested limit, or even no
+ * results, when items are filtered out after they're retrieved from the
+ * database, so the end of the list is indicated by a null continuation
+ * token rather than a short page.
+ */
+public class ResultPage<T> {
+
+	private final List<T> results;
+	private final ContinuationToken next;
+
+	public ResultPage(final List<T> results, final ContinuationToken next) {
+		if (results == null) {
+			throw new NullPointerException("results cannot be null");
+		}
+		this.results = Collections.unmodifiableList(results);
+		this.next = next;
+	}
+
+	public List<T> getResults() {
+		return results;
+	}
+
+	/** Get the token to retrieve the next page.
+	 * @return the token, or null if there are no more results.
+	 */
+	public ContinuationToken getNext() {
+		return next;
+	}
+
+	@Override
+	public String toString() {
+		return "ResultPage [results=" + results + ", next=" + next + "]";
+	}
+}
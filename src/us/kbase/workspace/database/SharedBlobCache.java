@@ -0,0 +1,333 @@
+package us.kbase.workspace.database;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import us.kbase.typedobj.core.MD5;
+import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
+import us.kbase.workspace.database.exceptions.FileCacheIOException;
+
+/** A content addressed cache of blob data shared between all calls that
+ * return typed objects. Blobs are keyed by their MD5 and are held in memory
+ * or on disk, depending on where the call that retrieved the blob from the
+ * blob store placed it. Each tier is bounded by a maximum size and least
+ * recently used entries are evicted first.
+ *
+ * Entries are reference counted - an entry's data is only freed (and its
+ * temporary file deleted) once it has been evicted and all the
+ * ByteArrayFileCaches using it have been destroyed. Entries in use are never
+ * evicted to make room for new entries.
+ *
+ * This class is thread safe.
+ */
+public class SharedBlobCache {
+
+	private long maxSizeInMem;
+	private long maxSizeOnDisk;
+	private long sizeInMem = 0;
+	private long sizeOnDisk = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long bytesServed = 0;
+	private long evictions = 0;
+
+	// access ordered, so iteration starts at the least recently used entry
+	private final Map<String, Entry> entries =
+			new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/** Create a new cache.
+	 * @param maxSizeInMem the maximum number of bytes to hold in memory.
+	 * @param maxSizeOnDisk the maximum number of bytes to hold on disk.
+	 */
+	public SharedBlobCache(final long maxSizeInMem, final long maxSizeOnDisk) {
+		checkLimits(maxSizeInMem, maxSizeOnDisk);
+		this.maxSizeInMem = maxSizeInMem;
+		this.maxSizeOnDisk = maxSizeOnDisk;
+	}
+
+	private static void checkLimits(final long maxSizeInMem,
+			final long maxSizeOnDisk) {
+		if (maxSizeInMem < 0 || maxSizeOnDisk < 0) {
+			throw new IllegalArgumentException(
+					"Cache size limits cannot be negative");
+		}
+	}
+
+	/** Change the size limits of the cache. If the cache is larger than the
+	 * new limits, entries are evicted until it fits. Entries in use are
+	 * evicted but their data is not freed until they are no longer in use.
+	 * @param maxSizeInMem the maximum number of bytes to hold in memory.
+	 * @param maxSizeOnDisk the maximum number of bytes to hold on disk.
+	 */
+	public synchronized void setLimits(final long maxSizeInMem,
+			final long maxSizeOnDisk) {
+		checkLimits(maxSizeInMem, maxSizeOnDisk);
+		this.maxSizeInMem = maxSizeInMem;
+		this.maxSizeOnDisk = maxSizeOnDisk;
+		final List<Entry> evict = new LinkedList<Entry>();
+		long mem = sizeInMem;
+		long disk = sizeOnDisk;
+		for (final Entry e: entries.values()) {
+			if (e.isInMemory() && mem > maxSizeInMem) {
+				evict.add(e);
+				mem -= e.size;
+			} else if (!e.isInMemory() && disk > maxSizeOnDisk) {
+				evict.add(e);
+				disk -= e.size;
+			}
+		}
+		for (final Entry e: evict) {
+			evict(e);
+		}
+	}
+
+	/** Get a blob from the cache.
+	 * @param md5 the MD5 of the blob.
+	 * @param bafcMan the file cache manager for the current call.
+	 * @return a new ByteArrayFileCache backed by the cached data, or null if
+	 * the blob is not in the cache. The returned cache must be destroyed
+	 * when no longer needed.
+	 * @throws FileCacheIOException if the cached data could not be opened.
+	 */
+	public ByteArrayFileCache get(final MD5 md5,
+			final ByteArrayFileCacheManager bafcMan)
+			throws FileCacheIOException {
+		final Entry e;
+		synchronized (this) {
+			e = entries.get(md5.getMD5());
+			if (e == null) {
+				misses++;
+				return null;
+			}
+			e.refs++;
+			hits++;
+			bytesServed += e.size;
+		}
+		try {
+			return bafcMan.createSharedBAFC(e);
+		} catch (FileCacheIOException fcioe) {
+			e.release();
+			throw fcioe;
+		}
+	}
+
+	/** Add a blob to the cache. If the blob fits in the cache, the cache
+	 * takes shared ownership of the blob's data; the data is no longer freed
+	 * when the provided ByteArrayFileCache is destroyed. If the blob doesn't
+	 * fit, is already cached, or is a subset of another blob, the cache is
+	 * not altered.
+	 * @param md5 the MD5 of the blob.
+	 * @param data the blob, as retrieved from the blob store.
+	 * @return true if the blob was added to the cache.
+	 */
+	public synchronized boolean add(final MD5 md5,
+			final ByteArrayFileCache data) {
+		if (!data.isShareable() || entries.containsKey(md5.getMD5())) {
+			return false;
+		}
+		final Entry e = new Entry(md5.getMD5(), data.getData(),
+				data.getTempFile(), data.getSize(), data.isSorted(),
+				data.containsTrustedJson());
+		if (!makeRoom(e.size, e.isInMemory())) {
+			return false;
+		}
+		data.share(e);
+		entries.put(e.md5, e);
+		if (e.isInMemory()) {
+			sizeInMem += e.size;
+		} else {
+			sizeOnDisk += e.size;
+		}
+		return true;
+	}
+
+	// only evicts entries not in use, so nothing is evicted if room can't be
+	// made
+	private boolean makeRoom(final long size, final boolean inMem) {
+		final long max = inMem ? maxSizeInMem : maxSizeOnDisk;
+		long free = max - (inMem ? sizeInMem : sizeOnDisk);
+		if (size > max) {
+			return false;
+		}
+		final List<Entry> evict = new LinkedList<Entry>();
+		for (final Entry e: entries.values()) {
+			if (free >= size) {
+				break;
+			}
+			if (e.refs == 0 && e.isInMemory() == inMem) {
+				evict.add(e);
+				free += e.size;
+			}
+		}
+		if (free < size) {
+			return false;
+		}
+		for (final Entry e: evict) {
+			evict(e);
+		}
+		return true;
+	}
+
+	private void evict(final Entry e) {
+		entries.remove(e.md5);
+		e.evicted = true;
+		evictions++;
+		if (e.isInMemory()) {
+			sizeInMem -= e.size;
+		} else {
+			sizeOnDisk -= e.size;
+		}
+		if (e.refs == 0) {
+			e.free();
+		}
+	}
+
+	/** Remove all entries from the cache. Entries in use are freed when
+	 * they are no longer in use.
+	 */
+	public synchronized void clear() {
+		for (final Entry e: new LinkedList<Entry>(entries.values())) {
+			evict(e);
+		}
+	}
+
+	private synchronized void release(final Entry e) {
+		e.refs--;
+		if (e.refs == 0 && e.evicted) {
+			e.free();
+		}
+	}
+
+	/** Get the number of times a blob was found in the cache.
+	 * @return the number of cache hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** Get the number of times a blob was not found in the cache.
+	 * @return the number of cache misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** Get the fraction of requests for blobs that were served from the
+	 * cache.
+	 * @return the cache hit ratio, or 0 if no requests have been made.
+	 */
+	public synchronized double getHitRatio() {
+		final long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/** Get the total number of bytes served from the cache.
+	 * @return the number of bytes served.
+	 */
+	public synchronized long getBytesServed() {
+		return bytesServed;
+	}
+
+	/** Get the number of entries that have been evicted from the cache.
+	 * @return the number of evictions.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/** Get the number of blobs in the cache.
+	 * @return the number of cached blobs.
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized long getSizeInMem() {
+		return sizeInMem;
+	}
+
+	public synchronized long getMaxSizeInMem() {
+		return maxSizeInMem;
+	}
+
+	public synchronized long getSizeOnDisk() {
+		return sizeOnDisk;
+	}
+
+	public synchronized long getMaxSizeOnDisk() {
+		return maxSizeOnDisk;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SharedBlobCache [maxSizeInMem=" + maxSizeInMem
+				+ ", maxSizeOnDisk=" + maxSizeOnDisk + ", sizeInMem="
+				+ sizeInMem + ", sizeOnDisk=" + sizeOnDisk + ", hits=" + hits
+				+ ", misses=" + misses + ", bytesServed=" + bytesServed
+				+ ", evictions=" + evictions + ", entries=" + entries.size()
+				+ "]";
+	}
+
+	/* A cached blob. All mutable state is guarded by the cache's lock. */
+	class Entry {
+
+		private final String md5;
+		private byte[] data;
+		private File file;
+		private final long size;
+		private final boolean sorted;
+		private final boolean trustedJson;
+		private final boolean inMemory;
+		// the ByteArrayFileCache that supplied the data holds the first reference
+		private int refs = 1;
+		private boolean evicted = false;
+
+		private Entry(final String md5, final byte[] data, final File file,
+				final long size, final boolean sorted,
+				final boolean trustedJson) {
+			this.md5 = md5;
+			this.data = data;
+			this.file = file;
+			this.size = size;
+			this.sorted = sorted;
+			this.trustedJson = trustedJson;
+			this.inMemory = file == null;
+		}
+
+		private boolean isInMemory() {
+			return inMemory;
+		}
+
+		byte[] getData() {
+			return data;
+		}
+
+		File getFile() {
+			return file;
+		}
+
+		boolean isSorted() {
+			return sorted;
+		}
+
+		boolean isTrustedJson() {
+			return trustedJson;
+		}
+
+		void release() {
+			SharedBlobCache.this.release(this);
+		}
+
+		private void free() {
+			if (file != null && file.exists()) {
+				file.delete();
+			}
+			data = null;
+			file = null;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package us.kbase.workspace.database;
+
+/** Storage used by the objects in one or more workspaces, separated into
+ * live and deleted objects. Sizes are the logical size of each version of
+ * each object - the space saved by sharing identical data between versions
+ * is ignored.
+ *
+ * Usage of unique data is not tracked per workspace or per user, since
+ * the same data may be shared by any number of workspaces. The total size
+ * of the unique data in the database is available from
+ * {@link WorkspaceDatabase#getUniqueDataSize()}.
+ */
+public class StorageUsage {
+
+	private final long objects;
+	private final long versions;
+	private final long bytes;
+	private final long deletedObjects;
+	private final long deletedVersions;
+	private final long deletedBytes;
+
+	public StorageUsage(final long objects, final long versions,
+			final long bytes, final long deletedObjects,
+			final long deletedVersions, final long deletedBytes) {
+		this.objects = objects;
+		this.versions = versions;
+		this.bytes = bytes;
+		this.deletedObjects = deletedObjects;
+		this.deletedVersions = deletedVersions;
+		this.deletedBytes = deletedBytes;
+	}
+
+	/** Returns the number of objects that are not deleted.
+	 * @return the number of live objects.
+	 */
+	public long getObjects() {
+		return objects;
+	}
+
+	/** Returns the number of versions of objects that are not deleted.
+	 * @return the number of live versions.
+	 */
+	public long getVersions() {
+		return versions;
+	}
+
+	/** Returns the total size of the versions of objects that are not
+	 * deleted.
+	 * @return the size of the live versions in bytes.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/** Returns the number of deleted objects.
+	 * @return the number of deleted objects.
+	 */
+	public long getDeletedObjects() {
+		return deletedObjects;
+	}
+
+	/** Returns the number of versions of deleted objects.
+	 * @return the number of deleted versions.
+	 */
+	public long getDeletedVersions() {
+		return deletedVersions;
+	}
+
+	/** Returns the total size of the versions of deleted objects.
+	 * @return the size of the deleted versions in bytes.
+	 */
+	public long getDeletedBytes() {
+		return deletedBytes;
+	}
+
+	/** Returns the sum of this usage and another usage.
+	 * @param other the usage to add.
+	 * @return the sum of the usages.
+	 */
+	public StorageUsage add(final StorageUsage other) {
+		return new StorageUsage(objects + other.objects,
+				versions + other.versions, bytes + other.bytes,
+				deletedObjects + other.deletedObjects,
+				deletedVersions + other.deletedVersions,
+				deletedBytes + other.deletedBytes);
+	}
+
+	@Override
+	public String toString() {
+		return "StorageUsage [objects=" + objects + ", versions=" + versions
+				+ ", bytes=" + bytes + ", deletedObjects=" + deletedObjects
+				+ ", deletedVersions=" + deletedVersions + ", deletedBytes="
+				+ deletedBytes + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (bytes ^ (bytes >>> 32));
+		result = prime * result
+				+ (int) (deletedBytes ^ (deletedBytes >>> 32));
+		result = prime * result
+				+ (int) (deletedObjects ^ (deletedObjects >>> 32));
+		result = prime * result
+				+ (int) (deletedVersions ^ (deletedVersions >>> 32));
+		result = prime * result + (int) (objects ^ (objects >>> 32));
+		result = prime * result + (int) (versions ^ (versions >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		StorageUsage other = (StorageUsage) obj;
+		if (bytes != other.bytes)
+			return false;
+		if (deletedBytes != other.deletedBytes)
+			return false;
+		if (deletedObjects != other.deletedObjects)
+			return false;
+		if (deletedVersions != other.deletedVersions)
+			return false;
+		if (objects != other.objects)
+			return false;
+		if (versions != other.versions)
+			return false;
+		return true;
+	}
+}
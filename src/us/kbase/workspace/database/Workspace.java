@@ -3,6 +3,7 @@ package us.kbase.workspace.database;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,20 +15,29 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 
 import us.kbase.common.utils.sortjson.KeyDuplicationException;
-import us.kbase.common.utils.sortjson.TooManyKeysException;
 import us.kbase.common.utils.sortjson.UTF8JsonSorterFactory;
 import us.kbase.typedobj.core.AbsoluteTypeDefId;
 import us.kbase.typedobj.core.JsonDocumentLocation;
 import us.kbase.typedobj.core.ObjectPaths;
+import us.kbase.typedobj.core.SpillingJsonSorter;
 import us.kbase.typedobj.core.TempFilesManager;
 import us.kbase.typedobj.core.TypeDefId;
 import us.kbase.typedobj.core.TypeDefName;
 import us.kbase.typedobj.core.TypedObjectValidationReport;
 import us.kbase.typedobj.core.TypedObjectValidator;
+import us.kbase.typedobj.core.TypedObjectValidator.DeferredId;
 import us.kbase.typedobj.db.FuncDetailedInfo;
 import us.kbase.typedobj.db.FuncInfo;
 import us.kbase.typedobj.db.ModuleDefId;
@@ -87,6 +97,11 @@ public class Workspace {
 	
 	private final static int MAX_WS_DESCRIPTION = 1000;
 	private final static int MAX_INFO_COUNT = 10000;
+	// finished clone jobs beyond this number are forgotten, oldest first
+	private final static int MAX_FINISHED_CLONE_JOBS = 100;
+	// the least sort memory given to an object sorted concurrently, so
+	// small objects with many keys don't spill to disk
+	private final static int MIN_CONCURRENT_SORT_MEMORY = 1000000;
 	
 	private final static IdReferenceType WS_ID_TYPE = new IdReferenceType("ws");
 	
@@ -95,6 +110,15 @@ public class Workspace {
 	private final TempFilesManager tfm;
 	private ResourceUsageConfiguration rescfg;
 	private final ReferenceParser parser;
+	// null if objects are to be processed serially
+	private volatile ExecutorService saveExecutor = null;
+	private int saveExecutorThreads = 1;
+	private final ExecutorService cloneExecutor =
+			Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+	private final AtomicLong cloneJobCounter = new AtomicLong(0);
+	// insertion ordered, so iteration starts at the oldest job
+	private final Map<Long, CloneJob> cloneJobs =
+			new LinkedHashMap<Long, CloneJob>();
 	
 	public Workspace(
 			final WorkspaceDatabase db,
@@ -115,6 +139,7 @@ public class Workspace {
 		rescfg = cfg;
 		this.parser = parser;
 		db.setResourceUsageConfiguration(rescfg);
+		setSaveExecutor(rescfg);
 	}
 	
 	public ResourceUsageConfiguration getResourceConfig() {
@@ -127,6 +152,38 @@ public class Workspace {
 		}
 		this.rescfg = rescfg;
 		db.setResourceUsageConfiguration(rescfg);
+		setSaveExecutor(rescfg);
+	}
+	
+	private synchronized void setSaveExecutor(
+			final ResourceUsageConfiguration cfg) {
+		final int threads = cfg.getSaveObjectsThreads();
+		if (threads == saveExecutorThreads) {
+			return;
+		}
+		if (saveExecutor != null) {
+			// any in progress tasks will still complete
+			saveExecutor.shutdown();
+		}
+		saveExecutorThreads = threads;
+		if (threads > 1) {
+			saveExecutor = Executors.newFixedThreadPool(threads,
+					new DaemonThreadFactory());
+		} else {
+			saveExecutor = null;
+		}
+	}
+	
+	private static class DaemonThreadFactory implements ThreadFactory {
+		
+		private final ThreadFactory def = Executors.defaultThreadFactory();
+		
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = def.newThread(r);
+			t.setDaemon(true);
+			return t;
+		}
 	}
 	
 	public TempFilesManager getTempFilesManager() {
@@ -324,7 +381,116 @@ public class Workspace {
 				"read");
 		new WorkspaceIdentifier(newname, user); //check for errors
 		return db.cloneWorkspace(user, wsid, newname, globalread,
-				pruneWorkspaceDescription(description), meta);
+				pruneWorkspaceDescription(description), meta,
+				new CloneProgress());
+	}
+	
+	/** Clone a workspace in a background thread. Clones are run one at a
+	 * time in the order they are started. Permissions and the new workspace
+	 * name are checked before the clone is started, but errors that occur
+	 * during the clone, such as a preexisting workspace with the new name,
+	 * are reported by the job.
+	 */
+	public CloneJob startCloneWorkspace(final WorkspaceUser user,
+			final WorkspaceIdentifier wsi, final String newname,
+			final boolean globalread, final String description,
+			final Map<String, String> meta)
+			throws CorruptWorkspaceDBException, NoSuchWorkspaceException,
+			WorkspaceCommunicationException, WorkspaceAuthorizationException {
+		final ResolvedWorkspaceID wsid = checkPerms(user, wsi, Permission.READ,
+				"read");
+		new WorkspaceIdentifier(newname, user); //check for errors
+		final String desc = pruneWorkspaceDescription(description);
+		final CloneJob job = new CloneJob(cloneJobCounter.incrementAndGet(),
+				user, wsi, newname);
+		synchronized (cloneJobs) {
+			cloneJobs.put(job.getId(), job);
+			pruneCloneJobs();
+		}
+		cloneExecutor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				if (job.getProgress().isCancelled()) {
+					job.setCancelled(null);
+					return;
+				}
+				job.setRunning();
+				try {
+					final WorkspaceInformation wi = db.cloneWorkspace(user,
+							wsid, newname, globalread, desc, meta,
+							job.getProgress());
+					if (job.getProgress().isStopped()) {
+						job.setCancelled(wi);
+					} else {
+						job.setFinished(wi);
+					}
+				} catch (Throwable t) {
+					job.setFailed(t);
+				}
+			}
+		});
+		return job;
+	}
+	
+	private void pruneCloneJobs() {
+		int finished = 0;
+		for (final CloneJob j: cloneJobs.values()) {
+			if (j.isFinished()) {
+				finished++;
+			}
+		}
+		final Iterator<CloneJob> i = cloneJobs.values().iterator();
+		while (finished > MAX_FINISHED_CLONE_JOBS && i.hasNext()) {
+			if (i.next().isFinished()) {
+				i.remove();
+				finished--;
+			}
+		}
+	}
+	
+	/** Get a background clone job.
+	 * @param user the user that started the job, or null to get any job.
+	 * @param id the id of the job.
+	 * @return the job.
+	 */
+	public CloneJob getCloneJob(final WorkspaceUser user, final long id) {
+		final CloneJob job;
+		synchronized (cloneJobs) {
+			job = cloneJobs.get(id);
+		}
+		if (job == null || (user != null && !user.equals(job.getUser()))) {
+			throw new IllegalArgumentException("No clone job with id " + id);
+		}
+		return job;
+	}
+	
+	/** List background clone jobs, oldest first.
+	 * @param user the user whose jobs will be listed, or null to list all
+	 * jobs.
+	 * @return the jobs.
+	 */
+	public List<CloneJob> listCloneJobs(final WorkspaceUser user) {
+		final List<CloneJob> ret = new LinkedList<CloneJob>();
+		synchronized (cloneJobs) {
+			for (final CloneJob j: cloneJobs.values()) {
+				if (user == null || user.equals(j.getUser())) {
+					ret.add(j);
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/** Cancel a background clone job.
+	 * @param user the user that started the job, or null to cancel any job.
+	 * @param id the id of the job.
+	 * @return the job.
+	 */
+	public CloneJob cancelCloneJob(final WorkspaceUser user, final long id) {
+		final CloneJob job = getCloneJob(user, id);
+		job.cancel();
+		return job;
 	}
 	
 	public WorkspaceInformation lockWorkspace(final WorkspaceUser user,
@@ -569,11 +735,21 @@ public class Workspace {
 		idHandlerFac.addFactory(getHandlerFactory(user));
 		final IdReferenceHandlerSet<IDAssociation> idhandler =
 				idHandlerFac.createHandlers(IDAssociation.class);
+		// no point in using the thread pool for a single object
+		final ExecutorService exe = objects.size() > 1 ? saveExecutor : null;
 		
-		final Map<WorkspaceSaveObject, TypedObjectValidationReport> reports = 
-				validateObjectsAndExtractReferences(objects, idhandler);
+		final Map<WorkspaceSaveObject, TypedObjectValidationReport> reports;
+		if (exe == null) {
+			reports = validateObjectsAndExtractReferences(objects, idhandler);
+		} else {
+			reports = validateObjectsAndExtractReferences(objects, idhandler,
+					exe);
+		}
 		
 		processIds(objects, idhandler, reports);
+		if (exe != null) {
+			calculateRelabeledSizes(reports.values(), exe);
+		}
 		
 		//handle references and calculate size with new references
 		final List<ResolvedSaveObject> saveobjs =
@@ -618,42 +794,157 @@ public class Workspace {
 		objects = null;
 		reports.clear();
 		
-		sortObjects(saveobjs, ttlObjSize);
+		sortObjects(saveobjs, ttlObjSize, exe);
 		return db.saveObjects(user, rwsi, saveobjs);
 	}
 
 	private void sortObjects(
 			final List<ResolvedSaveObject> saveobjs,
-			final long ttlObjSize)
-			throws IOException, TypedObjectValidationException {
-		int objcount = 1;
+			final long ttlObjSize,
+			final ExecutorService exe)
+			throws IOException, TypedObjectValidationException,
+			TypeStorageException, TypedObjectSchemaException {
 		final TempFilesManager tempTFM;
 		if (ttlObjSize > rescfg.getMaxIncomingDataMemoryUsage()) {
 			tempTFM = getTempFilesManager();
 		} else {
 			tempTFM = null;
 		}
-		final UTF8JsonSorterFactory fac = new UTF8JsonSorterFactory(
-				rescfg.getMaxRelabelAndSortMemoryUsage());
-		for (ResolvedSaveObject ro: saveobjs) {
-			try {
-				//modifies object in place
-				ro.getRep().sort(fac, tempTFM);
-			} catch (KeyDuplicationException kde) {
-				/* this occurs when two references in the same hash resolve
-				 * to the same reference, so one value would be lost
-				 */
-				throw new TypedObjectValidationException(String.format(
-						"Object %s: Two references in a single hash are identical when resolved, resulting in a loss of data: ",
-						getObjectErrorId(ro.getObjectIdentifier(), objcount))
-						+ kde.getLocalizedMessage(), kde);
-			} catch (TooManyKeysException tmke) {
-				throw new TypedObjectValidationException(String.format(
-						"Object %s: ",
-						getObjectErrorId(ro.getObjectIdentifier(), objcount))
-						+ tmke.getLocalizedMessage(), tmke);
+		final int sortMem = rescfg.getMaxRelabelAndSortMemoryUsage();
+		if (exe == null) {
+			final UTF8JsonSorterFactory fac = new UTF8JsonSorterFactory(
+					sortMem);
+			int objcount = 1;
+			for (ResolvedSaveObject ro: saveobjs) {
+				sortObject(ro, fac, tempTFM, sortMem, objcount);
+				objcount++;
 			}
-			objcount++;
+			return;
+		}
+		/* Each concurrent sort is limited to the memory it holds permits
+		 * for, and the permits sum to the sort memory allowance, so the
+		 * memory used by this call is no more than when objects are sorted
+		 * serially. A sort that needs more memory than it holds spills to
+		 * disk.
+		 */
+		final Semaphore mem = new Semaphore(sortMem);
+		final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			int objcount = 1;
+			for (final ResolvedSaveObject ro: saveobjs) {
+				final int count = objcount;
+				final int permits = (int) Math.min(sortMem, Math.max(
+						MIN_CONCURRENT_SORT_MEMORY,
+						ro.getRep().getRelabeledSize()));
+				mem.acquireUninterruptibly(permits);
+				try {
+					futures.add(exe.submit(new Callable<Void>() {
+						
+						@Override
+						public Void call() throws Exception {
+							try {
+								sortObject(ro, new UTF8JsonSorterFactory(
+										permits), tempTFM, permits, count);
+								return null;
+							} finally {
+								mem.release(permits);
+							}
+						}
+					}));
+				} catch (RuntimeException e) {
+					mem.release(permits);
+					throw e;
+				}
+				objcount++;
+			}
+			for (final Future<Void> f: futures) {
+				getSaveTaskResult(f);
+			}
+		} finally {
+			for (final Future<Void> f: futures) {
+				f.cancel(false);
+			}
+		}
+	}
+	
+	private void sortObject(
+			final ResolvedSaveObject ro,
+			final UTF8JsonSorterFactory fac,
+			final TempFilesManager tempTFM,
+			final int sortMem,
+			final int objcount)
+			throws IOException, TypedObjectValidationException {
+		try {
+			/* modifies object in place. Maps with too many keys to sort in
+			 * memory are sorted on disk, even if the object itself is small
+			 * enough to keep in memory.
+			 */
+			ro.getRep().sort(fac, tempTFM,
+					new SpillingJsonSorter(tfm, sortMem));
+		} catch (KeyDuplicationException kde) {
+			/* this occurs when two references in the same hash resolve
+			 * to the same reference, so one value would be lost
+			 */
+			throw new TypedObjectValidationException(String.format(
+					"Object %s: Two references in a single hash are identical when resolved, resulting in a loss of data: ",
+					getObjectErrorId(ro.getObjectIdentifier(), objcount))
+					+ kde.getLocalizedMessage(), kde);
+		}
+	}
+	
+	private void calculateRelabeledSizes(
+			final Collection<TypedObjectValidationReport> reports,
+			final ExecutorService exe)
+			throws IOException, TypedObjectValidationException,
+			TypeStorageException, TypedObjectSchemaException {
+		final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		try {
+			for (final TypedObjectValidationReport rep: reports) {
+				futures.add(exe.submit(new Callable<Long>() {
+					
+					@Override
+					public Long call() throws Exception {
+						// the size is cached in the report
+						return rep.getRelabeledSize();
+					}
+				}));
+			}
+			for (final Future<Long> f: futures) {
+				getSaveTaskResult(f);
+			}
+		} finally {
+			for (final Future<Long> f: futures) {
+				f.cancel(false);
+			}
+		}
+	}
+	
+	private static <T> T getSaveTaskResult(final Future<T> f)
+			throws IOException, TypedObjectValidationException,
+			TypeStorageException, TypedObjectSchemaException {
+		try {
+			return f.get();
+		} catch (InterruptedException ie) {
+			throw new IllegalStateException(
+					"Interrupted while processing objects", ie);
+		} catch (ExecutionException ee) {
+			final Throwable c = ee.getCause();
+			if (c instanceof IOException) {
+				throw (IOException) c;
+			} else if (c instanceof TypedObjectValidationException) {
+				throw (TypedObjectValidationException) c;
+			} else if (c instanceof TypeStorageException) {
+				throw (TypeStorageException) c;
+			} else if (c instanceof TypedObjectSchemaException) {
+				throw (TypedObjectSchemaException) c;
+			} else if (c instanceof RuntimeException) {
+				throw (RuntimeException) c;
+			} else if (c instanceof Error) {
+				throw (Error) c;
+			}
+			throw new IllegalStateException(
+					"Unexpected error processing objects: " +
+					c.getMessage(), c);
 		}
 	}
 
@@ -670,34 +961,114 @@ public class Workspace {
 		for (final WorkspaceSaveObject wo: objects) {
 			idhandler.associateObject(new IDAssociation(objcount, false));
 			final TypedObjectValidationReport rep = validate(wo, val,
-					idhandler, objcount);
+					idhandler, objcount, null);
 			reports.put(wo, rep);
-			idhandler.associateObject(new IDAssociation(objcount, true));
-			try {
-				for (final Provenance.ProvenanceAction action:
-						wo.getProvenance().getActions()) {
-					for (final String pref: action.getWorkspaceObjects()) {
-						if (pref == null) {
-							throw new TypedObjectValidationException(
-									String.format(
-									"Object %s has a null provenance reference",
-									getObjectErrorId(wo, objcount)));
-						}
-						idhandler.addStringId(new IdReference<String>(
-								WS_ID_TYPE, pref, null));
+			addProvenanceIds(wo, idhandler, objcount);
+			objcount++;
+		}
+		return reports;
+	}
+	
+	/* Validates the objects concurrently. The IDs from each object are
+	 * added to the handler in object order once that object's validation
+	 * is complete, and any ID errors are merged into the object's errors in
+	 * document order, so the handler state and any errors are identical to
+	 * serial validation.
+	 */
+	private Map<WorkspaceSaveObject, TypedObjectValidationReport>
+			validateObjectsAndExtractReferences(
+			final List<WorkspaceSaveObject> objects,
+			final IdReferenceHandlerSet<IDAssociation> idhandler,
+			final ExecutorService exe)
+			throws TypeStorageException, TypedObjectSchemaException,
+			TypedObjectValidationException, IOException {
+		final TypedObjectValidator val = db.getTypeValidator();
+		final List<Future<TypedObjectValidationReport>> futures =
+				new ArrayList<Future<TypedObjectValidationReport>>();
+		final List<List<DeferredId>> ids = new ArrayList<List<DeferredId>>();
+		try {
+			int objcount = 1;
+			for (final WorkspaceSaveObject wo: objects) {
+				final List<DeferredId> objids = new LinkedList<DeferredId>();
+				ids.add(objids);
+				final int count = objcount;
+				futures.add(exe.submit(
+						new Callable<TypedObjectValidationReport>() {
+					
+					@Override
+					public TypedObjectValidationReport call()
+							throws Exception {
+						return validate(wo, val, idhandler, count, objids);
+					}
+				}));
+				objcount++;
+			}
+			final Map<WorkspaceSaveObject, TypedObjectValidationReport>
+					reports = new HashMap<WorkspaceSaveObject,
+							TypedObjectValidationReport>();
+			objcount = 1;
+			for (final WorkspaceSaveObject wo: objects) {
+				final TypedObjectValidationReport rep = getSaveTaskResult(
+						futures.get(objcount - 1));
+				reports.put(wo, rep);
+				addDeferredIds(wo, val, rep, ids.get(objcount - 1), idhandler,
+						objcount);
+				addProvenanceIds(wo, idhandler, objcount);
+				objcount++;
+			}
+			return reports;
+		} finally {
+			for (final Future<TypedObjectValidationReport> f: futures) {
+				f.cancel(false);
+			}
+		}
+	}
+	
+	private void addDeferredIds(
+			final WorkspaceSaveObject wo,
+			final TypedObjectValidator val,
+			final TypedObjectValidationReport rep,
+			final List<DeferredId> ids,
+			final IdReferenceHandlerSet<IDAssociation> idhandler,
+			final int objcount)
+			throws TypedObjectValidationException {
+		idhandler.associateObject(new IDAssociation(objcount, false));
+		try {
+			val.addDeferredIds(rep, ids, idhandler);
+		} catch (TooManyIdsException e) {
+			throw wrapTooManyIDsException(objcount, idhandler, e);
+		}
+		checkValid(wo, rep, objcount);
+	}
+	
+	private void addProvenanceIds(
+			final WorkspaceSaveObject wo,
+			final IdReferenceHandlerSet<IDAssociation> idhandler,
+			final int objcount)
+			throws TypedObjectValidationException {
+		idhandler.associateObject(new IDAssociation(objcount, true));
+		try {
+			for (final Provenance.ProvenanceAction action:
+					wo.getProvenance().getActions()) {
+				for (final String pref: action.getWorkspaceObjects()) {
+					if (pref == null) {
+						throw new TypedObjectValidationException(
+								String.format(
+								"Object %s has a null provenance reference",
+								getObjectErrorId(wo, objcount)));
 					}
+					idhandler.addStringId(new IdReference<String>(
+							WS_ID_TYPE, pref, null));
 				}
-			} catch (IdReferenceHandlerException ihre) {
-				throw new TypedObjectValidationException(String.format(
-						"Object %s has invalid provenance reference: ",
-						getObjectErrorId(wo, objcount)) + 
-						ihre.getMessage(), ihre);
-			} catch (TooManyIdsException tmie) {
-				throw wrapTooManyIDsException(objcount, idhandler, tmie);
 			}
-			objcount++;
+		} catch (IdReferenceHandlerException ihre) {
+			throw new TypedObjectValidationException(String.format(
+					"Object %s has invalid provenance reference: ",
+					getObjectErrorId(wo, objcount)) + 
+					ihre.getMessage(), ihre);
+		} catch (TooManyIdsException tmie) {
+			throw wrapTooManyIDsException(objcount, idhandler, tmie);
 		}
-		return reports;
 	}
 
 	private void processIds(
@@ -767,12 +1138,14 @@ public class Workspace {
 			final WorkspaceSaveObject wo,
 			final TypedObjectValidator val,
 			final IdReferenceHandlerSet<IDAssociation> idhandler,
-			final int objcount)
+			final int objcount,
+			final List<DeferredId> deferredIds)
 			throws TypeStorageException, TypedObjectSchemaException,
 			TypedObjectValidationException {
 		final TypedObjectValidationReport rep;
 		try {
-			rep = val.validate(wo.getData(), wo.getType(), idhandler);
+			rep = val.validate(wo.getData(), wo.getType(), idhandler,
+					deferredIds);
 		} catch (NoSuchTypeException nste) {
 			throw new TypedObjectValidationException(String.format(
 					"Object %s failed type checking:\n",
@@ -796,6 +1169,18 @@ public class Workspace {
 					"A fatal IO error occured while type checking object %s: ",
 					getObjectErrorId(wo, objcount)) + ioe.getMessage(), ioe);
 		}
+		// errors for deferred IDs haven't been added to the report yet
+		if (deferredIds == null) {
+			checkValid(wo, rep, objcount);
+		}
+		return rep;
+	}
+	
+	private void checkValid(
+			final WorkspaceSaveObject wo,
+			final TypedObjectValidationReport rep,
+			final int objcount)
+			throws TypedObjectValidationException {
 		if (!rep.isInstanceValid()) {
 			final List<String> e = rep.getErrorMessages();
 			final String err = StringUtils.join(e, "\n");
@@ -803,7 +1188,6 @@ public class Workspace {
 					"Object %s failed type checking:\n",
 					getObjectErrorId(wo, objcount)) + err);
 		}
-		return rep;
 	}
 	
 	private TypedObjectValidationException wrapTooManyIDsException(
@@ -838,6 +1222,53 @@ public class Workspace {
 				showDeleted, showOnlyDeleted);
 	}
 	
+	/** List workspaces a page at a time, in order of workspace id. Unlike
+	 * skipping, the cost of retrieving a page does not depend on how far into
+	 * the list the page is.
+	 * @param token the token returned with the previous page, or null to
+	 * retrieve the first page.
+	 * @param limit the maximum number of workspaces to examine for the page.
+	 * Deleted workspaces are filtered out after they are retrieved, so a page
+	 * may hold fewer workspaces than the limit even if it is not the last.
+	 */
+	public ResultPage<WorkspaceInformation> listWorkspacesPage(
+			final WorkspaceUser user, Permission minPerm,
+			final List<WorkspaceUser> users, final Map<String, String> meta,
+			final Date after, final Date before,
+			final boolean excludeGlobal, final boolean showDeleted,
+			final boolean showOnlyDeleted, final String token, int limit)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		final ContinuationToken start = parseToken(token, false);
+		if (limit < 1 || limit > MAX_INFO_COUNT) {
+			limit = MAX_INFO_COUNT;
+		}
+		if (minPerm == null || Permission.READ.compareTo(minPerm) > 0) {
+			minPerm = Permission.READ;
+		}
+		if (meta != null && meta.size() > 1) {
+			throw new IllegalArgumentException("Only one metadata spec allowed");
+		}
+		final PermissionSet perms =
+				db.getPermissions(user, minPerm, excludeGlobal);
+		return db.getWorkspaceInformation(perms, users, meta, after, before,
+				showDeleted, showOnlyDeleted, start, limit);
+	}
+	
+	private static ContinuationToken parseToken(final String token,
+			final boolean objects) {
+		if (token == null) {
+			return null;
+		}
+		final ContinuationToken ct = ContinuationToken.parse(token);
+		if (ct.isObjectToken() != objects) {
+			throw new IllegalArgumentException(String.format(
+					"The continuation token %s is not for a list of %s",
+					token, objects ? "objects" : "workspaces"));
+		}
+		return ct;
+	}
+	
 	//insanely long method signatures get me hot
 	public List<ObjectInformation> listObjects(final WorkspaceUser user,
 			final List<WorkspaceIdentifier> wsis, final TypeDefId type,
@@ -855,6 +1286,52 @@ public class Workspace {
 		if (limit < 1 || limit > MAX_INFO_COUNT) {
 			limit = MAX_INFO_COUNT;
 		}
+		final PermissionSet pset = getListObjectsPermissions(user, wsis, type,
+				minPerm, meta, excludeGlobal);
+		return db.getObjectInformation(pset, type, savers, meta, after, before,
+				showHidden, showDeleted, showOnlyDeleted, showAllVers,
+				includeMetaData, skip, limit);
+	}
+	
+	/** List objects a page at a time, in order of workspace id, object id,
+	 * and version. Unlike skipping, the cost of retrieving a page does not
+	 * depend on how far into the list the page is, and objects saved while
+	 * paging do not shift the pages.
+	 * @param token the token returned with the previous page, or null to
+	 * retrieve the first page.
+	 * @param limit the maximum number of object versions to examine for the
+	 * page. Hidden, deleted, and older versions of objects are filtered out
+	 * after they are retrieved, so a page may hold fewer objects than the
+	 * limit even if it is not the last.
+	 */
+	public ResultPage<ObjectInformation> listObjectsPage(
+			final WorkspaceUser user,
+			final List<WorkspaceIdentifier> wsis, final TypeDefId type,
+			Permission minPerm, final List<WorkspaceUser> savers,
+			final Map<String, String> meta, final Date after, final Date before,
+			final boolean showHidden, final boolean showDeleted,
+			final boolean showOnlyDeleted, final boolean showAllVers,
+			final boolean includeMetaData, final boolean excludeGlobal,
+			final String token, int limit)
+			throws CorruptWorkspaceDBException, NoSuchWorkspaceException,
+			WorkspaceCommunicationException, WorkspaceAuthorizationException {
+		final ContinuationToken start = parseToken(token, true);
+		if (limit < 1 || limit > MAX_INFO_COUNT) {
+			limit = MAX_INFO_COUNT;
+		}
+		final PermissionSet pset = getListObjectsPermissions(user, wsis, type,
+				minPerm, meta, excludeGlobal);
+		return db.getObjectInformation(pset, type, savers, meta, after, before,
+				showHidden, showDeleted, showOnlyDeleted, showAllVers,
+				includeMetaData, start, limit);
+	}
+	
+	private PermissionSet getListObjectsPermissions(final WorkspaceUser user,
+			final List<WorkspaceIdentifier> wsis, final TypeDefId type,
+			Permission minPerm, final Map<String, String> meta,
+			final boolean excludeGlobal)
+			throws CorruptWorkspaceDBException, NoSuchWorkspaceException,
+			WorkspaceCommunicationException, WorkspaceAuthorizationException {
 		if (minPerm == null || Permission.READ.compareTo(minPerm) > 0) {
 			minPerm = Permission.READ;
 		}
@@ -876,9 +1353,7 @@ public class Workspace {
 						pset.getPermission(rwsis.get(wsi), true), wsi, "read");
 			}
 		}
-		return db.getObjectInformation(pset, type, savers, meta, after, before,
-				showHidden, showDeleted, showOnlyDeleted, showAllVers,
-				includeMetaData, skip, limit);
+		return pset;
 	}
 	
 	public List<WorkspaceObjectInformation> getObjectProvenance(
@@ -904,12 +1379,31 @@ public class Workspace {
 			final List<ObjectIdentifier> loi) throws
 			CorruptWorkspaceDBException, WorkspaceCommunicationException,
 			InaccessibleObjectException {
+		return getObjects(user, loi, false);
+	}
+	
+	/** Get objects. If the data is streamed, the object data is read from
+	 * the backend storage when it is serialized rather than when this
+	 * method is called, and so is never held in memory or on disk as a whole.
+	 * Note that a backend storage failure while streaming cannot be reported
+	 * as an error once the output has started; the output is truncated
+	 * instead.
+	 * @param user the user getting the objects.
+	 * @param loi the objects to get.
+	 * @param stream true to stream the object data.
+	 * @return the objects.
+	 */
+	public List<WorkspaceObjectData> getObjects(final WorkspaceUser user,
+			final List<ObjectIdentifier> loi, final boolean stream) throws
+			CorruptWorkspaceDBException, WorkspaceCommunicationException,
+			InaccessibleObjectException {
 		final Map<ObjectIdentifier, ObjectIDResolvedWS> ws = 
 				checkPerms(user, loi, Permission.READ, "read");
 		//this is pretty gross, think about a better api here
 		final Map<ObjectIDResolvedWS,
 				Map<ObjectPaths, WorkspaceObjectData>> data = 
-				db.getObjects(new HashSet<ObjectIDResolvedWS>(ws.values()));
+				db.getObjects(new HashSet<ObjectIDResolvedWS>(ws.values()),
+						stream);
 		final List<WorkspaceObjectData> ret =
 				new ArrayList<WorkspaceObjectData>();
 		
@@ -1088,13 +1582,10 @@ public class Workspace {
 			final WorkspaceUser user, final List<ObjectIdentifier> loi)
 			throws WorkspaceCommunicationException, InaccessibleObjectException,
 			CorruptWorkspaceDBException {
-		//could combine these next two lines, but probably doesn't matter
 		final Map<ObjectIdentifier, ObjectIDResolvedWS> ws = 
 				checkPerms(user, loi, Permission.READ, "read");
-		final PermissionSet perms =
-				db.getPermissions(user, Permission.READ, false);
 		final Map<ObjectIDResolvedWS, Set<ObjectInformation>> refs = 
-				db.getReferencingObjects(perms,
+				db.getReferencingObjects(user,
 						new HashSet<ObjectIDResolvedWS>(ws.values()));
 		
 		final List<Set<ObjectInformation>> ret =
@@ -1449,6 +1940,38 @@ public class Workspace {
 		return db.getAllWorkspaceOwners();
 	}
 	
+	/* admin methods only, should not be exposed in public API
+	 */
+	public StorageUsage getStorageUsage(final WorkspaceIdentifier wsi)
+			throws NoSuchWorkspaceException, WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		return db.getStorageUsage(db.resolveWorkspace(wsi, true));
+	}
+	
+	public StorageUsage getStorageUsage(final WorkspaceUser owner,
+			final boolean deletedWorkspaces)
+			throws WorkspaceCommunicationException {
+		if (owner == null) {
+			throw new NullPointerException("owner cannot be null");
+		}
+		return db.getStorageUsage(owner, deletedWorkspaces);
+	}
+	
+	public Long getUniqueDataSize() throws WorkspaceCommunicationException {
+		return db.getUniqueDataSize();
+	}
+	
+	/* if wsi is null, recalculates the usage for all workspaces - very slow
+	 */
+	public void recalculateStorageUsage(final WorkspaceIdentifier wsi)
+			throws NoSuchWorkspaceException, WorkspaceCommunicationException {
+		if (wsi == null) {
+			db.recalculateStorageUsage();
+		} else {
+			db.recalculateStorageUsage(db.resolveWorkspace(wsi, true));
+		}
+	}
+	
 	/* these admin functions are provided as a convenience and have nothing
 	 * to do with the rest of the DB, really. 
 	 */
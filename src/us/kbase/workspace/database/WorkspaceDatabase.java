@@ -55,7 +55,8 @@ public interface WorkspaceDatabase {
 	
 	public WorkspaceInformation cloneWorkspace(WorkspaceUser user,
 			ResolvedWorkspaceID wsid, String newname, boolean globalread,
-			String description, Map<String, String> meta)
+			String description, Map<String, String> meta,
+			CloneProgress progress)
 			throws PreExistingWorkspaceException,
 			WorkspaceCommunicationException, CorruptWorkspaceDBException;
 	
@@ -118,6 +119,21 @@ public interface WorkspaceDatabase {
 			getObjects(Set<ObjectIDResolvedWS> objectIDs)
 			throws NoSuchObjectException, WorkspaceCommunicationException,
 			CorruptWorkspaceDBException;
+	
+	/** Get objects, optionally streaming the object data. If the data is
+	 * streamed, the returned data is not read from the backend storage until
+	 * it is serialized, and so a backend storage failure is not seen until
+	 * then. If serialization has already begun, e.g. the response headers
+	 * have been sent, the error cannot be reported and the output is
+	 * truncated.
+	 * @param objectIDs the objects to get.
+	 * @param stream true to stream the object data.
+	 * @return the objects.
+	 */
+	public Map<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>>
+			getObjects(Set<ObjectIDResolvedWS> objectIDs, boolean stream)
+			throws NoSuchObjectException, WorkspaceCommunicationException,
+			CorruptWorkspaceDBException;
 
 	public Map<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>>
 			getObjects(final Map<ObjectIDResolvedWS, Set<ObjectPaths>> objects)
@@ -130,9 +146,10 @@ public interface WorkspaceDatabase {
 			NoSuchReferenceException, CorruptWorkspaceDBException;
 	
 	public Map<ObjectIDResolvedWS, Set<ObjectInformation>>
-			getReferencingObjects(PermissionSet perms,
+			getReferencingObjects(WorkspaceUser user,
 					Set<ObjectIDResolvedWS> objs)
-			throws NoSuchObjectException, WorkspaceCommunicationException;
+			throws NoSuchObjectException, WorkspaceCommunicationException,
+			CorruptWorkspaceDBException;
 	
 	public Map<ObjectIDResolvedWS, Integer> getReferencingObjectCounts(
 			Set<ObjectIDResolvedWS> objects)
@@ -184,6 +201,19 @@ public interface WorkspaceDatabase {
 			boolean showDeleted, boolean showOnlyDeleted)
 			throws WorkspaceCommunicationException, CorruptWorkspaceDBException;
 
+	/** Get a page of workspace information in order of workspace id.
+	 * @param start the position after which to start the page, or null to
+	 * start at the beginning of the list.
+	 * @param limit the maximum number of workspaces to retrieve from the
+	 * database before filtering.
+	 */
+	public ResultPage<WorkspaceInformation> getWorkspaceInformation(
+			PermissionSet pset, List<WorkspaceUser> owners,
+			Map<String, String> meta, Date after, Date before,
+			boolean showDeleted, boolean showOnlyDeleted,
+			ContinuationToken start, int limit)
+			throws WorkspaceCommunicationException, CorruptWorkspaceDBException;
+
 	public WorkspaceUser getWorkspaceOwner(ResolvedWorkspaceID rwsi)
 			throws WorkspaceCommunicationException, CorruptWorkspaceDBException;
 	
@@ -194,6 +224,21 @@ public interface WorkspaceDatabase {
 			boolean showAllVers, boolean includeMetaData, int skip, int limit)
 			throws WorkspaceCommunicationException;
 
+	/** Get a page of object information in order of workspace id, object id,
+	 * and version.
+	 * @param start the position after which to start the page, or null to
+	 * start at the beginning of the list.
+	 * @param limit the maximum number of object versions to retrieve from the
+	 * database before filtering.
+	 */
+	public ResultPage<ObjectInformation> getObjectInformation(
+			PermissionSet pset, TypeDefId type, List<WorkspaceUser> savers,
+			Map<String, String> meta, Date after, Date before,
+			boolean showHidden, boolean showDeleted, boolean showOnlyDeleted,
+			boolean showAllVers, boolean includeMetaData,
+			ContinuationToken start, int limit)
+			throws WorkspaceCommunicationException;
+
 	public Map<ObjectIDResolvedWS, Boolean> getObjectExists(
 			Set<ObjectIDResolvedWS> objectIDs)
 			throws WorkspaceCommunicationException;
@@ -205,6 +250,45 @@ public interface WorkspaceDatabase {
 	public Set<WorkspaceUser> getAllWorkspaceOwners()
 			throws WorkspaceCommunicationException;
 	
+	/** Get the storage used by a workspace.
+	 * @param rwsi the workspace.
+	 * @return the storage usage, or null if the usage has not yet been
+	 * calculated.
+	 */
+	public StorageUsage getStorageUsage(ResolvedWorkspaceID rwsi)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException;
+	
+	/** Get the total storage used by a user's workspaces.
+	 * @param owner the owner of the workspaces.
+	 * @param deletedWorkspaces true to total the deleted workspaces, false
+	 * to total the workspaces that are not deleted.
+	 * @return the storage usage.
+	 */
+	public StorageUsage getStorageUsage(WorkspaceUser owner,
+			boolean deletedWorkspaces)
+			throws WorkspaceCommunicationException;
+	
+	/** Get the total size of the unique data stored in the database. This
+	 * is a single counter for the whole database; the unique data used by a
+	 * particular workspace or user is not tracked.
+	 * @return the size in bytes, or null if the size has not yet been
+	 * calculated.
+	 */
+	public Long getUniqueDataSize() throws WorkspaceCommunicationException;
+	
+	/** Recalculate the storage used by a workspace from its objects.
+	 * @param rwsi the workspace.
+	 */
+	public void recalculateStorageUsage(ResolvedWorkspaceID rwsi)
+			throws WorkspaceCommunicationException;
+	
+	/** Recalculate the storage used by every workspace and the size of the
+	 * unique data. Reads every object in the database.
+	 */
+	public void recalculateStorageUsage()
+			throws WorkspaceCommunicationException;
+	
 	public boolean isAdmin(WorkspaceUser putativeAdmin)
 			throws WorkspaceCommunicationException;
 
@@ -0,0 +1,16 @@
+package us.kbase.workspace.database.exceptions;
+
+/** 
+ * Thrown when the server doesn't have the resources to process a request
+ * within the allotted time. The request may succeed if retried later.
+ *
+ */
+public class ServerBusyException extends WorkspaceCommunicationException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public ServerBusyException() { super(); }
+	public ServerBusyException(String message) { super(message); }
+	public ServerBusyException(String message, Throwable cause) { super(message, cause); }
+	public ServerBusyException(Throwable cause) { super(cause); }
+}
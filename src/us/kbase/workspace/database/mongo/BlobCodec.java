@@ -0,0 +1,120 @@
+package us.kbase.workspace.database.mongo;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.InflaterOutputStream;
+
+/** Codecs used to compress blobs in a blob store. The codec a blob was saved
+ * with is recorded alongside the blob's MD5, so a blob can always be read
+ * regardless of the codec the store currently uses to save new blobs. The MD5
+ * of a blob is always the MD5 of the uncompressed data.
+ */
+public enum BlobCodec {
+
+	/** No compression. */
+	NONE("none") {
+
+		@Override
+		public OutputStream compress(final OutputStream os) {
+			return os;
+		}
+
+		@Override
+		public InputStream decompress(final InputStream is) {
+			return is;
+		}
+
+		@Override
+		public OutputStream decompress(final OutputStream os) {
+			return os;
+		}
+	},
+
+	/** zlib compression at the fastest compression level. */
+	DEFLATE("deflate") {
+
+		@Override
+		public OutputStream compress(final OutputStream os) {
+			return new FastDeflaterOutputStream(os);
+		}
+
+		@Override
+		public InputStream decompress(final InputStream is) {
+			return new InflaterInputStream(is);
+		}
+
+		@Override
+		public OutputStream decompress(final OutputStream os) {
+			return new InflaterOutputStream(os);
+		}
+	};
+
+	private final String name;
+
+	private BlobCodec(final String name) {
+		this.name = name;
+	}
+
+	/** Get the name of this codec as recorded in the database.
+	 * @return the codec name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/** Wrap a stream such that data written to the returned stream is
+	 * compressed and written to the wrapped stream. The returned stream must
+	 * be closed to write any remaining compressed data.
+	 * @param os the stream to which compressed data will be written.
+	 * @return a stream that accepts uncompressed data.
+	 */
+	public abstract OutputStream compress(OutputStream os);
+
+	/** Wrap a stream of compressed data such that reading from the returned
+	 * stream provides uncompressed data. The returned stream must be closed
+	 * to release the native resources held by the decompressor; closing it
+	 * closes the wrapped stream.
+	 * @param is the stream of compressed data.
+	 * @return a stream of uncompressed data.
+	 */
+	public abstract InputStream decompress(InputStream is);
+
+	/** Wrap a stream such that compressed data written to the returned stream
+	 * is decompressed and written to the wrapped stream. The returned stream
+	 * must be closed to write any remaining decompressed data.
+	 * @param os the stream to which uncompressed data will be written.
+	 * @return a stream that accepts compressed data.
+	 */
+	public abstract OutputStream decompress(OutputStream os);
+
+	/** Get a codec by name.
+	 * @param name the name of the codec. If null, the codec for
+	 * uncompressed data is returned.
+	 * @return the codec.
+	 * @throws IllegalArgumentException if there is no codec with the name.
+	 */
+	public static BlobCodec fromName(final String name) {
+		if (name == null) {
+			return NONE;
+		}
+		for (final BlobCodec c: values()) {
+			if (c.name.equals(name)) {
+				return c;
+			}
+		}
+		throw new IllegalArgumentException("Unknown blob codec: " + name);
+	}
+
+	private static class FastDeflaterOutputStream
+			extends DeflaterOutputStream {
+
+		private FastDeflaterOutputStream(final OutputStream os) {
+			// the default deflater is released when the stream is closed
+			super(os);
+			def.setLevel(Deflater.BEST_SPEED);
+		}
+	}
+}
@@ -32,6 +32,22 @@ public interface BlobStore {
 			BlobStoreCommunicationException, NoSuchBlobException,
 			FileCacheLimitExceededException, FileCacheIOException;
 	
+	/** Get a blob without retrieving its data. The data is streamed from
+	 * the blob store to the output when the returned cache is serialized.
+	 * @param md5 the md5 of the blob.
+	 * @param bafcMan the file cache manager that will create the cache.
+	 * @return a streaming cache for the blob.
+	 * @throws BlobStoreAuthorizationException if the blobstore is not
+	 * authorized to read from the blob store backend.
+	 * @throws BlobStoreCommunicationException if a communication error with
+	 * the blob store backend occurs.
+	 * @throws NoSuchBlobException if there is no blob with the md5.
+	 */
+	public ByteArrayFileCache getBlobStream(MD5 md5,
+			ByteArrayFileCacheManager bafcMan)
+			throws BlobStoreAuthorizationException,
+			BlobStoreCommunicationException, NoSuchBlobException;
+	
 	/**
 	 * Do not call removeBlob when saveBlob could be run by other threads or
 	 * applications. Doing so could result in an inconsistent state in the
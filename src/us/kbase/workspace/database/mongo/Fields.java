@@ -11,11 +11,18 @@ public class Fields {
 	public static final String SET_BACKEND = "backend";
 	public static final String SET_SHOCK_USER = "shock_user";
 	public static final String SET_SHOCK_LOC = "shock_location";
+	// since 0.3.3, if missing assume none
+	public static final String SET_COMPRESSION = "compression";
+	// since 0.3.3, only present for the filesystem backend
+	public static final String SET_FILE_LOC = "file_location";
 
 	// workspace counter fields
 	public static final String CNT_ID = "id";
 	public static final String CNT_ID_VAL = "wscounter";
 	public static final String CNT_NUM = "num";
+	// since 0.3.3, the total size of the unique data documents. Stored as the
+	// _id as well as the id so the document is only created once.
+	public static final String CNT_ID_DATA_SIZE = "datasize";
 
 	// workspace fields
 	public static final String WS_OWNER = "owner";
@@ -27,6 +34,17 @@ public class Fields {
 	public static final String WS_DESC = "desc";
 	public static final String WS_LOCKED = "lock";
 	public static final String WS_META = "meta";
+	// since 0.3.3, storage usage counters. Added to older workspaces on
+	// startup.
+	public static final String WS_USAGE = "usage";
+	
+	// workspace storage usage fields
+	public static final String USAGE_OBJS = "objs";
+	public static final String USAGE_VERS = "vers";
+	public static final String USAGE_SIZE = "size";
+	public static final String USAGE_DEL_OBJS = "delobjs";
+	public static final String USAGE_DEL_VERS = "delvers";
+	public static final String USAGE_DEL_SIZE = "delsize";
 
 	// workspace acl fields
 	public static final String ACL_WSID = "id";
@@ -54,6 +72,9 @@ public class Fields {
 	public static final String VER_PROV = "provenance";
 	public static final String VER_REF = "refs";
 	public static final String VER_PROVREF = "provrefs";
+	// provenance documents may be shared between versions, so each version
+	// records its own provenance date
+	public static final String VER_PROV_DATE = "provdate";
 	public static final String VER_TYPE = "type";
 	public static final String VER_SIZE = "size";
 	public static final String VER_RVRT = "revert";
@@ -61,6 +82,24 @@ public class Fields {
 	public static final String VER_COPIED = "copied";
 	//in 0.3.0, if missing assume no external IDs
 	public static final String VER_EXT_IDS = "extids";
+	/* since 0.3.3, the parts of the type string stored separately so type
+	 * queries can use an index. Added to older versions on startup.
+	 */
+	public static final String VER_TYPE_MODULE = "tymod";
+	public static final String VER_TYPE_NAME = "tyname";
+	public static final String VER_TYPE_MAJOR = "tymaj";
+	public static final String VER_TYPE_MINOR = "tymin";
+	
+	// referrer fields, since 0.3.3
+	public static final String REFERRER_TARGET = "target";
+	public static final String REFERRER_WS_ID = "ws";
+	public static final String REFERRER_ID = "id";
+	public static final String REFERRER_VER = "ver";
+	public static final String REFERRER_BUILT_ID = "referrersbuilt";
+	
+	// migration ids, since 0.3.3
+	public static final String MIGRATION_TYPE_FIELDS = "typefields";
+	public static final String MIGRATION_STORAGE_USAGE = "storageusage";
 	
 	// meta document key & value
 	public static final String META_KEY = "k";
@@ -71,6 +110,8 @@ public class Fields {
 	public static final String TYPE_SIZE = "size";
 	public static final String TYPE_SUBDATA = "subdata";
 	public static final String TYPE_TYPE = "type";
+	// since 0.3.3, the md5 of the data's structure index. If missing, none.
+	public static final String TYPE_SUBSET_INDEX = "subidx";
 
 	// shock fields
 	public static final String SHOCK_CHKSUM = "chksum";
@@ -78,10 +119,14 @@ public class Fields {
 	public static final String SHOCK_VER = "ver";
 	// since 0.2.0, if missing assume false
 	public static final String SHOCK_SORTED = "sorted";
+	// since 0.3.3, if missing assume none
+	public static final String SHOCK_CODEC = "codec";
 	
 	// GridFS fields
 	// since 0.2.0, if missing assume false
 	public static final String GFS_SORTED = "sorted";
+	// since 0.3.3, if missing assume none
+	public static final String GFS_CODEC = "codec";
 		
 	
 	// admin fields
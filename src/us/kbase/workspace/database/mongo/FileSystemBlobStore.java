@@ -0,0 +1,345 @@
+package us.kbase.workspace.database.mongo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import us.kbase.typedobj.core.MD5;
+import us.kbase.typedobj.core.Writable;
+import us.kbase.workspace.database.ByteArrayFileCacheManager;
+import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
+import us.kbase.workspace.database.exceptions.FileCacheIOException;
+import us.kbase.workspace.database.exceptions.FileCacheLimitExceededException;
+import us.kbase.workspace.database.mongo.exceptions.BlobStoreCommunicationException;
+import us.kbase.workspace.database.mongo.exceptions.NoSuchBlobException;
+
+/** A blob store that keeps blobs as files in a directory on a local or
+ * network filesystem. Each blob is stored in a file named by its MD5 in a
+ * two level directory tree sharded by the first four characters of the MD5,
+ * e.g. the blob with MD5 0123abcd... is stored in root/01/23/0123abcd....
+ *
+ * Blobs are written to a temporary file in the tmp directory under the root
+ * and renamed into place once complete, so a blob file is always either
+ * absent or complete, even if the server fails mid-write. The file and then
+ * the directories holding it are synced to disk before a save returns, so a
+ * saved blob survives a system failure. Temporary files left behind by a
+ * server failure can be deleted when no server is running. The root
+ * directory must therefore be on a single filesystem that supports syncing
+ * directories.
+ *
+ * Each file starts with a short header recording whether the blob is sorted
+ * and the codec with which it was compressed. Blobs are streamed by
+ * transferring the file directly to the output channel.
+ */
+public class FileSystemBlobStore implements BlobStore {
+
+	private static final String TEMP_DIR = "tmp";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] MAGIC = "WSBL".getBytes(UTF8);
+	private static final int VERSION = 1;
+
+	private final File root;
+	private final File tempDir;
+	private final BlobCodec codec;
+
+	/** Create a filesystem blob store that does not compress saved blobs.
+	 * @param root the directory in which to store blobs.
+	 * @throws BlobStoreCommunicationException if the directory cannot be
+	 * created or written to.
+	 */
+	public FileSystemBlobStore(final File root)
+			throws BlobStoreCommunicationException {
+		this(root, BlobCodec.NONE);
+	}
+
+	/** Create a filesystem blob store.
+	 * @param root the directory in which to store blobs.
+	 * @param codec the codec with which to compress new blobs.
+	 * @throws BlobStoreCommunicationException if the directory cannot be
+	 * created or written to.
+	 */
+	public FileSystemBlobStore(final File root, final BlobCodec codec)
+			throws BlobStoreCommunicationException {
+		if (root == null || codec == null) {
+			throw new NullPointerException("Arguments cannot be null");
+		}
+		this.root = root;
+		this.codec = codec;
+		tempDir = new File(root, TEMP_DIR);
+		tempDir.mkdirs();
+		if (!tempDir.isDirectory() || !tempDir.canWrite()) {
+			throw new BlobStoreCommunicationException(
+					"Cannot write to the blob store directory " + root);
+		}
+	}
+
+	/** Get the directory in which blobs are stored.
+	 * @return the root directory.
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	private File getFile(final MD5 md5) {
+		final String m = md5.getMD5();
+		return new File(new File(new File(root, m.substring(0, 2)),
+				m.substring(2, 4)), m);
+	}
+
+	@Override
+	public void saveBlob(final MD5 md5, final Writable data,
+			final boolean sorted)
+			throws BlobStoreCommunicationException {
+		if(data == null || md5 == null) {
+			throw new NullPointerException("Arguments cannot be null");
+		}
+		if (getFile(md5).exists()) {
+			return; //already exists
+		}
+		final File temp = writeTempFile(data, sorted);
+		moveIntoPlace(temp, md5);
+	}
+
+	private File writeTempFile(final Writable data, final boolean sorted)
+			throws BlobStoreCommunicationException {
+		File temp = null;
+		FileOutputStream fos = null;
+		try {
+			temp = File.createTempFile("blob", ".tmp", tempDir);
+			fos = new FileOutputStream(temp);
+			final DataOutputStream header = new DataOutputStream(
+					new CloseShieldOutputStream(fos));
+			header.write(MAGIC);
+			header.writeByte(VERSION);
+			header.writeBoolean(sorted);
+			header.writeUTF(codec.getName());
+			header.close();
+			final OutputStream os = codec.compress(new BufferedOutputStream(
+					new CloseShieldOutputStream(fos)));
+			data.write(os);
+			os.close();
+			// the file must be on disk before it's renamed into place
+			fos.getFD().sync();
+			fos.close();
+			fos = null;
+			return temp;
+		} catch (IOException ioe) {
+			if (fos != null) {
+				try {
+					fos.close();
+				} catch (IOException e) {
+					// nothing to be done
+				}
+			}
+			if (temp != null) {
+				temp.delete();
+			}
+			throw new BlobStoreCommunicationException(
+					"Could not write to the file system", ioe);
+		}
+	}
+
+	/* Renames a temporary file to the file for the MD5. If the file already
+	 * exists, it has the same data, so the temporary file is deleted.
+	 */
+	private void moveIntoPlace(final File temp, final MD5 md5)
+			throws BlobStoreCommunicationException {
+		final File target = getFile(md5);
+		final File shard = target.getParentFile();
+		final boolean newShard = !shard.isDirectory();
+		shard.mkdirs();
+		if (target.exists()) {
+			temp.delete();
+			return;
+		}
+		if (!temp.renameTo(target)) {
+			temp.delete();
+			if (!target.exists()) {
+				throw new BlobStoreCommunicationException(
+						"Could not write to the file system: unable to move blob to "
+						+ target);
+			}
+			// saved by another thread or server in the meantime
+			return;
+		}
+		try {
+			// the rename is only durable once the directory is synced
+			syncDirectory(shard);
+			if (newShard) {
+				syncDirectory(shard.getParentFile());
+				syncDirectory(root);
+			}
+		} catch (IOException ioe) {
+			throw new BlobStoreCommunicationException(
+					"Could not sync the blob directory " + shard, ioe);
+		}
+	}
+
+	private static void syncDirectory(final File dir) throws IOException {
+		final FileChannel fc = FileChannel.open(dir.toPath(),
+				StandardOpenOption.READ);
+		try {
+			fc.force(true);
+		} finally {
+			fc.close();
+		}
+	}
+
+	private static class Header {
+
+		private final boolean sorted;
+		private final BlobCodec codec;
+		private final int length;
+
+		private Header(final boolean sorted, final BlobCodec codec,
+				final int length) {
+			this.sorted = sorted;
+			this.codec = codec;
+			this.length = length;
+		}
+	}
+
+	private static Header readHeader(final InputStream is, final File f)
+			throws IOException {
+		final DataInputStream dis = new DataInputStream(is);
+		final byte[] magic = new byte[MAGIC.length];
+		dis.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a blob file: " + f);
+		}
+		final int version = dis.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException(String.format(
+					"Unsupported blob file version %s: %s", version, f));
+		}
+		final boolean sorted = dis.readBoolean();
+		final String codec = dis.readUTF();
+		final int length = MAGIC.length + 2 + 2 +
+				codec.getBytes(UTF8).length;
+		return new Header(sorted, BlobCodec.fromName(codec), length);
+	}
+
+	private Header readHeader(final File f)
+			throws NoSuchBlobException, BlobStoreCommunicationException,
+			IOException {
+		final InputStream is = openFile(f);
+		try {
+			return readHeader(is, f);
+		} finally {
+			is.close();
+		}
+	}
+
+	private InputStream openFile(final File f)
+			throws NoSuchBlobException, BlobStoreCommunicationException {
+		try {
+			return new BufferedInputStream(new FileInputStream(f));
+		} catch (FileNotFoundException fnfe) {
+			if (!f.exists()) {
+				throw new NoSuchBlobException(
+						"Attempt to retrieve non-existant blob with chksum " +
+								f.getName());
+			}
+			throw new BlobStoreCommunicationException(
+					"Could not read from the file system", fnfe);
+		}
+	}
+
+	@Override
+	public ByteArrayFileCache getBlob(final MD5 md5,
+			final ByteArrayFileCacheManager bafcMan)
+			throws NoSuchBlobException, BlobStoreCommunicationException,
+			FileCacheIOException, FileCacheLimitExceededException {
+		final File f = getFile(md5);
+		final InputStream is = openFile(f);
+		try {
+			final Header h = readHeader(is, f);
+			final InputStream dis = h.codec.decompress(is);
+			try {
+				return bafcMan.createBAFC(dis, true, h.sorted);
+			} finally {
+				// releases the decompressor's native resources
+				dis.close();
+			}
+		} catch (IOException ioe) {
+			throw new BlobStoreCommunicationException(
+					"Could not read from the file system", ioe);
+		} finally {
+			try {
+				is.close();
+			} catch (IOException ioe) {
+				throw new RuntimeException("Something is broken", ioe);
+			}
+		}
+	}
+
+	@Override
+	public ByteArrayFileCache getBlobStream(final MD5 md5,
+			final ByteArrayFileCacheManager bafcMan)
+			throws NoSuchBlobException, BlobStoreCommunicationException {
+		final File f = getFile(md5);
+		final Header h;
+		try {
+			h = readHeader(f);
+		} catch (IOException ioe) {
+			throw new BlobStoreCommunicationException(
+					"Could not read from the file system", ioe);
+		}
+		return bafcMan.createStreamingBAFC(new Writable() {
+
+			@Override
+			public void write(final OutputStream os) throws IOException {
+				final RandomAccessFile raf = new RandomAccessFile(f, "r");
+				try {
+					final FileChannel fc = raf.getChannel();
+					final OutputStream dos = h.codec.decompress(
+							new CloseShieldOutputStream(os));
+					final WritableByteChannel out = Channels.newChannel(dos);
+					long pos = h.length;
+					final long end = fc.size();
+					while (pos < end) {
+						pos += fc.transferTo(pos, end - pos, out);
+					}
+					dos.close();
+				} finally {
+					raf.close();
+				}
+			}
+
+			@Override
+			public void releaseResources() {}
+		}, h.sorted);
+	}
+
+	@Override
+	public void removeBlob(final MD5 md5) {
+		getFile(md5).delete();
+	}
+
+	@Override
+	public String getExternalIdentifier(final MD5 md5) {
+		return null;
+	}
+
+	@Override
+	public String getStoreType() {
+		return "Filesystem";
+	}
+}
@@ -2,6 +2,7 @@ package us.kbase.workspace.database.mongo;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import us.kbase.typedobj.core.MD5;
 import us.kbase.typedobj.core.Writable;
@@ -12,6 +13,8 @@ import us.kbase.workspace.database.exceptions.FileCacheLimitExceededException;
 import us.kbase.workspace.database.mongo.exceptions.BlobStoreCommunicationException;
 import us.kbase.workspace.database.mongo.exceptions.NoSuchBlobException;
 
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
 import com.gc.iotools.stream.os.OutputStreamToInputStream;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
@@ -24,9 +27,22 @@ import com.mongodb.gridfs.GridFSInputFile;
 public class GridFSBackend implements BlobStore {
 	
 	private final GridFS gfs;
+	private final BlobCodec codec;
 	
 	public GridFSBackend(DB mongodb) {
+		this(mongodb, BlobCodec.NONE);
+	}
+	
+	/** Create a GridFS backend that compresses saved blobs.
+	 * @param mongodb the database in which to store blobs.
+	 * @param codec the codec with which to compress new blobs.
+	 */
+	public GridFSBackend(final DB mongodb, final BlobCodec codec) {
+		if (codec == null) {
+			throw new NullPointerException("codec cannot be null");
+		}
 		gfs = new GridFS(mongodb);
+		this.codec = codec;
 	}
 
 	@Override
@@ -48,6 +64,7 @@ public class GridFSBackend implements BlobStore {
 				gif.setId(md5.getMD5());
 				gif.setFilename(md5.getMD5());
 				gif.put(Fields.GFS_SORTED, sorted);
+				gif.put(Fields.GFS_CODEC, codec.getName());
 				try {
 					gif.save();
 				} catch (MongoException.DuplicateKey dk) {
@@ -62,7 +79,10 @@ public class GridFSBackend implements BlobStore {
 		};
 		try {
 			//writes in UTF8
-			data.write(osis);
+			final OutputStream os =
+					codec.compress(new CloseShieldOutputStream(osis));
+			data.write(os);
+			os.close();
 		} catch (IOException ioe) {
 			throw new RuntimeException("Something is broken", ioe);
 		} finally {
@@ -87,15 +107,10 @@ public class GridFSBackend implements BlobStore {
 						"Attempt to retrieve non-existant blob with chksum " + 
 								md5.getMD5());
 			}
-			final boolean sorted;
-			if (!out.containsField(Fields.GFS_SORTED)) {
-				sorted = false;
-			} else {
-				sorted = (Boolean)out.get(Fields.GFS_SORTED);
-			}
-			final InputStream file = out.getInputStream();
+			final InputStream file = getCodec(out).decompress(
+					out.getInputStream());
 			try {
-				return bafcMan.createBAFC(file, true, sorted);
+				return bafcMan.createBAFC(file, true, isSorted(out));
 			} finally {
 				try {
 					file.close();
@@ -109,6 +124,54 @@ public class GridFSBackend implements BlobStore {
 		}
 	}
 
+	private static BlobCodec getCodec(final GridFSDBFile file) {
+		return BlobCodec.fromName((String) file.get(Fields.GFS_CODEC));
+	}
+
+	private static boolean isSorted(final GridFSDBFile file) {
+		if (!file.containsField(Fields.GFS_SORTED)) {
+			return false;
+		}
+		return (Boolean) file.get(Fields.GFS_SORTED);
+	}
+	
+	@Override
+	public ByteArrayFileCache getBlobStream(final MD5 md5,
+			final ByteArrayFileCacheManager bafcMan)
+			throws NoSuchBlobException, BlobStoreCommunicationException {
+		final GridFSDBFile out;
+		try {
+			out = getFile(md5);
+		} catch (MongoException me) {
+			throw new BlobStoreCommunicationException(
+					"Could not read from the mongo database", me);
+		}
+		if (out == null) {
+			throw new NoSuchBlobException(
+					"Attempt to retrieve non-existant blob with chksum " + 
+							md5.getMD5());
+		}
+		final BlobCodec blobCodec = getCodec(out);
+		return bafcMan.createStreamingBAFC(new Writable() {
+			
+			@Override
+			public void write(final OutputStream os) throws IOException {
+				try {
+					final OutputStream dos = blobCodec.decompress(
+							new CloseShieldOutputStream(os));
+					out.writeTo(dos);
+					dos.close();
+				} catch (MongoException me) {
+					throw new IOException(
+							"Could not read from the mongo database", me);
+				}
+			}
+			
+			@Override
+			public void releaseResources() {}
+		}, isSorted(out));
+	}
+
 	private GridFSDBFile getFile(final MD5 md5) {
 		final GridFSDBFile out;
 		final DBObject query = new BasicDBObject();
@@ -0,0 +1,197 @@
+package us.kbase.workspace.database.mongo;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import us.kbase.workspace.database.exceptions.WorkspaceCommunicationException;
+
+/** Buffers workspace modification date updates and writes them to the
+ * database periodically, so that many saves to the same workspace in a
+ * short time cause one write of the workspace record rather than one write
+ * per save. Only the latest date for each workspace is kept. Buffered dates
+ * are written when the flush interval elapses, when the interval is
+ * changed, and when the JVM shuts down.
+ *
+ * If the flush interval is 0, dates are written immediately (strict mode).
+ *
+ * This class is thread safe.
+ */
+abstract class ModificationDateBuffer {
+
+	private static final Logger LOGGER =
+			LoggerFactory.getLogger(ModificationDateBuffer.class);
+
+	private final Map<Long, Date> pending = new HashMap<Long, Date>();
+	private long intervalMS = 0;
+	// null in strict mode
+	private ScheduledExecutorService flusher = null;
+	private Thread shutdownHook = null;
+
+	/** Create a new buffer.
+	 * @param intervalMS the interval in milliseconds between writes of the
+	 * buffered dates to the database. If 0, dates are written immediately.
+	 */
+	ModificationDateBuffer(final long intervalMS) {
+		setFlushInterval(intervalMS);
+	}
+
+	/** Write a modification date to the database. The date must not
+	 * replace a later date already recorded for the workspace.
+	 * @param wsid the workspace id.
+	 * @param date the modification date.
+	 * @throws WorkspaceCommunicationException if a communication error
+	 * occurs.
+	 */
+	abstract void write(long wsid, Date date)
+			throws WorkspaceCommunicationException;
+
+	/** Set the interval between writes of buffered dates. Any buffered
+	 * dates are written if the interval changes.
+	 * @param intervalMS the interval in milliseconds. If 0, dates are
+	 * written immediately.
+	 */
+	void setFlushInterval(final long intervalMS) {
+		if (intervalMS < 0) {
+			throw new IllegalArgumentException(
+					"Flush interval cannot be negative");
+		}
+		synchronized (this) {
+			if (intervalMS == this.intervalMS) {
+				return;
+			}
+			this.intervalMS = intervalMS;
+			if (flusher != null) {
+				flusher.shutdown();
+				flusher = null;
+			}
+			if (intervalMS > 0) {
+				flusher = Executors.newSingleThreadScheduledExecutor(
+						new ThreadFactory() {
+
+					private final ThreadFactory def =
+							Executors.defaultThreadFactory();
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = def.newThread(r);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				flusher.scheduleWithFixedDelay(new Runnable() {
+
+					@Override
+					public void run() {
+						flushQuietly();
+					}
+				}, intervalMS, intervalMS, TimeUnit.MILLISECONDS);
+				if (shutdownHook == null) {
+					shutdownHook = new Thread() {
+
+						@Override
+						public void run() {
+							flushQuietly();
+						}
+					};
+					Runtime.getRuntime().addShutdownHook(shutdownHook);
+				}
+			} else if (shutdownHook != null) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException ise) {
+					// shutting down, the hook will flush
+				}
+				shutdownHook = null;
+			}
+		}
+		flushQuietly();
+	}
+
+	/** Record a modification of a workspace.
+	 * @param wsid the workspace id.
+	 * @param date the modification date.
+	 * @throws WorkspaceCommunicationException if the date is written
+	 * immediately and a communication error occurs.
+	 */
+	void update(final long wsid, final Date date)
+			throws WorkspaceCommunicationException {
+		synchronized (this) {
+			if (flusher != null) {
+				merge(wsid, date);
+				return;
+			}
+		}
+		write(wsid, date);
+	}
+
+	/** Get the buffered modification date of a workspace, if any.
+	 * @param wsid the workspace id.
+	 * @return the buffered date or null if there is no buffered date.
+	 */
+	synchronized Date getPending(final long wsid) {
+		return pending.get(wsid);
+	}
+
+	/** Write all the buffered dates to the database.
+	 * @throws WorkspaceCommunicationException if a communication error
+	 * occurs. Dates that were not written remain buffered.
+	 */
+	void flush() throws WorkspaceCommunicationException {
+		final Map<Long, Date> toWrite;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			toWrite = new HashMap<Long, Date>(pending);
+			pending.clear();
+		}
+		final Iterator<Map.Entry<Long, Date>> iter =
+				toWrite.entrySet().iterator();
+		try {
+			while (iter.hasNext()) {
+				final Map.Entry<Long, Date> e = iter.next();
+				write(e.getKey(), e.getValue());
+				iter.remove();
+			}
+		} finally {
+			if (!toWrite.isEmpty()) {
+				synchronized (this) {
+					for (final Map.Entry<Long, Date> e: toWrite.entrySet()) {
+						merge(e.getKey(), e.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (WorkspaceCommunicationException wce) {
+			// dates are kept and retried on the next flush
+			LOGGER.error("Failed to write buffered workspace modification " +
+					"dates, will retry on the next flush", wce);
+		} catch (RuntimeException re) {
+			// an exception would stop the scheduled flushes
+			LOGGER.error("Failed to write buffered workspace modification " +
+					"dates, will retry on the next flush", re);
+		}
+	}
+
+	// must be called while synchronized
+	private void merge(final long wsid, final Date date) {
+		final Date cur = pending.get(wsid);
+		if (cur == null || cur.before(date)) {
+			pending.put(wsid, date);
+		}
+	}
+}
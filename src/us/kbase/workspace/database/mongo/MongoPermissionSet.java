@@ -151,4 +151,50 @@ public class MongoPermissionSet implements PermissionSet {
 				+ globalUser + ", userPerms=" + userPerms + ", worldRead="
 				+ worldRead + "]";
 	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((globalUser == null) ? 0 : globalUser.hashCode());
+		result = prime * result + ((user == null) ? 0 : user.hashCode());
+		result = prime * result
+				+ ((userPerms == null) ? 0 : userPerms.hashCode());
+		result = prime * result
+				+ ((worldRead == null) ? 0 : worldRead.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MongoPermissionSet other = (MongoPermissionSet) obj;
+		if (globalUser == null) {
+			if (other.globalUser != null)
+				return false;
+		} else if (!globalUser.equals(other.globalUser))
+			return false;
+		if (user == null) {
+			if (other.user != null)
+				return false;
+		} else if (!user.equals(other.user))
+			return false;
+		if (userPerms == null) {
+			if (other.userPerms != null)
+				return false;
+		} else if (!userPerms.equals(other.userPerms))
+			return false;
+		if (worldRead == null) {
+			if (other.worldRead != null)
+				return false;
+		} else if (!worldRead.equals(other.worldRead))
+			return false;
+		return true;
+	}
 }
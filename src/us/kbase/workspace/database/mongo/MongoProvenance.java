@@ -1,16 +1,28 @@
 package us.kbase.workspace.database.mongo;
 
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.bson.types.ObjectId;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import us.kbase.workspace.database.Provenance;
 
 public class MongoProvenance extends Provenance {
 	
+	private static final ObjectMapper HASH_MAPPER = new ObjectMapper()
+			.configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+			.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+	
 	private ObjectId _id;
 	
 	MongoProvenance(final Provenance p) {
@@ -20,7 +32,43 @@ public class MongoProvenance extends Provenance {
 		}
 	}
 	
-	void resolveReferences(final List<String> resolvedRefs) {
+	private MongoProvenance(final MongoProvenance p) {
+		super(p);
+		_id = p._id;
+	}
+	
+	/** Calculates a hash of the user and actions of a provenance object,
+	 * ignoring the date. Provenance with the same hash is identical for the
+	 * purposes of storage, as long as the references in the actions are
+	 * resolved at the same time. The date is stored on each object version
+	 * instead.
+	 * @param p the provenance to hash.
+	 * @return the MD5 of the provenance, or null if the provenance could not
+	 * be serialized.
+	 */
+	static String calculateHash(final Provenance p) {
+		final Map<String, Object> content = new HashMap<String, Object>();
+		content.put("user", p.getUser().getUser());
+		content.put("actions", p.getActions());
+		try {
+			return DigestUtils.md5Hex(HASH_MAPPER.writeValueAsBytes(content));
+		} catch (JsonProcessingException jpe) {
+			return null; //don't share this provenance
+		}
+	}
+	
+	/** Returns a copy of this provenance with the resolved references and
+	 * date of an object version. This provenance is not modified, and so may
+	 * be shared between object versions with different resolved references
+	 * and dates.
+	 * @param resolvedRefs the resolved references for all the actions in
+	 * order.
+	 * @param date the provenance date of the version, or null to keep the
+	 * date of this provenance.
+	 * @return a copy of this provenance with resolved references.
+	 */
+	MongoProvenance resolveReferences(final List<String> resolvedRefs,
+			final Date date) {
 		final List<String> refs = new LinkedList<String>();
 		for (final String s: resolvedRefs) {//stupid LazyBSONLists
 			refs.add(s);
@@ -35,7 +83,12 @@ public class MongoProvenance extends Provenance {
 			actions.add(new MongoProvenanceAction(pa)
 					.withResolvedObjects(actionRefs));
 		}
-		this.actions = actions;
+		final MongoProvenance mp = new MongoProvenance(this);
+		mp.actions = actions;
+		if (date != null) {
+			mp.setDate(date);
+		}
+		return mp;
 	}
 	
 	@SuppressWarnings("unused")
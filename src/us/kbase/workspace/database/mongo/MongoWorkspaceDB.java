@@ -2,14 +2,23 @@ package us.kbase.workspace.database.mongo;
 
 import static us.kbase.workspace.database.Util.checkSize;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,13 +29,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.bson.types.ObjectId;
 import org.jongo.FindAndModify;
 import org.jongo.Jongo;
 import org.jongo.MongoCollection;
 import org.jongo.marshall.MarshallingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import us.kbase.common.mongo.GetMongoDB;
 import us.kbase.common.mongo.exceptions.InvalidHostException;
@@ -34,10 +53,12 @@ import us.kbase.common.mongo.exceptions.MongoAuthException;
 import us.kbase.common.utils.CountingOutputStream;
 import us.kbase.typedobj.core.AbsoluteTypeDefId;
 import us.kbase.typedobj.core.ExtractedSubsetAndMetadata;
+import us.kbase.typedobj.core.JsonStructureIndex;
 import us.kbase.typedobj.core.MD5;
 import us.kbase.typedobj.core.ObjectPaths;
 import us.kbase.typedobj.core.TempFilesManager;
 import us.kbase.typedobj.core.TypeDefId;
+import us.kbase.typedobj.core.TypedObjectValidationReport;
 import us.kbase.typedobj.core.TypedObjectValidator;
 import us.kbase.typedobj.db.MongoTypeStorage;
 import us.kbase.typedobj.db.TypeDefinitionDB;
@@ -51,6 +72,11 @@ import us.kbase.workspace.database.AllUsers;
 import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
 import us.kbase.workspace.database.ResourceUsageConfigurationBuilder.ResourceUsageConfiguration;
 import us.kbase.workspace.database.ByteArrayFileCacheManager;
+import us.kbase.workspace.database.CloneProgress;
+import us.kbase.workspace.database.ContinuationToken;
+import us.kbase.workspace.database.ResourceBudget;
+import us.kbase.workspace.database.SharedBlobCache;
+import us.kbase.workspace.database.StorageUsage;
 import us.kbase.workspace.database.ObjectChainResolvedWS;
 import us.kbase.workspace.database.ObjectIDNoWSNoVer;
 import us.kbase.workspace.database.ObjectIDResolvedWS;
@@ -60,6 +86,7 @@ import us.kbase.workspace.database.PermissionSet;
 import us.kbase.workspace.database.Reference;
 import us.kbase.workspace.database.ResolvedSaveObject;
 import us.kbase.workspace.database.ResolvedWorkspaceID;
+import us.kbase.workspace.database.ResultPage;
 import us.kbase.workspace.database.ResourceUsageConfigurationBuilder;
 import us.kbase.workspace.database.TypeAndReference;
 import us.kbase.workspace.database.User;
@@ -88,8 +115,12 @@ import us.kbase.workspace.database.mongo.exceptions.NoSuchBlobException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
@@ -107,18 +138,72 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 	private static final String COL_WORKSPACE_OBJS = "workspaceObjects";
 	private static final String COL_WORKSPACE_VERS = "workspaceObjVersions";
 	private static final String COL_PROVENANCE = "provenance";
+	private static final String COL_REFERRERS = "workspaceReferrers";
+	private static final String COL_MIGRATIONS = "migrations";
 	private static final String COL_SHOCK_PREFIX = "shock_";
 	private static final User ALL_USERS = new AllUsers('*');
 	
+	private static final Logger LOGGER =
+			LoggerFactory.getLogger(MongoWorkspaceDB.class);
+	
 	private ResourceUsageConfiguration rescfg;
 
 	private static final long MAX_SUBDATA_SIZE = 15000000;
 	private static final long MAX_PROV_SIZE = 1000000;
 	private static final int MAX_WS_META_SIZE = 16000;
+	// the total number of values in the parsed subset indexes kept in memory
+	private static final int MAX_SUBSET_INDEX_CACHE_NODES = 500000;
 	
 	private final DB wsmongo;
 	private final Jongo wsjongo;
 	private final BlobStore blob;
+	private final SharedBlobCache blobCache = new SharedBlobCache(
+			ResourceUsageConfigurationBuilder.DEFAULT_BLOB_CACHE_MEMORY_USAGE,
+			ResourceUsageConfigurationBuilder.DEFAULT_BLOB_CACHE_DISK_USAGE);
+	private final ResourceBudget dataBudget = new ResourceBudget(
+			ResourceUsageConfigurationBuilder.DEFAULT_DATA_BUDGET_MEMORY_USAGE,
+			ResourceUsageConfigurationBuilder.DEFAULT_DATA_BUDGET_DISK_USAGE);
+	// parsed subset indexes are immutable, so a single instance can be
+	// shared by every subset request for the same data
+	private final Cache<String, JsonStructureIndex> subsetIndexCache =
+			CacheBuilder.newBuilder()
+			.maximumWeight(MAX_SUBSET_INDEX_CACHE_NODES)
+			.weigher(new Weigher<String, JsonStructureIndex>() {
+				
+				@Override
+				public int weigh(final String md5,
+						final JsonStructureIndex index) {
+					return index.getNodeCount();
+				}
+			}).build();
+	private final WorkspaceCache wsCache = new WorkspaceCache(
+			ResourceUsageConfigurationBuilder.DEFAULT_WORKSPACE_CACHE_TTL);
+	private final ObjectIDAllocator objectIDs = new ObjectIDAllocator(
+			ResourceUsageConfigurationBuilder.DEFAULT_OBJECT_ID_BLOCK_SIZE) {
+		
+		@Override
+		long reserve(final ResolvedMongoWSID rwsi, final int count)
+				throws WorkspaceCommunicationException {
+			return incrementWorkspaceCounter(rwsi, count);
+		}
+	};
+	private final ModificationDateBuffer wsModDates =
+			new ModificationDateBuffer(ResourceUsageConfigurationBuilder
+					.DEFAULT_WORKSPACE_MOD_DATE_FLUSH_INTERVAL) {
+		
+		@Override
+		void write(final long wsid, final Date date)
+				throws WorkspaceCommunicationException {
+			writeWorkspaceModifiedDate(wsid, date);
+		}
+	};
+	// null if blobs are to be retrieved serially
+	private volatile ExecutorService fetchExecutor = null;
+	// completes when the background migrations have finished
+	private Future<Void> migrations;
+	// true once the referrer collection has been built from the versions
+	private volatile boolean referrersBuilt = false;
+	private int fetchExecutorThreads = 1;
 	private final QueryMethods query;
 	private final FindAndModify updateWScounter;
 	private final TypedObjectValidator typeValidator;
@@ -174,6 +259,14 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				Fields.VER_VER), Arrays.asList(IDX_UNIQ));
 		//find versions by data object
 		wsVer.put(Arrays.asList(Fields.VER_TYPE, Fields.VER_CHKSUM), Arrays.asList(""));
+		//find versions by type in a few workspaces
+		wsVer.put(Arrays.asList(Fields.VER_WS_ID, Fields.VER_TYPE_MODULE,
+				Fields.VER_TYPE_NAME, Fields.VER_TYPE_MAJOR,
+				Fields.VER_TYPE_MINOR), Arrays.asList(""));
+		//find versions by type in many workspaces
+		wsVer.put(Arrays.asList(Fields.VER_TYPE_MODULE, Fields.VER_TYPE_NAME,
+				Fields.VER_TYPE_MAJOR, Fields.VER_TYPE_MINOR,
+				Fields.VER_WS_ID), Arrays.asList(""));
 		//determine whether a particular object is referenced by this object
 		wsVer.put(Arrays.asList(Fields.VER_REF), Arrays.asList(IDX_SPARSE));
 		//determine whether a particular object is included in this object's provenance
@@ -186,6 +279,14 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		wsVer.put(Arrays.asList(Fields.VER_META), Arrays.asList(IDX_SPARSE));
 		INDEXES.put(COL_WORKSPACE_VERS, wsVer);
 		
+		//referrer indexes
+		Map<List<String>, List<String>> referrers = new HashMap<List<String>, List<String>>();
+		//find objects that reference a particular object, one entry per referrer
+		referrers.put(Arrays.asList(Fields.REFERRER_TARGET,
+				Fields.REFERRER_WS_ID, Fields.REFERRER_ID,
+				Fields.REFERRER_VER), Arrays.asList(IDX_UNIQ));
+		INDEXES.put(COL_REFERRERS, referrers);
+		
 		//no indexes needed for provenance since all lookups are by _id
 		
 		//admin indexes
@@ -213,9 +314,11 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		this.typeValidator = new TypedObjectValidator(
 				new TypeDefinitionDB(
 						new MongoTypeStorage(
-								GetMongoDB.getDB(host, settings.getTypeDatabase()))));
+								GetMongoDB.getDB(host, settings.getTypeDatabase()))),
+				MAX_SUBDATA_SIZE, MAX_WS_META_SIZE);
 		ensureIndexes();
 		ensureTypeIndexes();
+		startMigrations();
 	}
 	
 	public MongoWorkspaceDB(final String host, final String database,
@@ -239,9 +342,11 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				new TypeDefinitionDB(
 						new MongoTypeStorage(
 								GetMongoDB.getDB(host, settings.getTypeDatabase(),
-										user, password))));
+										user, password))),
+				MAX_SUBDATA_SIZE, MAX_WS_META_SIZE);
 		ensureIndexes();
 		ensureTypeIndexes();
+		startMigrations();
 	}
 	
 	//test constructor - runs both the java and perl type compilers
@@ -267,14 +372,80 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 						new MongoTypeStorage(
 								GetMongoDB.getDB(host, settings.getTypeDatabase(),
 										user, password)),
-								typeDBdir == null ? null : new File(typeDBdir), kidlpath, "both"));
+								typeDBdir == null ? null : new File(typeDBdir), kidlpath, "both"),
+				MAX_SUBDATA_SIZE, MAX_WS_META_SIZE);
 		ensureIndexes();
 		ensureTypeIndexes();
+		startMigrations();
 	}
 	
 	@Override
 	public void setResourceUsageConfiguration(ResourceUsageConfiguration rescfg) {
 		this.rescfg = rescfg;
+		blobCache.setLimits(rescfg.getBlobCacheMemoryUsage(),
+				rescfg.getBlobCacheDiskUsage());
+		dataBudget.setLimits(rescfg.getDataBudgetMemoryUsage(),
+				rescfg.getDataBudgetDiskUsage());
+		setFetchExecutor(rescfg);
+		wsCache.setTimeToLive(rescfg.getWorkspaceCacheTTL());
+		objectIDs.setBlockSize(rescfg.getObjectIDBlockSize());
+		wsModDates.setFlushInterval(
+				rescfg.getWorkspaceModDateFlushInterval());
+	}
+	
+	/** Write any buffered workspace modification dates to the database.
+	 * @throws WorkspaceCommunicationException if a communication error
+	 * occurs.
+	 */
+	public void flushWorkspaceModifiedDates()
+			throws WorkspaceCommunicationException {
+		wsModDates.flush();
+	}
+	
+	private synchronized void setFetchExecutor(
+			final ResourceUsageConfiguration cfg) {
+		final int threads = cfg.getBlobFetchThreads();
+		if (threads == fetchExecutorThreads) {
+			return;
+		}
+		if (fetchExecutor != null) {
+			// any in progress fetches will still complete
+			fetchExecutor.shutdown();
+		}
+		fetchExecutorThreads = threads;
+		if (threads > 1) {
+			fetchExecutor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+				
+				private final ThreadFactory def =
+						Executors.defaultThreadFactory();
+				
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = def.newThread(r);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else {
+			fetchExecutor = null;
+		}
+	}
+	
+	/** Get the blob cache shared between all calls that return typed
+	 * objects.
+	 * @return the shared blob cache.
+	 */
+	public SharedBlobCache getBlobCache() {
+		return blobCache;
+	}
+	
+	/** Get the memory and disk budget shared between all calls that return
+	 * typed objects.
+	 * @return the data budget.
+	 */
+	public ResourceBudget getDataBudget() {
+		return dataBudget;
 	}
 	
 	@Override
@@ -301,6 +472,441 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		}
 	}
 	
+	/* Migrates data written by earlier versions of the server in a
+	 * background thread, so that migrating a large database doesn't hold up
+	 * startup. Until a migration's marker is set, readers use the queries
+	 * that predate the migration. A migration that fails is logged and
+	 * retried the next time the server starts.
+	 */
+	private void startMigrations() {
+		final ExecutorService ex = Executors.newSingleThreadExecutor(
+				new ThreadFactory() {
+			
+			private final ThreadFactory def =
+					Executors.defaultThreadFactory();
+			
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = def.newThread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		migrations = ex.submit(new Callable<Void>() {
+			
+			@Override
+			public Void call() {
+				try {
+					ensureReferrers();
+				} catch (WorkspaceCommunicationException e) {
+					LOGGER.error("Failed to build the referrer collection",
+							e);
+				}
+				try {
+					ensureVersionTypeFields();
+				} catch (WorkspaceCommunicationException e) {
+					LOGGER.error("Failed to add the type fields to versions",
+							e);
+				}
+				try {
+					ensureStorageUsage();
+				} catch (WorkspaceCommunicationException e) {
+					LOGGER.error("Failed to calculate the storage usage", e);
+				}
+				return null;
+			}
+		});
+		ex.shutdown();
+	}
+	
+	/** Wait for the data migrations started when this instance was created
+	 * to finish.
+	 * @throws InterruptedException if the thread is interrupted while
+	 * waiting.
+	 */
+	public void awaitMigrations() throws InterruptedException {
+		try {
+			migrations.get();
+		} catch (ExecutionException ee) {
+			throw new RuntimeException("Migration failed unexpectedly",
+					ee.getCause());
+		}
+	}
+	
+	private static final int REFERRER_PAGE_SIZE = 1000;
+	private static final DBObject REFERRERS_BUILT = new BasicDBObject(
+			Fields.MONGO_ID, Fields.REFERRER_BUILT_ID);
+	
+	/* Builds the referrer collection from the object versions if it has never
+	 * been built, e.g. for databases created before the collection existed.
+	 * Versions saved while the collection is being built add their own
+	 * referrers and duplicate entries are ignored, so it's safe for more than
+	 * one server to build the collection at once.
+	 */
+	private void ensureReferrers() throws WorkspaceCommunicationException {
+		if (isReferrersBuilt()) {
+			return;
+		}
+		final DBCollection col = wsmongo.getCollection(COL_REFERRERS);
+		DBCursor cur = null;
+		try {
+			final DBObject q = new BasicDBObject("$or", Arrays.asList(
+					new BasicDBObject(Fields.VER_REF + ".0",
+							new BasicDBObject("$exists", true)),
+					new BasicDBObject(Fields.VER_PROVREF + ".0",
+							new BasicDBObject("$exists", true))));
+			final DBObject proj = new BasicDBObject();
+			proj.put(Fields.VER_WS_ID, 1);
+			proj.put(Fields.VER_ID, 1);
+			proj.put(Fields.VER_VER, 1);
+			proj.put(Fields.VER_REF, 1);
+			proj.put(Fields.VER_PROVREF, 1);
+			cur = wsmongo.getCollection(COL_WORKSPACE_VERS).find(q, proj)
+					.batchSize(REFERRER_PAGE_SIZE);
+			final List<DBObject> page = new LinkedList<DBObject>();
+			while (cur.hasNext()) {
+				page.add(cur.next());
+				if (page.size() >= REFERRER_PAGE_SIZE) {
+					insertReferrers(page);
+					page.clear();
+				}
+			}
+			insertReferrers(page);
+			col.insert(REFERRERS_BUILT);
+		} catch (MongoException.DuplicateKey dk) {
+			//another server built the collection at the same time
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		} finally {
+			if (cur != null) {
+				cur.close();
+			}
+		}
+		referrersBuilt = true;
+	}
+	
+	private boolean isReferrersBuilt() throws WorkspaceCommunicationException {
+		if (!referrersBuilt) {
+			try {
+				referrersBuilt = wsmongo.getCollection(COL_REFERRERS)
+						.findOne(REFERRERS_BUILT) != null;
+			} catch (MongoException me) {
+				throw new WorkspaceCommunicationException(
+						"There was a problem communicating with the database",
+						me);
+			}
+		}
+		return referrersBuilt;
+	}
+	
+	/* Adds the separate type fields to versions saved before the fields
+	 * existed. Versions saved while this runs already have the fields and
+	 * the update is idempotent, so it's safe for more than one server to run
+	 * it at once. Versions saved by older servers after this has run won't
+	 * have the fields, so listings by type also match on the type string of
+	 * versions without the fields.
+	 */
+	private void ensureVersionTypeFields()
+			throws WorkspaceCommunicationException {
+		final DBCollection mig = wsmongo.getCollection(COL_MIGRATIONS);
+		final DBObject done = new BasicDBObject(Fields.MONGO_ID,
+				Fields.MIGRATION_TYPE_FIELDS);
+		try {
+			if (mig.findOne(done) != null) {
+				return;
+			}
+			final DBCollection vers = wsmongo.getCollection(COL_WORKSPACE_VERS);
+			@SuppressWarnings("unchecked")
+			final List<String> types = vers.distinct(Fields.VER_TYPE);
+			for (final String type: types) {
+				final DBObject q = new BasicDBObject(Fields.VER_TYPE, type);
+				q.put(Fields.VER_TYPE_MODULE,
+						new BasicDBObject("$exists", false));
+				final DBObject fields = new BasicDBObject();
+				setVersionTypeFields(fields, type);
+				vers.update(q, new BasicDBObject("$set", fields), false, true);
+			}
+			mig.insert(done);
+		} catch (MongoException.DuplicateKey dk) {
+			//another server migrated the versions at the same time
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	/* Calculates the storage usage of workspaces created before the usage
+	 * was recorded. Usage is only updated incrementally once it has been
+	 * calculated, so changes made to a workspace while its usage is being
+	 * calculated may be missed. recalculateStorageUsage() corrects any such
+	 * errors. Until this completes, workspaces without usage report none and
+	 * the unique data size is not available.
+	 */
+	private void ensureStorageUsage() throws WorkspaceCommunicationException {
+		final DBCollection mig = wsmongo.getCollection(COL_MIGRATIONS);
+		final DBObject done = new BasicDBObject(Fields.MONGO_ID,
+				Fields.MIGRATION_STORAGE_USAGE);
+		DBCursor cur = null;
+		try {
+			if (mig.findOne(done) != null) {
+				return;
+			}
+			cur = wsmongo.getCollection(COL_WORKSPACES).find(
+					new BasicDBObject(Fields.WS_USAGE,
+							new BasicDBObject("$exists", false)),
+					new BasicDBObject(Fields.WS_ID, 1));
+			for (final DBObject ws: cur) {
+				final long wsid = ((Number) ws.get(Fields.WS_ID)).longValue();
+				setStorageUsage(wsid, calculateStorageUsage(wsid), false);
+			}
+			setUniqueDataSize(calculateUniqueDataSize(), false);
+			mig.insert(done);
+		} catch (MongoException.DuplicateKey dk) {
+			//another server calculated the usage at the same time
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		} finally {
+			if (cur != null) {
+				cur.close();
+			}
+		}
+	}
+	
+	// reads every object and version in the workspace
+	private UsageDelta calculateStorageUsage(final long wsid)
+			throws WorkspaceCommunicationException {
+		final UsageDelta usage = new UsageDelta();
+		final Map<Long, Boolean> deleted = new HashMap<Long, Boolean>();
+		final DBObject objproj = new BasicDBObject(Fields.OBJ_ID, 1);
+		objproj.put(Fields.OBJ_DEL, 1);
+		final DBObject verproj = new BasicDBObject(Fields.VER_ID, 1);
+		verproj.put(Fields.VER_SIZE, 1);
+		DBCursor cur = null;
+		try {
+			cur = wsmongo.getCollection(COL_WORKSPACE_OBJS).find(
+					new BasicDBObject(Fields.OBJ_WS_ID, wsid), objproj);
+			for (final DBObject o: cur) {
+				final boolean del = (Boolean) o.get(Fields.OBJ_DEL);
+				deleted.put(((Number) o.get(Fields.OBJ_ID)).longValue(), del);
+				usage.add(del, 1, 0, 0);
+			}
+			cur.close();
+			cur = wsmongo.getCollection(COL_WORKSPACE_VERS).find(
+					new BasicDBObject(Fields.VER_WS_ID, wsid), verproj);
+			for (final DBObject v: cur) {
+				final Boolean del = deleted.get(
+						((Number) v.get(Fields.VER_ID)).longValue());
+				if (del != null) {
+					usage.add(del, 0, 1,
+							((Number) v.get(Fields.VER_SIZE)).longValue());
+				}
+			}
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		} finally {
+			if (cur != null) {
+				cur.close();
+			}
+		}
+		return usage;
+	}
+	
+	private static final String M_SET_USAGE_WTH = String.format(
+			"{$set: {%s: #}}", Fields.WS_USAGE);
+	
+	private void setStorageUsage(final long wsid, final UsageDelta usage,
+			final boolean overwrite) throws WorkspaceCommunicationException {
+		final DBObject q = new BasicDBObject(Fields.WS_ID, wsid);
+		if (!overwrite) {
+			q.put(Fields.WS_USAGE, new BasicDBObject("$exists", false));
+		}
+		try {
+			wsmongo.getCollection(COL_WORKSPACES).update(q,
+					new BasicDBObject("$set", new BasicDBObject(
+							Fields.WS_USAGE, usage.toDBObject())));
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	// reads every data document
+	private long calculateUniqueDataSize()
+			throws WorkspaceCommunicationException {
+		long size = 0;
+		try {
+			for (final String col: wsmongo.getCollectionNames()) {
+				if (!col.startsWith(TypeData.TYPE_COL_PREFIX)) {
+					continue;
+				}
+				final DBObject proj = new BasicDBObject(Fields.TYPE_SIZE, 1);
+				proj.put(Fields.MONGO_ID, 0);
+				final DBCursor cur = wsmongo.getCollection(col).find(
+						new BasicDBObject(), proj);
+				try {
+					for (final DBObject d: cur) {
+						size += ((Number) d.get(Fields.TYPE_SIZE)).longValue();
+					}
+				} finally {
+					cur.close();
+				}
+			}
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		return size;
+	}
+	
+	private void setUniqueDataSize(final long size, final boolean overwrite)
+			throws WorkspaceCommunicationException {
+		final DBObject id = new BasicDBObject(Fields.MONGO_ID,
+				Fields.CNT_ID_DATA_SIZE);
+		final DBObject counter = new BasicDBObject(Fields.CNT_ID,
+				Fields.CNT_ID_DATA_SIZE);
+		counter.put(Fields.CNT_NUM, size);
+		try {
+			if (overwrite) {
+				wsmongo.getCollection(COL_WS_CNT).update(id,
+						new BasicDBObject("$set", counter), true, false);
+			} else {
+				counter.put(Fields.MONGO_ID, Fields.CNT_ID_DATA_SIZE);
+				wsmongo.getCollection(COL_WS_CNT).insert(counter);
+			}
+		} catch (MongoException.DuplicateKey dk) {
+			//already calculated
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	private static final String M_INC_DATA_SIZE_QRY = String.format(
+			"{%s: #}", Fields.MONGO_ID);
+	private static final String M_INC_DATA_SIZE_WTH = String.format(
+			"{$inc: {%s: #}}", Fields.CNT_NUM);
+	
+	private void incrementUniqueDataSize(final long size)
+			throws WorkspaceCommunicationException {
+		if (size == 0) {
+			return;
+		}
+		try {
+			// no upsert - the size is only tracked once calculated
+			wsjongo.getCollection(COL_WS_CNT)
+					.update(M_INC_DATA_SIZE_QRY, Fields.CNT_ID_DATA_SIZE)
+					.with(M_INC_DATA_SIZE_WTH, size);
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	private void updateStorageUsage(final long wsid, final UsageDelta usage)
+			throws WorkspaceCommunicationException {
+		if (usage.isEmpty()) {
+			return;
+		}
+		// workspaces without usage haven't been calculated yet
+		final DBObject q = new BasicDBObject(Fields.WS_ID, wsid);
+		q.put(Fields.WS_USAGE, new BasicDBObject("$exists", true));
+		try {
+			wsmongo.getCollection(COL_WORKSPACES).update(q,
+					new BasicDBObject("$inc",
+							usage.toDBObject(Fields.WS_USAGE + ".")));
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	/* Changes to the storage usage of a workspace. Sizes are the logical
+	 * size of the versions.
+	 */
+	private static class UsageDelta {
+		
+		private long objs = 0;
+		private long vers = 0;
+		private long size = 0;
+		private long delobjs = 0;
+		private long delvers = 0;
+		private long delsize = 0;
+		
+		private void add(final boolean deleted, final long objs,
+				final long vers, final long size) {
+			if (deleted) {
+				delobjs += objs;
+				delvers += vers;
+				delsize += size;
+			} else {
+				this.objs += objs;
+				this.vers += vers;
+				this.size += size;
+			}
+		}
+		
+		private void move(final boolean toDeleted, final long objs,
+				final long vers, final long size) {
+			add(!toDeleted, -objs, -vers, -size);
+			add(toDeleted, objs, vers, size);
+		}
+		
+		private boolean isEmpty() {
+			return objs == 0 && vers == 0 && size == 0 && delobjs == 0 &&
+					delvers == 0 && delsize == 0;
+		}
+		
+		private DBObject toDBObject() {
+			return toDBObject("");
+		}
+		
+		private DBObject toDBObject(final String prefix) {
+			final DBObject ret = new BasicDBObject();
+			ret.put(prefix + Fields.USAGE_OBJS, objs);
+			ret.put(prefix + Fields.USAGE_VERS, vers);
+			ret.put(prefix + Fields.USAGE_SIZE, size);
+			ret.put(prefix + Fields.USAGE_DEL_OBJS, delobjs);
+			ret.put(prefix + Fields.USAGE_DEL_VERS, delvers);
+			ret.put(prefix + Fields.USAGE_DEL_SIZE, delsize);
+			return ret;
+		}
+		
+		private static StorageUsage toStorageUsage(final DBObject usage) {
+			return new StorageUsage(
+					getLong(usage, Fields.USAGE_OBJS),
+					getLong(usage, Fields.USAGE_VERS),
+					getLong(usage, Fields.USAGE_SIZE),
+					getLong(usage, Fields.USAGE_DEL_OBJS),
+					getLong(usage, Fields.USAGE_DEL_VERS),
+					getLong(usage, Fields.USAGE_DEL_SIZE));
+		}
+		
+		private static long getLong(final DBObject usage, final String field) {
+			return ((Number) usage.get(field)).longValue();
+		}
+	}
+	
+	private static long getVersionsSize(
+			final List<Map<String, Object>> versions) {
+		long size = 0;
+		for (final Map<String, Object> v: versions) {
+			size += ((Number) v.get(Fields.VER_SIZE)).longValue();
+		}
+		return size;
+	}
+	
+	private static void setVersionTypeFields(final DBObject version,
+			final String typeString) {
+		final TypeDefId type = TypeDefId.fromTypeString(typeString);
+		version.put(Fields.VER_TYPE_MODULE, type.getType().getModule());
+		version.put(Fields.VER_TYPE_NAME, type.getType().getName());
+		version.put(Fields.VER_TYPE_MAJOR, type.getMajorVersion());
+		version.put(Fields.VER_TYPE_MINOR, type.getMinorVersion());
+	}
+	
 	private void ensureTypeIndexes() {
 		for (final String col: wsmongo.getCollectionNames()) {
 			if (col.startsWith(TypeData.TYPE_COL_PREFIX)) {
@@ -375,7 +981,18 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			final String backendSecret) throws CorruptWorkspaceDBException,
 			DBAuthorizationException, WorkspaceDBInitializationException {
 		if (settings.isGridFSBackend()) {
-			return new GridFSBackend(wsmongo);
+			return new GridFSBackend(wsmongo, settings.getCompression());
+		}
+		if (settings.isFileSystemBackend()) {
+			try {
+				return new FileSystemBlobStore(
+						new File(settings.getFileLocation()),
+						settings.getCompression());
+			} catch (BlobStoreException e) {
+				throw new WorkspaceDBInitializationException(
+						"The database could not be initialized: " +
+						e.getLocalizedMessage(), e);
+			}
 		}
 		if (settings.isShockBackend()) {
 			URL shockurl = null;
@@ -389,7 +1006,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			BlobStore bs;
 			try {
 				bs = new ShockBackend(wsmongo, COL_SHOCK_PREFIX,
-						shockurl, settings.getShockUser(), backendSecret);
+						shockurl, settings.getShockUser(), backendSecret,
+						settings.getCompression());
 			} catch (BlobStoreAuthorizationException e) {
 				throw new DBAuthorizationException(
 						"Not authorized to access the blob store database: "
@@ -416,15 +1034,24 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		return blob.getStoreType();
 	}
 
+	private final static String M_WS_DATE_QRY = String.format(
+			"{%s: #, %s: {$lt: #}}", Fields.WS_ID, Fields.WS_MODDATE);
 	private final static String M_WS_DATE_WTH = String.format(
 			"{$set: {%s: #}}", Fields.WS_MODDATE);
 	
 	private void updateWorkspaceModifiedDate(final ResolvedMongoWSID rwsi)
 			throws WorkspaceCommunicationException {
+		wsModDates.update(rwsi.getID(), new Date());
+	}
+	
+	private void writeWorkspaceModifiedDate(final long wsid, final Date date)
+			throws WorkspaceCommunicationException {
+		// never move the date backwards, since buffered dates may be written
+		// after later changes
 		try {
 			wsjongo.getCollection(COL_WORKSPACES)
-				.update(M_WS_ID_QRY, rwsi.getID())
-				.with(M_WS_DATE_WTH, new Date());
+				.update(M_WS_DATE_QRY, wsid, date)
+				.with(M_WS_DATE_WTH, date);
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
@@ -483,6 +1110,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		ws.put(Fields.WS_NUMOBJ, 0L);
 		ws.put(Fields.WS_DESC, description);
 		ws.put(Fields.WS_LOCKED, false);
+		ws.put(Fields.WS_USAGE, new UsageDelta().toDBObject());
 		if (meta != null) {
 			ws.put(Fields.WS_META, metaHashToMongoArray(meta));
 		}
@@ -609,49 +1237,181 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			newHashSet(Fields.OBJ_ID, Fields.OBJ_NAME, Fields.OBJ_DEL,
 					Fields.OBJ_HIDE);
 	
+	private static final int CLONE_PAGE_SIZE = 1000;
+	
+	/* Object ids for the whole clone are allocated at once and objects are
+	 * copied in pages, with one insert for the objects and one for the
+	 * versions in each page. The reference count increments for each page are
+	 * aggregated and applied before the page is inserted, so a failed clone
+	 * can only overcount references.
+	 */
 	@Override
 	public WorkspaceInformation cloneWorkspace(final WorkspaceUser user,
 			final ResolvedWorkspaceID wsid, final String newname,
 			final boolean globalRead, final String description,
-			final Map<String, String> meta)
+			final Map<String, String> meta, final CloneProgress progress)
 			throws PreExistingWorkspaceException,
 			WorkspaceCommunicationException, CorruptWorkspaceDBException {
-		
-		// looked at using copyObject to do this but was too messy
+		if (progress == null) {
+			throw new NullPointerException("progress cannot be null");
+		}
 		final ResolvedMongoWSID fromWS = query.convertResolvedWSID(wsid);
 		final WorkspaceInformation wsinfo =
 				createWorkspace(user, newname, globalRead, description, meta);
 		final ResolvedMongoWSID toWS = new ResolvedMongoWSID(wsinfo.getName(),
 				wsinfo.getId(), wsinfo.isLocked(), false); //assume it's not deleted already
 		final DBObject q = new BasicDBObject(Fields.OBJ_WS_ID, fromWS.getID());
+		q.put(Fields.OBJ_DEL, false);
 		final List<Map<String, Object>> wsobjects =
 				query.queryCollection(COL_WORKSPACE_OBJS, q, FLDS_CLONE_WS);
-		for (Map<String, Object> o: wsobjects) {
-			if ((Boolean) o.get(Fields.OBJ_DEL)) {
-				continue;
+		// keep the objects in the same order in the new workspace
+		Collections.sort(wsobjects, new Comparator<Map<String, Object>>() {
+
+			@Override
+			public int compare(final Map<String, Object> o1,
+					final Map<String, Object> o2) {
+				return ((Long) o1.get(Fields.OBJ_ID)).compareTo(
+						(Long) o2.get(Fields.OBJ_ID));
 			}
+		});
+		progress.setTotalObjects(wsobjects.size());
+		if (wsobjects.isEmpty()) {
+			return getWorkspaceInformation(user, toWS);
+		}
+		final long firstid = objectIDs.allocate(toWS, wsobjects.size());
+		for (int i = 0; i < wsobjects.size(); i += CLONE_PAGE_SIZE) {
+			if (progress.isCancelled()) {
+				progress.setStopped();
+				setWorkspaceDeleted(toWS, true);
+				return getWorkspaceInformation(user, toWS);
+			}
+			final List<Map<String, Object>> page = wsobjects.subList(i,
+					Math.min(i + CLONE_PAGE_SIZE, wsobjects.size()));
+			cloneObjects(user, fromWS, toWS, page, firstid + i);
+			progress.addCopiedObjects(page.size());
+		}
+		return getWorkspaceInformation(user, toWS);
+	}
+	
+	private void cloneObjects(
+			final WorkspaceUser user,
+			final ResolvedMongoWSID fromWS,
+			final ResolvedMongoWSID toWS,
+			final List<Map<String, Object>> objects,
+			final long firstid)
+			throws WorkspaceCommunicationException {
+		final Map<Long, ResolvedMongoObjectIDNoVer> rois =
+				new HashMap<Long, ResolvedMongoObjectIDNoVer>();
+		for (final Map<String, Object> o: objects) {
+			final long oldid = (Long) o.get(Fields.OBJ_ID);
+			rois.put(oldid, new ResolvedMongoObjectIDNoVer(fromWS,
+					(String) o.get(Fields.OBJ_NAME), oldid));
+		}
+		final Map<ResolvedMongoObjectIDNoVer, List<Map<String, Object>>>
+				oldvers = query.queryAllVersions(
+						new HashSet<ResolvedMongoObjectIDNoVer>(rois.values()),
+						FLDS_VER_COPYOBJ);
+		final Date saved = new Date();
+		final UsageDelta usage = new UsageDelta();
+		final List<Map<String, Object>> allvers =
+				new LinkedList<Map<String, Object>>();
+		final List<DBObject> objs = new LinkedList<DBObject>();
+		// new id -> versions
+		final Map<Long, List<Map<String, Object>>> newvers =
+				new LinkedHashMap<Long, List<Map<String, Object>>>();
+		long newid = firstid;
+		for (final Map<String, Object> o: objects) {
 			final long oldid = (Long) o.get(Fields.OBJ_ID);
-			final String name = (String) o.get(Fields.OBJ_NAME);
-			final boolean hidden = (Boolean) o.get(Fields.OBJ_HIDE);
-			final ResolvedMongoObjectIDNoVer roi = 
-					new ResolvedMongoObjectIDNoVer(fromWS, name, oldid);
-			final List<Map<String, Object>> versions = query.queryAllVersions(
-					new HashSet<ResolvedMongoObjectIDNoVer>(Arrays.asList(roi)),
-					FLDS_VER_COPYOBJ).get(roi);
+			final List<Map<String, Object>> versions =
+					oldvers.get(rois.get(oldid));
+			final DBObject dbo = new BasicDBObject();
+			dbo.put(Fields.OBJ_WS_ID, toWS.getID());
+			dbo.put(Fields.OBJ_ID, newid);
+			dbo.put(Fields.OBJ_VCNT, versions.size()); //Integer
+			dbo.put(Fields.OBJ_REFCOUNTS, zeros(versions.size()));
+			dbo.put(Fields.OBJ_NAME, o.get(Fields.OBJ_NAME));
+			dbo.put(Fields.OBJ_MODDATE, saved);
+			dbo.put(Fields.OBJ_LATEST, null);
+			dbo.put(Fields.OBJ_DEL, false);
+			dbo.put(Fields.OBJ_HIDE, o.get(Fields.OBJ_HIDE));
+			objs.add(dbo);
+			final List<Map<String, Object>> nv =
+					new LinkedList<Map<String, Object>>();
+			int ver = 1;
 			for (final Map<String, Object> v: versions) {
-				final int ver = (Integer) v.get(Fields.VER_VER);
-				v.remove(Fields.MONGO_ID);
-				v.put(Fields.VER_SAVEDBY, user.getUser());
-				v.put(Fields.VER_RVRT, null);
-				v.put(Fields.VER_COPIED, new MongoReference(
-						fromWS.getID(), oldid, ver).toString());
+				final BasicDBObject d = new BasicDBObject(v);
+				d.remove(Fields.MONGO_ID);
+				d.put(Fields.VER_SAVEDBY, user.getUser());
+				d.put(Fields.VER_RVRT, null);
+				d.put(Fields.VER_COPIED, new MongoReference(fromWS.getID(),
+						oldid, (Integer) v.get(Fields.VER_VER)).toString());
+				setVersionLocation(d, toWS, newid, ver++, saved);
+				nv.add(d);
+			}
+			newvers.put(newid, nv);
+			allvers.addAll(versions);
+			newid++;
+		}
+		updateReferenceCountsForVersions(allvers);
+		final Set<Long> inserted = insertClonedObjects(toWS, objs);
+		final List<DBObject> toInsert = new LinkedList<DBObject>();
+		for (final DBObject dbo: objs) {
+			final Long id = (Long) dbo.get(Fields.OBJ_ID);
+			if (inserted.contains(id)) {
+				for (final Map<String, Object> v: newvers.get(id)) {
+					toInsert.add((DBObject) v);
+				}
+			} else {
+				/* someone saved an object with the same name to the new
+				 * workspace while it was being cloned, so add the versions
+				 * to that object as the non bulk clone would do.
+				 */
+				final boolean hidden = (Boolean) dbo.get(Fields.OBJ_HIDE);
+				final long objid = saveWorkspaceObject(toWS, id,
+						(String) dbo.get(Fields.OBJ_NAME)).id;
+				saveObjectVersions(user, toWS, objid, newvers.get(id), hidden,
+						usage);
 			}
-			updateReferenceCountsForVersions(versions);
-			final long newid = incrementWorkspaceCounter(toWS, 1);
-			final long objid = saveWorkspaceObject(toWS, newid, name).id;
-			saveObjectVersions(user, toWS, objid, versions, hidden);
 		}
-		return getWorkspaceInformation(user, toWS);
+		insertVersions(toInsert);
+		for (final DBObject dbo: objs) {
+			final Long id = (Long) dbo.get(Fields.OBJ_ID);
+			if (inserted.contains(id)) {
+				usage.add(false, 1, newvers.get(id).size(),
+						getVersionsSize(newvers.get(id)));
+			}
+		}
+		updateStorageUsage(toWS.getID(), usage);
+	}
+	
+	// returns the ids of the objects that were inserted
+	private Set<Long> insertClonedObjects(final ResolvedMongoWSID toWS,
+			final List<DBObject> objs)
+			throws WorkspaceCommunicationException {
+		final Set<Long> ids = new HashSet<Long>();
+		for (final DBObject dbo: objs) {
+			ids.add((Long) dbo.get(Fields.OBJ_ID));
+		}
+		final DBCollection col = wsmongo.getCollection(COL_WORKSPACE_OBJS);
+		try {
+			col.insert(objs,
+					col.getWriteConcern().continueOnErrorForInsert(true));
+			return ids;
+		} catch (MongoException.DuplicateKey dk) {
+			//name clash - the ids are ours alone. All the other objects have
+			//been inserted. Should be a rare event.
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		final DBObject q = new BasicDBObject(Fields.OBJ_WS_ID, toWS.getID());
+		q.put(Fields.OBJ_ID, new BasicDBObject("$in", ids));
+		final Set<Long> inserted = new HashSet<Long>();
+		for (final Map<String, Object> o: query.queryCollection(
+				COL_WORKSPACE_OBJS, q, FLDS_OBJ_ID)) {
+			inserted.add((Long) o.get(Fields.OBJ_ID));
+		}
+		return inserted;
 	}
 	
 	private final static String M_LOCK_WS_WTH = String.format("{$set: {%s: #}}",
@@ -669,6 +1429,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
+		} finally {
+			wsCache.invalidate(rwsi.getID());
 		}
 		return getWorkspaceInformation(user, rwsi);
 	}
@@ -677,7 +1439,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			Fields.VER_WS_ID, Fields.VER_ID, Fields.VER_VER,
 			Fields.VER_TYPE, Fields.VER_CHKSUM, Fields.VER_SIZE,
 			Fields.VER_PROV, Fields.VER_REF, Fields.VER_PROVREF,
-			Fields.VER_COPIED, Fields.VER_META, Fields.VER_EXT_IDS);
+			Fields.VER_PROV_DATE, Fields.VER_COPIED, Fields.VER_META,
+			Fields.VER_EXT_IDS);
 	
 	@Override
 	public ObjectInformation copyObject(final WorkspaceUser user,
@@ -743,12 +1506,14 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				to.getWorkspaceIdentifier());
 		final long objid;
 		if (rto == null) { //need to make a new object
-			final long id = incrementWorkspaceCounter(toWS, 1);
+			final long id = objectIDs.allocate(toWS, 1);
 			objid = saveWorkspaceObject(toWS, id, to.getName()).id;
 		} else {
 			objid = rto.getId();
 		}
-		saveObjectVersions(user, toWS, objid, versions, null);
+		final UsageDelta usage = new UsageDelta();
+		saveObjectVersions(user, toWS, objid, versions, null, usage);
+		updateStorageUsage(toWS.getID(), usage);
 		final Map<String, Object> info = versions.get(versions.size() - 1);
 		updateWorkspaceModifiedDate(toWS);
 		return generateObjectInfo(toWS, objid, rto == null ? to.getName() :
@@ -777,6 +1542,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
+		} finally {
+			wsCache.invalidate(rwsi.getID());
 		}
 		return getWorkspaceInformation(user, rwsi);
 	}
@@ -903,28 +1670,47 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		if (wsis.isEmpty()) {
 			return ret;
 		}
-		final Map<WorkspaceIdentifier, Map<String, Object>> res =
-				query.queryWorkspacesByIdentifier(wsis, FLDS_WS_ID_NAME_DEL);
+		final Map<WorkspaceIdentifier, ResolvedMongoWSID> cached =
+				new HashMap<WorkspaceIdentifier, ResolvedMongoWSID>();
+		final Set<WorkspaceIdentifier> notCached =
+				new HashSet<WorkspaceIdentifier>();
 		for (final WorkspaceIdentifier wsi: wsis) {
-			if (!res.containsKey(wsi)) {
-				if (!allowMissing) {
-					throw new NoSuchWorkspaceException(String.format(
-							"No workspace with %s exists", getWSErrorId(wsi)),
-							wsi);
-				}
+			final ResolvedMongoWSID r = wsCache.getWorkspace(wsi);
+			if (r == null) {
+				notCached.add(wsi);
 			} else {
-				if (!allowDeleted &&
-						(Boolean) res.get(wsi).get(Fields.WS_DEL)) {
-					throw new NoSuchWorkspaceException("Workspace " +
-							wsi.getIdentifierString() + " is deleted", wsi);
+				cached.put(wsi, r);
+			}
+		}
+		final long cacheGen = wsCache.getGeneration();
+		final Map<WorkspaceIdentifier, Map<String, Object>> res =
+				notCached.isEmpty() ?
+				new HashMap<WorkspaceIdentifier, Map<String, Object>>() :
+				query.queryWorkspacesByIdentifier(notCached,
+						FLDS_WS_ID_NAME_DEL);
+		for (final WorkspaceIdentifier wsi: wsis) {
+			ResolvedMongoWSID r = cached.get(wsi);
+			if (r == null) {
+				if (!res.containsKey(wsi)) {
+					if (!allowMissing) {
+						throw new NoSuchWorkspaceException(String.format(
+								"No workspace with %s exists",
+								getWSErrorId(wsi)), wsi);
+					}
+					continue;
 				}
-				ResolvedMongoWSID r = new ResolvedMongoWSID(
+				r = new ResolvedMongoWSID(
 						(String) res.get(wsi).get(Fields.WS_NAME),
 						(Long) res.get(wsi).get(Fields.WS_ID),
 						(Boolean) res.get(wsi).get(Fields.WS_LOCKED), 
 						(Boolean) res.get(wsi).get(Fields.WS_DEL));
-				ret.put(wsi, r);
+				wsCache.putWorkspace(r, cacheGen);
 			}
+			if (!allowDeleted && r.isDeleted()) {
+				throw new NoSuchWorkspaceException("Workspace " +
+						wsi.getIdentifierString() + " is deleted", wsi);
+			}
+			ret.put(wsi, r);
 		}
 		return ret;
 	}
@@ -952,7 +1738,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		Set<ResolvedMongoWSID> rmwsis = query.convertResolvedWSID(rwsis);
 		final Map<ResolvedMongoWSID, Map<User, Permission>> userperms;
 		if (user != null) {
-			userperms = query.queryPermissions(rmwsis, 
+			userperms = queryPermissions(rmwsis, 
 					new HashSet<User>(Arrays.asList(user)), perm);
 		} else {
 			userperms = new HashMap<ResolvedMongoWSID, Map<User,Permission>>();
@@ -964,11 +1750,11 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				globalperms =
 						new HashMap<ResolvedMongoWSID, Map<User,Permission>>();
 			} else {
-				globalperms = query.queryPermissions(userperms.keySet(),
-						allusers);
+				globalperms = queryPermissions(userperms.keySet(), allusers,
+						Permission.NONE);
 			}
 		} else {
-			globalperms = query.queryPermissions(rmwsis, allusers,
+			globalperms = queryPermissions(rmwsis, allusers,
 					Permission.READ);
 		}
 		final MongoPermissionSet pset = new MongoPermissionSet(user, ALL_USERS);
@@ -992,9 +1778,70 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		return pset;
 	}
 	
-	private static String getWSErrorId(final WorkspaceIdentifier wsi) {
-		if (wsi.getId() == null) {
-			return "name " + wsi.getName();
+	/* Equivalent to query.queryPermissions(), but for a non-empty set of
+	 * workspaces reads the permissions from the cache when possible. On a
+	 * cache miss the global user's permissions are read and cached as well,
+	 * since nearly every permission check needs them.
+	 */
+	private Map<ResolvedMongoWSID, Map<User, Permission>> queryPermissions(
+			final Set<ResolvedMongoWSID> rwsis, final Set<User> users,
+			final Permission minPerm)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		if (rwsis.isEmpty() || !wsCache.isEnabled()) {
+			return query.queryPermissions(rwsis, users, minPerm);
+		}
+		final Set<User> fetch = new HashSet<User>(users);
+		fetch.add(ALL_USERS);
+		final Map<ResolvedMongoWSID, Map<User, Permission>> perms =
+				new HashMap<ResolvedMongoWSID, Map<User, Permission>>();
+		final Set<ResolvedMongoWSID> notCached =
+				new HashSet<ResolvedMongoWSID>();
+		for (final ResolvedMongoWSID rwsi: rwsis) {
+			final Map<User, Permission> p = new HashMap<User, Permission>();
+			for (final User u: users) {
+				final Permission cp = wsCache.getPermission(
+						rwsi.getID(), u.getUser());
+				if (cp == null) {
+					notCached.add(rwsi);
+				} else {
+					p.put(u, cp);
+				}
+			}
+			perms.put(rwsi, p);
+		}
+		if (!notCached.isEmpty()) {
+			final long cacheGen = wsCache.getGeneration();
+			final Map<ResolvedMongoWSID, Map<User, Permission>> res =
+					query.queryPermissions(notCached, fetch);
+			for (final ResolvedMongoWSID rwsi: notCached) {
+				for (final User u: fetch) {
+					Permission p = res.get(rwsi).get(u);
+					p = p == null ? Permission.NONE : p;
+					if (users.contains(u)) {
+						perms.get(rwsi).put(u, p);
+					}
+					wsCache.putPermission(rwsi.getID(), u.getUser(), p,
+							cacheGen);
+				}
+			}
+		}
+		// drop the permissions the database query would not have returned
+		for (final Map<User, Permission> p: perms.values()) {
+			final Iterator<Permission> i = p.values().iterator();
+			while (i.hasNext()) {
+				final Permission up = i.next();
+				if (Permission.NONE.equals(up) || up.compareTo(minPerm) < 0) {
+					i.remove();
+				}
+			}
+		}
+		return perms;
+	}
+	
+	private static String getWSErrorId(final WorkspaceIdentifier wsi) {
+		if (wsi.getId() == null) {
+			return "name " + wsi.getName();
 		}
 		return "id " + wsi.getId();
 	}
@@ -1033,6 +1880,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
+		} finally {
+			wsCache.invalidate(rwsi.getID());
 		}
 		final ResolvedMongoWSID newRwsi = new ResolvedMongoWSID(
 				newname == null ? rwsi.getName() : newname,
@@ -1095,23 +1944,27 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		} else {
 			owner = null;
 		}
-		for (User user: users) {
-			if (owner != null && owner.getUser().equals(user.getUser())) {
-				continue; // can't change owner permissions
-			}
-			try {
-				if (perm.equals(Permission.NONE)) {
-					wsjongo.getCollection(COL_WS_ACLS).remove(
-							M_PERMS_QRY, wsid.getID(), user.getUser());
-				} else {
-					wsjongo.getCollection(COL_WS_ACLS).update(
-							M_PERMS_QRY, wsid.getID(), user.getUser())
-							.upsert().with(M_PERMS_UPD, perm.getPermission());
+		try {
+			for (User user: users) {
+				if (owner != null && owner.getUser().equals(user.getUser())) {
+					continue; // can't change owner permissions
+				}
+				try {
+					if (perm.equals(Permission.NONE)) {
+						wsjongo.getCollection(COL_WS_ACLS).remove(
+								M_PERMS_QRY, wsid.getID(), user.getUser());
+					} else {
+						wsjongo.getCollection(COL_WS_ACLS).update(
+								M_PERMS_QRY, wsid.getID(), user.getUser())
+								.upsert().with(M_PERMS_UPD, perm.getPermission());
+					}
+				} catch (MongoException me) {
+					throw new WorkspaceCommunicationException(
+							"There was a problem communicating with the database", me);
 				}
-			} catch (MongoException me) {
-				throw new WorkspaceCommunicationException(
-						"There was a problem communicating with the database", me);
 			}
+		} finally {
+			wsCache.invalidate(wsid.getID());
 		}
 	}
 	
@@ -1159,6 +2012,27 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			final boolean showOnlyDeleted)
 			throws WorkspaceCommunicationException,
 			CorruptWorkspaceDBException {
+		return new LinkedList<WorkspaceInformation>(getWorkspaceInformation(
+				pset, owners, meta, after, before, showDeleted,
+				showOnlyDeleted, null, -1).getResults());
+	}
+	
+	private static final DBObject SORT_WS_ID =
+			new BasicDBObject(Fields.WS_ID, 1);
+	
+	@Override
+	public ResultPage<WorkspaceInformation> getWorkspaceInformation(
+			final PermissionSet pset, final List<WorkspaceUser> owners,
+			final Map<String, String> meta, final Date after,
+			final Date before, final boolean showDeleted, 
+			final boolean showOnlyDeleted, final ContinuationToken start,
+			final int limit)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		if (start != null && start.isObjectToken()) {
+			throw new IllegalArgumentException(
+					"The continuation token is not for a list of workspaces");
+		}
 		if (!(pset instanceof MongoPermissionSet)) {
 			throw new IllegalArgumentException(
 					"Illegal implementation of PermissionSet: " +
@@ -1169,8 +2043,11 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		for (final ResolvedWorkspaceID rwsi: pset.getWorkspaces()) {
 			rwsis.put(rwsi.getID(), query.convertResolvedWSID(rwsi));
 		}
-		final DBObject q = new BasicDBObject(Fields.WS_ID,
-				new BasicDBObject("$in", rwsis.keySet()));
+		final DBObject idq = new BasicDBObject("$in", rwsis.keySet());
+		if (start != null) {
+			idq.put("$gt", start.getWorkspaceID());
+		}
+		final DBObject q = new BasicDBObject(Fields.WS_ID, idq);
 		if (owners != null && !owners.isEmpty()) {
 			q.put(Fields.WS_OWNER, new BasicDBObject("$in",
 					convertWorkspaceUsers(owners)));
@@ -1195,8 +2072,14 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			}
 			q.put(Fields.WS_MODDATE, d);
 		}
-		final List<Map<String, Object>> ws = query.queryCollection(
-				COL_WORKSPACES, q, FLDS_WS_NO_DESC);
+		// only pay for the sort when paging - the token relies on the order
+		final List<Map<String, Object>> ws;
+		if (start != null || limit > 0) {
+			ws = query.queryCollection(COL_WORKSPACES, q, FLDS_WS_NO_DESC,
+					SORT_WS_ID, limit);
+		} else {
+			ws = query.queryCollection(COL_WORKSPACES, q, FLDS_WS_NO_DESC);
+		}
 		
 		final List<WorkspaceInformation> ret =
 				new LinkedList<WorkspaceInformation>();
@@ -1214,7 +2097,13 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				ret.add(generateWSInfo(rwsi, pset, w));
 			}
 		}
-		return ret;
+		// deleted workspaces are filtered out above, so continue from the
+		// last workspace retrieved rather than the last one returned
+		final ContinuationToken next = limit > 0 && ws.size() == limit ?
+				ContinuationToken.forWorkspace(
+						(Long) ws.get(ws.size() - 1).get(Fields.WS_ID)) :
+				null;
+		return new ResultPage<WorkspaceInformation>(ret, next);
 	}
 
 	private List<String> convertWorkspaceUsers(final List<WorkspaceUser> owners) {
@@ -1253,10 +2142,17 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		@SuppressWarnings("unchecked")
 		final List<Map<String, String>> meta =
 				(List<Map<String, String>>) wsdata.get(Fields.WS_META);
-		return new MongoWSInfo((Long) wsdata.get(Fields.WS_ID),
+		final Long wsid = (Long) wsdata.get(Fields.WS_ID);
+		// include changes made by this server that aren't written yet
+		Date moddate = (Date) wsdata.get(Fields.WS_MODDATE);
+		final Date pending = wsModDates.getPending(wsid);
+		if (pending != null && pending.after(moddate)) {
+			moddate = pending;
+		}
+		return new MongoWSInfo(wsid,
 				(String) wsdata.get(Fields.WS_NAME),
 				new WorkspaceUser((String) wsdata.get(Fields.WS_OWNER)),
-				(Date) wsdata.get(Fields.WS_MODDATE),
+				moddate,
 				(Long) wsdata.get(Fields.WS_NUMOBJ),
 				perms.getUserPermission(rwsi),
 				perms.isWorldReadable(rwsi),
@@ -1293,12 +2189,9 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		return ret;
 	}
 	
-	// save object in preexisting object container
-	private ObjectInformation saveObjectVersion(final WorkspaceUser user,
-			final ResolvedMongoWSID wsid, final long objectid,
-			final ObjectSavePackage pkg)
-			throws WorkspaceCommunicationException {
-		final Map<String, Object> version = new HashMap<String, Object>();
+	private DBObject createVersionDocument(final WorkspaceUser user,
+			final ObjectSavePackage pkg) {
+		final DBObject version = new BasicDBObject();
 		version.put(Fields.VER_SAVEDBY, user.getUser());
 		version.put(Fields.VER_CHKSUM, pkg.td.getChksum());
 		version.put(Fields.VER_META, metaHashToMongoArray(
@@ -1306,6 +2199,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		version.put(Fields.VER_REF, pkg.refs);
 		version.put(Fields.VER_PROVREF, pkg.provrefs);
 		version.put(Fields.VER_PROV, pkg.mprov.getMongoId());
+		version.put(Fields.VER_PROV_DATE, pkg.provdate);
 		version.put(Fields.VER_TYPE, pkg.wo.getRep().getValidationTypeDefId()
 				.getTypeString());
 		version.put(Fields.VER_SIZE, pkg.td.getSize());
@@ -1313,17 +2207,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		version.put(Fields.VER_COPIED, null);
 		version.put(Fields.VER_EXT_IDS, extractedIDsToStrings(
 				pkg.wo.getExtractedIDs()));
-		
-		saveObjectVersions(user, wsid, objectid, Arrays.asList(version),
-				pkg.wo.isHidden());
-		
-		return new MongoObjectInfo(objectid, pkg.name,
-				pkg.wo.getRep().getValidationTypeDefId().getTypeString(),
-				(Date) version.get(Fields.VER_SAVEDATE),
-				(Integer) version.get(Fields.VER_VER),
-				user, wsid, pkg.td.getChksum(), pkg.td.getSize(),
-				pkg.wo.getUserMeta() == null ? new HashMap<String, String>() :
-						pkg.wo.getUserMeta());
+		return version;
 	}
 
 	private Map<String, Set<String>> extractedIDsToStrings(
@@ -1356,8 +2240,9 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 
 	private static final String M_SAVEINS_QRY = String.format("{%s: #, %s: #}",
 			Fields.OBJ_WS_ID, Fields.OBJ_ID);
-	private static final String M_SAVEINS_PROJ = String.format("{%s: 1, %s: 0}",
-			Fields.OBJ_VCNT, Fields.MONGO_ID);
+	private static final String M_SAVEINS_PROJ = String.format(
+			"{%s: 1, %s: 1, %s: 0}",
+			Fields.OBJ_VCNT, Fields.OBJ_DEL, Fields.MONGO_ID);
 	private static final String M_SAVEINS_WTH = String.format(
 			"{$inc: {%s: #}, $set: {%s: false, %s: #, %s: null, %s: #}, $push: {%s: {$each: #}}}",
 			Fields.OBJ_VCNT, Fields.OBJ_DEL, Fields.OBJ_MODDATE,
@@ -1369,7 +2254,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 	
 	private void saveObjectVersions(final WorkspaceUser user,
 			final ResolvedMongoWSID wsid, final long objectid,
-			final List<Map<String, Object>> versions, final Boolean hidden)
+			final List<Map<String, Object>> versions, final Boolean hidden,
+			final UsageDelta usage)
 			throws WorkspaceCommunicationException {
 		// collection objects might be batchable if saves are slow
 		/* TODO deal with rare failure modes below as much as possible at some point. Not high prio since rare
@@ -1384,53 +2270,151 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		 * None of the above addresses the object w/ 0 versions failure. Not sure what to do about that.
 		 * 
 		*/
-		int ver;
-		final List<Integer> zeros = new LinkedList<Integer>();
-		for (int i = 0; i < versions.size(); i++) {
-			zeros.add(0);
-		}
 		final Date saved = new Date();
+		int ver = incrementVersionCount(wsid, objectid, versions.size(),
+				hidden, saved, getVersionsSize(versions), usage);
+		//TODO look into why saving array of maps via List.ToArray() /w Jongo makes Lazy?Objects return, which screw up everything
+		final List<DBObject> dbo = new LinkedList<DBObject>();
+		for (final Map<String, Object> v: versions) {
+			final DBObject d = new BasicDBObject();
+			for (final Entry<String, Object> e: v.entrySet()) {
+				d.put(e.getKey(), e.getValue());
+			}
+			setVersionLocation(d, wsid, objectid, ver++, saved);
+			dbo.add(d);
+		}
+		insertVersions(dbo);
+	}
+	
+	/* returns the first of count newly allocated version numbers. size is
+	 * the total size of the new versions. Saving to a deleted object
+	 * undeletes it.
+	 */
+	private int incrementVersionCount(final ResolvedMongoWSID wsid,
+			final long objectid, final int count, final Boolean hidden,
+			final Date saved, final long size, final UsageDelta usage)
+			throws WorkspaceCommunicationException {
+		final List<Integer> zeros = zeros(count);
+		final DBObject old;
 		try {
 			FindAndModify q = wsjongo.getCollection(COL_WORKSPACE_OBJS)
-					.findAndModify(M_SAVEINS_QRY, wsid.getID(), objectid)
-					.returnNew();
+					.findAndModify(M_SAVEINS_QRY, wsid.getID(), objectid);
 			if (hidden == null) {
-				q = q.with(M_SAVEINS_NO_HIDE_WTH, versions.size(),
-						saved, zeros);
+				q = q.with(M_SAVEINS_NO_HIDE_WTH, count, saved, zeros);
 			} else {
-				q = q.with(M_SAVEINS_WTH, versions.size(), saved,
-						hidden, zeros);
+				q = q.with(M_SAVEINS_WTH, count, saved, hidden, zeros);
 			}
-			ver = (Integer) q
-					.projection(M_SAVEINS_PROJ).as(DBObject.class)
-					.get(Fields.OBJ_VCNT)
-					- versions.size() + 1;
+			old = q.projection(M_SAVEINS_PROJ).as(DBObject.class);
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
 		}
-		//TODO look into why saving array of maps via List.ToArray() /w Jongo makes Lazy?Objects return, which screw up everything
-		final List<DBObject> dbo = new LinkedList<DBObject>();
-		for (final Map<String, Object> v: versions) {
-			v.put(Fields.VER_SAVEDATE, saved);
-			v.put(Fields.VER_WS_ID, wsid.getID());
-			v.put(Fields.VER_ID, objectid);
-			v.put(Fields.VER_VER, ver++);
-			final DBObject d = new BasicDBObject();
-			for (final Entry<String, Object> e: v.entrySet()) {
-				d.put(e.getKey(), e.getValue());
-			}
-			dbo.add(d);
+		final int oldcount = (Integer) old.get(Fields.OBJ_VCNT);
+		if (oldcount == 0) { //new object from saveWorkspaceObject()
+			usage.add(false, 1, 0, 0);
+		} else if ((Boolean) old.get(Fields.OBJ_DEL)) {
+			usage.move(false, 1, oldcount, getObjectSize(wsid, objectid));
+		}
+		usage.add(false, 0, count, size);
+		return oldcount + 1;
+	}
+	
+	private static final Set<String> FLDS_VER_SIZE = newHashSet(
+			Fields.VER_SIZE);
+	
+	// the total size of the versions of an object
+	private long getObjectSize(final ResolvedMongoWSID wsid,
+			final long objectid) throws WorkspaceCommunicationException {
+		final DBObject q = new BasicDBObject(Fields.VER_WS_ID, wsid.getID());
+		q.put(Fields.VER_ID, objectid);
+		return getVersionsSize(query.queryCollection(COL_WORKSPACE_VERS, q,
+				FLDS_VER_SIZE));
+	}
+	
+	private static List<Integer> zeros(final int count) {
+		final List<Integer> zeros = new LinkedList<Integer>();
+		for (int i = 0; i < count; i++) {
+			zeros.add(0);
+		}
+		return zeros;
+	}
+	
+	private static void setVersionLocation(final DBObject version,
+			final ResolvedMongoWSID wsid, final long objectid, final int ver,
+			final Date saved) {
+		version.put(Fields.VER_SAVEDATE, saved);
+		version.put(Fields.VER_WS_ID, wsid.getID());
+		version.put(Fields.VER_ID, objectid);
+		version.put(Fields.VER_VER, ver);
+	}
+	
+	//the driver splits the insert into as many messages as necessary
+	private void insertVersions(final List<DBObject> versions)
+			throws WorkspaceCommunicationException {
+		if (versions.isEmpty()) {
+			return;
+		}
+		/* set here rather than when the versions are created since copies,
+		 * reverts, and clones may read versions saved before the type fields
+		 * existed
+		 */
+		for (final DBObject v: versions) {
+			setVersionTypeFields(v, (String) v.get(Fields.VER_TYPE));
 		}
-
 		try {
-			wsmongo.getCollection(COL_WORKSPACE_VERS).insert(dbo);
+			/* referrers go in first, so a version is never visible without
+			 * its referrers. If the version insert fails the referrers are
+			 * left behind, but they point at nonexistent versions and so are
+			 * ignored.
+			 */
+			insertReferrers(versions);
+			wsmongo.getCollection(COL_WORKSPACE_VERS).insert(versions);
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
 		}
 	}
 	
+	private void insertReferrers(final List<DBObject> versions) {
+		final List<DBObject> referrers = new LinkedList<DBObject>();
+		for (final DBObject v: versions) {
+			final Set<String> refs = new HashSet<String>();
+			//refs are a set when saving, but a list when read from the DB
+			@SuppressWarnings("unchecked")
+			final Collection<String> r =
+					(Collection<String>) v.get(Fields.VER_REF);
+			@SuppressWarnings("unchecked")
+			final Collection<String> pr =
+					(Collection<String>) v.get(Fields.VER_PROVREF);
+			if (r != null) {
+				refs.addAll(r);
+			}
+			if (pr != null) {
+				refs.addAll(pr);
+			}
+			for (final String ref: refs) {
+				final DBObject referrer = new BasicDBObject();
+				referrer.put(Fields.REFERRER_TARGET, ref);
+				referrer.put(Fields.REFERRER_WS_ID, v.get(Fields.VER_WS_ID));
+				referrer.put(Fields.REFERRER_ID, v.get(Fields.VER_ID));
+				referrer.put(Fields.REFERRER_VER, v.get(Fields.VER_VER));
+				referrers.add(referrer);
+			}
+		}
+		if (referrers.isEmpty()) {
+			return;
+		}
+		final DBCollection col = wsmongo.getCollection(COL_REFERRERS);
+		try {
+			col.insert(referrers,
+					col.getWriteConcern().continueOnErrorForInsert(true));
+		} catch (MongoException.DuplicateKey dk) {
+			//the referrer was already recorded by an earlier, failed save or
+			//by the initial build of the collection. All the other referrers
+			//have been inserted.
+		}
+	}
+	
 	//TODO make all projections not include _id unless specified
 	
 	private static final String M_UNIQ_NAME_QRY = String.format(
@@ -1476,6 +2460,80 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		return prefix + "-" + counter;
 	}
 	
+	private static final Set<String> FLDS_OBJ_ID = newHashSet(Fields.OBJ_ID);
+	
+	/* Save brand new objects in bulk - create containers with the versions
+	 * for each object already allocated. names maps the object ids, which
+	 * *must not exist* in the workspace, to the object names, or null to
+	 * generate a name. Object names that clash with existing objects
+	 * are handled by saveWorkspaceObject(). Returns the containers created or
+	 * found by saveWorkspaceObject(), keyed by the requested object id - these
+	 * containers have no versions allocated.
+	 */
+	private Map<Long, IDName> saveWorkspaceObjects(
+			final ResolvedMongoWSID wsid, final Map<Long, String> names,
+			final Map<Long, List<ObjectSavePackage>> idToPkgs,
+			final Date saved)
+			throws WorkspaceCommunicationException {
+		final Map<Long, IDName> ret = new HashMap<Long, IDName>();
+		if (names.isEmpty()) {
+			return ret;
+		}
+		final List<DBObject> objs = new LinkedList<DBObject>();
+		for (final Entry<Long, String> e: names.entrySet()) {
+			final List<ObjectSavePackage> pkgs = idToPkgs.get(e.getKey());
+			final DBObject dbo = new BasicDBObject();
+			dbo.put(Fields.OBJ_WS_ID, wsid.getID());
+			dbo.put(Fields.OBJ_ID, e.getKey());
+			dbo.put(Fields.OBJ_VCNT, pkgs.size()); //Integer
+			dbo.put(Fields.OBJ_REFCOUNTS, zeros(pkgs.size()));
+			dbo.put(Fields.OBJ_NAME, getObjectName(e.getKey(), e.getValue()));
+			dbo.put(Fields.OBJ_MODDATE, saved);
+			dbo.put(Fields.OBJ_LATEST, null);
+			dbo.put(Fields.OBJ_DEL, false);
+			dbo.put(Fields.OBJ_HIDE, isHidden(pkgs));
+			objs.add(dbo);
+		}
+		final DBCollection col = wsmongo.getCollection(COL_WORKSPACE_OBJS);
+		try {
+			col.insert(objs,
+					col.getWriteConcern().continueOnErrorForInsert(true));
+			return ret;
+		} catch (MongoException.DuplicateKey dk) {
+			//someone else added an object with one of our names - the ids
+			//are ours alone, so any clash is a name clash. All the other
+			//objects have been inserted. Should be a rare event.
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		final DBObject q = new BasicDBObject(Fields.OBJ_WS_ID, wsid.getID());
+		q.put(Fields.OBJ_ID, new BasicDBObject("$in", names.keySet()));
+		final Set<Long> inserted = new HashSet<Long>();
+		for (final Map<String, Object> o: query.queryCollection(
+				COL_WORKSPACE_OBJS, q, FLDS_OBJ_ID)) {
+			inserted.add(((Number) o.get(Fields.OBJ_ID)).longValue());
+		}
+		for (final Entry<Long, String> e: names.entrySet()) {
+			if (!inserted.contains(e.getKey())) {
+				ret.put(e.getKey(), saveWorkspaceObject(
+						wsid, e.getKey(), e.getValue()));
+			}
+		}
+		return ret;
+	}
+	
+	private static String getObjectName(final long objectid,
+			final String name) {
+		//generateUniqueNameForObject() handles clashes with existing names
+		return name == null ? "auto" + objectid : name;
+	}
+	
+	//the last save of an object determines whether it's hidden
+	private static boolean isHidden(final List<ObjectSavePackage> pkgs) {
+		return pkgs.get(pkgs.size() - 1).wo.isHidden();
+	}
+	
 	//save brand new object - create container
 	//objectid *must not exist* in the workspace otherwise this method will recurse indefinitely
 	//the workspace must exist
@@ -1591,8 +2649,24 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 //					o.getObjectIdentifier(), objnum, "subdata");
 			//could save time by making type->data->TypeData map and reusing
 			//already calced TDs, but hardly seems worth it - unlikely event
-			pkg.td = new TypeData(o.getRep().createJsonWritable(),
-					o.getRep().getValidationTypeDefId(), subdata);
+			final TypedObjectValidationReport rep = o.getRep();
+			if (rep.getMD5() == null) {
+				pkg.td = new TypeData(rep.createJsonWritable(),
+						rep.getValidationTypeDefId(), subdata);
+			} else {
+				// the MD5 and size were calculated when relabeling and
+				// sorting, so the data needn't be read again
+				final long size;
+				try {
+					size = rep.getRelabeledSize();
+				} catch (IOException ioe) {
+					throw new RuntimeException(
+							"The size should already be calculated", ioe);
+				}
+				pkg.td = new TypeData(rep.createJsonWritable(),
+						rep.getValidationTypeDefId(), subdata, rep.getMD5(),
+						size);
+			}
 			if (pkg.td.getSize() > rescfg.getMaxObjectSize()) {
 				throw new IllegalArgumentException(String.format(
 						"Object %s data size %s exceeds limit of %s",
@@ -1604,6 +2678,66 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		}
 		return ret;
 	}
+
+	/* Saves an index of the structure of the data to the blob store if the
+	 * data is large enough to be indexed, and records the index's MD5 in the
+	 * type data. The index is only an optimization for extracting subsets,
+	 * so if the data can't be indexed or the index can't be saved the data
+	 * is saved without an index.
+	 */
+	private void saveSubsetIndex(final TypeData td) {
+		final long minSize = rescfg.getSubsetIndexMinObjectSize();
+		if (minSize < 1 || td.getSize() < minSize) {
+			return;
+		}
+		File tempFile = null;
+		try {
+			tempFile = tfm.generateTempFile("subidx", "json");
+			final OutputStream os = new BufferedOutputStream(
+					new FileOutputStream(tempFile));
+			try {
+				td.getData().write(os);
+			} finally {
+				os.close();
+			}
+			final JsonStructureIndex index;
+			final InputStream is = new FileInputStream(tempFile);
+			try {
+				index = JsonStructureIndex.build(is,
+						rescfg.getSubsetIndexDepth());
+			} finally {
+				is.close();
+			}
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			index.write(baos);
+			final byte[] data = baos.toByteArray();
+			final MD5 md5 = new MD5(DigestUtils.md5Hex(data));
+			blob.saveBlob(md5, new Writable() {
+				
+				@Override
+				public void write(final OutputStream os) throws IOException {
+					os.write(data);
+				}
+				
+				@Override
+				public void releaseResources() {}
+			}, false);
+			td.setSubsetIndex(md5);
+		} catch (IOException ioe) {
+			LOGGER.warn("Failed to build the subset index for data " +
+					td.getChksum(), ioe);
+		} catch (BlobStoreCommunicationException e) {
+			LOGGER.warn("Failed to save the subset index for data " +
+					td.getChksum(), e);
+		} catch (BlobStoreAuthorizationException e) {
+			LOGGER.warn("Failed to save the subset index for data " +
+					td.getChksum(), e);
+		} finally {
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
 	
 	//is there some way to combine these with generics?
 	private Set<String> checkRefsAreMongo(final Set<Reference> refs) {
@@ -1796,52 +2930,108 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		saveData(wsidmongo, packages);
 		saveProvenance(packages);
 		updateReferenceCounts(packages);
-		long newid = incrementWorkspaceCounter(wsidmongo, newobjects);
-		/*  alternate impl: 1) make all save objects 2) increment all version
-		 *  counters 3) batch save versions
-		 *  This probably won't help much. Firstly, saving the same object
-		 *  multiple times (e.g. save over the same object in the same
-		 *  saveObjects call) is going to be a rare op - who wants to do that?
-		 *  Hence batching up the version increments is probably not going to
-		 *  help much.
-		 *  Secondly, the write lock is on a per document basis, so batching
-		 *  writes has no effect on write locking.
-		 *  That means that the gain from batching writes is removal of the 
-		 *  flight time to/from the server between each object. This may
-		 *  be significant for many small objects, but is probably
-		 *  insignificant for a few objects, or many large objects.
-		 *  Summary: probably not worth the trouble and increase in code
-		 *  complexity.
+		long newid = newobjects < 1 ? -1 :
+				objectIDs.allocate(wsidmongo, newobjects);
+		/* Versions are allocated once per object rather than once per
+		 * package, new object containers are created with their versions
+		 * already allocated, and all the versions are inserted at once. This
+		 * removes most of the round trips to the server, which dominate the
+		 * save time for many small objects.
 		 */
-		final List<ObjectInformation> ret = new ArrayList<ObjectInformation>();
+		//object id -> packages to save to that object, in order
+		final Map<Long, List<ObjectSavePackage>> idToVers =
+				new LinkedHashMap<Long, List<ObjectSavePackage>>();
+		//new object id -> name, or null to generate a name
+		final Map<Long, String> newObjNames = new LinkedHashMap<Long, String>();
 		final Map<String, Long> seenNames = new HashMap<String, Long>();
 		for (final ObjectSavePackage p: packages) {
 			final ObjectIDNoWSNoVer oi = p.wo.getObjectIdentifier();
+			final long id;
 			if (oi == null) { //no name given, need to generate one
-				final IDName obj = saveWorkspaceObject(wsidmongo, newid++,
-						null);
-				p.name = obj.name;
-				ret.add(saveObjectVersion(user, wsidmongo, obj.id, p));
+				id = newid++;
+				newObjNames.put(id, null);
 			} else if (oi.getId() != null) { //confirmed ok id
-				ret.add(saveObjectVersion(user, wsidmongo, oi.getId(), p));
+				id = oi.getId();
 			} else if (objIDs.get(oi) != null) {//given name translated to id
-				ret.add(saveObjectVersion(user, wsidmongo, objIDs.get(oi).getId(), p));
+				id = objIDs.get(oi).getId();
 			} else if (seenNames.containsKey(oi.getName())) {
 				//we've already generated an id for this name
-				ret.add(saveObjectVersion(user, wsidmongo, seenNames.get(oi.getName()), p));
+				id = seenNames.get(oi.getName());
 			} else {//new name, need to generate new id
-				final IDName obj = saveWorkspaceObject(wsidmongo, newid++,
-						oi.getName());
-				p.name = obj.name;
-				seenNames.put(obj.name, obj.id);
-				ret.add(saveObjectVersion(user, wsidmongo, obj.id, p));
+				id = newid++;
+				newObjNames.put(id, oi.getName());
+				seenNames.put(oi.getName(), id);
+			}
+			if (!idToVers.containsKey(id)) {
+				idToVers.put(id, new LinkedList<ObjectSavePackage>());
+			}
+			idToVers.get(id).add(p);
+		}
+		final Date saved = new Date();
+		final UsageDelta usage = new UsageDelta();
+		final Map<Long, IDName> unallocated = saveWorkspaceObjects(
+				wsidmongo, newObjNames, idToVers, saved);
+		final Map<ObjectSavePackage, ObjectInformation> pkgToInfo =
+				new HashMap<ObjectSavePackage, ObjectInformation>();
+		final List<DBObject> versions = new LinkedList<DBObject>();
+		for (final Entry<Long, List<ObjectSavePackage>> e:
+				idToVers.entrySet()) {
+			final List<ObjectSavePackage> pkgs = e.getValue();
+			final long objid;
+			int ver;
+			if (unallocated.containsKey(e.getKey())) {
+				final IDName obj = unallocated.get(e.getKey());
+				objid = obj.id;
+				for (final ObjectSavePackage p: pkgs) {
+					p.name = obj.name;
+				}
+				ver = incrementVersionCount(wsidmongo, objid, pkgs.size(),
+						isHidden(pkgs), saved, getPackagesSize(pkgs), usage);
+			} else if (newObjNames.containsKey(e.getKey())) {
+				objid = e.getKey();
+				for (final ObjectSavePackage p: pkgs) {
+					p.name = getObjectName(objid, newObjNames.get(objid));
+				}
+				ver = 1;
+				usage.add(false, 1, pkgs.size(), getPackagesSize(pkgs));
+			} else {
+				objid = e.getKey();
+				ver = incrementVersionCount(wsidmongo, objid, pkgs.size(),
+						isHidden(pkgs), saved, getPackagesSize(pkgs), usage);
 			}
+			for (final ObjectSavePackage p: pkgs) {
+				final DBObject v = createVersionDocument(user, p);
+				setVersionLocation(v, wsidmongo, objid, ver, saved);
+				versions.add(v);
+				pkgToInfo.put(p, new MongoObjectInfo(objid, p.name,
+						p.wo.getRep().getValidationTypeDefId()
+							.getTypeString(),
+						saved, ver, user, wsidmongo, p.td.getChksum(),
+						p.td.getSize(), p.wo.getUserMeta() == null ?
+								new HashMap<String, String>() :
+								p.wo.getUserMeta()));
+				ver++;
+			}
+		}
+		insertVersions(versions);
+		updateStorageUsage(wsidmongo.getID(), usage);
+		final List<ObjectInformation> ret = new ArrayList<ObjectInformation>();
+		for (final ObjectSavePackage p: packages) {
+			ret.add(pkgToInfo.get(p));
 		}
 		updateWorkspaceModifiedDate(wsidmongo);
 		return ret;
 	}
 
-	//returns starting object number
+	private static long getPackagesSize(final List<ObjectSavePackage> pkgs) {
+		long size = 0;
+		for (final ObjectSavePackage p: pkgs) {
+			size += p.td.getSize();
+		}
+		return size;
+	}
+
+	//returns the last reserved object number
 	private long incrementWorkspaceCounter(final ResolvedMongoWSID wsidmongo,
 			final int newobjects) throws WorkspaceCommunicationException {
 		final long lastid;
@@ -1855,18 +3045,32 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
 		}
-		long newid = lastid - newobjects + 1;
-		return newid;
+		return lastid;
 	}
 	
 	private void saveProvenance(final List<ObjectSavePackage> packages)
 			throws WorkspaceCommunicationException {
+		//objects in a batch often have identical provenance, so only save
+		//one copy. The resolved references are stored per version.
 		final List<MongoProvenance> prov = new LinkedList<MongoProvenance>();
+		final Map<String, MongoProvenance> hashes =
+				new HashMap<String, MongoProvenance>();
 		for (final ObjectSavePackage p: packages) {
+			final String hash = MongoProvenance.calculateHash(
+					p.wo.getProvenance());
+			if (hash != null && hashes.containsKey(hash)) {
+				p.mprov = hashes.get(hash);
+				p.provdate = new Date();
+				continue;
+			}
 			final MongoProvenance mp = new MongoProvenance(
 					p.wo.getProvenance());
 			prov.add(mp);
 			p.mprov = mp;
+			p.provdate = mp.getDate();
+			if (hash != null) {
+				hashes.put(hash, mp);
+			}
 		}
 		try {
 			wsjongo.getCollection(COL_PROVENANCE).insert((Object[])
@@ -2087,6 +3291,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 						//it you have to calc md5s before you save the data
 						blob.saveBlob(new MD5(md5), chksum.get(md5).getData(),
 								true); //always sorted in 0.2.0+
+						saveSubsetIndex(chksum.get(md5));
 					} catch (BlobStoreCommunicationException e) {
 						throw new WorkspaceCommunicationException(
 								e.getLocalizedMessage(), e);
@@ -2096,9 +3301,11 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 								e);
 					}
 				}
+				long newsize = 0;
 				for (final TypeData td: newdata) {
 					try {
 						wsjongo.getCollection(col).insert(td);
+						newsize += td.getSize();
 					} catch (MongoException.DuplicateKey dk) {
 						// Was just inserted by another
 						// thread, which is fine - do nothing
@@ -2108,6 +3315,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 								me);
 					}
 				}
+				incrementUniqueDataSize(newsize);
 			}
 		} finally {
 			for (ObjectSavePackage wo: data) {
@@ -2216,8 +3424,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			Fields.VER_VER, Fields.VER_META, Fields.VER_TYPE,
 			Fields.VER_SAVEDATE, Fields.VER_SAVEDBY,
 			Fields.VER_CHKSUM, Fields.VER_SIZE, Fields.VER_PROV,
-			Fields.VER_PROVREF, Fields.VER_REF, Fields.VER_EXT_IDS,
-			Fields.VER_COPIED);
+			Fields.VER_PROVREF, Fields.VER_PROV_DATE, Fields.VER_REF,
+			Fields.VER_EXT_IDS, Fields.VER_COPIED);
 	
 	@Override
 	public Map<ObjectIDResolvedWS, WorkspaceObjectInformation>
@@ -2231,7 +3439,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				query.queryVersions(
 						new HashSet<ResolvedMongoObjectID>(resobjs.values()),
 						FLDS_VER_GET_OBJECT);
-		final Map<ObjectId, MongoProvenance> provs = getProvenance(vers);
+		final Map<ResolvedMongoObjectID, MongoProvenance> provs =
+				getProvenance(vers);
 		final Map<ObjectIDResolvedWS, WorkspaceObjectInformation> ret =
 				new HashMap<ObjectIDResolvedWS, WorkspaceObjectInformation>();
 		for (final ObjectIDResolvedWS o: objectIDs) {
@@ -2243,8 +3452,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 						roi.getVersion(), 
 						roi.getWorkspaceIdentifier().getID()), o);
 			}
-			final MongoProvenance prov = provs.get((ObjectId) vers.get(roi)
-					.get(Fields.VER_PROV));
+			final MongoProvenance prov = provs.get(roi);
 			@SuppressWarnings("unchecked")
 			final List<String> refs =
 					(List<String>) vers.get(roi).get(Fields.VER_REF);
@@ -2269,13 +3477,22 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			getObjects(final Set<ObjectIDResolvedWS> objectIDs)
 			throws NoSuchObjectException, WorkspaceCommunicationException,
 			CorruptWorkspaceDBException {
+		return getObjects(objectIDs, false);
+	}
+	
+	@Override
+	public Map<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>>
+			getObjects(final Set<ObjectIDResolvedWS> objectIDs,
+					final boolean stream)
+			throws NoSuchObjectException, WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
 		final Map<ObjectIDResolvedWS, Set<ObjectPaths>> paths =
 				new HashMap<ObjectIDResolvedWS, Set<ObjectPaths>>();
 		for (final ObjectIDResolvedWS o: objectIDs) {
 			paths.put(o, null);
 		}
 		try {
-			return getObjects(paths);
+			return getObjects(paths, resolveObjectIDs(objectIDs), stream);
 		} catch (TypedObjectExtractionException toee) {
 			throw new RuntimeException(
 					"No extraction done, so something's very wrong here", toee);
@@ -2289,7 +3506,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			CorruptWorkspaceDBException, TypedObjectExtractionException {
 		final Map<ObjectIDResolvedWS, ResolvedMongoObjectID> oids =
 				resolveObjectIDs(objects.keySet());
-		return getObjects(objects, oids);
+		return getObjects(objects, oids, false);
 	}
 
 	private Map<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>>
@@ -2302,12 +3519,13 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		for (final ObjectIDResolvedWS oi: oids.keySet()) {
 			paths.put(oi, null);
 		}
-		return getObjects(paths, oids);
+		return getObjects(paths, oids, false);
 	}
 	
 	private Map<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>>
 			getObjects(final Map<ObjectIDResolvedWS, Set<ObjectPaths>> paths,
-			final Map<ObjectIDResolvedWS, ResolvedMongoObjectID> resobjs)
+			final Map<ObjectIDResolvedWS, ResolvedMongoObjectID> resobjs,
+			final boolean stream)
 			throws WorkspaceCommunicationException, NoSuchObjectException,
 			TypedObjectExtractionException, CorruptWorkspaceDBException {
 		
@@ -2315,10 +3533,29 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				query.queryVersions(
 						new HashSet<ResolvedMongoObjectID>(resobjs.values()),
 						FLDS_VER_GET_OBJECT);
-		checkTotalFileSize(paths, resobjs, vers);
-		final Map<ObjectId, MongoProvenance> provs = getProvenance(vers);
-		final Map<String, ByteArrayFileCache> chksumToData =
-				new HashMap<String, ByteArrayFileCache>();
+		final long size = checkTotalFileSize(paths, resobjs, vers);
+		final Map<ResolvedMongoObjectID, MongoProvenance> provs =
+				getProvenance(vers);
+		//streamed data isn't held by the call, so reserve nothing for it
+		final ResourceBudget.Reservation res = dataBudget.reserve(stream ? 0 :
+				Math.min(size, rescfg.getMaxReturnedDataMemoryUsage()),
+				rescfg.getDataBudgetWaitTimeout());
+		try {
+			return getObjects(paths, resobjs, stream, vers, provs, res);
+		} finally {
+			res.close();
+		}
+	}
+	
+	private Map<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>>
+			getObjects(final Map<ObjectIDResolvedWS, Set<ObjectPaths>> paths,
+			final Map<ObjectIDResolvedWS, ResolvedMongoObjectID> resobjs,
+			final boolean stream,
+			final Map<ResolvedMongoObjectID, Map<String, Object>> vers,
+			final Map<ResolvedMongoObjectID, MongoProvenance> provs,
+			final ResourceBudget.Reservation res)
+			throws WorkspaceCommunicationException, NoSuchObjectException,
+			TypedObjectExtractionException, CorruptWorkspaceDBException {
 		final Map<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>> ret =
 				new HashMap<ObjectIDResolvedWS, Map<ObjectPaths, WorkspaceObjectData>>();
 		final ByteArrayFileCacheManager bafcMan = new ByteArrayFileCacheManager(
@@ -2326,7 +3563,11 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				//maximum possible disk usage is when subsetting a objects
 				//summing to 1G to 1G objects, since the 1G originals will be discarded
 				rescfg.getMaxReturnedDataSize() * 2L,
-				tfm);
+				tfm, res);
+		//streamed data is read from the blob store on output, so don't fetch
+		final Map<String, ByteArrayFileCache> chksumToData = stream ?
+				new HashMap<String, ByteArrayFileCache>() :
+				prefetchBlobs(resobjs.values(), vers, bafcMan);
 		for (final ObjectIDResolvedWS o: paths.keySet()) {
 			final ResolvedMongoObjectID roi = resobjs.get(o);
 			if (!vers.containsKey(roi)) {
@@ -2337,8 +3578,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 						roi.getVersion(), 
 						roi.getWorkspaceIdentifier().getID()), o);
 			}
-			final MongoProvenance prov = provs.get((ObjectId) vers.get(roi)
-					.get(Fields.VER_PROV));
+			final MongoProvenance prov = provs.get(roi);
 			final String copyref =
 					(String) vers.get(roi).get(Fields.VER_COPIED);
 			final Reference copied = copyref == null ? null :
@@ -2355,11 +3595,12 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			try {
 				if (paths.get(o) == null || paths.get(o).isEmpty()) {
 					buildReturnedObjectData(chksumToData, ret, o, prov, refs,
-							copied, extIDs, info, null, bafcMan);
+							copied, extIDs, info, null, bafcMan, stream);
 				} else {
 					for (final ObjectPaths op: paths.get(o)) {
 						buildReturnedObjectData(chksumToData, ret, o, prov,
-								refs, copied, extIDs, info, op, bafcMan);
+								refs, copied, extIDs, info, op, bafcMan,
+								false);
 					}
 				}
 			} catch (TypedObjectExtractionException e) {
@@ -2385,7 +3626,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		return ret;
 	}
 
-	private void checkTotalFileSize(
+	private long checkTotalFileSize(
 			final Map<ObjectIDResolvedWS, Set<ObjectPaths>> paths,
 			final Map<ObjectIDResolvedWS, ResolvedMongoObjectID> resobjs,
 			final Map<ResolvedMongoObjectID, Map<String, Object>> vers) {
@@ -2405,6 +3646,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 					"which  exceeds maximum of %s.", size,
 					rescfg.getMaxReturnedDataSize()));
 		}
+		return size;
 	}
 
 	private void cleanUpTempObjectFiles(
@@ -2432,7 +3674,8 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			final Reference copied,
 			final Map<String, List<String>> extIDs,
 			final MongoObjectInfo info,
-			final ObjectPaths op, final ByteArrayFileCacheManager bafcMan)
+			final ObjectPaths op, final ByteArrayFileCacheManager bafcMan,
+			final boolean stream)
 			throws TypedObjectExtractionException,
 			WorkspaceCommunicationException, CorruptWorkspaceDBException {
 		if (!ret.containsKey(o)) {
@@ -2444,49 +3687,169 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			 * memoize the subset
 			 */
 			ret.get(o).put(op, new WorkspaceObjectData(getDataSubSet(
-					chksumToData.get(info.getCheckSum()), op, bafcMan),
+					chksumToData.get(info.getCheckSum()), op, bafcMan, info),
 					info, prov, refs, copied, extIDs));
 		} else {
-			final ByteArrayFileCache data;
-			try {
-				data = blob.getBlob(new MD5(info.getCheckSum()), bafcMan);
-			} catch (FileCacheIOException e) {
-				throw new WorkspaceCommunicationException(
-						e.getLocalizedMessage(), e);
-			} catch (FileCacheLimitExceededException e) {
-				throw new IllegalArgumentException( //shouldn't happen if size was checked correctly beforehand
-						"Too much data requested from the workspace at once; " +
-						"data requested including subsets exceeds maximum of "
-						+ bafcMan.getMaxSizeOnDisk());
-			} catch (BlobStoreCommunicationException e) {
-				throw new WorkspaceCommunicationException(
-						e.getLocalizedMessage(), e);
-			} catch (BlobStoreAuthorizationException e) {
-				throw new WorkspaceCommunicationException(
-						"Authorization error communicating with the backend storage system",
-						e);
-			} catch (NoSuchBlobException e) {
-				throw new CorruptWorkspaceDBException(String.format(
-						"No data present for valid object %s.%s.%s",
-						info.getWorkspaceId(), info.getObjectId(),
-						info.getVersion()), e);
-			}
+			final ByteArrayFileCache data =
+					getBlob(info, bafcMan, stream);
 			chksumToData.put(info.getCheckSum(), data);
 			ret.get(o).put(op, new WorkspaceObjectData(
-					getDataSubSet(data, op, bafcMan),
+					getDataSubSet(data, op, bafcMan, info),
 					info, prov, refs, copied, extIDs));
 		}
 	}
 	
+	/* Concurrently retrieves the distinct blobs for a set of objects, if
+	 * the workspace is configured with more than one blob fetch thread.
+	 * Returns a map of md5 to blob. If an error occurs all the retrieved
+	 * blobs are destroyed.
+	 */
+	private Map<String, ByteArrayFileCache> prefetchBlobs(
+			final Collection<ResolvedMongoObjectID> objects,
+			final Map<ResolvedMongoObjectID, Map<String, Object>> vers,
+			final ByteArrayFileCacheManager bafcMan)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		final Map<String, ByteArrayFileCache> ret =
+				new HashMap<String, ByteArrayFileCache>();
+		final ExecutorService exe = fetchExecutor;
+		if (exe == null) {
+			return ret;
+		}
+		final Map<String, MongoObjectInfo> toFetch =
+				new LinkedHashMap<String, MongoObjectInfo>();
+		for (final ResolvedMongoObjectID roi: objects) {
+			//missing objects are reported when the objects are built
+			if (vers.containsKey(roi)) {
+				final MongoObjectInfo info =
+						generateObjectInfo(roi, vers.get(roi));
+				if (!toFetch.containsKey(info.getCheckSum())) {
+					toFetch.put(info.getCheckSum(), info);
+				}
+			}
+		}
+		if (toFetch.size() < 2) {
+			return ret;
+		}
+		final int maxRunning = rescfg.getBlobFetchThreadsPerCall();
+		final CompletionService<ByteArrayFileCache> cs =
+				new ExecutorCompletionService<ByteArrayFileCache>(exe);
+		final Map<Future<ByteArrayFileCache>, String> md5s =
+				new HashMap<Future<ByteArrayFileCache>, String>();
+		final Iterator<MongoObjectInfo> iter = toFetch.values().iterator();
+		int running = 0;
+		Throwable error = null;
+		boolean interrupted = false;
+		while (running > 0 || (error == null && iter.hasNext())) {
+			while (error == null && iter.hasNext() && running < maxRunning) {
+				final MongoObjectInfo info = iter.next();
+				md5s.put(cs.submit(new Callable<ByteArrayFileCache>() {
+
+					@Override
+					public ByteArrayFileCache call() throws Exception {
+						return getBlob(info, bafcMan, false);
+					}
+				}), info.getCheckSum());
+				running++;
+			}
+			final Future<ByteArrayFileCache> f;
+			try {
+				f = cs.take();
+			} catch (InterruptedException ie) {
+				//wait for the running fetches so their files can be deleted
+				interrupted = true;
+				error = ie;
+				continue;
+			}
+			running--;
+			try {
+				ret.put(md5s.get(f), f.get());
+			} catch (ExecutionException ee) {
+				if (error == null) {
+					error = ee.getCause();
+				}
+			} catch (InterruptedException ie) {
+				//can't happen, the future is done
+				throw new RuntimeException("Something is broken", ie);
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (error == null) {
+			return ret;
+		}
+		for (final ByteArrayFileCache data: ret.values()) {
+			data.destroy();
+		}
+		if (error instanceof WorkspaceCommunicationException) {
+			throw (WorkspaceCommunicationException) error;
+		}
+		if (error instanceof CorruptWorkspaceDBException) {
+			throw (CorruptWorkspaceDBException) error;
+		}
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		}
+		if (error instanceof Error) {
+			throw (Error) error;
+		}
+		throw new RuntimeException("Blob retrieval failed: " +
+				error.getLocalizedMessage(), error);
+	}
+	
+	private ByteArrayFileCache getBlob(
+			final MongoObjectInfo info,
+			final ByteArrayFileCacheManager bafcMan,
+			final boolean stream)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		final MD5 md5 = new MD5(info.getCheckSum());
+		try {
+			ByteArrayFileCache data = blobCache.get(md5, bafcMan);
+			if (data == null && stream) {
+				//streamed data is read from the blob store on output and
+				//so is never cached
+				data = blob.getBlobStream(md5, bafcMan);
+			} else if (data == null) {
+				data = blob.getBlob(md5, bafcMan);
+				blobCache.add(md5, data);
+			}
+			return data;
+		} catch (FileCacheIOException e) {
+			throw new WorkspaceCommunicationException(
+					e.getLocalizedMessage(), e);
+		} catch (FileCacheLimitExceededException e) {
+			throw new IllegalArgumentException( //shouldn't happen if size was checked correctly beforehand
+					"Too much data requested from the workspace at once; " +
+					"data requested including subsets exceeds maximum of "
+					+ bafcMan.getMaxSizeOnDisk(), e);
+		} catch (BlobStoreCommunicationException e) {
+			throw new WorkspaceCommunicationException(
+					e.getLocalizedMessage(), e);
+		} catch (BlobStoreAuthorizationException e) {
+			throw new WorkspaceCommunicationException(
+					"Authorization error communicating with the backend storage system",
+					e);
+		} catch (NoSuchBlobException e) {
+			throw new CorruptWorkspaceDBException(String.format(
+					"No data present for valid object %s.%s.%s",
+					info.getWorkspaceId(), info.getObjectId(),
+					info.getVersion()), e);
+		}
+	}
+	
 	private ByteArrayFileCache getDataSubSet(final ByteArrayFileCache data,
-			final ObjectPaths paths, final ByteArrayFileCacheManager bafcMan)
+			final ObjectPaths paths, final ByteArrayFileCacheManager bafcMan,
+			final MongoObjectInfo info)
 			throws TypedObjectExtractionException,
 			WorkspaceCommunicationException {
 		if (paths == null || paths.isEmpty()) {
 			return data;
 		}
 		try {
-			return bafcMan.getSubdataExtraction(data, paths);
+			return bafcMan.getSubdataExtraction(data, paths,
+					getSubsetIndex(info, bafcMan));
 		} catch (FileCacheIOException e) {
 			throw new WorkspaceCommunicationException(
 					e.getLocalizedMessage(), e);
@@ -2494,7 +3857,73 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			throw new IllegalArgumentException( //shouldn't happen if size was checked correctly beforehand
 					"Too much data requested from the workspace at once; " +
 					"data requested including subsets exceeds maximum of "
-					+ bafcMan.getMaxSizeOnDisk());
+					+ bafcMan.getMaxSizeOnDisk(), e);
+		}
+	}
+	
+	/* Gets the index of the structure of an object's data, or null if the
+	 * object has no index or the index can't be read, in which case the
+	 * subset is extracted from the entire object.
+	 */
+	private JsonStructureIndex getSubsetIndex(final MongoObjectInfo info,
+			final ByteArrayFileCacheManager bafcMan)
+			throws WorkspaceCommunicationException {
+		final long minSize = rescfg.getSubsetIndexMinObjectSize();
+		if (minSize < 1 || info.getSize() < minSize) {
+			return null;
+		}
+		final DBObject td;
+		try {
+			td = wsmongo.getCollection(TypeData.getTypeCollection(
+					TypeDefId.fromTypeString(info.getTypeString())))
+					.findOne(new BasicDBObject(Fields.TYPE_CHKSUM,
+							info.getCheckSum()),
+							new BasicDBObject(Fields.TYPE_SUBSET_INDEX, 1));
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		if (td == null || td.get(Fields.TYPE_SUBSET_INDEX) == null) {
+			return null;
+		}
+		final String indexMD5 = (String) td.get(Fields.TYPE_SUBSET_INDEX);
+		final JsonStructureIndex cached =
+				subsetIndexCache.getIfPresent(indexMD5);
+		if (cached != null) {
+			return cached;
+		}
+		ByteArrayFileCache idx = null;
+		try {
+			idx = blob.getBlob(new MD5(indexMD5), bafcMan);
+			final Reader r = idx.getJSON();
+			final JsonStructureIndex index;
+			try {
+				index = JsonStructureIndex.read(r);
+			} finally {
+				r.close();
+			}
+			subsetIndexCache.put(indexMD5, index);
+			return index;
+		} catch (IOException ioe) {
+			return null;
+		} catch (FileCacheIOException e) {
+			throw new WorkspaceCommunicationException(
+					e.getLocalizedMessage(), e);
+		} catch (FileCacheLimitExceededException e) {
+			return null;
+		} catch (BlobStoreCommunicationException e) {
+			throw new WorkspaceCommunicationException(
+					e.getLocalizedMessage(), e);
+		} catch (BlobStoreAuthorizationException e) {
+			throw new WorkspaceCommunicationException(
+					"Authorization error communicating with the backend storage system",
+					e);
+		} catch (NoSuchBlobException e) {
+			return null;
+		} finally {
+			if (idx != null) {
+				idx.destroy();
+			}
 		}
 	}
 
@@ -2590,18 +4019,14 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			Fields.VER_WS_ID, Fields.VER_ID, Fields.VER_VER,
 			Fields.VER_VER, Fields.VER_TYPE, Fields.VER_META,
 			Fields.VER_SAVEDATE, Fields.VER_SAVEDBY,
-			Fields.VER_CHKSUM, Fields.VER_SIZE,
-			Fields.VER_PROVREF, Fields.VER_REF);
+			Fields.VER_CHKSUM, Fields.VER_SIZE);
 	
 	@Override
 	public Map<ObjectIDResolvedWS, Set<ObjectInformation>>
-			getReferencingObjects(final PermissionSet perms,
+			getReferencingObjects(final WorkspaceUser user,
 					final Set<ObjectIDResolvedWS> objs)
-		throws NoSuchObjectException, WorkspaceCommunicationException {
-		final List<Long> wsids = new LinkedList<Long>();
-		for (final ResolvedWorkspaceID ws: perms.getWorkspaces()) {
-			wsids.add(ws.getID());
-		}
+			throws NoSuchObjectException, WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
 		final Map<ObjectIDResolvedWS, ResolvedMongoObjectID> resobjs =
 				resolveObjectIDs(objs);
 		verifyVersions(new HashSet<ResolvedMongoObjectID>(resobjs.values()));
@@ -2615,6 +4040,68 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			}
 			ref2id.get(ref).add(oi);
 		}
+		final Map<ObjectIDResolvedWS, Set<ObjectInformation>> ret = 
+				new HashMap<ObjectIDResolvedWS, Set<ObjectInformation>>();
+		for (final ObjectIDResolvedWS o: objs) {
+			ret.put(o, new HashSet<ObjectInformation>());
+		}
+		if (!isReferrersBuilt()) {
+			addReferencingObjectsFromVersions(user, ref2id, ret);
+			return ret;
+		}
+		final DBObject q = new BasicDBObject(Fields.REFERRER_TARGET,
+				new BasicDBObject("$in", ref2id.keySet()));
+		final DBObject proj = new BasicDBObject(Fields.MONGO_ID, 0);
+		proj.put(Fields.REFERRER_TARGET, 1);
+		proj.put(Fields.REFERRER_WS_ID, 1);
+		proj.put(Fields.REFERRER_ID, 1);
+		proj.put(Fields.REFERRER_VER, 1);
+		DBCursor cur = null;
+		try {
+			cur = wsmongo.getCollection(COL_REFERRERS).find(q, proj)
+					.batchSize(REFERRER_PAGE_SIZE);
+			final List<DBObject> page = new LinkedList<DBObject>();
+			while (cur.hasNext()) {
+				page.add(cur.next());
+				if (page.size() >= REFERRER_PAGE_SIZE) {
+					addReferencingObjects(user, page, ref2id, ret);
+					page.clear();
+				}
+			}
+			addReferencingObjects(user, page, ref2id, ret);
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		} finally {
+			if (cur != null) {
+				cur.close();
+			}
+		}
+		return ret;
+	}
+	
+	private static final Set<String> FLDS_GETREFOBJ_REFS = newHashSet(
+			Fields.VER_WS_ID, Fields.VER_ID, Fields.VER_VER,
+			Fields.VER_VER, Fields.VER_TYPE, Fields.VER_META,
+			Fields.VER_SAVEDATE, Fields.VER_SAVEDBY,
+			Fields.VER_CHKSUM, Fields.VER_SIZE,
+			Fields.VER_PROVREF, Fields.VER_REF);
+	
+	/* Used until the referrer collection is built. Searches the versions in
+	 * every workspace the user can read for the references.
+	 */
+	private void addReferencingObjectsFromVersions(
+			final WorkspaceUser user,
+			final Map<String, Set<ObjectIDResolvedWS>> ref2id,
+			final Map<ObjectIDResolvedWS, Set<ObjectInformation>> ret)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		final PermissionSet perms = getPermissions(
+				user, Permission.READ, false);
+		final List<Long> wsids = new LinkedList<Long>();
+		for (final ResolvedWorkspaceID ws: perms.getWorkspaces()) {
+			wsids.add(ws.getID());
+		}
 		final DBObject q = new BasicDBObject(Fields.VER_WS_ID,
 				new BasicDBObject("$in", wsids));
 		q.put("$or", Arrays.asList(
@@ -2623,14 +4110,9 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				new BasicDBObject(Fields.VER_PROVREF,
 						new BasicDBObject("$in", ref2id.keySet()))));
 		final List<Map<String, Object>> vers = query.queryCollection(
-				COL_WORKSPACE_VERS, q, FLDS_GETREFOBJ);
+				COL_WORKSPACE_VERS, q, FLDS_GETREFOBJ_REFS);
 		final Map<Map<String, Object>, ObjectInformation> voi =
 				generateObjectInfo(perms, vers, true, false, false, true);
-		final Map<ObjectIDResolvedWS, Set<ObjectInformation>> ret = 
-				new HashMap<ObjectIDResolvedWS, Set<ObjectInformation>>();
-		for (final ObjectIDResolvedWS o: objs) {
-			ret.put(o, new HashSet<ObjectInformation>());
-		}
 		for (final Map<String, Object> ver: voi.keySet()) {
 			@SuppressWarnings("unchecked")
 			final List<String> refs = (List<String>) ver.get(Fields.VER_REF);
@@ -2648,7 +4130,89 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 				}
 			}
 		}
-		return ret;
+	}
+	
+	/* Only the workspaces in the page of referrers are checked for
+	 * permissions, so the cost of the lookup depends on the number of
+	 * referrers rather than the number of workspaces the user can read.
+	 */
+	private void addReferencingObjects(
+			final WorkspaceUser user,
+			final List<DBObject> referrers,
+			final Map<String, Set<ObjectIDResolvedWS>> ref2id,
+			final Map<ObjectIDResolvedWS, Set<ObjectInformation>> ret)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		if (referrers.isEmpty()) {
+			return;
+		}
+		final Set<WorkspaceIdentifier> wsis =
+				new HashSet<WorkspaceIdentifier>();
+		for (final DBObject r: referrers) {
+			wsis.add(new WorkspaceIdentifier(
+					(Long) r.get(Fields.REFERRER_WS_ID)));
+		}
+		final Set<ResolvedWorkspaceID> rwsis =
+				new HashSet<ResolvedWorkspaceID>();
+		try {
+			for (final ResolvedWorkspaceID rwsi: resolveWorkspaces(
+					wsis, true, true).values()) {
+				if (!rwsi.isDeleted()) {
+					rwsis.add(rwsi);
+				}
+			}
+		} catch (NoSuchWorkspaceException nswe) {
+			throw new RuntimeException(
+					"Threw a NoSuchWorkspaceException when explicitly told not to",
+					nswe);
+		}
+		if (rwsis.isEmpty()) { //an empty set means all workspaces
+			return;
+		}
+		final PermissionSet perms = getPermissions(
+				user, rwsis, Permission.READ, false);
+		final Set<Long> readable = new HashSet<Long>();
+		for (final ResolvedWorkspaceID rwsi: perms.getWorkspaces()) {
+			readable.add(rwsi.getID());
+		}
+		final Map<String, Set<String>> ver2targets =
+				new HashMap<String, Set<String>>();
+		final List<DBObject> orquery = new LinkedList<DBObject>();
+		for (final DBObject r: referrers) {
+			final Long wsid = (Long) r.get(Fields.REFERRER_WS_ID);
+			if (!readable.contains(wsid)) {
+				continue;
+			}
+			final Long id = (Long) r.get(Fields.REFERRER_ID);
+			final Integer ver = (Integer) r.get(Fields.REFERRER_VER);
+			final String verref = wsid + "/" + id + "/" + ver;
+			if (!ver2targets.containsKey(verref)) {
+				ver2targets.put(verref, new HashSet<String>());
+				final DBObject vq = new BasicDBObject(Fields.VER_WS_ID, wsid);
+				vq.put(Fields.VER_ID, id);
+				vq.put(Fields.VER_VER, ver);
+				orquery.add(vq);
+			}
+			ver2targets.get(verref).add(
+					(String) r.get(Fields.REFERRER_TARGET));
+		}
+		if (orquery.isEmpty()) {
+			return;
+		}
+		final List<Map<String, Object>> vers = query.queryCollection(
+				COL_WORKSPACE_VERS, new BasicDBObject("$or", orquery),
+				FLDS_GETREFOBJ);
+		final Map<Map<String, Object>, ObjectInformation> voi =
+				generateObjectInfo(perms, vers, true, false, false, true);
+		for (final Map<String, Object> ver: voi.keySet()) {
+			final String verref = ver.get(Fields.VER_WS_ID) + "/" +
+					ver.get(Fields.VER_ID) + "/" + ver.get(Fields.VER_VER);
+			for (final String ref: ver2targets.get(verref)) {
+				for (final ObjectIDResolvedWS oi: ref2id.get(ref)) {
+					ret.get(oi).add(voi.get(ver));
+				}
+			}
+		}
 	}
 	
 	private static final Set<String> FLDS_REF_CNT = newHashSet(
@@ -2682,33 +4246,44 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		return ret;
 	}
 	
-	private Map<ObjectId, MongoProvenance> getProvenance(
+	private Map<ResolvedMongoObjectID, MongoProvenance> getProvenance(
 			final Map<ResolvedMongoObjectID, Map<String, Object>> vers)
 			throws WorkspaceCommunicationException {
-		final Map<ObjectId, Map<String, Object>> provIDs =
-				new HashMap<ObjectId, Map<String,Object>>();
+		//provenance may be shared between versions, so fetch each document
+		//once and resolve the references for each version separately
+		final Set<ObjectId> provIDs = new HashSet<ObjectId>();
 		for (final ResolvedMongoObjectID id: vers.keySet()) {
-			provIDs.put((ObjectId) vers.get(id).get(Fields.VER_PROV),
-					vers.get(id));
+			provIDs.add((ObjectId) vers.get(id).get(Fields.VER_PROV));
 		}
-		final Map<ObjectId, MongoProvenance> ret =
+		final Map<ObjectId, MongoProvenance> provs =
 				new HashMap<ObjectId, MongoProvenance>();
 		try {
-			final Iterable<MongoProvenance> provs =
+			final Iterable<MongoProvenance> res =
 					wsjongo.getCollection(COL_PROVENANCE)
-					.find("{_id: {$in: #}}", provIDs.keySet())
+					.find("{_id: {$in: #}}", provIDs)
 					.as(MongoProvenance.class);
-			for (MongoProvenance p: provs) {
-				@SuppressWarnings("unchecked")
-				final List<String> resolvedRefs = (List<String>) provIDs
-						.get(p.getMongoId()).get(Fields.VER_PROVREF);
-				ret.put(p.getMongoId(), p);
-				p.resolveReferences(resolvedRefs); //this is a gross hack. I'm rather proud of it actually
+			for (MongoProvenance p: res) {
+				provs.put(p.getMongoId(), p);
 			}
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
 		}
+		final Map<ResolvedMongoObjectID, MongoProvenance> ret =
+				new HashMap<ResolvedMongoObjectID, MongoProvenance>();
+		for (final ResolvedMongoObjectID id: vers.keySet()) {
+			final MongoProvenance p = provs.get(
+					(ObjectId) vers.get(id).get(Fields.VER_PROV));
+			if (p != null) {
+				@SuppressWarnings("unchecked")
+				final List<String> resolvedRefs = (List<String>)
+						vers.get(id).get(Fields.VER_PROVREF);
+				// versions saved before the date was recorded per version
+				// use the date of the provenance document
+				ret.put(id, p.resolveReferences(resolvedRefs,
+						(Date) vers.get(id).get(Fields.VER_PROV_DATE)));
+			}
+		}
 		return ret;
 	}
 	
@@ -2791,6 +4366,102 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			final boolean showOnlyDeleted, final boolean showAllVers,
 			final boolean includeMetadata, final int skip, final int limit)
 			throws WorkspaceCommunicationException {
+		final DBObject verq = buildListObjectsQuery(
+				pset, type, savedby, meta, after, before);
+		if (verq == null) {
+			return new LinkedList<ObjectInformation>();
+		}
+		final List<Map<String, Object>> verobjs = query.queryCollection(
+				COL_WORKSPACE_VERS, verq, getListObjectsFields(includeMetadata),
+				skip, limit);
+		if (verobjs.isEmpty()) {
+			return new LinkedList<ObjectInformation>();
+		}
+		return new LinkedList<ObjectInformation>(
+				generateObjectInfo(pset, verobjs, showHidden, showDeleted,
+				showOnlyDeleted, showAllVers).values());
+	}
+	
+	private static final DBObject SORT_VER;
+	static {
+		SORT_VER = new BasicDBObject(Fields.VER_WS_ID, 1);
+		SORT_VER.put(Fields.VER_ID, 1);
+		SORT_VER.put(Fields.VER_VER, 1);
+	}
+	
+	@Override
+	public ResultPage<ObjectInformation> getObjectInformation(
+			final PermissionSet pset, final TypeDefId type,
+			final List<WorkspaceUser> savedby, final Map<String, String> meta,
+			final Date after, final Date before,
+			final boolean showHidden, final boolean showDeleted,
+			final boolean showOnlyDeleted, final boolean showAllVers,
+			final boolean includeMetadata, final ContinuationToken start,
+			final int limit)
+			throws WorkspaceCommunicationException {
+		if (start != null && !start.isObjectToken()) {
+			throw new IllegalArgumentException(
+					"The continuation token is not for a list of objects");
+		}
+		final DBObject verq = buildListObjectsQuery(
+				pset, type, savedby, meta, after, before);
+		if (verq == null) {
+			return new ResultPage<ObjectInformation>(
+					new LinkedList<ObjectInformation>(), null);
+		}
+		if (start != null) {
+			// the $or walks the unique ws/id/ver index from the start point
+			final long ws = start.getWorkspaceID();
+			final long id = start.getObjectID();
+			final DBObject sameobj = new BasicDBObject(Fields.VER_WS_ID, ws);
+			sameobj.put(Fields.VER_ID, id);
+			sameobj.put(Fields.VER_VER, new BasicDBObject(
+					"$gt", start.getVersion()));
+			final DBObject samews = new BasicDBObject(Fields.VER_WS_ID, ws);
+			samews.put(Fields.VER_ID, new BasicDBObject("$gt", id));
+			addAndClause(verq, new BasicDBObject("$or", Arrays.asList(
+					sameobj, samews, new BasicDBObject(Fields.VER_WS_ID,
+							new BasicDBObject("$gt", ws)))));
+		}
+		final List<Map<String, Object>> verobjs = query.queryCollection(
+				COL_WORKSPACE_VERS, verq, getListObjectsFields(includeMetadata),
+				SORT_VER, limit);
+		final Map<Map<String, Object>, ObjectInformation> info =
+				generateObjectInfo(pset, verobjs, showHidden, showDeleted,
+						showOnlyDeleted, showAllVers);
+		final List<ObjectInformation> ret = new LinkedList<ObjectInformation>();
+		for (final Map<String, Object> v: verobjs) {
+			if (info.containsKey(v)) {
+				ret.add(info.get(v));
+			}
+		}
+		// versions are filtered out in generateObjectInfo, so continue from
+		// the last version retrieved rather than the last one returned
+		ContinuationToken next = null;
+		if (limit > 0 && verobjs.size() == limit) {
+			final Map<String, Object> last = verobjs.get(verobjs.size() - 1);
+			next = ContinuationToken.forObject(
+					(Long) last.get(Fields.VER_WS_ID),
+					(Long) last.get(Fields.VER_ID),
+					(Integer) last.get(Fields.VER_VER));
+		}
+		return new ResultPage<ObjectInformation>(ret, next);
+	}
+	
+	private Set<String> getListObjectsFields(final boolean includeMetadata) {
+		if (includeMetadata) {
+			final Set<String> fields = new HashSet<String>(FLDS_LIST_OBJ_VER);
+			fields.add(Fields.VER_META);
+			return fields;
+		}
+		return FLDS_LIST_OBJ_VER;
+	}
+	
+	// returns null if no objects can match the query
+	private DBObject buildListObjectsQuery(
+			final PermissionSet pset, final TypeDefId type,
+			final List<WorkspaceUser> savedby, final Map<String, String> meta,
+			final Date after, final Date before) {
 		/* Could make this method more efficient by doing different queries
 		 * based on the filters. If there's no filters except the workspace,
 		 * for example, just grab all the objects for the workspaces,
@@ -2804,7 +4475,7 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 					pset.getClass().getName());
 		}
 		if (pset.isEmpty()) {
-			return new LinkedList<ObjectInformation>();
+			return null;
 		}
 		final Set<Long> ids = new HashSet<Long>();
 		for (final ResolvedWorkspaceID rwsi: pset.getWorkspaces()) {
@@ -2813,22 +4484,42 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		final DBObject verq = new BasicDBObject();
 		verq.put(Fields.VER_WS_ID, new BasicDBObject("$in", ids));
 		if (type != null) {
-			verq.put(Fields.VER_TYPE,
+			if (type.getMd5() != null) {
+				// versions record the type version, never the md5
+				return null;
+			}
+			final DBObject typeq = new BasicDBObject();
+			typeq.put(Fields.VER_TYPE_MODULE, type.getType().getModule());
+			typeq.put(Fields.VER_TYPE_NAME, type.getType().getName());
+			if (type.getMajorVersion() != null) {
+				typeq.put(Fields.VER_TYPE_MAJOR, type.getMajorVersion());
+			}
+			if (type.getMinorVersion() != null) {
+				typeq.put(Fields.VER_TYPE_MINOR, type.getMinorVersion());
+			}
+			/* versions saved before the type fields existed, or by older
+			 * servers still running against the same database, only have
+			 * the type string.
+			 */
+			final DBObject legacyq = new BasicDBObject(Fields.VER_TYPE,
 					new BasicDBObject("$regex", "^" + type.getTypePrefix()));
+			legacyq.put(Fields.VER_TYPE_MODULE,
+					new BasicDBObject("$exists", false));
+			addAndClause(verq, new BasicDBObject("$or",
+					Arrays.asList(typeq, legacyq)));
 		}
 		if (savedby != null && !savedby.isEmpty()) {
 			verq.put(Fields.VER_SAVEDBY,
 					new BasicDBObject("$in", convertWorkspaceUsers(savedby)));
 		}
 		if (meta != null && !meta.isEmpty()) {
-			final List<DBObject> andmetaq = new LinkedList<DBObject>();
 			for (final Entry<String, String> e: meta.entrySet()) {
 				final DBObject mentry = new BasicDBObject();
 				mentry.put(Fields.META_KEY, e.getKey());
 				mentry.put(Fields.META_VALUE, e.getValue());
-				andmetaq.add(new BasicDBObject(Fields.VER_META, mentry));
+				//note more than one entry is untested
+				addAndClause(verq, new BasicDBObject(Fields.VER_META, mentry));
 			}
-			verq.put("$and", andmetaq); //note more than one entry is untested
 		}
 		if (before != null || after != null) {
 			final DBObject d = new BasicDBObject();
@@ -2840,21 +4531,21 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 			}
 			verq.put(Fields.VER_SAVEDATE, d);
 		}
-		final Set<String> fields;
-		if (includeMetadata) {
-			fields = new HashSet<String>(FLDS_LIST_OBJ_VER);
-			fields.add(Fields.VER_META);
-		} else {
-			fields = FLDS_LIST_OBJ_VER;
-		}
-		final List<Map<String, Object>> verobjs = query.queryCollection(
-				COL_WORKSPACE_VERS, verq, fields, skip, limit);
-		if (verobjs.isEmpty()) {
-			return new LinkedList<ObjectInformation>();
+		return verq;
+	}
+	
+	/* The type filter and the continuation token both need an $or, so
+	 * clauses that can't be expressed as a single field are combined under
+	 * one $and rather than replacing each other.
+	 */
+	private static void addAndClause(final DBObject query,
+			final DBObject clause) {
+		if (!query.containsField("$and")) {
+			query.put("$and", new LinkedList<DBObject>());
 		}
-		return new LinkedList<ObjectInformation>(
-				generateObjectInfo(pset, verobjs, showHidden, showDeleted,
-				showOnlyDeleted, showAllVers).values());
+		@SuppressWarnings("unchecked")
+		final List<DBObject> and = (List<DBObject>) query.get("$and");
+		and.add(clause);
 	}
 
 	private Map<Map<String, Object>, ObjectInformation> generateObjectInfo(
@@ -3307,26 +4998,123 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		}
 	}
 	
-	private static final String M_DELOBJ_WTH = String.format(
-			"{$set: {%s: #, %s: #}}", Fields.OBJ_DEL, Fields.OBJ_MODDATE);
+	// the maximum number of objects to delete or undelete at once
+	private static final int DELETE_PAGE_SIZE = 1000;
 	
+	/* An empty list of object IDs changes all the objects in the workspace.
+	 * The storage usage delta is calculated from the objects that were in
+	 * the expected state, so objects deleted or undeleted concurrently by
+	 * another call are only counted once.
+	 */
 	private void setObjectsDeleted(final ResolvedMongoWSID ws,
 			final List<Long> objectIDs, final boolean delete)
 			throws WorkspaceCommunicationException {
-		final String query;
+		final Date now = new Date();
 		if (objectIDs.isEmpty()) {
-			query = String.format(
-					"{%s: %s, %s: %s}", Fields.OBJ_WS_ID, ws.getID(),
-					Fields.OBJ_DEL, !delete);
-		} else {
-			query = String.format(
-					"{%s: %s, %s: {$in: [%s]}, %s: %s}",
-					Fields.OBJ_WS_ID, ws.getID(), Fields.OBJ_ID,
-					StringUtils.join(objectIDs, ", "), Fields.OBJ_DEL, !delete);
+			final DBObject q = new BasicDBObject(Fields.OBJ_WS_ID, ws.getID());
+			q.put(Fields.OBJ_DEL, !delete);
+			updateObjectsDeleted(q, delete, now);
+			moveStorageUsage(ws, delete);
+			return;
+		}
+		final UsageDelta usage = new UsageDelta();
+		for (int i = 0; i < objectIDs.size(); i += DELETE_PAGE_SIZE) {
+			setObjectsDeleted(ws, objectIDs.subList(i, Math.min(
+					i + DELETE_PAGE_SIZE, objectIDs.size())), delete, now,
+					usage);
+		}
+		updateStorageUsage(ws.getID(), usage);
+	}
+	
+	private void setObjectsDeleted(final ResolvedMongoWSID ws,
+			final List<Long> objectIDs, final boolean delete, final Date now,
+			final UsageDelta usage)
+			throws WorkspaceCommunicationException {
+		final DBObject q = new BasicDBObject(Fields.OBJ_WS_ID, ws.getID());
+		q.put(Fields.OBJ_ID, new BasicDBObject("$in", objectIDs));
+		q.put(Fields.OBJ_DEL, !delete);
+		List<Long> found = getObjectIDs(q);
+		if (found.isEmpty()) {
+			return;
 		}
+		q.put(Fields.OBJ_ID, new BasicDBObject("$in", found));
+		final int changed = updateObjectsDeleted(q, delete, now);
+		if (changed != found.size()) {
+			// another call changed some of the objects, so only count the
+			// ones marked with this call's date
+			final DBObject mq = new BasicDBObject(
+					Fields.OBJ_WS_ID, ws.getID());
+			mq.put(Fields.OBJ_ID, new BasicDBObject("$in", found));
+			mq.put(Fields.OBJ_DEL, delete);
+			mq.put(Fields.OBJ_MODDATE, now);
+			found = getObjectIDs(mq);
+			if (found.isEmpty()) {
+				return;
+			}
+		}
+		final DBObject vq = new BasicDBObject(Fields.VER_WS_ID, ws.getID());
+		vq.put(Fields.VER_ID, new BasicDBObject("$in", found));
+		final List<Map<String, Object>> vers = query.queryCollection(
+				COL_WORKSPACE_VERS, vq, FLDS_VER_SIZE);
+		usage.move(delete, found.size(), vers.size(), getVersionsSize(vers));
+	}
+	
+	private List<Long> getObjectIDs(final DBObject q)
+			throws WorkspaceCommunicationException {
+		final List<Long> ids = new ArrayList<Long>();
+		for (final Map<String, Object> o: query.queryCollection(
+				COL_WORKSPACE_OBJS, q, FLDS_OBJ_ID)) {
+			ids.add(((Number) o.get(Fields.OBJ_ID)).longValue());
+		}
+		return ids;
+	}
+	
+	// returns the number of objects changed
+	private int updateObjectsDeleted(final DBObject q, final boolean delete,
+			final Date now) throws WorkspaceCommunicationException {
+		final DBObject set = new BasicDBObject(Fields.OBJ_DEL, delete);
+		set.put(Fields.OBJ_MODDATE, now);
 		try {
-			wsjongo.getCollection(COL_WORKSPACE_OBJS).update(query).multi()
-					.with(M_DELOBJ_WTH, delete, new Date());
+			return wsmongo.getCollection(COL_WORKSPACE_OBJS).update(q,
+					new BasicDBObject("$set", set), false, true).getN();
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+	}
+	
+	/* Moves all the usage of a workspace to deleted, or from deleted to
+	 * live, when every object in the workspace changes state. The usage
+	 * document is only replaced if it hasn't changed since it was read, so
+	 * concurrent increments aren't lost.
+	 */
+	private void moveStorageUsage(final ResolvedMongoWSID ws,
+			final boolean delete) throws WorkspaceCommunicationException {
+		final DBCollection col = wsmongo.getCollection(COL_WORKSPACES);
+		final DBObject wsq = new BasicDBObject(Fields.WS_ID, ws.getID());
+		final DBObject proj = new BasicDBObject(Fields.WS_USAGE, 1);
+		try {
+			while (true) {
+				final DBObject wsdoc = col.findOne(wsq, proj);
+				final DBObject cur = wsdoc == null ? null :
+						(DBObject) wsdoc.get(Fields.WS_USAGE);
+				if (cur == null) {
+					// not calculated yet
+					return;
+				}
+				final StorageUsage su = UsageDelta.toStorageUsage(cur);
+				final UsageDelta moved = new UsageDelta();
+				moved.add(delete, su.getObjects() + su.getDeletedObjects(),
+						su.getVersions() + su.getDeletedVersions(),
+						su.getBytes() + su.getDeletedBytes());
+				final DBObject q = new BasicDBObject(Fields.WS_ID, ws.getID());
+				q.put(Fields.WS_USAGE, cur);
+				if (col.update(q, new BasicDBObject("$set", new BasicDBObject(
+						Fields.WS_USAGE, moved.toDBObject()))).getN() == 1) {
+					return;
+				}
+				//the usage changed between the read and the update, try again
+			}
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
@@ -3351,10 +5139,79 @@ public class MongoWorkspaceDB implements WorkspaceDatabase {
 		} catch (MongoException me) {
 			throw new WorkspaceCommunicationException(
 					"There was a problem communicating with the database", me);
+		} finally {
+			wsCache.invalidate(mrwsi.getID());
 		}
 		setObjectsDeleted(mrwsi, new ArrayList<Long>(), delete);
 	}
 	
+	private static final Set<String> FLDS_WS_ID = newHashSet(Fields.WS_ID);
+	private static final Set<String> FLDS_WS_USAGE = newHashSet(
+			Fields.WS_USAGE);
+	
+	@Override
+	public StorageUsage getStorageUsage(final ResolvedWorkspaceID rwsi)
+			throws WorkspaceCommunicationException,
+			CorruptWorkspaceDBException {
+		final Map<String, Object> ws = query.queryWorkspace(
+				query.convertResolvedWSID(rwsi), FLDS_WS_USAGE);
+		final DBObject usage = (DBObject) ws.get(Fields.WS_USAGE);
+		return usage == null ? null : UsageDelta.toStorageUsage(usage);
+	}
+	
+	@Override
+	public StorageUsage getStorageUsage(final WorkspaceUser owner,
+			final boolean deletedWorkspaces)
+			throws WorkspaceCommunicationException {
+		final DBObject q = new BasicDBObject(Fields.WS_OWNER, owner.getUser());
+		q.put(Fields.WS_DEL, deletedWorkspaces);
+		StorageUsage ret = new StorageUsage(0, 0, 0, 0, 0, 0);
+		for (final Map<String, Object> ws: query.queryCollection(
+				COL_WORKSPACES, q, FLDS_WS_USAGE)) {
+			final DBObject usage = (DBObject) ws.get(Fields.WS_USAGE);
+			if (usage != null) {
+				ret = ret.add(UsageDelta.toStorageUsage(usage));
+			}
+		}
+		return ret;
+	}
+	
+	@Override
+	public Long getUniqueDataSize() throws WorkspaceCommunicationException {
+		final DBObject counter;
+		try {
+			counter = wsmongo.getCollection(COL_WS_CNT).findOne(
+					new BasicDBObject(Fields.MONGO_ID,
+							Fields.CNT_ID_DATA_SIZE));
+		} catch (MongoException me) {
+			throw new WorkspaceCommunicationException(
+					"There was a problem communicating with the database", me);
+		}
+		return counter == null ? null :
+				((Number) counter.get(Fields.CNT_NUM)).longValue();
+	}
+	
+	@Override
+	public void recalculateStorageUsage(final ResolvedWorkspaceID rwsi)
+			throws WorkspaceCommunicationException {
+		setStorageUsage(rwsi.getID(), calculateStorageUsage(rwsi.getID()),
+				true);
+	}
+	
+	@Override
+	public void recalculateStorageUsage()
+			throws WorkspaceCommunicationException {
+		final List<Long> wsids = new LinkedList<Long>();
+		for (final Map<String, Object> ws: query.queryCollection(
+				COL_WORKSPACES, new BasicDBObject(), FLDS_WS_ID)) {
+			wsids.add(((Number) ws.get(Fields.WS_ID)).longValue());
+		}
+		for (final Long wsid: wsids) {
+			setStorageUsage(wsid, calculateStorageUsage(wsid), true);
+		}
+		setUniqueDataSize(calculateUniqueDataSize(), true);
+	}
+	
 	@Override
 	public Set<WorkspaceUser> getAllWorkspaceOwners()
 			throws WorkspaceCommunicationException {
@@ -0,0 +1,124 @@
+package us.kbase.workspace.database.mongo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import us.kbase.workspace.database.exceptions.WorkspaceCommunicationException;
+
+/** Assigns object IDs from blocks of IDs reserved from each workspace, so
+ * that the workspace counter in the database is only updated once per block
+ * rather than once per save. Each instance reserves its own blocks, and IDs
+ * are handed out in increasing order per instance, but IDs assigned by
+ * different instances interleave and IDs remaining in a block when the
+ * instance is discarded are never used. Since the workspace counter
+ * includes reserved IDs, so does the approximate object count reported for
+ * the workspace.
+ *
+ * The IDs for a single allocation are always contiguous; if the current
+ * block has too few IDs left, the remainder is abandoned and a new block is
+ * reserved.
+ *
+ * This class is thread safe. Allocations for different workspaces do not
+ * block each other.
+ */
+abstract class ObjectIDAllocator {
+
+	// caps memory use if many workspaces are saved to. Evicting a block
+	// just leaves a gap in the workspace's IDs.
+	private static final int MAX_WORKSPACES = 10000;
+
+	private int blockSize;
+
+	private final Map<Long, IDBlock> blocks =
+			new LinkedHashMap<Long, IDBlock>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<Long, IDBlock> eldest) {
+			return size() > MAX_WORKSPACES;
+		}
+	};
+
+	/** Create a new allocator.
+	 * @param blockSize the number of IDs to reserve at once. If 1, every
+	 * allocation reserves exactly the IDs it needs.
+	 */
+	ObjectIDAllocator(final int blockSize) {
+		setBlockSize(blockSize);
+	}
+
+	/** Set the number of IDs to reserve at once. Any currently reserved IDs
+	 * are abandoned.
+	 * @param blockSize the number of IDs to reserve at once.
+	 */
+	synchronized void setBlockSize(final int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException(
+					"Block size must be greater than zero");
+		}
+		if (blockSize != this.blockSize) {
+			this.blockSize = blockSize;
+			blocks.clear();
+		}
+	}
+
+	synchronized int getBlockSize() {
+		return blockSize;
+	}
+
+	/** Reserve IDs from the workspace in the database.
+	 * @param rwsi the workspace.
+	 * @param count the number of IDs to reserve.
+	 * @return the last reserved ID. The reserved IDs are the count IDs
+	 * ending with this ID.
+	 * @throws WorkspaceCommunicationException if a communication error
+	 * occurs.
+	 */
+	abstract long reserve(ResolvedMongoWSID rwsi, int count)
+			throws WorkspaceCommunicationException;
+
+	/** Allocate contiguous object IDs in a workspace.
+	 * @param rwsi the workspace.
+	 * @param count the number of IDs to allocate.
+	 * @return the first allocated ID.
+	 * @throws WorkspaceCommunicationException if a communication error
+	 * occurs.
+	 */
+	long allocate(final ResolvedMongoWSID rwsi, final int count)
+			throws WorkspaceCommunicationException {
+		if (count < 1) {
+			throw new IllegalArgumentException(
+					"Must allocate at least one ID");
+		}
+		final IDBlock b;
+		final int size;
+		synchronized (this) {
+			size = blockSize;
+			if (!blocks.containsKey(rwsi.getID())) {
+				blocks.put(rwsi.getID(), new IDBlock());
+			}
+			b = blocks.get(rwsi.getID());
+		}
+		synchronized (b) {
+			if (b.last - b.next + 1 >= count) {
+				final long first = b.next;
+				b.next += count;
+				return first;
+			}
+			final int reserve = Math.max(count, size);
+			final long last = reserve(rwsi, reserve);
+			final long first = last - reserve + 1;
+			b.next = first + count;
+			b.last = last;
+			return first;
+		}
+	}
+
+	private static class IDBlock {
+		// next unused ID, and the last reserved ID
+		long next = 1;
+		long last = 0;
+	}
+}
@@ -389,6 +389,20 @@ public class QueryMethods {
 			final DBObject query, final Set<String> fields, final int skip,
 			final int limit)
 			throws WorkspaceCommunicationException {
+		return queryCollection(collection, query, fields, null, skip, limit);
+	}
+	
+	List<Map<String, Object>> queryCollection(final String collection,
+			final DBObject query, final Set<String> fields,
+			final DBObject sort, final int limit)
+			throws WorkspaceCommunicationException {
+		return queryCollection(collection, query, fields, sort, -1, limit);
+	}
+	
+	private List<Map<String, Object>> queryCollection(final String collection,
+			final DBObject query, final Set<String> fields,
+			final DBObject sort, final int skip, final int limit)
+			throws WorkspaceCommunicationException {
 		final DBObject projection = new BasicDBObject();
 		for (final String field: fields) {
 			projection.put(field, 1);
@@ -398,6 +412,9 @@ public class QueryMethods {
 		try {
 			final DBCursor im = wsmongo.getCollection(collection)
 					.find(query, projection);
+			if (sort != null) {
+				im.sort(sort);
+			}
 			if (skip > -1) {
 				im.skip(skip);
 			}
@@ -11,24 +11,42 @@ public class Settings {
 	private String shockUser;
 	private String backendType;
 	private String typeDatabase;
+	private BlobCodec compression;
+	private String fileLocation;
 	
 	private static final String SHOCK = "shock";
 	private static final String GFS = "gridFS";
+	private static final String FILE = "filesystem";
 
 	@JsonCreator
 	private Settings(@JsonProperty(Fields.SET_SHOCK_LOC) final String shockUrl,
 			@JsonProperty(Fields.SET_SHOCK_USER) final String shockUser,
 			@JsonProperty(Fields.SET_BACKEND) final String backendType,
-			@JsonProperty(Fields.SET_TYPE_DB) final String typeDatabase) throws 
-			CorruptWorkspaceDBException {
+			@JsonProperty(Fields.SET_TYPE_DB) final String typeDatabase,
+			@JsonProperty(Fields.SET_COMPRESSION) final String compression,
+			@JsonProperty(Fields.SET_FILE_LOC) final String fileLocation)
+			throws CorruptWorkspaceDBException {
 		this.shockUrl = shockUrl;
 		this.shockUser = shockUser;
-		if(!(backendType.equals(SHOCK) || backendType.equals(GFS))) {
+		if(!(backendType.equals(SHOCK) || backendType.equals(GFS) ||
+				backendType.equals(FILE))) {
 			throw new CorruptWorkspaceDBException(
 					"Illegal backend type: " + backendType);
 		}
 		this.backendType = backendType;
 		this.typeDatabase = typeDatabase;
+		try {
+			this.compression = BlobCodec.fromName(compression);
+		} catch (IllegalArgumentException iae) {
+			throw new CorruptWorkspaceDBException(
+					"Illegal compression type: " + compression);
+		}
+		if (backendType.equals(FILE) &&
+				(fileLocation == null || fileLocation.isEmpty())) {
+			throw new CorruptWorkspaceDBException(
+					"No file location for the filesystem backend");
+		}
+		this.fileLocation = fileLocation;
 	}
 	
 	public String getShockUrl() {
@@ -46,15 +64,28 @@ public class Settings {
 		return backendType.equals(GFS);
 	}
 	
+	public boolean isFileSystemBackend() {
+		return backendType.equals(FILE);
+	}
+	
+	public String getFileLocation() {
+		return fileLocation;
+	}
+	
 	public String getTypeDatabase() {
 		return typeDatabase;
 	}
+	
+	public BlobCodec getCompression() {
+		return compression;
+	}
 
 	@Override
 	public String toString() {
 		return "Settings [shockUrl=" + shockUrl + ", shockUser=" + shockUser
 				+ ", backendType=" + backendType + ", typeDatabase="
-				+ typeDatabase + "]";
+				+ typeDatabase + ", compression=" + compression
+				+ ", fileLocation=" + fileLocation + "]";
 	}
 
 }
@@ -2,9 +2,12 @@ package us.kbase.workspace.database.mongo;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.concurrent.ExecutionException;
 
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
 import us.kbase.auth.AuthException;
 import us.kbase.auth.AuthToken;
 import us.kbase.auth.TokenExpiredException;
@@ -43,6 +46,7 @@ public class ShockBackend implements BlobStore {
 	private final BasicShockClient client;
 	private final DBCollection mongoCol;
 	private final RefreshingToken token;
+	private final BlobCodec codec;
 	
 	private static final int TOKEN_REFRESH_INTERVAL = 24 * 60 * 60;
 	private static final String IDX_UNIQ = "unique";
@@ -51,11 +55,31 @@ public class ShockBackend implements BlobStore {
 			final URL url, final String user, final String password)
 			throws BlobStoreAuthorizationException,
 			BlobStoreException {
+		this(mongoDB, collectionPrefix, url, user, password, BlobCodec.NONE);
+	}
+	
+	/** Create a Shock backend that compresses saved blobs.
+	 * @param mongoDB the database in which to store the Shock node map.
+	 * @param collectionPrefix the prefix for the node map collection.
+	 * @param url the Shock url.
+	 * @param user the Shock user.
+	 * @param password the Shock user's password.
+	 * @param codec the codec with which to compress new blobs.
+	 * @throws BlobStoreAuthorizationException if the user could not be
+	 * authenticated.
+	 * @throws BlobStoreException if the backend could not be initialized.
+	 */
+	public ShockBackend(final DB mongoDB, final String collectionPrefix,
+			final URL url, final String user, final String password,
+			final BlobCodec codec)
+			throws BlobStoreAuthorizationException,
+			BlobStoreException {
 		if (collectionPrefix == null || mongoDB == null || url == null
-				|| user == null || password == null) {
+				|| user == null || password == null || codec == null) {
 			throw new NullPointerException(
 					"Arguments cannot be null");
 		}
+		this.codec = codec;
 		this.mongoCol = mongoDB.getCollection(collectionPrefix +
 				COLLECTION_SUFFIX);
 		final DBObject dbo = new BasicDBObject();
@@ -174,7 +198,10 @@ public class ShockBackend implements BlobStore {
 		};
 		try {
 			//writes in UTF8
-			data.write(osis);
+			final OutputStream os =
+					codec.compress(new CloseShieldOutputStream(osis));
+			data.write(os);
+			os.close();
 		} catch (IOException ioe) {
 			//no way to test this easily, manually tested for now.
 			//be sure to test manually if making changes
@@ -216,6 +243,7 @@ public class ShockBackend implements BlobStore {
 		dbo.put(Fields.SHOCK_NODE, sn.getId().getId());
 		dbo.put(Fields.SHOCK_VER, sn.getVersion().getVersion());
 		dbo.put(Fields.SHOCK_SORTED, sorted);
+		dbo.put(Fields.SHOCK_CODEC, codec.getName());
 		final DBObject query = new BasicDBObject();
 		query.put(Fields.SHOCK_CHKSUM, md5.getMD5());
 		try {
@@ -266,6 +294,7 @@ public class ShockBackend implements BlobStore {
 		} else {
 			sorted = (Boolean)entry.get(Fields.SHOCK_SORTED);
 		}
+		final BlobCodec blobCodec = getCodec(entry);
 		
 		final OutputStreamToInputStream<ByteArrayFileCache> osis =
 				new OutputStreamToInputStream<ByteArrayFileCache>(true,
@@ -274,7 +303,12 @@ public class ShockBackend implements BlobStore {
 					
 			@Override
 			protected ByteArrayFileCache doRead(InputStream is) throws Exception {
-				return bafcMan.createBAFC(is, true, sorted);
+				final InputStream dis = blobCodec.decompress(is);
+				try {
+					return bafcMan.createBAFC(dis, true, sorted);
+				} finally {
+					dis.close();
+				}
 			}
 		};
 		try {
@@ -311,6 +345,52 @@ public class ShockBackend implements BlobStore {
 		}
 	}
 
+	private static BlobCodec getCodec(final DBObject entry) {
+		return BlobCodec.fromName((String) entry.get(Fields.SHOCK_CODEC));
+	}
+
+	@Override
+	public ByteArrayFileCache getBlobStream(final MD5 md5,
+			final ByteArrayFileCacheManager bafcMan)
+			throws BlobStoreAuthorizationException,
+			BlobStoreCommunicationException, NoSuchBlobException {
+		updateAuth();
+		final DBObject entry = getBlobEntry(md5);
+		final String node = (String)entry.get(Fields.SHOCK_NODE);
+		final boolean sorted;
+		if (!entry.containsField(Fields.SHOCK_SORTED)) {
+			sorted = false;
+		} else {
+			sorted = (Boolean)entry.get(Fields.SHOCK_SORTED);
+		}
+		final BlobCodec blobCodec = getCodec(entry);
+		return bafcMan.createStreamingBAFC(new Writable() {
+			
+			@Override
+			public void write(final OutputStream os) throws IOException {
+				try {
+					// the data may be written long after the cache was made
+					updateAuth();
+					final OutputStream dos = blobCodec.decompress(
+							new CloseShieldOutputStream(os));
+					client.getFile(new ShockNodeId(node), dos);
+					dos.close();
+				} catch (BlobStoreException bse) {
+					throw new IOException(bse.getLocalizedMessage(), bse);
+				} catch (TokenExpiredException ete) {
+					//this should be impossible
+					throw new RuntimeException("Things are broke", ete);
+				} catch (ShockHttpException she) {
+					throw new IOException("Failed to retrieve shock node: " +
+							she.getLocalizedMessage(), she);
+				}
+			}
+			
+			@Override
+			public void releaseResources() {}
+		}, sorted);
+	}
+
 	@Override
 	public void removeBlob(final MD5 md5)
 			throws BlobStoreAuthorizationException,
@@ -7,6 +7,8 @@ import java.util.Map;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import us.kbase.typedobj.core.AbsoluteTypeDefId;
+import us.kbase.typedobj.core.MD5;
+import us.kbase.typedobj.core.MD5DigestOutputStream;
 import us.kbase.typedobj.core.TypeDefId;
 import us.kbase.typedobj.core.Writable;
 
@@ -35,9 +37,21 @@ public class TypeData {
 	@JsonInclude(value=JsonInclude.Include.ALWAYS)
 	private Map<String, Object> subdata;
 	private long size;
+	@JsonInclude(value=JsonInclude.Include.NON_NULL)
+	private String subidx = null;
 	
 	public TypeData(final Writable data, final AbsoluteTypeDefId type,
 			final Map<String,Object> subdata)  {
+		this(data, type, subdata, null, -1);
+	}
+	
+	/* Use when the MD5 and size of the data are already known, to avoid
+	 * reading the data again. If md5 is null the MD5 and size are calculated
+	 * from the data.
+	 */
+	public TypeData(final Writable data, final AbsoluteTypeDefId type,
+			final Map<String,Object> subdata, final MD5 md5,
+			final long size)  {
 		if (data == null) {
 			throw new IllegalArgumentException("data may not be null");
 		}
@@ -56,21 +70,26 @@ public class TypeData {
 		this.type = type.getType().getTypeString() +
 				AbsoluteTypeDefId.TYPE_VER_SEP + type.getMajorVersion();
 		this.subdata = subdata;
-		final MD5DigestOutputStream md5 = new MD5DigestOutputStream();
+		if (md5 != null) {
+			this.size = size;
+			this.chksum = md5.getMD5();
+			return;
+		}
+		final MD5DigestOutputStream digest = new MD5DigestOutputStream();
 		try {
 			//writes in UTF8
-			data.write(md5);
+			data.write(digest);
 		} catch (IOException ioe) {
 			throw new RuntimeException("something is broken here", ioe);
 		} finally {
 			try {
-				md5.close();
+				digest.close();
 			} catch (IOException ioe) {
 				throw new RuntimeException("something is broken here", ioe);
 			}
 		}
-		this.size = md5.getSize();
-		this.chksum = md5.getMD5().getMD5();
+		this.size = digest.getSize();
+		this.chksum = digest.getMD5().getMD5();
 	}
 	
 	public String getTypeCollection() {
@@ -108,11 +127,23 @@ public class TypeData {
 	public long getSize() {
 		return size;
 	}
+	
+	/** Record the MD5 of the blob containing the index of the structure of
+	 * the data.
+	 * @param md5 the MD5 of the index.
+	 */
+	public void setSubsetIndex(final MD5 md5) {
+		subidx = md5.getMD5();
+	}
+	
+	public String getSubsetIndex() {
+		return subidx;
+	}
 
 	@Override
 	public String toString() {
 		return "TypeData [data=" + data + ", type=" + type
 				+ ", chksum=" + chksum + ", subdata=" + subdata + ", size="
-				+ size + "]";
+				+ size + ", subidx=" + subidx + "]";
 	}
 }
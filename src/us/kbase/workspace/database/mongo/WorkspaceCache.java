@@ -0,0 +1,252 @@
+package us.kbase.workspace.database.mongo;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import us.kbase.workspace.database.Permission;
+import us.kbase.workspace.database.WorkspaceIdentifier;
+
+/** An in process cache of resolved workspace IDs, workspace name to ID
+ * mappings, and workspace permissions. Entries expire after a fixed time to
+ * live. Changes made through this server invalidate the affected entries
+ * immediately, but changes made by other servers sharing the database are
+ * only seen once the entries expire.
+ *
+ * Values read from the database are only added to the cache if no entries
+ * were invalidated between the start of the read and the addition, so a
+ * read that races a change can't reinstate stale values.
+ *
+ * This class is thread safe.
+ */
+class WorkspaceCache {
+
+	// caps memory use if many workspaces are accessed within the TTL
+	private static final int MAX_ENTRIES = 100000;
+
+	private long ttlNanos;
+	// incremented on every invalidation
+	private long generation = 0;
+
+	private final Map<Long, Entry<ResolvedMongoWSID>> workspaces =
+			new HashMap<Long, Entry<ResolvedMongoWSID>>();
+	private final Map<String, Entry<Long>> names =
+			new HashMap<String, Entry<Long>>();
+	// workspace id -> user name -> permission
+	private final Map<Long, Map<String, Entry<Permission>>> perms =
+			new HashMap<Long, Map<String, Entry<Permission>>>();
+	private int permCount = 0;
+
+	/** Create a new cache.
+	 * @param ttlMillis the time to live of cache entries in milliseconds. If
+	 * 0, the cache is disabled.
+	 */
+	WorkspaceCache(final long ttlMillis) {
+		setTimeToLive(ttlMillis);
+	}
+
+	/** Set the time to live of cache entries. Clears the cache.
+	 * @param ttlMillis the time to live of cache entries in milliseconds. If
+	 * 0, the cache is disabled.
+	 */
+	synchronized void setTimeToLive(final long ttlMillis) {
+		if (ttlMillis < 0) {
+			throw new IllegalArgumentException(
+					"Cache time to live cannot be negative");
+		}
+		ttlNanos = ttlMillis * 1000000;
+		clear();
+	}
+
+	synchronized boolean isEnabled() {
+		return ttlNanos > 0;
+	}
+
+	/** Get the current generation of the cache. Pass the generation
+	 * retrieved prior to reading from the database to the put methods.
+	 * @return the cache generation.
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	/** Get a resolved workspace.
+	 * @param wsi the identifier of the workspace.
+	 * @return the resolved workspace or null if it is not cached.
+	 */
+	synchronized ResolvedMongoWSID getWorkspace(
+			final WorkspaceIdentifier wsi) {
+		if (!isEnabled()) {
+			return null;
+		}
+		final long now = System.nanoTime();
+		final Long id;
+		if (wsi.getId() != null) {
+			id = wsi.getId();
+		} else {
+			final Entry<Long> e = names.get(wsi.getName());
+			if (e == null) {
+				return null;
+			}
+			if (e.isExpired(now)) {
+				names.remove(wsi.getName());
+				return null;
+			}
+			id = e.value;
+		}
+		final Entry<ResolvedMongoWSID> e = workspaces.get(id);
+		if (e == null) {
+			return null;
+		}
+		if (e.isExpired(now)) {
+			workspaces.remove(id);
+			return null;
+		}
+		if (wsi.getName() != null && !wsi.getName().equals(e.value.getName())) {
+			return null;
+		}
+		return e.value;
+	}
+
+	/** Add a resolved workspace to the cache.
+	 * @param rwsi the resolved workspace.
+	 * @param generation the cache generation prior to resolving the
+	 * workspace.
+	 */
+	synchronized void putWorkspace(final ResolvedMongoWSID rwsi,
+			final long generation) {
+		if (!isEnabled() || generation != this.generation) {
+			return;
+		}
+		if (workspaces.size() >= MAX_ENTRIES) {
+			purgeExpired();
+		}
+		final long expires = System.nanoTime() + ttlNanos;
+		workspaces.put(rwsi.getID(),
+				new Entry<ResolvedMongoWSID>(rwsi, expires));
+		names.put(rwsi.getName(), new Entry<Long>(rwsi.getID(), expires));
+	}
+
+	/** Get a user's permission to a workspace.
+	 * @param wsid the ID of the workspace.
+	 * @param user the name of the user.
+	 * @return the permission, which is NONE if the user has no permission to
+	 * the workspace, or null if the permission is not cached.
+	 */
+	synchronized Permission getPermission(final long wsid, final String user) {
+		if (!isEnabled()) {
+			return null;
+		}
+		final Map<String, Entry<Permission>> wsperms = perms.get(wsid);
+		if (wsperms == null) {
+			return null;
+		}
+		final Entry<Permission> e = wsperms.get(user);
+		if (e == null) {
+			return null;
+		}
+		if (e.isExpired(System.nanoTime())) {
+			wsperms.remove(user);
+			permCount--;
+			return null;
+		}
+		return e.value;
+	}
+
+	/** Add a user's permission to a workspace to the cache.
+	 * @param wsid the ID of the workspace.
+	 * @param user the name of the user.
+	 * @param perm the permission, which should be NONE if the user has no
+	 * permission to the workspace.
+	 * @param generation the cache generation prior to reading the
+	 * permission.
+	 */
+	synchronized void putPermission(final long wsid, final String user,
+			final Permission perm, final long generation) {
+		if (!isEnabled() || generation != this.generation) {
+			return;
+		}
+		if (permCount >= MAX_ENTRIES) {
+			purgeExpired();
+		}
+		if (!perms.containsKey(wsid)) {
+			perms.put(wsid, new HashMap<String, Entry<Permission>>());
+		}
+		final Entry<Permission> old = perms.get(wsid).put(user,
+				new Entry<Permission>(perm, System.nanoTime() + ttlNanos));
+		if (old == null) {
+			permCount++;
+		}
+	}
+
+	/** Remove all entries for a workspace from the cache. Call this method
+	 * after altering a workspace's name, state or permissions.
+	 * @param wsid the ID of the workspace.
+	 */
+	synchronized void invalidate(final long wsid) {
+		generation++;
+		final Entry<ResolvedMongoWSID> e = workspaces.remove(wsid);
+		if (e != null) {
+			names.remove(e.value.getName());
+		}
+		final Map<String, Entry<Permission>> wsperms = perms.remove(wsid);
+		if (wsperms != null) {
+			permCount -= wsperms.size();
+		}
+	}
+
+	/** Remove all entries from the cache. */
+	synchronized void clear() {
+		generation++;
+		workspaces.clear();
+		names.clear();
+		perms.clear();
+		permCount = 0;
+	}
+
+	// if nothing has expired, start over rather than grow without bound
+	private void purgeExpired() {
+		final long now = System.nanoTime();
+		purgeExpired(workspaces, now);
+		purgeExpired(names, now);
+		final Iterator<Map<String, Entry<Permission>>> i =
+				perms.values().iterator();
+		permCount = 0;
+		while (i.hasNext()) {
+			final Map<String, Entry<Permission>> wsperms = i.next();
+			purgeExpired(wsperms, now);
+			if (wsperms.isEmpty()) {
+				i.remove();
+			}
+			permCount += wsperms.size();
+		}
+		if (workspaces.size() >= MAX_ENTRIES || permCount >= MAX_ENTRIES) {
+			clear();
+		}
+	}
+
+	private static <K, V> void purgeExpired(final Map<K, Entry<V>> map,
+			final long now) {
+		final Iterator<Entry<V>> i = map.values().iterator();
+		while (i.hasNext()) {
+			if (i.next().isExpired(now)) {
+				i.remove();
+			}
+		}
+	}
+
+	private static class Entry<T> {
+
+		private final T value;
+		private final long expires;
+
+		private Entry(final T value, final long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+
+		private boolean isExpired(final long now) {
+			return now - expires >= 0;
+		}
+	}
+}
@@ -1,7 +1,15 @@
 package us.kbase.workspace.kbase;
 
+import static us.kbase.workspace.kbase.ArgUtils.convertUsers;
+import static us.kbase.workspace.kbase.ArgUtils.formatDate;
+import static us.kbase.workspace.kbase.ArgUtils.getGlobalWSPerm;
+import static us.kbase.workspace.kbase.ArgUtils.longToBoolean;
+import static us.kbase.workspace.kbase.ArgUtils.longToInt;
+import static us.kbase.workspace.kbase.ArgUtils.objInfoToTuple;
+import static us.kbase.workspace.kbase.ArgUtils.parseDate;
 import static us.kbase.workspace.kbase.ArgUtils.wsInfoToTuple;
 import static us.kbase.workspace.kbase.KBaseIdentifierFactory.processWorkspaceIdentifier;
+import static us.kbase.workspace.kbase.KBasePermissions.translatePermission;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
@@ -9,6 +17,8 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,10 +32,12 @@ import us.kbase.auth.AuthService;
 import us.kbase.auth.AuthToken;
 import us.kbase.common.service.JacksonTupleModule;
 import us.kbase.common.service.UObject;
+import us.kbase.typedobj.core.TypeDefId;
 import us.kbase.typedobj.exceptions.NoSuchPrivilegeException;
 import us.kbase.typedobj.exceptions.TypeStorageException;
 import us.kbase.typedobj.exceptions.TypedObjectSchemaException;
 import us.kbase.typedobj.exceptions.TypedObjectValidationException;
+import us.kbase.workspace.CloneWorkspaceParams;
 import us.kbase.workspace.CreateWorkspaceParams;
 import us.kbase.workspace.GrantModuleOwnershipParams;
 import us.kbase.workspace.ListWorkspaceInfoParams;
@@ -34,8 +46,14 @@ import us.kbase.workspace.SaveObjectsParams;
 import us.kbase.workspace.SetGlobalPermissionsParams;
 import us.kbase.workspace.SetPermissionsParams;
 import us.kbase.workspace.WorkspaceIdentity;
+import us.kbase.workspace.database.CloneJob;
+import us.kbase.workspace.database.ObjectInformation;
+import us.kbase.workspace.database.Permission;
+import us.kbase.workspace.database.ResultPage;
+import us.kbase.workspace.database.StorageUsage;
 import us.kbase.workspace.database.Workspace;
 import us.kbase.workspace.database.WorkspaceIdentifier;
+import us.kbase.workspace.database.WorkspaceInformation;
 import us.kbase.workspace.database.WorkspaceUser;
 import us.kbase.workspace.database.exceptions.CorruptWorkspaceDBException;
 import us.kbase.workspace.database.exceptions.NoSuchObjectException;
@@ -157,6 +175,65 @@ public class WorkspaceAdministration {
 			final ListWorkspaceInfoParams params = getParams(cmd, ListWorkspaceInfoParams.class);
 			return wsmeth.listWorkspaceInfo(params, getUser(cmd, token));
 		}
+		if ("listWorkspacesPage".equals(fn)) {
+			final ListWorkspacesPageParams params =
+					getParams(cmd, ListWorkspacesPageParams.class);
+			final ResultPage<WorkspaceInformation> page =
+					ws.listWorkspacesPage(getUser(cmd, token),
+							params.perm == null ? null :
+								translatePermission(params.perm),
+							convertUsers(params.owners), params.meta,
+							parseDate(params.after), parseDate(params.before),
+							longToBoolean(params.excludeGlobal),
+							longToBoolean(params.showDeleted),
+							longToBoolean(params.showOnlyDeleted),
+							params.token,
+							longToInt(params.limit, "Limit", -1));
+			final Map<String, Object> ret =
+					new LinkedHashMap<String, Object>();
+			ret.put("workspaces", wsInfoToTuple(page.getResults()));
+			ret.put("next", page.getNext() == null ? null :
+					page.getNext().getToken());
+			return ret;
+		}
+		if ("listObjectsPage".equals(fn)) {
+			final ListObjectsPageParams params =
+					getParams(cmd, ListObjectsPageParams.class);
+			final List<WorkspaceIdentifier> wsis =
+					new LinkedList<WorkspaceIdentifier>();
+			if (params.workspaces != null) {
+				for (final String w: params.workspaces) {
+					wsis.add(processWorkspaceIdentifier(w, null));
+				}
+			}
+			if (params.ids != null) {
+				for (final Long id: params.ids) {
+					wsis.add(processWorkspaceIdentifier(null, id));
+				}
+			}
+			final ResultPage<ObjectInformation> page =
+					ws.listObjectsPage(getUser(cmd, token), wsis,
+							params.type == null ? null :
+								TypeDefId.fromTypeString(params.type),
+							params.perm == null ? null :
+								translatePermission(params.perm),
+							convertUsers(params.savedby), params.meta,
+							parseDate(params.after), parseDate(params.before),
+							longToBoolean(params.showHidden),
+							longToBoolean(params.showDeleted),
+							longToBoolean(params.showOnlyDeleted),
+							longToBoolean(params.showAllVersions),
+							longToBoolean(params.includeMetadata),
+							longToBoolean(params.excludeGlobal),
+							params.token,
+							longToInt(params.limit, "Limit", -1));
+			final Map<String, Object> ret =
+					new LinkedHashMap<String, Object>();
+			ret.put("objects", objInfoToTuple(page.getResults(), false));
+			ret.put("next", page.getNext() == null ? null :
+					page.getNext().getToken());
+			return ret;
+		}
 		if ("listWorkspaceOwners".equals(fn)) {
 			return usersToStrings(ws.getAllWorkspaceOwners());
 		}
@@ -170,9 +247,93 @@ public class WorkspaceAdministration {
 			wsmeth.removeModuleOwnership(params, null, true);
 			return null;
 		}
+		if ("cloneWorkspace".equals(fn)) {
+			final CloneWorkspaceParams params = getParams(cmd, CloneWorkspaceParams.class);
+			final Permission p = getGlobalWSPerm(params.getGlobalread());
+			return cloneJobToMap(ws.startCloneWorkspace(getUser(cmd, token),
+					processWorkspaceIdentifier(params.getWsi()),
+					params.getWorkspace(), p.equals(Permission.READ),
+					params.getDescription(), params.getMeta()));
+		}
+		if ("listCloneJobs".equals(fn)) {
+			final List<Map<String, Object>> ret =
+					new LinkedList<Map<String, Object>>();
+			for (final CloneJob j: ws.listCloneJobs(cmd.getUser() == null ?
+					null : new WorkspaceUser(cmd.getUser()))) {
+				ret.add(cloneJobToMap(j));
+			}
+			return ret;
+		}
+		if ("getCloneJob".equals(fn)) {
+			final CloneJobParams params = getParams(cmd, CloneJobParams.class);
+			return cloneJobToMap(ws.getCloneJob(null, params.getId()));
+		}
+		if ("cancelCloneJob".equals(fn)) {
+			final CloneJobParams params = getParams(cmd, CloneJobParams.class);
+			return cloneJobToMap(ws.cancelCloneJob(null, params.getId()));
+		}
+		if ("getStorageUsage".equals(fn)) {
+			if (cmd.getUser() != null) {
+				final WorkspaceUser user = new WorkspaceUser(cmd.getUser());
+				final Map<String, Object> ret =
+						new LinkedHashMap<String, Object>();
+				ret.put("user", user.getUser());
+				ret.put("workspaces",
+						usageToMap(ws.getStorageUsage(user, false)));
+				ret.put("deleted_workspaces",
+						usageToMap(ws.getStorageUsage(user, true)));
+				return ret;
+			}
+			if (cmd.getParams() != null) {
+				final WorkspaceIdentity params =
+						getParams(cmd, WorkspaceIdentity.class);
+				return usageToMap(ws.getStorageUsage(
+						processWorkspaceIdentifier(params)));
+			}
+			final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+			ret.put("unique_data_bytes", ws.getUniqueDataSize());
+			return ret;
+		}
+		if ("recalculateStorageUsage".equals(fn)) {
+			ws.recalculateStorageUsage(cmd.getParams() == null ? null :
+					processWorkspaceIdentifier(
+							getParams(cmd, WorkspaceIdentity.class)));
+			return null;
+		}
 		throw new IllegalArgumentException(
 				"I don't know how to process the command: " + fn);
 	}
+	
+	private Map<String, Object> usageToMap(final StorageUsage usage) {
+		if (usage == null) {
+			return null;
+		}
+		final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("objects", usage.getObjects());
+		ret.put("versions", usage.getVersions());
+		ret.put("bytes", usage.getBytes());
+		ret.put("deleted_objects", usage.getDeletedObjects());
+		ret.put("deleted_versions", usage.getDeletedVersions());
+		ret.put("deleted_bytes", usage.getDeletedBytes());
+		return ret;
+	}
+	
+	private Map<String, Object> cloneJobToMap(final CloneJob job) {
+		final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("id", job.getId());
+		ret.put("user", job.getUser().getUser());
+		ret.put("source", job.getSource().getIdentifierString());
+		ret.put("workspace", job.getNewName());
+		ret.put("created", formatDate(job.getCreated()));
+		ret.put("state", job.getState().toString().toLowerCase());
+		ret.put("total", job.getProgress().getTotalObjects());
+		ret.put("copied", job.getProgress().getCopiedObjects());
+		ret.put("info", job.getResult() == null ? null :
+				wsInfoToTuple(job.getResult()));
+		ret.put("error", job.getError() == null ? null :
+				job.getError().getLocalizedMessage());
+		return ret;
+	}
 
 	private List<String> usersToStrings(final Set<WorkspaceUser> users) {
 		final List<String> ret = new ArrayList<String>();
@@ -220,6 +381,58 @@ public class WorkspaceAdministration {
 		public SetWorkspaceOwnerParams() {}; //for jackson
 	}
 	
+	private static class ListWorkspacesPageParams {
+		public String perm;
+		public List<String> owners;
+		public Map<String, String> meta;
+		public String after;
+		public String before;
+		public Long excludeGlobal;
+		public Long showDeleted;
+		public Long showOnlyDeleted;
+		public String token;
+		public Long limit;
+		
+		@SuppressWarnings("unused")
+		public ListWorkspacesPageParams() {}; //for jackson
+	}
+	
+	private static class ListObjectsPageParams {
+		public List<String> workspaces;
+		public List<Long> ids;
+		public String type;
+		public String perm;
+		public List<String> savedby;
+		public Map<String, String> meta;
+		public String after;
+		public String before;
+		public Long showHidden;
+		public Long showDeleted;
+		public Long showOnlyDeleted;
+		public Long showAllVersions;
+		public Long includeMetadata;
+		public Long excludeGlobal;
+		public String token;
+		public Long limit;
+		
+		@SuppressWarnings("unused")
+		public ListObjectsPageParams() {}; //for jackson
+	}
+	
+	private static class CloneJobParams {
+		public Long id;
+		
+		@SuppressWarnings("unused")
+		public CloneJobParams() {}; //for jackson
+		
+		public long getId() {
+			if (id == null) {
+				throw new NullPointerException("Clone job id may not be null");
+			}
+			return id;
+		}
+	}
+	
 	private <T> T getParams(final AdminCommand input, final Class<T> clazz)
 			throws IOException {
 		final UObject p = input.getParams();
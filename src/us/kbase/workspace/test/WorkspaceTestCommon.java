@@ -1,7 +1,11 @@
 package us.kbase.workspace.test;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 
+import org.apache.commons.io.FileUtils;
+
 import us.kbase.common.test.TestException;
 
 import com.mongodb.BasicDBObject;
@@ -23,6 +27,7 @@ public class WorkspaceTestCommon {
 	public static final String KEEP_TEMP_DIR = "test.temp.dir.keep";
 	public static final String GRIDFS = "gridFS";
 	public static final String SHOCK = "shock";
+	public static final String FILESYSTEM = "filesystem";
 			
 	public static void stfuLoggers() {
 		((ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory
@@ -97,6 +102,20 @@ public class WorkspaceTestCommon {
 		System.out.println(String.format("Configured new %s backend.", GRIDFS));
 	}
 	
+	public static void initializeFileSystemWorkspaceDB(DB mdb,
+			File blobDir, String typedb) throws IOException {
+		destroyDB(mdb);
+		destroyDB(mdb.getSisterDB(typedb));
+		FileUtils.deleteDirectory(blobDir);
+		DBObject dbo = new BasicDBObject();
+		dbo.put("type_db", typedb);
+		dbo.put("backend", FILESYSTEM);
+		dbo.put("file_location", blobDir.getAbsolutePath());
+		mdb.getCollection("settings").insert(dbo);
+		System.out.println(String.format("Configured new %s backend in %s.",
+				FILESYSTEM, blobDir));
+	}
+	
 	public static void destroyDB(DB db) {
 		for (String name: db.getCollectionNames()) {
 			if (!name.startsWith("system.")) {
@@ -0,0 +1,224 @@
+package us.kbase.workspace.test.database;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.workspace.database.ByteArrayFileCacheManager;
+import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
+import us.kbase.workspace.database.ResourceBudget;
+import us.kbase.workspace.database.exceptions.FileCacheLimitExceededException;
+import us.kbase.workspace.database.exceptions.ServerBusyException;
+import us.kbase.workspace.test.WorkspaceTestCommon;
+
+public class ResourceBudgetTest {
+
+	private static TempFilesManager tfm;
+
+	//10 bytes
+	private static final String D1 = "\"blob1 yo\"";
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		tfm = new TempFilesManager(new File(WorkspaceTestCommon.getTempDir()));
+	}
+
+	@Before
+	public void clearTempFiles() {
+		tfm.cleanup();
+	}
+
+	private ByteArrayFileCache makeBAFC(
+			final ResourceBudget.Reservation res, final String data)
+			throws Exception {
+		return new ByteArrayFileCacheManager(1000, 1000L, tfm, res)
+				.createBAFC(new ByteArrayInputStream(data.getBytes("UTF-8")),
+						true, true);
+	}
+
+	private void checkUsage(final ResourceBudget rb, final long mem,
+			final long disk) {
+		assertThat("memory used", rb.getMemoryUsed(), is(mem));
+		assertThat("disk used", rb.getDiskUsed(), is(disk));
+	}
+
+	@Test
+	public void badLimits() throws Exception {
+		try {
+			new ResourceBudget(-1, 0);
+			fail("created budget with bad limits");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception message", iae.getLocalizedMessage(),
+					is("Budget limits cannot be negative"));
+		}
+		try {
+			new ResourceBudget(1, 0).setLimits(0, -1);
+			fail("set bad limits");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception message", iae.getLocalizedMessage(),
+					is("Budget limits cannot be negative"));
+		}
+	}
+
+	@Test
+	public void chargeAndRelease() throws Exception {
+		final ResourceBudget rb = new ResourceBudget(25, 100);
+		final ResourceBudget.Reservation res = rb.reserve(15, 0);
+		checkUsage(rb, 15, 0);
+		// fits in the reservation
+		final ByteArrayFileCache b1 = makeBAFC(res, D1);
+		checkUsage(rb, 15, 0);
+		// 5 bytes from the reservation, 5 from the budget
+		final ByteArrayFileCache b2 = makeBAFC(res, D1);
+		checkUsage(rb, 20, 0);
+		// doesn't fit in the budget and so spills to disk
+		final ByteArrayFileCache b3 = makeBAFC(res, D1);
+		checkUsage(rb, 20, 10);
+		assertThat("spills", rb.getSpills(), is(1L));
+		assertThat("correct data", IOUtils.toString(b3.getJSON()), is(D1));
+
+		res.close();
+		checkUsage(rb, 20, 10);
+		b1.destroy();
+		b3.destroy();
+		checkUsage(rb, 10, 0);
+		b2.destroy();
+		b2.destroy();
+		checkUsage(rb, 0, 0);
+	}
+
+	@Test
+	public void diskLimit() throws Exception {
+		final ResourceBudget rb = new ResourceBudget(5, 15);
+		final ResourceBudget.Reservation res = rb.reserve(0, 0);
+		final ByteArrayFileCache b1 = makeBAFC(res, D1);
+		checkUsage(rb, 0, 10);
+		try {
+			makeBAFC(res, D1);
+			fail("exceeded disk budget");
+		} catch (FileCacheLimitExceededException e) {
+			assertThat("correct exception message", e.getLocalizedMessage(),
+					is("Disk limit exceeded for the file caches of all calls: 15"));
+		}
+		checkUsage(rb, 0, 10);
+		b1.destroy();
+		checkUsage(rb, 0, 0);
+	}
+
+	@Test
+	public void unlimited() throws Exception {
+		final ResourceBudget rb = new ResourceBudget(0, 0);
+		final ResourceBudget.Reservation res = rb.reserve(1000000, 0);
+		final ByteArrayFileCache b1 = makeBAFC(res, D1);
+		checkUsage(rb, 1000000, 0);
+		res.close();
+		checkUsage(rb, 10, 0);
+		b1.destroy();
+		checkUsage(rb, 0, 0);
+	}
+
+	@Test
+	public void oversizedReservation() throws Exception {
+		final ResourceBudget rb = new ResourceBudget(10, 0);
+		final ResourceBudget.Reservation res = rb.reserve(100, 0);
+		checkUsage(rb, 10, 0);
+		res.close();
+		res.close();
+		checkUsage(rb, 0, 0);
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		final ResourceBudget rb = new ResourceBudget(10, 0);
+		final ResourceBudget.Reservation res = rb.reserve(6, 0);
+		try {
+			rb.reserve(5, 50);
+			fail("reserved memory from a full budget");
+		} catch (ServerBusyException e) {
+			assertThat("correct exception message", e.getLocalizedMessage(),
+					is("Timed out after 50 ms waiting for 5B of memory; the server is busy. Please try again later"));
+		}
+		assertThat("timeouts", rb.getTimeouts(), is(1L));
+		assertThat("queue length", rb.getQueueLength(), is(0));
+		assertThat("max queue length", rb.getMaxQueueLength(), is(1));
+		res.close();
+		rb.reserve(5, 0).close();
+		assertThat("reservations", rb.getReservations(), is(2L));
+	}
+
+	@Test
+	public void waitForRelease() throws Exception {
+		final ResourceBudget rb = new ResourceBudget(10, 0);
+		final ResourceBudget.Reservation res = rb.reserve(10, 0);
+		final ResourceBudget.Reservation[] waited = {null};
+		final Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					waited[0] = rb.reserve(8, 10000);
+				} catch (ServerBusyException e) {
+					// checked below
+				}
+			}
+		};
+		t.start();
+		while (rb.getQueueLength() < 1) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		assertThat("still waiting", waited[0], nullValue());
+		res.close();
+		t.join(10000);
+		assertThat("got reservation", waited[0], notNullValue());
+		checkUsage(rb, 8, 0);
+		assertThat("waited", rb.getMaxWaitTimeMS() >= 100, is(true));
+		waited[0].close();
+		checkUsage(rb, 0, 0);
+	}
+
+	@Test
+	public void firstComeFirstServed() throws Exception {
+		final ResourceBudget rb = new ResourceBudget(10, 0);
+		final ResourceBudget.Reservation res = rb.reserve(5, 0);
+		final ResourceBudget.Reservation[] big = {null};
+		final Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					big[0] = rb.reserve(10, 10000);
+				} catch (ServerBusyException e) {
+					// checked below
+				}
+			}
+		};
+		t.start();
+		while (rb.getQueueLength() < 1) {
+			Thread.sleep(10);
+		}
+		// would fit, but the large reservation is ahead in the queue
+		try {
+			rb.reserve(1, 50);
+			fail("jumped the queue");
+		} catch (ServerBusyException e) {
+			// expected
+		}
+		// needs no memory, so doesn't wait for the large reservation
+		rb.reserve(0, 0).close();
+		res.close();
+		t.join(10000);
+		assertThat("got reservation", big[0], notNullValue());
+		big[0].close();
+		assertThat("reservations", rb.getReservations(), is(3L));
+	}
+}
@@ -0,0 +1,194 @@
+package us.kbase.workspace.test.database;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.kbase.typedobj.core.MD5;
+import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.workspace.database.ByteArrayFileCacheManager;
+import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
+import us.kbase.workspace.database.SharedBlobCache;
+import us.kbase.workspace.test.WorkspaceTestCommon;
+
+public class SharedBlobCacheTest {
+
+	private static TempFilesManager tfm;
+
+	private static final MD5 MD1 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa1");
+	private static final MD5 MD2 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa2");
+	private static final MD5 MD3 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa3");
+
+	//all 10 bytes
+	private static final String D1 = "\"blob1 yo\"";
+	private static final String D2 = "\"blob2 yo\"";
+	private static final String D3 = "\"blob3 yo\"";
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		tfm = new TempFilesManager(new File(WorkspaceTestCommon.getTempDir()));
+	}
+
+	@Before
+	public void clearTempFiles() {
+		tfm.cleanup();
+	}
+
+	private ByteArrayFileCache makeBAFC(final String data,
+			final boolean inMem) throws Exception {
+		final ByteArrayFileCacheManager bafcMan =
+				new ByteArrayFileCacheManager(inMem ? 1000 : 0, 1000L, tfm);
+		return bafcMan.createBAFC(
+				new ByteArrayInputStream(data.getBytes("UTF-8")), true, true);
+	}
+
+	private ByteArrayFileCacheManager getManager() {
+		return new ByteArrayFileCacheManager(1000, 1000L, tfm);
+	}
+
+	private void checkData(final ByteArrayFileCache bafc, final String data)
+			throws Exception {
+		assertThat("correct data", IOUtils.toString(bafc.getJSON()),
+				is(data));
+		assertThat("sorted", bafc.isSorted(), is(true));
+		assertThat("trusted", bafc.containsTrustedJson(), is(true));
+	}
+
+	@Test
+	public void badLimits() throws Exception {
+		try {
+			new SharedBlobCache(-1, 0);
+			fail("created cache with bad limits");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception message", iae.getLocalizedMessage(),
+					is("Cache size limits cannot be negative"));
+		}
+		try {
+			new SharedBlobCache(1, 0).setLimits(0, -1);
+			fail("set bad limits");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception message", iae.getLocalizedMessage(),
+					is("Cache size limits cannot be negative"));
+		}
+	}
+
+	@Test
+	public void memoryHitsAndMisses() throws Exception {
+		final SharedBlobCache sbc = new SharedBlobCache(100, 0);
+		assertThat("miss", sbc.get(MD1, getManager()), is(nullValue()));
+		final ByteArrayFileCache orig = makeBAFC(D1, true);
+		assertThat("added", sbc.add(MD1, orig), is(true));
+		assertThat("not added twice", sbc.add(MD1, makeBAFC(D1, true)),
+				is(false));
+		orig.destroy();
+
+		final ByteArrayFileCache b1 = sbc.get(MD1, getManager());
+		final ByteArrayFileCache b2 = sbc.get(MD1, getManager());
+		checkData(b1, D1);
+		checkData(b2, D1);
+		b1.destroy();
+		b2.destroy();
+		assertThat("miss", sbc.get(MD2, getManager()), is(nullValue()));
+
+		assertThat("hits", sbc.getHits(), is(2L));
+		assertThat("misses", sbc.getMisses(), is(2L));
+		assertThat("hit ratio", sbc.getHitRatio(), is(0.5));
+		assertThat("bytes served", sbc.getBytesServed(), is(20L));
+		assertThat("mem size", sbc.getSizeInMem(), is(10L));
+		assertThat("disk size", sbc.getSizeOnDisk(), is(0L));
+		assertThat("entries", sbc.getEntryCount(), is(1));
+	}
+
+	@Test
+	public void leastRecentlyUsedEviction() throws Exception {
+		final SharedBlobCache sbc = new SharedBlobCache(20, 0);
+		final ByteArrayFileCache o1 = makeBAFC(D1, true);
+		final ByteArrayFileCache o2 = makeBAFC(D2, true);
+		sbc.add(MD1, o1);
+		sbc.add(MD2, o2);
+		o1.destroy();
+		o2.destroy();
+		sbc.get(MD1, getManager()).destroy();
+
+		final ByteArrayFileCache o3 = makeBAFC(D3, true);
+		assertThat("added", sbc.add(MD3, o3), is(true));
+		assertThat("evicted", sbc.get(MD2, getManager()), is(nullValue()));
+		checkData(sbc.get(MD1, getManager()), D1);
+		checkData(o3, D3);
+		assertThat("evictions", sbc.getEvictions(), is(1L));
+		assertThat("mem size", sbc.getSizeInMem(), is(20L));
+	}
+
+	@Test
+	public void entriesInUseAreNotEvicted() throws Exception {
+		final SharedBlobCache sbc = new SharedBlobCache(10, 0);
+		final ByteArrayFileCache o1 = makeBAFC(D1, true);
+		sbc.add(MD1, o1);
+		final ByteArrayFileCache o2 = makeBAFC(D2, true);
+		assertThat("not added", sbc.add(MD2, o2), is(false));
+		checkData(o2, D2);
+		o1.destroy();
+		assertThat("added", sbc.add(MD2, makeBAFC(D2, true)), is(true));
+		assertThat("evicted", sbc.get(MD1, getManager()), is(nullValue()));
+	}
+
+	@Test
+	public void tooBig() throws Exception {
+		final SharedBlobCache sbc = new SharedBlobCache(9, 1000);
+		assertThat("not added", sbc.add(MD1, makeBAFC(D1, true)), is(false));
+		assertThat("entries", sbc.getEntryCount(), is(0));
+	}
+
+	@Test
+	public void diskTier() throws Exception {
+		final SharedBlobCache sbc = new SharedBlobCache(1000, 10);
+		final ByteArrayFileCache orig = makeBAFC(D1, false);
+		assertThat("one temp file", tfm.getTempFileList().size(), is(1));
+		assertThat("added", sbc.add(MD1, orig), is(true));
+		orig.destroy();
+		assertThat("temp file not deleted", tfm.getTempFileList().size(),
+				is(1));
+
+		final ByteArrayFileCache b = sbc.get(MD1, getManager());
+		checkData(b, D1);
+		assertThat("disk size", sbc.getSizeOnDisk(), is(10L));
+		assertThat("mem size", sbc.getSizeInMem(), is(0L));
+
+		sbc.clear();
+		assertThat("temp file not deleted while in use",
+				tfm.getTempFileList().size(), is(1));
+		checkData(b, D1);
+		b.destroy();
+		assertThat("temp file deleted", tfm.isEmpty(), is(true));
+		assertThat("entries", sbc.getEntryCount(), is(0));
+	}
+
+	@Test
+	public void shrinkLimits() throws Exception {
+		final SharedBlobCache sbc = new SharedBlobCache(20, 10);
+		final ByteArrayFileCache o1 = makeBAFC(D1, true);
+		final ByteArrayFileCache o2 = makeBAFC(D2, true);
+		final ByteArrayFileCache o3 = makeBAFC(D3, false);
+		sbc.add(MD1, o1);
+		sbc.add(MD2, o2);
+		sbc.add(MD3, o3);
+		o1.destroy();
+		o2.destroy();
+		o3.destroy();
+		sbc.setLimits(10, 0);
+		assertThat("entries", sbc.getEntryCount(), is(1));
+		assertThat("evicted", sbc.get(MD1, getManager()), is(nullValue()));
+		assertThat("evicted", sbc.get(MD3, getManager()), is(nullValue()));
+		checkData(sbc.get(MD2, getManager()), D2);
+		assertThat("temp file deleted", tfm.isEmpty(), is(true));
+	}
+}
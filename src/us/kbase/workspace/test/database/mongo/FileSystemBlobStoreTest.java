@@ -0,0 +1,236 @@
+package us.kbase.workspace.test.database.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.kbase.common.service.UObject;
+import us.kbase.typedobj.core.MD5;
+import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.typedobj.core.Writable;
+import us.kbase.workspace.database.ByteArrayFileCacheManager;
+import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
+import us.kbase.workspace.database.mongo.BlobCodec;
+import us.kbase.workspace.database.mongo.FileSystemBlobStore;
+import us.kbase.workspace.database.mongo.exceptions.BlobStoreException;
+import us.kbase.workspace.test.WorkspaceTestCommon;
+
+public class FileSystemBlobStoreTest {
+
+	private static FileSystemBlobStore fsb;
+	private static File root;
+	private static TempFilesManager tfm;
+
+	private static final String a32 = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		tfm = new TempFilesManager(new File(WorkspaceTestCommon.getTempDir()));
+		root = new File(WorkspaceTestCommon.getTempDir(),
+				"FileSystemBlobStoreTest");
+		FileUtils.deleteDirectory(root);
+		fsb = new FileSystemBlobStore(root);
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws Exception {
+		if (root != null && WorkspaceTestCommon.getDeleteTempFiles()) {
+			FileUtils.deleteDirectory(root);
+		}
+	}
+
+	private static File getFile(String md5) {
+		return new File(new File(new File(root, md5.substring(0, 2)),
+				md5.substring(2, 4)), md5);
+	}
+
+	private static int countTempFiles() {
+		return new File(root, "tmp").list().length;
+	}
+
+	@Test
+	public void storetype() throws Exception {
+		assertThat("correct store type", fsb.getStoreType(),
+				is("Filesystem"));
+	}
+
+	@Test
+	public void badInput() throws Exception {
+		try {
+			fsb.saveBlob(new MD5(a32), null, true);
+			fail("saved null data");
+		} catch (NullPointerException npe) {
+			assertThat("correct excepction message", npe.getLocalizedMessage(),
+					is("Arguments cannot be null"));
+		}
+
+		try {
+			fsb.saveBlob(null, stringToWriteable("foo"), true);
+			fail("saved null md5");
+		} catch (NullPointerException npe) {
+			assertThat("correct excepction message", npe.getLocalizedMessage(),
+					is("Arguments cannot be null"));
+		}
+	}
+
+	@Test
+	public void saveAndGetBlob() throws Exception {
+		MD5 md1 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa1");
+		String data = "this is a blob yo";
+		fsb.saveBlob(md1, stringToWriteable(data), true);
+		assertThat("file sharded by md5", getFile(md1.getMD5()).isFile(),
+				is(true));
+		assertThat("no temp files", countTempFiles(), is(0));
+		MD5 md1copy = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa1");
+		ByteArrayFileCache d = fsb.getBlob(md1copy,
+				new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+		assertThat("data returned marked as sorted", d.isSorted(), is(true));
+		String returned = IOUtils.toString(d.getJSON());
+		assertThat("Didn't get same data back from store", returned, is(data));
+		assertTrue("Filesystem has no external ID",
+				fsb.getExternalIdentifier(md1copy) == null);
+		fsb.saveBlob(md1, stringToWriteable(data), true); //should be able to save the same thing twice with no error
+
+		fsb.saveBlob(md1, stringToWriteable(data), false); //this should do nothing
+		assertThat("sorted still true", fsb.getBlob(md1copy,
+				new ByteArrayFileCacheManager(16000000, 2000000000L, tfm))
+					.isSorted(), is(true));
+
+		MD5 md2 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa2");
+		String data2 = "this is also a blob yo";
+		fsb.saveBlob(md2, stringToWriteable(data2), false);
+		d = fsb.getBlob(md2,
+				new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+		assertThat("data returned marked as unsorted", d.isSorted(), is(false));
+
+		fsb.removeBlob(md1);
+		fsb.removeBlob(md2);
+		assertThat("file removed", getFile(md1.getMD5()).exists(), is(false));
+	}
+
+	@Test
+	public void getBlobToFile() throws Exception {
+		MD5 md1 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa6");
+		String data = "{\"a\":\"this is a blob that's bigger than the memory limit\"}";
+		fsb.saveBlob(md1, stringToWriteable(data), true);
+		tfm.cleanup();
+		ByteArrayFileCache d = fsb.getBlob(md1,
+				new ByteArrayFileCacheManager(10, 2000000000L, tfm));
+		assertThat("data written to file", tfm.isEmpty(), is(false));
+		assertThat("Didn't get same data back from store",
+				IOUtils.toString(d.getJSON()), is(data));
+		d.destroy();
+		assertThat("no temp files", tfm.isEmpty(), is(true));
+		fsb.removeBlob(md1);
+	}
+
+	@Test
+	public void streamBlob() throws Exception {
+		MD5 md1 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa3");
+		String data = "{\"a\":\"b\"}";
+		fsb.saveBlob(md1, stringToWriteable(data), true);
+		ByteArrayFileCache d = fsb.getBlobStream(md1,
+				new ByteArrayFileCacheManager(0, 0L, tfm));
+		assertThat("data returned marked as sorted", d.isSorted(), is(true));
+		assertThat("data is streamed", d.isStreaming(), is(true));
+		List<UObject> out = Arrays.asList(d.getUObject(), d.getUObject());
+		assertThat("correct streamed data to writer",
+				UObject.getMapper().writeValueAsString(out),
+				is("[" + data + "," + data + "]"));
+		assertThat("correct streamed data to stream",
+				new String(UObject.getMapper().writeValueAsBytes(out),
+						"UTF-8"),
+				is("[" + data + "," + data + "]"));
+		d.destroy();
+		fsb.removeBlob(md1);
+	}
+
+	@Test
+	public void saveAndGetCompressedBlob() throws Exception {
+		FileSystemBlobStore compfsb = new FileSystemBlobStore(root,
+				BlobCodec.DEFLATE);
+		MD5 md1 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa4");
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 1000; i++) {
+			sb.append("\"a compressible blob\",");
+		}
+		String data = sb.append("\"yo\"]").toString();
+		compfsb.saveBlob(md1, stringToWriteable(data), true);
+		assertThat("data stored compressed",
+				getFile(md1.getMD5()).length() < data.length() / 10,
+				is(true));
+		// the codec for reading is determined by the blob, not the backend
+		for (FileSystemBlobStore b: Arrays.asList(fsb, compfsb)) {
+			ByteArrayFileCache d = b.getBlob(md1,
+					new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+			assertThat("data returned marked as sorted", d.isSorted(),
+					is(true));
+			assertThat("Didn't get same data back from store",
+					IOUtils.toString(d.getJSON()), is(data));
+			d = b.getBlobStream(md1, new ByteArrayFileCacheManager(0, 0L, tfm));
+			assertThat("Didn't get same data back from store",
+					UObject.getMapper().writeValueAsString(d.getUObject()),
+					is(data));
+		}
+		MD5 md2 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa5");
+		fsb.saveBlob(md2, stringToWriteable(data), true);
+		assertThat("data stored uncompressed",
+				getFile(md2.getMD5()).length() > data.length(), is(true));
+		ByteArrayFileCache d = compfsb.getBlob(md2,
+				new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+		assertThat("Didn't get same data back from store",
+				IOUtils.toString(d.getJSON()), is(data));
+		fsb.removeBlob(md1);
+		fsb.removeBlob(md2);
+	}
+
+	@Test
+	public void getNonExistantBlob() throws Exception {
+		try {
+			fsb.getBlob(new MD5(a32),
+					new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+			fail("getblob should throw exception");
+		} catch (BlobStoreException wbe) {
+			assertThat("wrong exception message from failed getblob",
+					wbe.getLocalizedMessage(), is("Attempt to retrieve non-existant blob with chksum " + a32));
+		}
+		try {
+			fsb.getBlobStream(new MD5(a32),
+					new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+			fail("getblobstream should throw exception");
+		} catch (BlobStoreException wbe) {
+			assertThat("wrong exception message from failed getblobstream",
+					wbe.getLocalizedMessage(), is("Attempt to retrieve non-existant blob with chksum " + a32));
+		}
+	}
+
+	@Test
+	public void removeNonExistantBlob() throws Exception {
+		fsb.removeBlob(new MD5(a32)); //should silently not remove anything
+	}
+
+	private static Writable stringToWriteable(final String s) {
+		return new Writable() {
+			@Override
+			public void write(OutputStream w) throws IOException {
+				w.write(s.getBytes("UTF-8"));
+			}
+			@Override
+			public void releaseResources() throws IOException {
+			}
+		};
+	}
+}
@@ -9,6 +9,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.AfterClass;
@@ -20,12 +22,14 @@ import com.mongodb.MongoClient;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSInputFile;
 
+import us.kbase.common.service.UObject;
 import us.kbase.common.test.controllers.mongo.MongoController;
 import us.kbase.typedobj.core.MD5;
 import us.kbase.typedobj.core.TempFilesManager;
 import us.kbase.typedobj.core.Writable;
 import us.kbase.workspace.database.ByteArrayFileCacheManager;
 import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
+import us.kbase.workspace.database.mongo.BlobCodec;
 import us.kbase.workspace.database.mongo.GridFSBackend;
 import us.kbase.workspace.database.mongo.exceptions.BlobStoreException;
 import us.kbase.workspace.test.WorkspaceTestCommon;
@@ -131,6 +135,87 @@ public class GridFSBackendTest {
 		gfsb.removeBlob(md2);
 	}
 	
+	@Test
+	public void streamBlob() throws Exception {
+		MD5 md1 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa3");
+		String data = "{\"a\":\"b\"}";
+		gfsb.saveBlob(md1, stringToWriteable(data), true);
+		ByteArrayFileCache d = gfsb.getBlobStream(md1,
+				new ByteArrayFileCacheManager(0, 0L, tfm));
+		assertThat("data returned marked as sorted", d.isSorted(), is(true));
+		assertThat("data is streamed", d.isStreaming(), is(true));
+		List<UObject> out = Arrays.asList(d.getUObject(), d.getUObject());
+		assertThat("correct streamed data to writer",
+				UObject.getMapper().writeValueAsString(out),
+				is("[" + data + "," + data + "]"));
+		assertThat("correct streamed data to stream",
+				new String(UObject.getMapper().writeValueAsBytes(out),
+						"UTF-8"),
+				is("[" + data + "," + data + "]"));
+		try {
+			d.getJSON();
+			fail("got JSON from a streaming cache");
+		} catch (IllegalStateException ise) {
+			assertThat("correct exception message", ise.getLocalizedMessage(),
+					is("This ByteArrayFileCache streams its data and only supports serialization via getUObject()"));
+		}
+		d.destroy();
+		assertThat("no temp files", tfm.isEmpty(), is(true));
+		gfsb.removeBlob(md1);
+	}
+	
+	@Test
+	public void saveAndGetCompressedBlob() throws Exception {
+		GridFSBackend compgfsb = new GridFSBackend(gfs.getDB(),
+				BlobCodec.DEFLATE);
+		MD5 md1 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa4");
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 1000; i++) {
+			sb.append("\"a compressible blob\",");
+		}
+		String data = sb.append("\"yo\"]").toString();
+		compgfsb.saveBlob(md1, stringToWriteable(data), true);
+		assertThat("data stored compressed", gfs.findOne(md1.getMD5())
+				.getLength() < data.length() / 10, is(true));
+		assertThat("codec recorded", (String) gfs.findOne(md1.getMD5())
+				.get("codec"), is("deflate"));
+		// the codec for reading is determined by the blob, not the backend
+		for (GridFSBackend b: Arrays.asList(gfsb, compgfsb)) {
+			ByteArrayFileCache d = b.getBlob(md1,
+					new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+			assertThat("data returned marked as sorted", d.isSorted(),
+					is(true));
+			assertThat("Didn't get same data back from store",
+					IOUtils.toString(d.getJSON()), is(data));
+			d = b.getBlobStream(md1, new ByteArrayFileCacheManager(0, 0L, tfm));
+			assertThat("Didn't get same data back from store",
+					UObject.getMapper().writeValueAsString(d.getUObject()),
+					is(data));
+		}
+		MD5 md2 = new MD5("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa5");
+		gfsb.saveBlob(md2, stringToWriteable(data), true);
+		assertThat("data stored uncompressed", gfs.findOne(md2.getMD5())
+				.getLength(), is((long) data.length()));
+		ByteArrayFileCache d = compgfsb.getBlob(md2,
+				new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+		assertThat("Didn't get same data back from store",
+				IOUtils.toString(d.getJSON()), is(data));
+		gfsb.removeBlob(md1);
+		gfsb.removeBlob(md2);
+	}
+	
+	@Test
+	public void streamNonExistantBlob() throws Exception {
+		try {
+			gfsb.getBlobStream(new MD5(a32),
+					new ByteArrayFileCacheManager(16000000, 2000000000L, tfm));
+			fail("getblobstream should throw exception");
+		} catch (BlobStoreException wbe) {
+			assertThat("wrong exception message from failed getblobstream",
+					wbe.getLocalizedMessage(), is("Attempt to retrieve non-existant blob with chksum " + a32));
+		}
+	}
+	
 	@Test
 	public void getNonExistantBlob() throws Exception {
 		try {
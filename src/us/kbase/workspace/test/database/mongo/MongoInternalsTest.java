@@ -38,18 +38,23 @@ import us.kbase.typedobj.idref.IdReferenceHandlerSetFactory;
 import us.kbase.typedobj.idref.IdReferenceType;
 import us.kbase.typedobj.idref.RemappedId;
 import us.kbase.typedobj.test.DummyTypedObjectValidationReport;
+import us.kbase.workspace.database.CloneProgress;
 import us.kbase.workspace.database.DefaultReferenceParser;
 import us.kbase.workspace.database.ObjectIDNoWSNoVer;
 import us.kbase.workspace.database.ObjectIDResolvedWS;
 import us.kbase.workspace.database.ObjectIdentifier;
 import us.kbase.workspace.database.ObjectInformation;
+import us.kbase.workspace.database.Permission;
+import us.kbase.workspace.database.PermissionSet;
 import us.kbase.workspace.database.Provenance;
 import us.kbase.workspace.database.Reference;
 import us.kbase.workspace.database.ResolvedSaveObject;
 import us.kbase.workspace.database.ResolvedWorkspaceID;
+import us.kbase.workspace.database.ResourceUsageConfiguration;
 import us.kbase.workspace.database.ResourceUsageConfigurationBuilder;
 import us.kbase.workspace.database.Workspace;
 import us.kbase.workspace.database.WorkspaceIdentifier;
+import us.kbase.workspace.database.WorkspaceObjectInformation;
 import us.kbase.workspace.database.WorkspaceSaveObject;
 import us.kbase.workspace.database.WorkspaceUser;
 import us.kbase.workspace.database.mongo.IDName;
@@ -70,6 +75,9 @@ public class MongoInternalsTest {
 	private static MongoWorkspaceDB mwdb;
 	private static Workspace ws;
 	private static MongoController mongo;
+	private static String mongohost;
+	private static String kidlpath;
+	private static TempFilesManager tfm;
 	
 	private static final IdReferenceHandlerSetFactory fac =
 			new IdReferenceHandlerSetFactory(100);
@@ -84,15 +92,15 @@ public class MongoInternalsTest {
 		System.out.println("Using mongo temp dir " +
 				mongo.getTempDir());
 		WorkspaceTestCommon.stfuLoggers();
-		String mongohost = "localhost:" + mongo.getServerPort();
+		mongohost = "localhost:" + mongo.getServerPort();
 		MongoClient mongoClient = new MongoClient(mongohost);
 		final DB db = mongoClient.getDB("MongoInternalsTest");
 		WorkspaceTestCommon.initializeGridFSWorkspaceDB(
 				db, "MongoInternalsTest_types");
 		jdb = new Jongo(db);
-		final String kidlpath = new Util().getKIDLpath();
+		kidlpath = new Util().getKIDLpath();
 		
-		TempFilesManager tfm = new TempFilesManager(
+		tfm = new TempFilesManager(
 				new File(WorkspaceTestCommon.getTempDir()));
 		mwdb = new MongoWorkspaceDB(mongohost, "MongoInternalsTest", "foo",
 				"foo", "foo", kidlpath, null, tfm);
@@ -281,6 +289,199 @@ public class MongoInternalsTest {
 		}
 	}
 	
+	@Test
+	public void referrers() throws Exception {
+		WorkspaceUser userfoo = new WorkspaceUser("foo");
+		WorkspaceIdentifier wspace = new WorkspaceIdentifier("referrers");
+		long wsid = ws.createWorkspace(userfoo, wspace.getName(), false, null, null).getId();
+		Map<String, Object> data = new HashMap<String, Object>();
+		ws.saveObjects(userfoo, wspace, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("target"), new UObject(data),
+						SAFE_TYPE, null, new Provenance(userfoo), false)), fac);
+		Provenance p = new Provenance(userfoo);
+		p.addAction(new Provenance.ProvenanceAction().withWorkspaceObjects(
+				Arrays.asList("referrers/target/1")));
+		ws.saveObjects(userfoo, wspace, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("ref"), new UObject(data),
+						SAFE_TYPE, null, p, false)), fac);
+		ws.copyObject(userfoo, new ObjectIdentifier(wspace, "ref"),
+				new ObjectIdentifier(wspace, "copy"));
+		long wsid2 = ws.cloneWorkspace(userfoo, wspace, "referrers2", false, null, null).getId();
+		
+		Set<String> expected = new HashSet<String>(Arrays.asList(
+				wsid + "/2/1", wsid + "/3/1", wsid2 + "/2/1"));
+		assertThat("correct referrers", getReferrers(wsid + "/1/1"), is(expected));
+		checkReferencingObjects(ws, userfoo, wspace, expected);
+		
+		//rebuild the referrer collection as for a pre-existing database
+		jdb.getCollection("workspaceReferrers").drop();
+		MongoWorkspaceDB mwdb2 = new MongoWorkspaceDB(mongohost,
+				"MongoInternalsTest", "foo", "foo", "foo", kidlpath, null, tfm);
+		Workspace ws2 = new Workspace(mwdb2,
+				new ResourceUsageConfigurationBuilder().build(),
+				new DefaultReferenceParser());
+		//correct whether or not the collection has been rebuilt yet
+		checkReferencingObjects(ws2, userfoo, wspace, expected);
+		mwdb2.awaitMigrations();
+		assertThat("correct rebuilt referrers", getReferrers(wsid + "/1/1"), is(expected));
+		checkReferencingObjects(ws2, userfoo, wspace, expected);
+	}
+
+	@Test
+	public void sharedProvenance() throws Exception {
+		WorkspaceUser userfoo = new WorkspaceUser("foo");
+		WorkspaceIdentifier wspace = new WorkspaceIdentifier("sharedprov");
+		long wsid = ws.createWorkspace(userfoo, wspace.getName(), false, null, null).getId();
+		Map<String, Object> data = new HashMap<String, Object>();
+		ws.saveObjects(userfoo, wspace, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("target"), new UObject(data),
+						SAFE_TYPE, null, new Provenance(userfoo), false)), fac);
+		Provenance p = new Provenance(userfoo);
+		p.addAction(new Provenance.ProvenanceAction().withWorkspaceObjects(
+				Arrays.asList("sharedprov/target")));
+		Provenance p2 = new Provenance(userfoo);
+		p2.addAction(new Provenance.ProvenanceAction().withWorkspaceObjects(
+				Arrays.asList("sharedprov/target")));
+		Provenance other = new Provenance(userfoo);
+		other.addAction(new Provenance.ProvenanceAction().withMethod("foo"));
+		long provcount = jdb.getCollection("provenance").count();
+		ws.saveObjects(userfoo, wspace, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("p1"), new UObject(data),
+						SAFE_TYPE, null, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("p2"), new UObject(data),
+						SAFE_TYPE, null, p2, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("other"), new UObject(data),
+						SAFE_TYPE, null, other, false)), fac);
+		assertThat("only unique provenance saved",
+				jdb.getCollection("provenance").count(), is(provcount + 2));
+		assertThat("provenance shared", getProvID(wsid, 2), is(getProvID(wsid, 3)));
+		assertTrue("provenance not shared",
+				!getProvID(wsid, 2).equals(getProvID(wsid, 4)));
+		
+		//save a new version of the target so the references differ
+		ws.saveObjects(userfoo, wspace, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("target"), new UObject(data),
+						SAFE_TYPE, null, new Provenance(userfoo), false)), fac);
+		ws.saveObjects(userfoo, wspace, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("p1"), new UObject(data),
+						SAFE_TYPE, null, p, false)), fac);
+		List<ObjectIdentifier> objs = Arrays.asList(
+				new ObjectIdentifier(wspace, "p1", 1),
+				new ObjectIdentifier(wspace, "p2", 1),
+				new ObjectIdentifier(wspace, "p1", 2));
+		List<String> expected = Arrays.asList(wsid + "/1/1", wsid + "/1/1",
+				wsid + "/1/2");
+		for (int i = 0; i < objs.size(); i++) {
+			assertThat("correct resolved refs", ws.getObjectProvenance(
+					userfoo, Arrays.asList(objs.get(i))).get(0).getProvenance()
+					.getActions().get(0).getResolvedObjects(),
+					is(Arrays.asList(expected.get(i))));
+		}
+		List<String> resolved = new LinkedList<String>();
+		for (WorkspaceObjectInformation woi: ws.getObjectProvenance(userfoo, objs)) {
+			resolved.add(woi.getProvenance().getActions().get(0)
+					.getResolvedObjects().get(0));
+		}
+		assertThat("correct resolved refs in one call", resolved, is(expected));
+		
+		//shared provenance returns the date of each version
+		for (int id = 2; id < 4; id++) {
+			assertThat("correct provenance date", ws.getObjectProvenance(
+					userfoo, Arrays.asList(new ObjectIdentifier(wspace, id, 1)))
+					.get(0).getProvenance().getDate(),
+					is(getVersionField(wsid, id, "provdate")));
+		}
+	}
+	
+	private Object getProvID(long wsid, int id) {
+		return getVersionField(wsid, id, "provenance");
+	}
+	
+	private Object getVersionField(long wsid, int id, String field) {
+		@SuppressWarnings("rawtypes")
+		Map ver = jdb.getCollection("workspaceObjVersions")
+				.findOne("{ws: #, id: #, ver: 1}", wsid, id).as(Map.class);
+		return ver.get(field);
+	}
+
+	@Test
+	public void versionTypeFields() throws Exception {
+		WorkspaceUser userfoo = new WorkspaceUser("foo");
+		WorkspaceIdentifier wspace = new WorkspaceIdentifier("typefields");
+		long wsid = ws.createWorkspace(userfoo, wspace.getName(), false, null, null).getId();
+		ws.saveObjects(userfoo, wspace, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("obj"),
+						new UObject(new HashMap<String, Object>()),
+						SAFE_TYPE, null, new Provenance(userfoo), false)), fac);
+		ws.copyObject(userfoo, new ObjectIdentifier(wspace, "obj"),
+				new ObjectIdentifier(wspace, "copy"));
+		checkTypeFields(wsid, 1);
+		checkTypeFields(wsid, 2);
+		
+		//migrate versions as for a pre-existing database
+		jdb.getCollection("workspaceObjVersions").update("{ws: #}", wsid).multi()
+				.with("{$unset: {tymod: '', tyname: '', tymaj: '', tymin: ''}}");
+		jdb.getCollection("migrations").remove("{_id: 'typefields'}");
+		MongoWorkspaceDB mwdb2 = new MongoWorkspaceDB(mongohost,
+				"MongoInternalsTest", "foo", "foo", "foo", kidlpath, null, tfm);
+		mwdb2.awaitMigrations();
+		checkTypeFields(wsid, 1);
+		checkTypeFields(wsid, 2);
+		
+		//a version saved by an older server after the migration
+		jdb.getCollection("workspaceObjVersions").update("{ws: #, id: 2}", wsid)
+				.with("{$unset: {tymod: '', tyname: '', tymaj: '', tymin: ''}}");
+		
+		TypeDefName name = SAFE_TYPE.getType();
+		assertThat("found by module and name", listByType(userfoo, wspace,
+				new TypeDefId(name)), is(2));
+		assertThat("found by major version", listByType(userfoo, wspace,
+				new TypeDefId(name, 0)), is(2));
+		assertThat("found by full version", listByType(userfoo, wspace,
+				new TypeDefId(name, 0, 1)), is(2));
+		assertThat("not found by wrong major version", listByType(userfoo, wspace,
+				new TypeDefId(name, 1)), is(0));
+		assertThat("not found by wrong minor version", listByType(userfoo, wspace,
+				new TypeDefId(name, 0, 11)), is(0));
+		assertThat("not found by wrong type", listByType(userfoo, wspace,
+				new TypeDefId(new TypeDefName("SomeModule", "ATyp"))), is(0));
+	}
+	
+	private void checkTypeFields(long wsid, long id) {
+		@SuppressWarnings("rawtypes")
+		Map ver = jdb.getCollection("workspaceObjVersions")
+				.findOne("{ws: #, id: #, ver: 1}", wsid, id).as(Map.class);
+		assertThat("correct module", ver.get("tymod"), is((Object) "SomeModule"));
+		assertThat("correct type name", ver.get("tyname"), is((Object) "AType"));
+		assertThat("correct major version", ver.get("tymaj"), is((Object) 0));
+		assertThat("correct minor version", ver.get("tymin"), is((Object) 1));
+	}
+	
+	private int listByType(WorkspaceUser user, WorkspaceIdentifier wsi,
+			TypeDefId type) throws Exception {
+		return ws.listObjects(user, Arrays.asList(wsi), type, null, null, null,
+				null, null, false, false, false, false, false, false, -1, -1).size();
+	}
+	
+	private Set<String> getReferrers(String target) {
+		Set<String> ret = new HashSet<String>();
+		for (@SuppressWarnings("rawtypes") Map m: jdb.getCollection("workspaceReferrers")
+				.find("{target: #}", target).as(Map.class)) {
+			ret.add(m.get("ws") + "/" + m.get("id") + "/" + m.get("ver"));
+		}
+		return ret;
+	}
+
+	private void checkReferencingObjects(Workspace ws, WorkspaceUser user,
+			WorkspaceIdentifier wspace, Set<String> expected) throws Exception {
+		Set<String> got = new HashSet<String>();
+		for (ObjectInformation oi: ws.getReferencingObjects(user, Arrays.asList(
+				new ObjectIdentifier(wspace, "target"))).get(0)) {
+			got.add(oi.getWorkspaceId() + "/" + oi.getObjectId() + "/" + oi.getVersion());
+		}
+		assertThat("correct referencing objects", got, is(expected));
+	}
+	
 	private Map<String, Object> withRef(Map<String, Object> map, long wsid,
 			int name, int ver) {
 		return withRef(map, wsid, "" + name, ver);
@@ -632,6 +833,148 @@ public class MongoInternalsTest {
 		assertDateisRecent(undelete);
 	}
 
+	@Test
+	public void cachedPermissionsMatchUncached() throws Exception {
+		WorkspaceUser owner = new WorkspaceUser("CPMUowner");
+		WorkspaceUser user = new WorkspaceUser("CPMUuser");
+		List<String> names = Arrays.asList("cpmuPriv", "cpmuRead",
+				"cpmuGlobal", "cpmuGlobalWrite");
+		for (String name: names) {
+			ws.createWorkspace(owner, name, name.startsWith("cpmuGlobal"),
+					null, null);
+		}
+		ws.setPermissions(owner, new WorkspaceIdentifier("cpmuRead"),
+				Arrays.asList(user), Permission.READ);
+		ws.setPermissions(owner, new WorkspaceIdentifier("cpmuGlobalWrite"),
+				Arrays.asList(user), Permission.WRITE);
+		Set<ResolvedWorkspaceID> rwsis = new HashSet<ResolvedWorkspaceID>();
+		for (String name: names) {
+			rwsis.add(mwdb.resolveWorkspace(new WorkspaceIdentifier(name)));
+		}
+		
+		ResourceUsageConfiguration oldcfg = ws.getResourceConfig();
+		try {
+			for (WorkspaceUser u: Arrays.asList(owner, user, null)) {
+				for (Permission perm: Arrays.asList(Permission.READ,
+						Permission.WRITE, Permission.ADMIN)) {
+					for (boolean excludeGlobal: Arrays.asList(true, false)) {
+						ws.setResourceConfig(oldcfg);
+						PermissionSet uncached = mwdb.getPermissions(
+								u, rwsis, perm, excludeGlobal);
+						ws.setResourceConfig(
+								new ResourceUsageConfigurationBuilder(oldcfg)
+								.withWorkspaceCacheTTL(600000).build());
+						String msg = "user " + u + ", perm " + perm +
+								", exclude global " + excludeGlobal;
+						assertThat("cache miss matches for " + msg,
+								mwdb.getPermissions(u, rwsis, perm,
+										excludeGlobal),
+								is(uncached));
+						assertThat("cache hit matches for " + msg,
+								mwdb.getPermissions(u, rwsis, perm,
+										excludeGlobal),
+								is(uncached));
+					}
+				}
+			}
+		} finally {
+			ws.setResourceConfig(oldcfg);
+		}
+	}
+	
+	@Test
+	public void cloneCancelled() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("u");
+		WorkspaceIdentifier src = new WorkspaceIdentifier("cloneCancelled");
+		ws.createWorkspace(user, src.getName(), false, null, null);
+		saveObjectsForClone(user, src, "obj1", "obj2", "obj3");
+		ResolvedWorkspaceID rsrc = mwdb.resolveWorkspace(src);
+		
+		CloneProgress cancelled = new CloneProgress();
+		cancelled.cancel();
+		mwdb.cloneWorkspace(user, rsrc, "cloneCancelled2", false, null,
+				null, cancelled);
+		assertThat("clone stopped", cancelled.isStopped(), is(true));
+		assertThat("no objects copied", cancelled.getCopiedObjects(), is(0L));
+		assertThat("clone deleted", mwdb.resolveWorkspace(
+				new WorkspaceIdentifier("cloneCancelled2"), true).isDeleted(),
+				is(true));
+		
+		// a cancel after the last object is copied doesn't stop the clone
+		CloneProgress late = new CloneProgress() {
+			
+			@Override
+			public void addCopiedObjects(long objects) {
+				super.addCopiedObjects(objects);
+				cancel();
+			}
+		};
+		mwdb.cloneWorkspace(user, rsrc, "cloneCancelled3", false, null,
+				null, late);
+		assertThat("clone not stopped", late.isStopped(), is(false));
+		assertThat("all objects copied", late.getCopiedObjects(), is(3L));
+		WorkspaceIdentifier clone = new WorkspaceIdentifier("cloneCancelled3");
+		assertThat("clone not deleted", mwdb.resolveWorkspace(clone, true)
+				.isDeleted(), is(false));
+		assertThat("objects cloned", ws.listObjects(user, Arrays.asList(clone),
+				null, null, null, null, null, null, false, false, false, false,
+				false, false, -1, -1).size(), is(3));
+	}
+	
+	@Test
+	public void cloneNameClash() throws Exception {
+		final WorkspaceUser user = new WorkspaceUser("u");
+		WorkspaceIdentifier src = new WorkspaceIdentifier("cloneNameClash");
+		ws.createWorkspace(user, src.getName(), false, null, null);
+		saveObjectsForClone(user, src, "obj1", "obj2", "obj3");
+		final WorkspaceIdentifier clone =
+				new WorkspaceIdentifier("cloneNameClash2");
+		// save an object to the new workspace after it's created but before
+		// the objects are copied, so the bulk insert clashes on its name
+		CloneProgress clash = new CloneProgress() {
+			
+			@Override
+			public void setTotalObjects(long objects) {
+				super.setTotalObjects(objects);
+				try {
+					saveObjectsForClone(user, clone, "obj2");
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		mwdb.cloneWorkspace(user, mwdb.resolveWorkspace(src), clone.getName(),
+				false, null, null, clash);
+		
+		List<ObjectInformation> info = ws.getObjectInformation(user,
+				Arrays.asList(new ObjectIdentifier(clone, "obj1"),
+						new ObjectIdentifier(clone, "obj2"),
+						new ObjectIdentifier(clone, "obj3")), false, false);
+		// the clone reserves its ids after the clashing object was saved
+		assertThat("correct id", info.get(0).getObjectId(), is(2L));
+		assertThat("correct version", info.get(0).getVersion(), is(1));
+		assertThat("cloned version added to existing object",
+				info.get(1).getObjectId(), is(1L));
+		assertThat("correct version", info.get(1).getVersion(), is(2));
+		assertThat("correct id", info.get(2).getObjectId(), is(4L));
+		assertThat("correct version", info.get(2).getVersion(), is(1));
+		assertThat("only one object named obj2", ws.listObjects(user,
+				Arrays.asList(clone), null, null, null, null, null, null,
+				false, false, false, false, false, false, -1, -1).size(),
+				is(3));
+	}
+	
+	private void saveObjectsForClone(WorkspaceUser user,
+			WorkspaceIdentifier wsi, String... names) throws Exception {
+		List<WorkspaceSaveObject> objs = new LinkedList<WorkspaceSaveObject>();
+		for (String name: names) {
+			objs.add(new WorkspaceSaveObject(new ObjectIDNoWSNoVer(name),
+					new UObject(new HashMap<String, Object>()), SAFE_TYPE,
+					null, new Provenance(user), false));
+		}
+		ws.saveObjects(user, wsi, objs, fac);
+	}
+	
 	private Date getDate(long wsid, int id) {
 		@SuppressWarnings("rawtypes")
 		Map obj = jdb.getCollection("workspaceObjects")
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -34,6 +35,7 @@ import us.kbase.common.service.Tuple7;
 import us.kbase.common.service.Tuple9;
 import us.kbase.common.service.UObject;
 import us.kbase.common.service.UnauthorizedException;
+import us.kbase.typedobj.core.TempFileListener;
 import us.kbase.workspace.AlterWorkspaceMetadataParams;
 import us.kbase.workspace.CloneWorkspaceParams;
 import us.kbase.workspace.CopyObjectParams;
@@ -627,6 +629,38 @@ public class JSONRPCLayerTest extends JSONRPCLayerTester {
 		return new String(chars);
 	}
 	
+	@Test
+	public void getStreamedObjectLargerThanMemoryLimit() throws Exception {
+		// server 2 streams objects and has a 24 byte returned data limit
+		String wsName = "streamlarge";
+		CLIENT_FOR_SRV2.createWorkspace(new CreateWorkspaceParams().withWorkspace(wsName));
+		String largeString = generateLargeString(100000);
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("thing", largeString);
+		CLIENT_FOR_SRV2.saveObjects(new SaveObjectsParams().withWorkspace(wsName)
+				.withObjects(Arrays.asList(new ObjectSaveData().withName("obj")
+						.withType("SomeModule.AType").withData(new UObject(data)))));
+		final List<File> created = new LinkedList<File>();
+		TempFileListener listener = new TempFileListener() {
+			
+			@Override
+			public void createdTempFile(File f) {
+				created.add(f);
+			}
+		};
+		SERVER2.getTempFilesManager().addListener(listener);
+		try {
+			List<ObjectData> ret = CLIENT_FOR_SRV2.getObjects(Arrays.asList(
+					new ObjectIdentity().withRef(wsName + "/obj")));
+			assertThat("incorrect object count", ret.size(), is(1));
+			assertThat("incorrect data", ret.get(0).getData().asClassInstance(Map.class)
+					.get("thing"), is((Object) largeString));
+		} finally {
+			SERVER2.getTempFilesManager().removeListener(listener);
+		}
+		assertThat("temp files were created", created.isEmpty(), is(true));
+	}
+	
 	@Test
 	public void saveAndGetObjects() throws Exception {
 		
@@ -2683,6 +2717,114 @@ public class JSONRPCLayerTest extends JSONRPCLayerTester {
 		
 		failAdmin(CLIENT1, cmd, "User " + USER1 + " is not an admin");
 	}
+	
+	@Test
+	public void adminStorageUsage() throws Exception {
+		CLIENT1.createWorkspace(new CreateWorkspaceParams()
+				.withWorkspace("adminStorageUsage"));
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("thing", "storage");
+		List<Tuple11<Long, String, String, String, Long, String, Long, String,
+				String, Long, Map<String, String>>> objs = CLIENT1.saveObjects(
+				new SaveObjectsParams().withWorkspace("adminStorageUsage")
+				.withObjects(Arrays.asList(new ObjectSaveData()
+						.withData(new UObject(data)).withType(SAFE_TYPE)
+						.withName("o1"))));
+		long size = objs.get(0).getE10();
+		
+		Map<String, Object> cmd = createData(
+				"{\"command\": \"getStorageUsage\", " +
+				"\"params\": {\"workspace\": \"adminStorageUsage\"}}");
+		Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("objects", 1);
+		expected.put("versions", 1);
+		expected.put("bytes", (int) size);
+		expected.put("deleted_objects", 0);
+		expected.put("deleted_versions", 0);
+		expected.put("deleted_bytes", 0);
+		Map<String, Object> usage = CLIENT2.administer(new UObject(cmd))
+				.asInstance();
+		assertThat("correct usage", usage, is(expected));
+		
+		CLIENT2.administer(new UObject(createData(
+				"{\"command\": \"recalculateStorageUsage\", " +
+				"\"params\": {\"workspace\": \"adminStorageUsage\"}}")));
+		usage = CLIENT2.administer(new UObject(cmd)).asInstance();
+		assertThat("correct usage after recalculation", usage, is(expected));
+		
+		failAdmin(CLIENT1, cmd, "User " + USER1 + " is not an admin");
+	}
+
+	@Test
+	public void adminListPages() throws Exception {
+		Map<String, String> meta = new HashMap<String, String>();
+		meta.put("adminListPages", "yes");
+		CLIENT1.createWorkspace(new CreateWorkspaceParams()
+				.withWorkspace("adminListPages1").withMeta(meta));
+		CLIENT1.createWorkspace(new CreateWorkspaceParams()
+				.withWorkspace("adminListPages2").withMeta(meta));
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("thing", "page");
+		List<ObjectSaveData> objs = new LinkedList<ObjectSaveData>();
+		for (int i = 1; i < 4; i++) {
+			objs.add(new ObjectSaveData().withData(new UObject(data))
+					.withType(SAFE_TYPE).withName("o" + i));
+		}
+		CLIENT1.saveObjects(new SaveObjectsParams()
+				.withWorkspace("adminListPages1").withObjects(objs));
+		
+		String wscmd = "{\"command\": \"listWorkspacesPage\", " +
+				"\"user\": \"" + USER1 + "\", " +
+				"\"params\": {\"meta\": {\"adminListPages\": \"yes\"}, " +
+				"\"limit\": 1";
+		Map<String, Object> page = CLIENT2.administer(new UObject(
+				createData(wscmd + "}}"))).asInstance();
+		List<List<Object>> ws = getList(page, "workspaces");
+		assertThat("correct workspace count", ws.size(), is(1));
+		assertThat("correct workspace", (String) ws.get(0).get(1),
+				is("adminListPages1"));
+		String token = (String) page.get("next");
+		assertThat("got token", token != null, is(true));
+		page = CLIENT2.administer(new UObject(createData(wscmd +
+				", \"token\": \"" + token + "\"}}"))).asInstance();
+		ws = getList(page, "workspaces");
+		assertThat("correct workspace count", ws.size(), is(1));
+		assertThat("correct workspace", (String) ws.get(0).get(1),
+				is("adminListPages2"));
+		token = (String) page.get("next");
+		page = CLIENT2.administer(new UObject(createData(wscmd +
+				", \"token\": \"" + token + "\"}}"))).asInstance();
+		assertThat("no more workspaces",
+				getList(page, "workspaces").size(), is(0));
+		assertThat("no more tokens", page.get("next"), is((Object) null));
+		
+		String objcmd = "{\"command\": \"listObjectsPage\", " +
+				"\"user\": \"" + USER1 + "\", " +
+				"\"params\": {\"workspaces\": [\"adminListPages1\"], " +
+				"\"limit\": 2";
+		page = CLIENT2.administer(new UObject(createData(objcmd + "}}")))
+				.asInstance();
+		List<List<Object>> o = getList(page, "objects");
+		assertThat("correct object count", o.size(), is(2));
+		assertThat("correct object", (String) o.get(0).get(1), is("o1"));
+		assertThat("correct object", (String) o.get(1).get(1), is("o2"));
+		token = (String) page.get("next");
+		page = CLIENT2.administer(new UObject(createData(objcmd +
+				", \"token\": \"" + token + "\"}}"))).asInstance();
+		o = getList(page, "objects");
+		assertThat("correct object count", o.size(), is(1));
+		assertThat("correct object", (String) o.get(0).get(1), is("o3"));
+		assertThat("no more tokens", page.get("next"), is((Object) null));
+		
+		failAdmin(CLIENT1, objcmd + "}}",
+				"User " + USER1 + " is not an admin");
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<List<Object>> getList(final Map<String, Object> page,
+			final String key) {
+		return (List<List<Object>>) page.get(key);
+	}
 
 	@Test
 	public void checkFloat() throws Exception {
@@ -191,7 +191,7 @@ public class JSONRPCLayerTester {
 		
 		SERVER1 = startupWorkspaceServer(mongohost,
 				mongoClient.getDB("JSONRPCLayerTester1"), 
-				"JSONRPCLayerTester1_types");
+				"JSONRPCLayerTester1_types", false);
 		int port = SERVER1.getServerPort();
 		System.out.println("Started test server 1 on port " + port);
 		try {
@@ -245,7 +245,7 @@ public class JSONRPCLayerTester {
 		
 		SERVER2 = startupWorkspaceServer(mongohost,
 				mongoClient.getDB("JSONRPCLayerTester2"), 
-				"JSONRPCLayerTester2_types");
+				"JSONRPCLayerTester2_types", true);
 		System.out.println("Started test server 2 on port " + SERVER2.getServerPort());
 		WorkspaceClient clientForSrv2 = new WorkspaceClient(new URL("http://localhost:" + 
 				SERVER2.getServerPort()), USER2, p2);
@@ -296,7 +296,7 @@ public class JSONRPCLayerTester {
 	}
 
 	private static WorkspaceServer startupWorkspaceServer(String mongohost,
-			DB db, String typedb)
+			DB db, String typedb, boolean streamObjects)
 			throws InvalidHostException, UnknownHostException, IOException,
 			NoSuchFieldException, IllegalAccessException, Exception,
 			InterruptedException {
@@ -316,6 +316,7 @@ public class JSONRPCLayerTester {
 		ws.add("backend-secret", "foo");
 		ws.add("ws-admin", USER2);
 		ws.add("temp-dir", Paths.get(WorkspaceTestCommon.getTempDir()).resolve("tempForJSONRPCLayerTester"));
+		ws.add("stream-objects", streamObjects);
 		ini.store(iniFile);
 		iniFile.deleteOnExit();
 		
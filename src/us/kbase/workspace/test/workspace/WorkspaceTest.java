@@ -48,6 +48,8 @@ import us.kbase.typedobj.exceptions.TypedObjectValidationException;
 import us.kbase.typedobj.idref.IdReferenceHandlerSetFactory;
 import us.kbase.typedobj.idref.IdReferenceType;
 import us.kbase.workspace.database.AllUsers;
+import us.kbase.workspace.database.CloneJob;
+import us.kbase.workspace.database.ContinuationToken;
 import us.kbase.workspace.database.ModuleInfo;
 import us.kbase.workspace.database.ObjectChain;
 import us.kbase.workspace.database.ObjectIDNoWSNoVer;
@@ -58,9 +60,11 @@ import us.kbase.workspace.database.Provenance;
 import us.kbase.workspace.database.Provenance.ExternalData;
 import us.kbase.workspace.database.Reference;
 import us.kbase.workspace.database.ResourceUsageConfigurationBuilder;
+import us.kbase.workspace.database.ResultPage;
 import us.kbase.workspace.database.WorkspaceSaveObject;
 import us.kbase.workspace.database.Provenance.ProvenanceAction;
 import us.kbase.workspace.database.ResourceUsageConfigurationBuilder.ResourceUsageConfiguration;
+import us.kbase.workspace.database.StorageUsage;
 import us.kbase.workspace.database.SubObjectIdentifier;
 import us.kbase.workspace.database.User;
 import us.kbase.workspace.database.WorkspaceIdentifier;
@@ -3504,6 +3508,207 @@ public class WorkspaceTest extends WorkspaceTester {
 		ws.setGlobalPermission(user1, clone4, Permission.NONE);
 	}
 
+	@Test
+	public void cloneWorkspaceInBackground() throws Exception {
+		WorkspaceUser user1 = new WorkspaceUser("foo");
+		WorkspaceUser user2 = new WorkspaceUser("bar");
+		
+		String ws1 = "bgclone1";
+		setUpCopyWorkspaces(user1, user2, "bgclonerefs", ws1, "bgcloneunused");
+		WorkspaceIdentifier cp1 = new WorkspaceIdentifier(ws1);
+		WorkspaceIdentifier clone1 = new WorkspaceIdentifier("newbgclone");
+		
+		CloneJob job = ws.startCloneWorkspace(user1, cp1, clone1.getName(), false, "desc", null);
+		waitForCloneJob(job);
+		assertThat("job complete", job.getState(), is(CloneJob.State.COMPLETE));
+		assertThat("correct total", job.getProgress().getTotalObjects(), is(3L));
+		assertThat("correct copied", job.getProgress().getCopiedObjects(), is(3L));
+		assertNull("no error", job.getError());
+		WorkspaceInformation info = job.getResult();
+		checkWSInfo(clone1, user1, "newbgclone", 3, Permission.OWNER, false, info.getId(),
+				info.getModDate(), "unlocked", MT_META);
+		
+		List<ObjectInformation> objs = ws.getObjectHistory(user1, new ObjectIdentifier(cp1, "orig"));
+		List<ObjectInformation> origobjs = ws.getObjectHistory(user1, new ObjectIdentifier(clone1, "orig"));
+		long id = origobjs.get(0).getObjectId();
+		compareObjectAndInfo(objs.get(0), origobjs.get(0), user1, info.getId(), clone1.getName(), id, "orig", 1);
+		compareObjectAndInfo(objs.get(1), origobjs.get(1), user1, info.getId(), clone1.getName(), id, "orig", 2);
+		compareObjectAndInfo(objs.get(2), origobjs.get(2), user1, info.getId(), clone1.getName(), id, "orig", 3);
+		
+		assertThat("got job", ws.getCloneJob(user1, job.getId()), is(job));
+		assertThat("admin got job", ws.getCloneJob(null, job.getId()), is(job));
+		assertTrue("job listed", ws.listCloneJobs(user1).contains(job));
+		assertFalse("job not listed", ws.listCloneJobs(user2).contains(job));
+		try {
+			ws.getCloneJob(user2, job.getId());
+			fail("got another user's clone job");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception", iae.getLocalizedMessage(),
+					is("No clone job with id " + job.getId()));
+		}
+		ws.cancelCloneJob(user1, job.getId());
+		assertThat("cancel doesn't change finished job", job.getState(), is(CloneJob.State.COMPLETE));
+		
+		CloneJob fail = ws.startCloneWorkspace(user1, cp1, clone1.getName(), false, null, null);
+		waitForCloneJob(fail);
+		assertThat("job failed", fail.getState(), is(CloneJob.State.FAILED));
+		assertThat("correct error", fail.getError().getLocalizedMessage(),
+				is("Workspace name newbgclone is already in use"));
+		assertNull("no result", fail.getResult());
+		
+		try {
+			ws.startCloneWorkspace(user2, cp1, "fakename", false, null, null);
+			fail("started clone without permission");
+		} catch (WorkspaceAuthorizationException wae) {
+			assertThat("correct exception", wae.getLocalizedMessage(),
+					is("User bar may not read workspace bgclone1"));
+		}
+	}
+	
+	private void waitForCloneJob(CloneJob job) throws Exception {
+		for (int i = 0; i < 600 && !job.isFinished(); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue("clone job finished", job.isFinished());
+	}
+
+	private List<String> listAllPages(WorkspaceUser user,
+			List<WorkspaceIdentifier> wsis, TypeDefId type,
+			Map<String, String> meta, int limit) throws Exception {
+		List<String> got = new LinkedList<String>();
+		String token = null;
+		do {
+			ResultPage<ObjectInformation> page = ws.listObjectsPage(user,
+					wsis, type, null, null, meta, null, null,
+					false, false, false, false, false, false, token, limit);
+			for (ObjectInformation oi: page.getResults()) {
+				got.add(oi.getWorkspaceName() + "/" + oi.getObjectName());
+			}
+			token = page.getNext() == null ? null : page.getNext().getToken();
+		} while (token != null);
+		return got;
+	}
+	
+	@Test
+	public void listPagesWithFilters() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("pagefilteruser");
+		WorkspaceIdentifier wsi1 = new WorkspaceIdentifier("pagefilter1");
+		WorkspaceIdentifier wsi2 = new WorkspaceIdentifier("pagefilter2");
+		ws.createWorkspace(user, wsi1.getName(), false, null, null);
+		ws.createWorkspace(user, wsi2.getName(), false, null, null);
+		Map<String, String> data = new HashMap<String, String>();
+		Map<String, String> meta = new HashMap<String, String>();
+		meta.put("page", "yes");
+		Provenance p = new Provenance(user);
+		ws.saveObjects(user, wsi1, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("t1"), data, SAFE_TYPE2, meta, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("o1"), data, SAFE_TYPE1, meta, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("t2"), data, SAFE_TYPE2, null, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("o2"), data, SAFE_TYPE1, null, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("t3"), data, SAFE_TYPE2, meta, p, false)),
+				getIdFactory(user));
+		ws.saveObjects(user, wsi2, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("o3"), data, SAFE_TYPE1, meta, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("t4"), data, SAFE_TYPE2, meta, p, false)),
+				getIdFactory(user));
+		List<WorkspaceIdentifier> wsis = Arrays.asList(wsi1, wsi2);
+		
+		// every page, not just the first, must apply the type filter
+		assertThat("correct typed objects", listAllPages(user, wsis, SAFE_TYPE2, null, 2),
+				is(Arrays.asList("pagefilter1/t1", "pagefilter1/t2", "pagefilter1/t3",
+						"pagefilter2/t4")));
+		assertThat("correct typed objects with metadata",
+				listAllPages(user, wsis, SAFE_TYPE2, meta, 1),
+				is(Arrays.asList("pagefilter1/t1", "pagefilter1/t3", "pagefilter2/t4")));
+		assertThat("correct objects with metadata", listAllPages(user, wsis, null, meta, 2),
+				is(Arrays.asList("pagefilter1/t1", "pagefilter1/o1", "pagefilter1/t3",
+						"pagefilter2/o3", "pagefilter2/t4")));
+	}
+	
+	@Test
+	public void listPages() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("pageuser");
+		WorkspaceIdentifier wsi1 = new WorkspaceIdentifier("page1");
+		WorkspaceIdentifier wsi2 = new WorkspaceIdentifier("page2");
+		WorkspaceIdentifier wsi3 = new WorkspaceIdentifier("page3");
+		long id1 = ws.createWorkspace(user, wsi1.getName(), false, null, null).getId();
+		ws.createWorkspace(user, wsi2.getName(), false, null, null);
+		long id3 = ws.createWorkspace(user, wsi3.getName(), false, null, null).getId();
+		ws.setWorkspaceDeleted(user, wsi2, true);
+		Map<String, String> data = new HashMap<String, String>();
+		Provenance p = new Provenance(user);
+		ws.saveObjects(user, wsi1, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("a"), data, SAFE_TYPE1, null, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("a"), data, SAFE_TYPE1, null, p, false),
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("b"), data, SAFE_TYPE1, null, p, false)),
+				getIdFactory(user));
+		ws.saveObjects(user, wsi3, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("c"), data, SAFE_TYPE1, null, p, false)),
+				getIdFactory(user));
+		
+		List<String> got = new LinkedList<String>();
+		String token = null;
+		int pages = 0;
+		do {
+			ResultPage<ObjectInformation> page = ws.listObjectsPage(user,
+					Arrays.asList(wsi1, wsi3), null, null, null, null, null, null,
+					false, false, false, true, false, false, token, 2);
+			for (ObjectInformation oi: page.getResults()) {
+				got.add(oi.getWorkspaceName() + "/" + oi.getObjectName() + "/" + oi.getVersion());
+			}
+			token = page.getNext() == null ? null : page.getNext().getToken();
+			pages++;
+		} while (token != null);
+		assertThat("correct objects in order", got,
+				is(Arrays.asList("page1/a/1", "page1/a/2", "page1/b/1", "page3/c/1")));
+		assertThat("correct page count", pages, is(3));
+		
+		ResultPage<ObjectInformation> old = ws.listObjectsPage(user,
+				Arrays.asList(wsi1), null, null, null, null, null, null,
+				false, false, false, false, false, false, null, 1);
+		assertThat("older version filtered", old.getResults().size(), is(0));
+		assertThat("correct token", old.getNext(), is(ContinuationToken.forObject(id1, 1, 1)));
+		ResultPage<ObjectInformation> latest = ws.listObjectsPage(user,
+				Arrays.asList(wsi1), null, null, null, null, null, null,
+				false, false, false, false, false, false, old.getNext().getToken(), 1);
+		assertThat("one object", latest.getResults().size(), is(1));
+		assertThat("correct object", latest.getResults().get(0).getObjectName(), is("a"));
+		assertThat("correct version", latest.getResults().get(0).getVersion(), is(2));
+		
+		List<Long> wsids = new LinkedList<Long>();
+		token = null;
+		do {
+			ResultPage<WorkspaceInformation> page = ws.listWorkspacesPage(user,
+					null, null, null, null, null, true, false, false, token, 1);
+			for (WorkspaceInformation wi: page.getResults()) {
+				wsids.add(wi.getId());
+			}
+			token = page.getNext() == null ? null : page.getNext().getToken();
+		} while (token != null);
+		assertThat("correct workspaces in order", wsids, is(Arrays.asList(id1, id3)));
+		
+		try {
+			ws.listWorkspacesPage(user, null, null, null, null, null, true,
+					false, false, ContinuationToken.forObject(1, 1, 1).getToken(), 1);
+			fail("listed workspaces with object token");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception", iae.getLocalizedMessage(),
+					is("The continuation token " + ContinuationToken.forObject(1, 1, 1).getToken() +
+							" is not for a list of workspaces"));
+		}
+		try {
+			ws.listObjectsPage(user, Arrays.asList(wsi1), null, null, null, null,
+					null, null, false, false, false, false, false, false, "bad token", 1);
+			fail("listed objects with bad token");
+		} catch (IllegalArgumentException iae) {
+			assertThat("correct exception", iae.getLocalizedMessage(),
+					is("Invalid continuation token: bad token"));
+		}
+		assertThat("token round trips", ContinuationToken.parse(
+				ContinuationToken.forObject(3, 4, 5).getToken()),
+				is(ContinuationToken.forObject(3, 4, 5)));
+	}
+	
 	@Test
 	public void lockWorkspace() throws Exception {
 		WorkspaceUser user = new WorkspaceUser("lockuser");
@@ -5312,6 +5517,441 @@ public class WorkspaceTest extends WorkspaceTester {
 				is(md5));
 	}
 	
+	@Test
+	public void saveObjectsConcurrently() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("SOCuser");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("saveObjectsConcurrently");
+		ws.createWorkspace(user, wsi.getIdentifierString(), false, null, null);
+		TypeDefId reftype = new TypeDefId(new TypeDefName("CopyRev", "RefType"), 1, 0);
+		Provenance p = new Provenance(user);
+		ResourceUsageConfiguration oldcfg = ws.getResourceConfig();
+		ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+				.withSaveObjectsThreads(4).build());
+		try {
+			List<WorkspaceSaveObject> objs = new ArrayList<WorkspaceSaveObject>();
+			for (int i = 0; i < 20; i++) {
+				Map<String, Object> data = new HashMap<String, Object>();
+				data.put("foo" + i, "bar" + i);
+				objs.add(new WorkspaceSaveObject(new ObjectIDNoWSNoVer("obj" + i),
+						data, SAFE_TYPE1, null, p, false));
+			}
+			List<ObjectInformation> objinfo = ws.saveObjects(user, wsi, objs,
+					getIdFactory(user));
+			for (int i = 0; i < 20; i++) {
+				assertThat("object order maintained",
+						objinfo.get(i).getObjectName(), is("obj" + i));
+			}
+			
+			Map<String, Object> refdata = new HashMap<String, Object>();
+			refdata.put("refs", Arrays.asList(wsi.getName() + "/obj3/1"));
+			Map<String, Object> badref = new HashMap<String, Object>();
+			badref.put("refs", Arrays.asList(""));
+			failSave(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(refdata, reftype, null, p, false),
+					new WorkspaceSaveObject(badref, reftype, null, p, false),
+					new WorkspaceSaveObject(refdata, new TypeDefId("NoModHere.Foo"),
+							null, p, false)),
+					new TypedObjectValidationException(
+							"Object #2 failed type checking:\nUnparseable id  of type ws: IDs may not be null or the empty string at /refs/0"));
+			failSave(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(refdata, reftype, null, p, false),
+					new WorkspaceSaveObject(refdata, new TypeDefId("NoModHere.Foo"),
+							null, p, false),
+					new WorkspaceSaveObject(badref, reftype, null, p, false)),
+					new TypedObjectValidationException(
+							"Object #2 failed type checking:\nModule doesn't exist: NoModHere"));
+			
+			objinfo = ws.saveObjects(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(refdata, reftype, null, p, false),
+					new WorkspaceSaveObject(refdata, reftype, null, p, false)),
+					getIdFactory(user));
+			assertThat("correct object count", objinfo.size(), is(2));
+		} finally {
+			ws.setResourceConfig(oldcfg);
+		}
+	}
+	
+	private String getSaveError(WorkspaceUser user, WorkspaceIdentifier wsi,
+			List<WorkspaceSaveObject> objs) throws Exception {
+		try {
+			ws.saveObjects(user, wsi, objs, getIdFactory(user));
+			fail("saved invalid objects");
+		} catch (TypedObjectValidationException tove) {
+			return tove.getLocalizedMessage();
+		}
+		return null;
+	}
+	
+	@Test
+	public void saveObjectsConcurrentlyErrors() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("SOCEuser");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("saveObjectsConcurrentlyErrors");
+		ws.createWorkspace(user, wsi.getIdentifierString(), false, null, null);
+		TypeDefId reftype = new TypeDefId(new TypeDefName("CopyRev", "RefType"), 1, 0);
+		Provenance p = new Provenance(user);
+		Map<String, Object> refdata = new HashMap<String, Object>();
+		refdata.put("refs", new LinkedList<String>());
+		ws.saveObjects(user, wsi, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("target"), refdata,
+						reftype, null, p, false)), getIdFactory(user));
+		// bad ids interleaved with schema errors, with more errors than are reported
+		List<Object> refs = new LinkedList<Object>();
+		for (int i = 0; i < 8; i++) {
+			refs.add(i % 2 == 0 ? "" : wsi.getName() + "/target");
+			refs.add(i);
+		}
+		Map<String, Object> bad = new HashMap<String, Object>();
+		bad.put("refs", refs);
+		List<Object> fewrefs = new LinkedList<Object>(refs.subList(0, 4));
+		Map<String, Object> fewbad = new HashMap<String, Object>();
+		fewbad.put("refs", fewrefs);
+		Map<String, Object> good = new HashMap<String, Object>();
+		good.put("refs", Arrays.asList(wsi.getName() + "/target"));
+		
+		for (Map<String, Object> data: Arrays.asList(bad, fewbad)) {
+			List<WorkspaceSaveObject> objs = Arrays.asList(
+					new WorkspaceSaveObject(good, reftype, null, p, false),
+					new WorkspaceSaveObject(data, reftype, null, p, false),
+					new WorkspaceSaveObject(data, reftype, null, p, false));
+			ResourceUsageConfiguration oldcfg = ws.getResourceConfig();
+			String serial;
+			String concurrent;
+			try {
+				ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+						.withSaveObjectsThreads(1).build());
+				serial = getSaveError(user, wsi, objs);
+				ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+						.withSaveObjectsThreads(4).build());
+				concurrent = getSaveError(user, wsi, objs);
+			} finally {
+				ws.setResourceConfig(oldcfg);
+			}
+			assertThat("same errors when saving concurrently", concurrent, is(serial));
+			assertTrue("id errors reported", serial.contains("Unparseable id"));
+			assertTrue("schema errors reported", serial.contains("at /refs/1"));
+		}
+	}
+	
+	@Test
+	public void saveBatchNameClash() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("SBNCuser");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("saveBatchNameClash");
+		ws.createWorkspace(user, wsi.getName(), false, null, null);
+		Provenance p = new Provenance(user);
+		Map<String, Object> data = new HashMap<String, Object>();
+		// takes the name the next unnamed object would be given
+		ws.saveObjects(user, wsi, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer("auto2"), data,
+						SAFE_TYPE1, null, p, false)),
+				getIdFactory(user));
+		// the bulk insert of the new objects clashes on auto2, so that
+		// object falls back to the single object save
+		List<ObjectInformation> objinfo = ws.saveObjects(user, wsi,
+				Arrays.asList(
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false),
+					new WorkspaceSaveObject(new ObjectIDNoWSNoVer("auto2"),
+							data, SAFE_TYPE1, null, p, false),
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false)),
+				getIdFactory(user));
+		assertThat("correct id", objinfo.get(0).getObjectId(), is(2L));
+		assertThat("correct name", objinfo.get(0).getObjectName(),
+				is("auto2-1"));
+		assertThat("correct version", objinfo.get(0).getVersion(), is(1));
+		assertThat("correct id", objinfo.get(1).getObjectId(), is(1L));
+		assertThat("correct name", objinfo.get(1).getObjectName(),
+				is("auto2"));
+		assertThat("correct version", objinfo.get(1).getVersion(), is(2));
+		assertThat("correct id", objinfo.get(2).getObjectId(), is(3L));
+		assertThat("correct name", objinfo.get(2).getObjectName(),
+				is("auto3"));
+		assertThat("correct version", objinfo.get(2).getVersion(), is(1));
+		
+		List<ObjectInformation> stored = ws.getObjectInformation(user,
+				Arrays.asList(new ObjectIdentifier(wsi, 1),
+						new ObjectIdentifier(wsi, 2),
+						new ObjectIdentifier(wsi, 3)), false, false);
+		assertThat("correct stored name", stored.get(0).getObjectName(),
+				is("auto2"));
+		assertThat("correct stored name", stored.get(1).getObjectName(),
+				is("auto2-1"));
+		assertThat("correct stored name", stored.get(2).getObjectName(),
+				is("auto3"));
+	}
+	
+	@Test
+	public void objectIDBlocks() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("OIDBuser");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("objIDBlocks");
+		ResourceUsageConfiguration oldcfg = ws.getResourceConfig();
+		ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+				.withObjectIDBlockSize(5).build());
+		try {
+			ws.createWorkspace(user, wsi.getName(), false, null, null);
+			Provenance p = new Provenance(user);
+			Map<String, Object> data = new HashMap<String, Object>();
+			List<ObjectInformation> objinfo = ws.saveObjects(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false),
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false)),
+					getIdFactory(user));
+			assertThat("correct id", objinfo.get(0).getObjectId(), is(1L));
+			assertThat("correct id", objinfo.get(1).getObjectId(), is(2L));
+			// the approximate object count includes the reserved ids
+			assertThat("ids reserved", ws.getWorkspaceInformation(user, wsi)
+					.getApproximateObjects(), is(5L));
+			
+			objinfo = ws.saveObjects(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false)),
+					getIdFactory(user));
+			assertThat("id from block", objinfo.get(0).getObjectId(), is(3L));
+			assertThat("no new ids reserved", ws.getWorkspaceInformation(user, wsi)
+					.getApproximateObjects(), is(5L));
+			
+			// ids for one save are contiguous, so the rest of the block is skipped
+			List<WorkspaceSaveObject> objs = new ArrayList<WorkspaceSaveObject>();
+			for (int i = 0; i < 4; i++) {
+				objs.add(new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false));
+			}
+			objinfo = ws.saveObjects(user, wsi, objs, getIdFactory(user));
+			for (int i = 0; i < 4; i++) {
+				assertThat("correct id", objinfo.get(i).getObjectId(), is(6L + i));
+			}
+			assertThat("ids reserved", ws.getWorkspaceInformation(user, wsi)
+					.getApproximateObjects(), is(10L));
+			
+			ws.copyObject(user, new ObjectIdentifier(wsi, 1),
+					new ObjectIdentifier(wsi, "copy"));
+			assertThat("copy id from block", ws.getObjectInformation(user,
+					Arrays.asList(new ObjectIdentifier(wsi, "copy")), false,
+					false).get(0).getObjectId(), is(10L));
+			
+			// changing the block size abandons the reserved ids
+			ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+					.withObjectIDBlockSize(1).build());
+			objinfo = ws.saveObjects(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false)),
+					getIdFactory(user));
+			assertThat("correct id", objinfo.get(0).getObjectId(), is(11L));
+			assertThat("ids reserved", ws.getWorkspaceInformation(user, wsi)
+					.getApproximateObjects(), is(11L));
+		} finally {
+			ws.setResourceConfig(oldcfg);
+		}
+	}
+	
+	@Test
+	public void bufferedModificationDates() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("BMDuser");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("bufModDates");
+		ResourceUsageConfiguration oldcfg = ws.getResourceConfig();
+		ws.createWorkspace(user, wsi.getName(), false, null, null);
+		Date created = ws.getWorkspaceInformation(user, wsi).getModDate();
+		ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+				.withWorkspaceModDateFlushInterval(1000000).build());
+		Date buffered;
+		try {
+			Thread.sleep(10);
+			Provenance p = new Provenance(user);
+			Map<String, Object> data = new HashMap<String, Object>();
+			ws.saveObjects(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false)),
+					getIdFactory(user));
+			buffered = ws.getWorkspaceInformation(user, wsi).getModDate();
+			assertTrue("buffered date visible", buffered.after(created));
+			Thread.sleep(10);
+			ws.saveObjects(user, wsi, Arrays.asList(
+					new WorkspaceSaveObject(data, SAFE_TYPE1, null, p, false)),
+					getIdFactory(user));
+			Date buffered2 = ws.getWorkspaceInformation(user, wsi).getModDate();
+			assertTrue("latest buffered date visible", buffered2.after(buffered));
+			buffered = buffered2;
+		} finally {
+			// switching to strict mode writes the buffered dates
+			ws.setResourceConfig(oldcfg);
+		}
+		assertThat("buffered date written", ws.getWorkspaceInformation(user, wsi)
+				.getModDate(), is(buffered));
+	}
+	
+	private ObjectInformation saveThing(WorkspaceUser user,
+			WorkspaceIdentifier wsi, String name, String thing)
+			throws Exception {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("thing", thing);
+		return ws.saveObjects(user, wsi, Arrays.asList(
+				new WorkspaceSaveObject(new ObjectIDNoWSNoVer(name), data,
+						SAFE_TYPE1, null, new Provenance(user), false)),
+				getIdFactory(user)).get(0);
+	}
+	
+	private void checkUsage(WorkspaceIdentifier wsi, StorageUsage expected)
+			throws Exception {
+		assertThat("correct usage", ws.getStorageUsage(wsi), is(expected));
+		ws.recalculateStorageUsage(wsi);
+		assertThat("incremental usage matches calculated usage",
+				ws.getStorageUsage(wsi), is(expected));
+	}
+	
+	@Test
+	public void storageUsage() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("SUuser");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("storageUsage");
+		ws.createWorkspace(user, wsi.getName(), false, null, null);
+		checkUsage(wsi, new StorageUsage(0, 0, 0, 0, 0, 0));
+		
+		long s1 = saveThing(user, wsi, "o1", "a").getSize();
+		long s2 = saveThing(user, wsi, "o2", "bbbbbbbbbb").getSize();
+		long s3 = saveThing(user, wsi, "o1", "ccccc").getSize();
+		checkUsage(wsi, new StorageUsage(2, 3, s1 + s2 + s3, 0, 0, 0));
+		
+		// copies all the versions to a new object
+		ws.copyObject(user, new ObjectIdentifier(wsi, "o1"),
+				new ObjectIdentifier(wsi, "copy"));
+		ws.revertObject(user, new ObjectIdentifier(wsi, "o2", 1));
+		long live = 2 * (s1 + s3) + 2 * s2;
+		checkUsage(wsi, new StorageUsage(3, 6, live, 0, 0, 0));
+		
+		ws.setObjectsDeleted(user, Arrays.asList(
+				new ObjectIdentifier(wsi, "o1")), true);
+		checkUsage(wsi, new StorageUsage(2, 4, live - s1 - s3, 1, 2, s1 + s3));
+		ws.setObjectsDeleted(user, Arrays.asList(
+				new ObjectIdentifier(wsi, "copy")), true);
+		checkUsage(wsi, new StorageUsage(1, 2, 2 * s2, 2, 4, 2 * (s1 + s3)));
+		ws.setObjectsDeleted(user, Arrays.asList(
+				new ObjectIdentifier(wsi, "copy")), false);
+		checkUsage(wsi, new StorageUsage(2, 4, live - s1 - s3, 1, 2, s1 + s3));
+		
+		// cloning copies the live objects only
+		ws.cloneWorkspace(user, wsi, "storageUsageClone", false, null, null);
+		checkUsage(new WorkspaceIdentifier("storageUsageClone"),
+				new StorageUsage(2, 4, live - s1 - s3, 0, 0, 0));
+		
+		StorageUsage total = new StorageUsage(4, 8, 2 * (live - s1 - s3),
+				1, 2, s1 + s3);
+		assertThat("correct user usage", ws.getStorageUsage(user, false),
+				is(total));
+		assertThat("correct deleted ws usage", ws.getStorageUsage(user, true),
+				is(new StorageUsage(0, 0, 0, 0, 0, 0)));
+		
+		ws.setWorkspaceDeleted(user, wsi, true);
+		checkUsage(wsi, new StorageUsage(0, 0, 0, 3, 6, live));
+		assertThat("correct user usage", ws.getStorageUsage(user, false),
+				is(new StorageUsage(2, 4, live - s1 - s3, 0, 0, 0)));
+		assertThat("correct deleted ws usage", ws.getStorageUsage(user, true),
+				is(new StorageUsage(0, 0, 0, 3, 6, live)));
+		// undeleting the workspace undeletes all the objects
+		ws.setWorkspaceDeleted(user, wsi, false);
+		checkUsage(wsi, new StorageUsage(3, 6, live, 0, 0, 0));
+		
+		Long unique = ws.getUniqueDataSize();
+		saveThing(user, wsi, "o3", "a brand new thing for storageUsage");
+		long s4 = saveThing(user, wsi, "o3",
+				"a brand new thing for storageUsage").getSize();
+		assertThat("unique data counted once", ws.getUniqueDataSize(),
+				is(unique + s4));
+	}
+	
+	@Test
+	public void workspaceCacheInvalidation() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("WCIuser");
+		WorkspaceUser user2 = new WorkspaceUser("WCIuser2");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("wsCacheInvalidation");
+		WorkspaceIdentifier wsi2 = new WorkspaceIdentifier("wsCacheInvalidation2");
+		ResourceUsageConfiguration oldcfg = ws.getResourceConfig();
+		ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+				.withWorkspaceCacheTTL(600000).build());
+		try {
+			long id = ws.createWorkspace(user, wsi.getName(), false, null, null)
+					.getId();
+			ws.getWorkspaceInformation(user, wsi);
+			failGetWorkspaceInfo(user2, wsi, "User WCIuser2 may not read workspace wsCacheInvalidation");
+			failGetWorkspaceInfo(null, wsi, "Anonymous users may not read workspace wsCacheInvalidation");
+			
+			ws.setPermissions(user, wsi, Arrays.asList(user2), Permission.READ);
+			assertThat("user can read", ws.getWorkspaceInformation(user2, wsi)
+					.getId(), is(id));
+			ws.setGlobalPermission(user, wsi, Permission.READ);
+			assertThat("anon can read", ws.getWorkspaceInformation(null, wsi)
+					.getId(), is(id));
+			ws.setGlobalPermission(user, wsi, Permission.NONE);
+			failGetWorkspaceInfo(null, wsi, "Anonymous users may not read workspace wsCacheInvalidation");
+			ws.setPermissions(user, wsi, Arrays.asList(user2), Permission.NONE);
+			failGetWorkspaceInfo(user2, wsi, "User WCIuser2 may not read workspace wsCacheInvalidation");
+			
+			ws.renameWorkspace(user, wsi, wsi2.getName());
+			assertThat("new name resolves", ws.getWorkspaceInformation(user, wsi2)
+					.getId(), is(id));
+			failGetWorkspaceInfo(user, wsi, "No workspace with name wsCacheInvalidation exists");
+			
+			ws.setWorkspaceDeleted(user, wsi2, true);
+			failGetWorkspaceInfo(user, wsi2, "Workspace wsCacheInvalidation2 is deleted");
+			ws.setWorkspaceDeleted(user, wsi2, false);
+			assertThat("undeleted", ws.getWorkspaceInformation(user, wsi2)
+					.getId(), is(id));
+		} finally {
+			ws.setResourceConfig(oldcfg);
+		}
+	}
+	
+	private void failGetWorkspaceInfo(WorkspaceUser user, WorkspaceIdentifier wsi,
+			String exp) throws Exception {
+		try {
+			ws.getWorkspaceInformation(user, wsi);
+			fail("got info for workspace");
+		} catch (Exception e) {
+			assertThat("correct exception message", e.getLocalizedMessage(),
+					is(exp));
+		}
+	}
+	
+	@Test
+	public void getObjectsConcurrently() throws Exception {
+		WorkspaceUser user = new WorkspaceUser("GOCuser");
+		WorkspaceIdentifier wsi = new WorkspaceIdentifier("getObjectsConcurrently");
+		ws.createWorkspace(user, wsi.getIdentifierString(), false, null, null);
+		Provenance p = new Provenance(user);
+		List<WorkspaceSaveObject> objs = new ArrayList<WorkspaceSaveObject>();
+		List<Map<String, Object>> datas = new ArrayList<Map<String,Object>>();
+		List<ObjectIdentifier> loi = new ArrayList<ObjectIdentifier>();
+		for (int i = 0; i < 20; i++) {
+			Map<String, Object> data = new HashMap<String, Object>();
+			// some objects share data
+			data.put("foo", "bar" + i % 7);
+			datas.add(data);
+			objs.add(new WorkspaceSaveObject(new ObjectIDNoWSNoVer("obj" + i),
+					data, SAFE_TYPE1, null, p, false));
+			loi.add(new ObjectIdentifier(wsi, "obj" + i));
+		}
+		ws.saveObjects(user, wsi, objs, getIdFactory(user));
+		ResourceUsageConfiguration oldcfg = ws.getResourceConfig();
+		ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+				.withBlobFetchThreads(4).withBlobFetchThreadsPerCall(3)
+				.build());
+		try {
+			List<WorkspaceObjectData> wods = ws.getObjects(user, loi);
+			for (int i = 0; i < 20; i++) {
+				assertThat("correct object", wods.get(i).getObjectInfo()
+						.getObjectName(), is("obj" + i));
+				assertThat("correct data", wods.get(i).getData(),
+						is((Object) datas.get(i)));
+				wods.get(i).getDataAsTokens().destroy();
+			}
+			
+			ws.setResourceConfig(new ResourceUsageConfigurationBuilder(oldcfg)
+					.withBlobFetchThreads(4).withMaxReturnedDataMemoryUsage(1)
+					.build());
+			wods = ws.getObjects(user, loi);
+			for (int i = 0; i < 20; i++) {
+				assertThat("correct data", wods.get(i).getData(),
+						is((Object) datas.get(i)));
+				wods.get(i).getDataAsTokens().destroy();
+			}
+			assertThat("temp files deleted",
+					ws.getTempFilesManager().isEmpty(), is(true));
+		} finally {
+			ws.setResourceConfig(oldcfg);
+		}
+	}
+	
 	@Test
 	public void maxObjectSize() throws Exception {
 		WorkspaceUser user = new WorkspaceUser("MOSuser");
@@ -5579,14 +6219,14 @@ public class WorkspaceTest extends WorkspaceTester {
 		ws.saveObjects(user, wsi, objs, getIdFactory(user));
 		
 		ws.setResourceConfig(build.withMaxRelabelAndSortMemoryUsage(maxmem - 1).build());
-		try {
-			ws.saveObjects(user, wsi, objs, getIdFactory(user));
-			fail("sorted w/ too little mem");
-		} catch (TypedObjectValidationException tove) {
-			assertThat("got correct exception", tove.getMessage(),
-					is("Object #2: Memory necessary for sorting map keys exceeds the limit " + 
-							(maxmem - 1) + " bytes at /"));
-		}
+		// the keys are sorted on disk rather than failing
+		ws.saveObjects(user, wsi, objs, getIdFactory(user));
+		WorkspaceObjectData o = ws.getObjects(
+				user, Arrays.asList(new ObjectIdentifier(wsi, 4))).get(0);
+		assertThat("data is sorted",
+				IOUtils.toString(o.getDataAsTokens().getJSON()),
+				is("{\"b\":\"d\",\"z\":\"a\"}"));
+		o.getDataAsTokens().destroy();
 		ws.setResourceConfig(oldcfg);
 	}
 }
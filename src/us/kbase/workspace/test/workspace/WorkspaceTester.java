@@ -51,7 +51,6 @@ import us.kbase.workspace.database.Workspace;
 import us.kbase.workspace.database.WorkspaceSaveObject;
 import us.kbase.workspace.database.Provenance.ProvenanceAction;
 import us.kbase.workspace.database.SubObjectIdentifier;
-import us.kbase.workspace.database.WorkspaceDatabase;
 import us.kbase.workspace.database.WorkspaceIdentifier;
 import us.kbase.workspace.database.WorkspaceInformation;
 import us.kbase.workspace.database.WorkspaceObjectData;
@@ -150,12 +149,14 @@ public class WorkspaceTester {
 			System.out.println("Skipping shock backend tests");
 			tests = Arrays.asList(new Object[][] {
 					{"mongo", "mongo", null},
-					{"mongoUseFile", "mongo", 1}
+					{"mongoUseFile", "mongo", 1},
+					{"filesystem", "filesystem", null}
 			});
 		} else {
 			tests = Arrays.asList(new Object[][] {
 					{"mongo", "mongo", null},
 					{"mongoUseFile", "mongo", 1},
+					{"filesystem", "filesystem", null},
 					{"shock", "shock", null}
 			});
 		}
@@ -197,6 +198,8 @@ public class WorkspaceTester {
 				configs.put(config, setUpShock(maxMemoryUsePerCall));
 			} else if("mongo".equals(backend)) {
 				configs.put(config, setUpMongo(maxMemoryUsePerCall));
+			} else if("filesystem".equals(backend)) {
+				configs.put(config, setUpFileSystem(maxMemoryUsePerCall));
 			} else {
 				throw new TestException("Unknown backend: " + config);
 			}
@@ -212,6 +215,17 @@ public class WorkspaceTester {
 		return setUpWorkspaces("gridFS", "foo", maxMemoryUsePerCall);
 	}
 	
+	private Workspace setUpFileSystem(Integer maxMemoryUsePerCall)
+			throws Exception {
+		MongoClient mongoClient = new MongoClient("localhost:" + mongo.getServerPort());
+		DB mongo = mongoClient.getDB("WorkspaceBackendTest");
+		WorkspaceTestCommon.initializeFileSystemWorkspaceDB(mongo,
+				new File(WorkspaceTestCommon.getTempDir(),
+						"WorkspaceBackendTest_blobs"),
+				"WorkspaceBackendTest_types");
+		return setUpWorkspaces("filesystem", "foo", maxMemoryUsePerCall);
+	}
+	
 	private Workspace setUpShock(Integer maxMemoryUsePerCall) throws Exception {
 		String shockuser = System.getProperty("test.user1");
 		String shockpwd = System.getProperty("test.pwd1");
@@ -248,9 +262,11 @@ public class WorkspaceTester {
 //				"WorkspaceBackendTest", shockpwd, "foo", "foo", tfm, 0);
 //		code to create wsdb with checking against perl typecomp
 		final String kidlpath = new Util().getKIDLpath();
-		WorkspaceDatabase wsdb = new MongoWorkspaceDB("localhost:" + mongo.getServerPort(), 
+		MongoWorkspaceDB wsdb = new MongoWorkspaceDB("localhost:" + mongo.getServerPort(), 
 				"WorkspaceBackendTest", shockpwd, "foo", "foo",
 				kidlpath, null, tfm);
+		// the unique data size is calculated in the background
+		wsdb.awaitMigrations();
 		Workspace work = new Workspace(wsdb,
 				new ResourceUsageConfigurationBuilder().build(),
 				new DefaultReferenceParser());
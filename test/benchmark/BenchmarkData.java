@@ -0,0 +1,184 @@
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import us.kbase.common.service.JsonTokenStream;
+import us.kbase.common.service.UObject;
+import us.kbase.typedobj.core.TypeDefId;
+import us.kbase.typedobj.core.TypeDefName;
+import us.kbase.typedobj.core.TypedObjectValidationReport;
+import us.kbase.typedobj.core.TypedObjectValidator;
+import us.kbase.typedobj.db.FileTypeStorage;
+import us.kbase.typedobj.db.TypeDefinitionDB;
+import us.kbase.typedobj.idref.IdReferenceHandlerSet;
+import us.kbase.typedobj.idref.IdReferenceHandlerSetFactory;
+import us.kbase.typedobj.idref.IdReferenceType;
+import us.kbase.typedobj.test.DummyIdHandlerFactory;
+
+/* Sets up a type database in a temporary directory and generates objects of
+ * an approximate size for the benchmarks.
+ *
+ * The generated objects are deliberately out of order - the mapping keys
+ * are in descending order and the structure fields are reversed - so that
+ * sorting has to do real work, and the mapping of ids contains ids as keys, so
+ * relabeling changes the keys.
+ */
+public class BenchmarkData {
+
+	public static final String MODULE = "Bench";
+	public static final String TYPE = "Genome";
+	public static final TypeDefId TYPE_ID =
+			new TypeDefId(new TypeDefName(MODULE, TYPE));
+
+	// the subset and metadata extraction limits used by the workspace
+	public static final long MAX_SUBSET_SIZE = 15000000;
+	public static final long MAX_METADATA_SIZE = 16000;
+
+	private static final String USER = "bench";
+	private static final int UNIQUE_IDS = 10;
+	private static final String SPEC =
+			"module " + MODULE + " {" +
+				"/* @id ws\n */" +
+				"typedef string ref;" +
+				"typedef structure {" +
+					"string id;" +
+					"string function;" +
+					"list<int> location;" +
+					"ref genome;" +
+				"} Feature;" +
+				"/*\n" +
+				"  @searchable ws_subset name,feature_count\n" +
+				"  @metadata ws name as Name\n" +
+				"  @metadata ws feature_count as Feature count\n" +
+				"  @metadata ws length(features) as Features\n" +
+				"*/" +
+				"typedef structure {" +
+					"string name;" +
+					"int feature_count;" +
+					"mapping<string, Feature> features;" +
+					"mapping<ref, string> refs;" +
+				"} " + TYPE + ";" +
+			"};";
+	private static final String FUNCTION =
+			"Phosphoribosylaminoimidazole-succinocarboxamide synthase " +
+			"(EC 6.3.2.6), putative";
+
+	private final File tempDir;
+	private final TypeDefinitionDB db;
+	private final TypedObjectValidator validator;
+	private final IdReferenceHandlerSetFactory handlerFactory;
+
+	public BenchmarkData() throws Exception {
+		tempDir = Files.createTempDirectory("wsbenchmark").toFile();
+		final File storage = new File(tempDir, "typestorage");
+		storage.mkdirs();
+		db = new TypeDefinitionDB(
+				new FileTypeStorage(storage.getAbsolutePath()),
+				tempDir, null, null);
+		db.requestModuleRegistration(MODULE, USER);
+		db.approveModuleRegistrationRequest(USER, MODULE, true);
+		db.registerModule(SPEC, Arrays.asList(TYPE), USER);
+		db.releaseModule(MODULE, USER, false);
+		validator = new TypedObjectValidator(db);
+
+		final Map<String, String> idmap = new HashMap<String, String>();
+		for (int i = 0; i < UNIQUE_IDS; i++) {
+			idmap.put(ref(i), (UNIQUE_IDS - i) + "/" + (i + 1) + "/1");
+		}
+		handlerFactory = new IdReferenceHandlerSetFactory(UNIQUE_IDS);
+		handlerFactory.addFactory(new DummyIdHandlerFactory(
+				new IdReferenceType("ws"), idmap));
+	}
+
+	public File getTempDir() {
+		return tempDir;
+	}
+
+	public TypedObjectValidator getValidator() {
+		return validator;
+	}
+
+	/** Validate an object and process its ids. */
+	public TypedObjectValidationReport validate(final File object)
+			throws Exception {
+		final IdReferenceHandlerSet<String> handlers =
+				handlerFactory.createHandlers(String.class)
+				.associateObject("obj");
+		final TypedObjectValidationReport rep = validator.validate(
+				new UObject(new JsonTokenStream(object), null), TYPE_ID,
+				handlers);
+		if (!rep.isInstanceValid()) {
+			throw new IllegalStateException("Invalid benchmark object: " +
+				rep.getErrorMessages());
+		}
+		handlers.processIDs();
+		return rep;
+	}
+
+	/** Write an object of approximately the given size in bytes. */
+	public File generateObject(final long size) throws IOException {
+		final File f = new File(tempDir, "object" + size + ".json");
+		final JsonFactory jf = new JsonFactory();
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final JsonGenerator sizer = jf.createGenerator(baos);
+		sizer.writeStartObject();
+		writeFeature(sizer, 0);
+		sizer.writeEndObject();
+		sizer.close();
+		final long features = Math.max(1, size / baos.size());
+
+		final OutputStream os = FileUtils.openOutputStream(f);
+		final JsonGenerator jgen = jf.createGenerator(os);
+		jgen.writeStartObject();
+		jgen.writeObjectFieldStart("refs");
+		for (int i = UNIQUE_IDS - 1; i >= 0; i--) {
+			jgen.writeStringField(ref(i), "ref " + i);
+		}
+		jgen.writeEndObject();
+		jgen.writeStringField("name", "Genome of size " + size);
+		jgen.writeObjectFieldStart("features");
+		for (long i = features - 1; i >= 0; i--) {
+			writeFeature(jgen, i);
+		}
+		jgen.writeEndObject();
+		jgen.writeNumberField("feature_count", features);
+		jgen.writeEndObject();
+		jgen.close();
+		return f;
+	}
+
+	private void writeFeature(final JsonGenerator jgen, final long i)
+			throws IOException {
+		final String id = String.format("kb|g.0.peg.%09d", i);
+		jgen.writeObjectFieldStart(id);
+		jgen.writeStringField("genome", ref((int) (i % UNIQUE_IDS)));
+		jgen.writeArrayFieldStart("location");
+		jgen.writeNumber(i * 1000);
+		jgen.writeNumber(i * 1000 + 999);
+		jgen.writeNumber(i % 2);
+		jgen.writeEndArray();
+		jgen.writeStringField("function", FUNCTION);
+		jgen.writeStringField("id", id);
+		jgen.writeEndObject();
+	}
+
+	private static String ref(final int i) {
+		return String.format("genome_%03d", i);
+	}
+
+	public void destroy() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+}
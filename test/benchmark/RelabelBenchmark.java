@@ -0,0 +1,64 @@
+package benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import us.kbase.typedobj.core.TypedObjectValidationReport;
+
+/* Benchmarks relabeling the ids in an object with the
+ * IdRefTokenSequenceProvider, which happens when the size of the relabeled
+ * object is calculated. The size is cached in the validation report, so each
+ * invocation needs a newly validated report. Validation isn't included in the
+ * measurement, but since the setup runs for every invocation, the results
+ * for the smallest object are less accurate than for the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4G", "-Xmx4G"})
+public class RelabelBenchmark {
+
+	@Param({"1000", "1000000", "50000000", "500000000"})
+	public long size;
+
+	private BenchmarkData data;
+	private File object;
+	private TypedObjectValidationReport report;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		data = new BenchmarkData();
+		object = data.generateObject(size);
+	}
+
+	@Setup(Level.Invocation)
+	public void validate() throws Exception {
+		report = data.validate(object);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		data.destroy();
+	}
+
+	@Benchmark
+	public long relabel() throws Exception {
+		return report.getRelabeledSize();
+	}
+}
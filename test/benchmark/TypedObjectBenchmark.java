@@ -0,0 +1,124 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import us.kbase.common.utils.sortjson.UTF8JsonSorterFactory;
+import us.kbase.typedobj.core.ExtractedSubsetAndMetadata;
+import us.kbase.typedobj.core.ObjectPaths;
+import us.kbase.typedobj.core.SubdataExtractor;
+import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.typedobj.core.TypedObjectValidationReport;
+
+/* Benchmarks the stages of the save and get_object_subset paths that process
+ * the object data: validation, sorting, subset and metadata extraction, and
+ * subdata extraction. Id relabeling is benchmarked separately in
+ * RelabelBenchmark since it can't be repeated on the same validation report.
+ *
+ * Run with ant benchmark. The largest objects need a large heap, which is set
+ * in the fork arguments below.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4G", "-Xmx4G"})
+public class TypedObjectBenchmark {
+
+	// sized so the largest objects can be sorted in memory
+	private static final UTF8JsonSorterFactory SORT_FAC =
+			new UTF8JsonSorterFactory(1000000000);
+	private static final ObjectPaths PATHS = new ObjectPaths(Arrays.asList(
+			"name", "features/*/location", "refs"));
+
+	/* 1KB to 500MB. The default maximum object size of the workspace is
+	 * 1GB, but larger objects than 500MB can't be sorted in memory in a
+	 * reasonably sized heap.
+	 */
+	@Param({"1000", "1000000", "50000000", "500000000"})
+	public long size;
+
+	private BenchmarkData data;
+	private File object;
+	private TypedObjectValidationReport report;
+	private TempFilesManager tfm;
+	private final JsonFactory factory = new JsonFactory();
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		data = new BenchmarkData();
+		object = data.generateObject(size);
+		report = data.validate(object);
+		report.getRelabeledSize();
+		final File temp = new File(data.getTempDir(), "sorttemp");
+		temp.mkdirs();
+		tfm = new TempFilesManager(temp);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		tfm.cleanup();
+		data.destroy();
+	}
+
+	@Benchmark
+	public TypedObjectValidationReport validate() throws Exception {
+		return data.validate(object);
+	}
+
+	@Benchmark
+	public TypedObjectValidationReport sortInMemory() throws Exception {
+		report.sort(SORT_FAC);
+		return report;
+	}
+
+	@Benchmark
+	public TypedObjectValidationReport sortWithTempFiles() throws Exception {
+		report.sort(SORT_FAC, tfm);
+		return report;
+	}
+
+	@Benchmark
+	public ExtractedSubsetAndMetadata extractSubsetAndMetadata()
+			throws Exception {
+		return report.extractSearchableWsSubsetAndMetadata(
+				BenchmarkData.MAX_SUBSET_SIZE,
+				BenchmarkData.MAX_METADATA_SIZE);
+	}
+
+	@Benchmark
+	public void extractSubdata() throws Exception {
+		final JsonParser jp = factory.createParser(
+				new FileInputStream(object));
+		final JsonGenerator jgen = factory.createGenerator(
+				new NullOutputStream());
+		try {
+			SubdataExtractor.extract(PATHS, jp, jgen);
+		} finally {
+			jgen.close();
+			jp.close();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.nocrala.tools.texttablefmt.Table;
+
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+import com.mongodb.gridfs.GridFS;
+
+import us.kbase.typedobj.core.MD5;
+import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.typedobj.core.Writable;
+import us.kbase.workspace.database.ByteArrayFileCacheManager;
+import us.kbase.workspace.database.ByteArrayFileCacheManager.ByteArrayFileCache;
+import us.kbase.workspace.database.mongo.BlobCodec;
+import us.kbase.workspace.database.mongo.GridFSBackend;
+import us.kbase.workspace.test.WorkspaceTestCommon;
+
+/* Compares blob save and retrieval throughput and the compression ratio for
+ * each blob codec, using the GridFS backend and the genome in
+ * test/performance. Also measures the throughput of the codecs alone, without
+ * the database, to show how much of the cost is compression.
+ *
+ * The database is wiped.
+ */
+public class BlobCompressionSpeedTest {
+
+	public static void main(String[] args) throws Exception {
+		String mongohost = args.length > 0 ? args[0] : "localhost";
+		int reps = 50;
+		String dbname = "blobCompressionSpeedTest"; // this will get wiped out
+		String objfile = "test/performance/83333.2.txt";
+
+		final byte[] data = FileUtils.readFileToByteArray(new File(objfile));
+		final MD5 md5 = new MD5(DigestUtils.md5Hex(data));
+		DB db = new MongoClient(mongohost).getDB(dbname);
+		WorkspaceTestCommon.destroyDB(db);
+		GridFS gfs = new GridFS(db);
+		TempFilesManager tfm = new TempFilesManager(
+				new File(WorkspaceTestCommon.getTempDir()));
+
+		Table tbl = new Table(6);
+		tbl.addCell("Codec");
+		tbl.addCell("Operation");
+		tbl.addCell("N");
+		tbl.addCell("MB/s");
+		tbl.addCell("Std dev (s)");
+		tbl.addCell("Ratio");
+		for (BlobCodec codec: BlobCodec.values()) {
+			GridFSBackend b = new GridFSBackend(db, codec);
+			List<Long> codecTimes = new LinkedList<Long>();
+			List<Long> saveTimes = new LinkedList<Long>();
+			List<Long> getTimes = new LinkedList<Long>();
+			for (int i = 0; i < reps; i++) {
+				long start = System.nanoTime();
+				OutputStream os = codec.compress(new NullOutputStream());
+				os.write(data);
+				os.close();
+				codecTimes.add(System.nanoTime() - start);
+
+				start = System.nanoTime();
+				b.saveBlob(md5, toWritable(data), true);
+				saveTimes.add(System.nanoTime() - start);
+
+				start = System.nanoTime();
+				ByteArrayFileCache bafc = b.getBlob(md5,
+						new ByteArrayFileCacheManager(100000000,
+								2000000000L, tfm));
+				getTimes.add(System.nanoTime() - start);
+				bafc.destroy();
+				if (i < reps - 1) {
+					b.removeBlob(md5);
+				}
+			}
+			double ratio = (double) data.length /
+					gfs.findOne(md5.getMD5()).getLength();
+			b.removeBlob(md5);
+			addRow(tbl, codec, "compress only", codecTimes, data.length,
+					ratio);
+			addRow(tbl, codec, "save", saveTimes, data.length, ratio);
+			addRow(tbl, codec, "get", getTimes, data.length, ratio);
+		}
+		System.out.println(String.format("Object size: %s bytes",
+				data.length));
+		System.out.println(tbl.render());
+	}
+
+	private static void addRow(Table tbl, BlobCodec codec, String op,
+			List<Long> times, int size, double ratio) {
+		PerformanceMeasurement pm = new PerformanceMeasurement(times);
+		tbl.addCell(codec.getName());
+		tbl.addCell(op);
+		tbl.addCell("" + pm.getN());
+		tbl.addCell(String.format("%,.1f",
+				size / pm.getAverageInSec() / 1000000));
+		tbl.addCell(String.format("%,.4f", pm.getStdDevInSec()));
+		tbl.addCell(String.format("%,.2f", ratio));
+	}
+
+	private static Writable toWritable(final byte[] data) {
+		return new Writable() {
+
+			@Override
+			public void write(OutputStream os) throws IOException {
+				os.write(data);
+			}
+
+			@Override
+			public void releaseResources() throws IOException {}
+		};
+	}
+}
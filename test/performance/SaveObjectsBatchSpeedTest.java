@@ -0,0 +1,142 @@
+package performance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.nocrala.tools.texttablefmt.Table;
+
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+
+import us.kbase.typedobj.core.TempFilesManager;
+import us.kbase.typedobj.core.TypeDefId;
+import us.kbase.typedobj.core.TypeDefName;
+import us.kbase.typedobj.idref.IdReferenceHandlerSetFactory;
+import us.kbase.workspace.database.ObjectIDNoWSNoVer;
+import us.kbase.workspace.database.Provenance;
+import us.kbase.workspace.database.ResourceUsageConfigurationBuilder;
+import us.kbase.workspace.database.Workspace;
+import us.kbase.workspace.database.WorkspaceIdentifier;
+import us.kbase.workspace.database.WorkspaceSaveObject;
+import us.kbase.workspace.database.WorkspaceUser;
+import us.kbase.workspace.database.mongo.MongoWorkspaceDB;
+import us.kbase.workspace.kbase.KBaseReferenceParser;
+import us.kbase.workspace.test.WorkspaceTestCommon;
+
+/* Measures the rate at which many small objects can be saved with
+ * saveObjects, for a range of objects per call. Each batch size saves new
+ * objects, overwrites existing objects, and saves multiple versions of the
+ * same objects.
+ *
+ * Run against two builds of the workspace to compare them.
+ *
+ * Uses the GridFS backend. The workspace and type databases are wiped.
+ */
+public class SaveObjectsBatchSpeedTest {
+
+	private static final String MODULE = "SomeModule";
+	private static final String TYPE = "AType";
+	private static final String SPEC =
+			"module SomeModule {" +
+				"typedef structure {" +
+					"string thing;" +
+				"} AType;" +
+			"};";
+
+	public static void main(String[] args) throws Exception {
+		String mongohost = args.length > 0 ? args[0] : "localhost";
+		int totalObjects = 5000;
+		List<Integer> batchSizes = Arrays.asList(1, 10, 100, 1000);
+		String wsDB = "saveObjectsBatchSpeedTest"; // this will get wiped out
+		String typeDB = "saveObjectsBatchSpeedTestTypes"; // this too
+
+		DB db = new MongoClient(mongohost).getDB(wsDB);
+		WorkspaceTestCommon.initializeGridFSWorkspaceDB(db, typeDB);
+		TempFilesManager tfm = new TempFilesManager(
+				new File(WorkspaceTestCommon.getTempDir()));
+		Workspace ws = new Workspace(
+				new MongoWorkspaceDB(mongohost, wsDB, "foo", tfm, 0),
+				new ResourceUsageConfigurationBuilder().build(),
+				new KBaseReferenceParser());
+
+		WorkspaceUser user = new WorkspaceUser("foo");
+		ws.requestModuleRegistration(user, MODULE);
+		ws.resolveModuleRegistration(MODULE, true);
+		ws.compileNewTypeSpec(user, SPEC, Arrays.asList(TYPE), null, null,
+				false, null);
+		ws.releaseTypes(user, MODULE);
+		TypeDefId td = new TypeDefId(new TypeDefName(MODULE, TYPE));
+
+		List<PerformanceMeasurement> pms =
+				new LinkedList<PerformanceMeasurement>();
+		for (int batch: batchSizes) {
+			WorkspaceIdentifier wsi = new WorkspaceIdentifier("batch" + batch);
+			ws.createWorkspace(user, wsi.getName(), false, null, null);
+			int calls = totalObjects / batch;
+			pms.add(measure(ws, user, wsi, td, batch, calls, Op.NEW));
+			pms.add(measure(ws, user, wsi, td, batch, calls, Op.OVERWRITE));
+			pms.add(measure(ws, user, wsi, td, batch, calls, Op.VERSIONS));
+		}
+		renderResults(pms);
+	}
+
+	private static enum Op {
+		NEW, OVERWRITE, VERSIONS
+	};
+
+	private static PerformanceMeasurement measure(Workspace ws,
+			WorkspaceUser user, WorkspaceIdentifier wsi, TypeDefId td,
+			int batch, int calls, Op op) throws Exception {
+		IdReferenceHandlerSetFactory fac = new IdReferenceHandlerSetFactory(1);
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("thing", "some text");
+		List<Long> perObject = new LinkedList<Long>();
+		for (int c = 0; c < calls; c++) {
+			List<WorkspaceSaveObject> objs =
+					new ArrayList<WorkspaceSaveObject>();
+			for (int i = 0; i < batch; i++) {
+				if (op == Op.NEW) {
+					objs.add(new WorkspaceSaveObject(data, td, null,
+							new Provenance(user), false));
+					continue;
+				}
+				final ObjectIDNoWSNoVer id;
+				if (op == Op.OVERWRITE) {
+					//objects saved in the NEW step
+					id = new ObjectIDNoWSNoVer(c * batch + i + 1);
+				} else {
+					//multiple versions of one object per call
+					id = new ObjectIDNoWSNoVer(c + 1);
+				}
+				objs.add(new WorkspaceSaveObject(id, data, td, null,
+						new Provenance(user), false));
+			}
+			long start = System.nanoTime();
+			ws.saveObjects(user, wsi, objs, fac);
+			perObject.add((System.nanoTime() - start) / batch);
+		}
+		return new PerformanceMeasurement(perObject, String.format(
+				"%s objects, %s per call", op, batch));
+	}
+
+	private static void renderResults(List<PerformanceMeasurement> pms) {
+		final int width = 4;
+		Table tbl = new Table(width);
+		tbl.addCell("Operation");
+		tbl.addCell("N calls");
+		tbl.addCell("Objects/s");
+		tbl.addCell("Std dev per object (s)");
+		for (PerformanceMeasurement pm: pms) {
+			tbl.addCell(pm.getName());
+			tbl.addCell("" + pm.getN());
+			tbl.addCell(String.format("%,.1f", 1 / pm.getAverageInSec()));
+			tbl.addCell(String.format("%,.6f", pm.getStdDevInSec()));
+		}
+		System.out.println(tbl.render());
+	}
+}